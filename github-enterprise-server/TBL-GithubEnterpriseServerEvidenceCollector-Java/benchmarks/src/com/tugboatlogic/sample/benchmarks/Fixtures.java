@@ -0,0 +1,287 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/*
+ * This class generates the JSON fixtures used by the benchmarks, shaped like the responses of Github Enterprise Server
+ * and including the fields which the collector does not bind:
+ *
+ * - github-search-N.json: a search result of N merged pull requests, as returned by /api/v3/search/issues
+ * - github-pulls-N.json: an array of N pull requests, each holding its details (/pulls/{number}), comments
+ *   (/issues/{number}/comments) and reviews (/pulls/{number}/reviews) as the collector fetches them
+ *
+ * The fixtures are generated from a fixed seed, so every run (and the baseline results) measures the same documents,
+ * and they are kept under target/fixtures so that they are only generated once.
+ */
+public class Fixtures {
+	// the folder the fixtures are generated into
+	private static final Path FIXTURES = Paths.get("target", "fixtures");
+
+	// the date format used by Github Enterprise Server
+	private static final DateTimeFormatter GITHUB_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+	private static final String BASE_URL = "https://github.contoso.com";
+	private static final String API_URL = BASE_URL + "/api/v3";
+	private static final String REPOSITORY = "contoso/platform";
+	private static final String[] ASSOCIATIONS = { "MEMBER", "COLLABORATOR", "CONTRIBUTOR", "OWNER" };
+	private static final String[] REVIEW_STATES = { "APPROVED", "COMMENTED", "CHANGES_REQUESTED" };
+	private static final String[] WORDS = { "update", "access", "review", "production", "firewall", "rule", "rotate",
+			"credentials", "deploy", "database", "migration", "service", "account", "audit", "logging", "policy" };
+
+	/*
+	 * Returns a Github Enterprise Server search result of a number of pull requests, generating it if needed
+	 */
+	public static synchronized Path GitHubSearch(int pullRequests) throws IOException {
+		Path fixture = FIXTURES.resolve("github-search-" + pullRequests + ".json");
+		if (Files.exists(fixture))
+			return fixture;
+
+		Path temporary = Temporary("github-search-");
+		Random random = new Random(pullRequests);
+		try (OutputStream out = Files.newOutputStream(temporary); JsonGenerator json = new JsonFactory().createGenerator(out)) {
+			json.writeStartObject();
+			json.writeNumberField("total_count", pullRequests);
+			json.writeBooleanField("incomplete_results", false);
+			json.writeArrayFieldStart("items");
+			for (int number = 1; number <= pullRequests; number++) {
+				LocalDateTime created = Created(number, random);
+
+				json.writeStartObject();
+				json.writeStringField("url", API_URL + "/repos/" + REPOSITORY + "/issues/" + number);
+				json.writeStringField("repository_url", API_URL + "/repos/" + REPOSITORY);
+				json.writeStringField("html_url", BASE_URL + "/" + REPOSITORY + "/pull/" + number);
+				json.writeNumberField("id", 100000 + number);
+				json.writeStringField("node_id", "MDExOlB1bGxSZXF1ZXN0" + number);
+				json.writeNumberField("number", number);
+				json.writeStringField("title", Sentence(random, 4 + random.nextInt(6)));
+				User(json, "user", random);
+				json.writeArrayFieldStart("labels");
+				json.writeEndArray();
+				json.writeStringField("state", "closed");
+				json.writeBooleanField("locked", false);
+				json.writeNumberField("comments", 2);
+				json.writeStringField("created_at", Format(created));
+				json.writeStringField("updated_at", Format(created.plusHours(3)));
+				json.writeStringField("closed_at", Format(created.plusHours(2)));
+				json.writeStringField("author_association", ASSOCIATIONS[random.nextInt(ASSOCIATIONS.length)]);
+				json.writeObjectFieldStart("pull_request");
+				json.writeStringField("url", API_URL + "/repos/" + REPOSITORY + "/pulls/" + number);
+				json.writeStringField("html_url", BASE_URL + "/" + REPOSITORY + "/pull/" + number);
+				json.writeStringField("diff_url", BASE_URL + "/" + REPOSITORY + "/pull/" + number + ".diff");
+				json.writeStringField("patch_url", BASE_URL + "/" + REPOSITORY + "/pull/" + number + ".patch");
+				json.writeEndObject();
+				json.writeStringField("body", Sentence(random, 20 + random.nextInt(40)));
+				json.writeNumberField("score", 1.0);
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		}
+
+		Files.move(temporary, fixture, StandardCopyOption.REPLACE_EXISTING);
+		return fixture;
+	}
+
+	/*
+	 * Returns the details, comments and reviews of a number of pull requests, generating them if needed
+	 */
+	public static synchronized Path GitHubPullRequests(int pullRequests) throws IOException {
+		Path fixture = FIXTURES.resolve("github-pulls-" + pullRequests + ".json");
+		if (Files.exists(fixture))
+			return fixture;
+
+		Path temporary = Temporary("github-pulls-");
+		Random random = new Random(pullRequests);
+		try (OutputStream out = Files.newOutputStream(temporary); JsonGenerator json = new JsonFactory().createGenerator(out)) {
+			json.writeStartArray();
+			for (int number = 1; number <= pullRequests; number++) {
+				LocalDateTime created = Created(number, random);
+				String pullUrl = API_URL + "/repos/" + REPOSITORY + "/pulls/" + number;
+				String htmlUrl = BASE_URL + "/" + REPOSITORY + "/pull/" + number;
+
+				json.writeStartObject();
+
+				// the details of the pull request
+				json.writeObjectFieldStart("pull_request");
+				json.writeStringField("url", pullUrl);
+				json.writeNumberField("id", 100000 + number);
+				json.writeStringField("node_id", "MDExOlB1bGxSZXF1ZXN0" + number);
+				json.writeStringField("html_url", htmlUrl);
+				json.writeStringField("diff_url", htmlUrl + ".diff");
+				json.writeStringField("patch_url", htmlUrl + ".patch");
+				json.writeStringField("issue_url", API_URL + "/repos/" + REPOSITORY + "/issues/" + number);
+				json.writeNumberField("number", number);
+				json.writeStringField("state", "closed");
+				json.writeBooleanField("locked", false);
+				json.writeStringField("title", Sentence(random, 4 + random.nextInt(6)));
+				User(json, "user", random);
+				json.writeStringField("body", Sentence(random, 20 + random.nextInt(40)));
+				json.writeStringField("created_at", Format(created));
+				json.writeStringField("updated_at", Format(created.plusHours(3)));
+				json.writeStringField("closed_at", Format(created.plusHours(2)));
+				json.writeStringField("merged_at", Format(created.plusHours(2)));
+				json.writeStringField("merge_commit_sha", Sha(random));
+				Ref(json, "head", "feature/" + number, random);
+				Ref(json, "base", "main", random);
+				json.writeObjectFieldStart("_links");
+				Link(json, "self", pullUrl);
+				Link(json, "html", htmlUrl);
+				Link(json, "issue", API_URL + "/repos/" + REPOSITORY + "/issues/" + number);
+				Link(json, "comments", API_URL + "/repos/" + REPOSITORY + "/issues/" + number + "/comments");
+				Link(json, "review_comments", pullUrl + "/comments");
+				Link(json, "commits", pullUrl + "/commits");
+				json.writeEndObject();
+				json.writeStringField("author_association", ASSOCIATIONS[random.nextInt(ASSOCIATIONS.length)]);
+				json.writeBooleanField("merged", true);
+				User(json, "merged_by", random);
+				json.writeNumberField("comments", 2);
+				json.writeNumberField("review_comments", 0);
+				json.writeNumberField("commits", 1 + random.nextInt(10));
+				json.writeNumberField("additions", random.nextInt(500));
+				json.writeNumberField("deletions", random.nextInt(200));
+				json.writeNumberField("changed_files", 1 + random.nextInt(20));
+				json.writeEndObject();
+
+				// the comments of the pull request
+				json.writeArrayFieldStart("comments");
+				for (int comment = 0; comment < 2; comment++) {
+					json.writeStartObject();
+					json.writeStringField("url", API_URL + "/repos/" + REPOSITORY + "/issues/comments/" + (number * 10 + comment));
+					json.writeStringField("html_url", htmlUrl + "#issuecomment-" + (number * 10 + comment));
+					json.writeNumberField("id", number * 10 + comment);
+					User(json, "user", random);
+					json.writeStringField("created_at", Format(created.plusMinutes(10 + comment * 20)));
+					json.writeStringField("updated_at", Format(created.plusMinutes(10 + comment * 20)));
+					json.writeStringField("author_association", ASSOCIATIONS[random.nextInt(ASSOCIATIONS.length)]);
+					json.writeStringField("body", Sentence(random, 5 + random.nextInt(30)));
+					json.writeEndObject();
+				}
+				json.writeEndArray();
+
+				// the reviews of the pull request
+				json.writeArrayFieldStart("reviews");
+				int reviews = 1 + random.nextInt(2);
+				for (int review = 0; review < reviews; review++) {
+					json.writeStartObject();
+					json.writeNumberField("id", number * 10 + review);
+					json.writeStringField("node_id", "MDE3OlB1bGxSZXF1ZXN0UmV2aWV3" + (number * 10 + review));
+					User(json, "user", random);
+					json.writeStringField("body", Sentence(random, random.nextInt(20)));
+					json.writeStringField("state", review == reviews - 1 ? "APPROVED" : REVIEW_STATES[random.nextInt(REVIEW_STATES.length)]);
+					json.writeStringField("html_url", htmlUrl + "#pullrequestreview-" + (number * 10 + review));
+					json.writeStringField("pull_request_url", pullUrl);
+					json.writeStringField("author_association", ASSOCIATIONS[random.nextInt(ASSOCIATIONS.length)]);
+					json.writeStringField("submitted_at", Format(created.plusMinutes(60 + review * 15)));
+					json.writeStringField("commit_id", Sha(random));
+					json.writeEndObject();
+				}
+				json.writeEndArray();
+
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+		}
+
+		Files.move(temporary, fixture, StandardCopyOption.REPLACE_EXISTING);
+		return fixture;
+	}
+
+	/*
+	 * Returns a temporary file to generate a fixture into, so an interrupted run does not leave half a fixture behind
+	 */
+	private static Path Temporary(String prefix) throws IOException {
+		Files.createDirectories(FIXTURES);
+		return Files.createTempFile(FIXTURES, prefix, ".tmp");
+	}
+
+	/*
+	 * Returns the creation date of a pull request, the pull requests are a few hours apart
+	 */
+	private static LocalDateTime Created(int number, Random random) {
+		return LocalDateTime.of(2021, 1, 1, 0, 0).plusMinutes(number * 180L + random.nextInt(180));
+	}
+
+	private static String Format(LocalDateTime timestamp) {
+		return timestamp.atOffset(ZoneOffset.UTC).format(GITHUB_DATE_FORMAT);
+	}
+
+	/*
+	 * Writes a Github Enterprise Server user, with the fields the collector skips
+	 */
+	private static void User(JsonGenerator json, String field, Random random) throws IOException {
+		String login = "user" + random.nextInt(500);
+		json.writeObjectFieldStart(field);
+		json.writeStringField("login", login);
+		json.writeNumberField("id", 1000 + login.hashCode() % 1000);
+		json.writeStringField("node_id", "MDQ6VXNlcj" + login);
+		json.writeStringField("avatar_url", BASE_URL + "/avatars/u/" + login);
+		json.writeStringField("url", API_URL + "/users/" + login);
+		json.writeStringField("html_url", BASE_URL + "/" + login);
+		json.writeStringField("type", "User");
+		json.writeBooleanField("site_admin", false);
+		json.writeEndObject();
+	}
+
+	/*
+	 * Writes the head or base of a pull request, along with its repository
+	 */
+	private static void Ref(JsonGenerator json, String field, String ref, Random random) throws IOException {
+		json.writeObjectFieldStart(field);
+		json.writeStringField("label", "contoso:" + ref);
+		json.writeStringField("ref", ref);
+		json.writeStringField("sha", Sha(random));
+		User(json, "user", random);
+		json.writeObjectFieldStart("repo");
+		json.writeNumberField("id", 4242);
+		json.writeStringField("node_id", "MDEwOlJlcG9zaXRvcnk0MjQy");
+		json.writeStringField("name", "platform");
+		json.writeStringField("full_name", REPOSITORY);
+		json.writeBooleanField("private", true);
+		json.writeStringField("html_url", BASE_URL + "/" + REPOSITORY);
+		json.writeStringField("url", API_URL + "/repos/" + REPOSITORY);
+		json.writeStringField("default_branch", "main");
+		json.writeEndObject();
+		json.writeEndObject();
+	}
+
+	private static void Link(JsonGenerator json, String field, String href) throws IOException {
+		json.writeObjectFieldStart(field);
+		json.writeStringField("href", href);
+		json.writeEndObject();
+	}
+
+	/*
+	 * Returns a random commit hash
+	 */
+	private static String Sha(Random random) {
+		StringBuilder sb = new StringBuilder(40);
+		for (int i = 0; i < 40; i++)
+			sb.append(Character.forDigit(random.nextInt(16), 16));
+		return sb.toString();
+	}
+
+	/*
+	 * Returns a sentence of random words
+	 */
+	private static String Sentence(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+}
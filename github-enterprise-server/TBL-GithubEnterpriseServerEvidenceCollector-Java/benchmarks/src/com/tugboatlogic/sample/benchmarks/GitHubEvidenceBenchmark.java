@@ -0,0 +1,234 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.tugboatlogic.sample.CsvHelper;
+import com.tugboatlogic.sample.EvidenceBuffer;
+import com.tugboatlogic.sample.JsonReaders;
+import com.tugboatlogic.sample.JsonRecordIterator;
+import com.tugboatlogic.sample.TugboatLogicHelper;
+import com.tugboatlogic.sample.models.GitHubPullRequestCommentsResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestReviewsResponseModel;
+
+/*
+ * This JMH benchmark measures each step a Github Enterprise Server pull request goes through in the collector, over the
+ * generated fixtures of 1,000, 10,000 and 100,000 pull requests:
+ *
+ * - ParseSearch: binding the items of a search result to the models, one at a time, as GitHubServerHelper does
+ * - ParsePullRequests: binding the details, comments and reviews of each pull request to the models
+ * - RenderCsv: generating the CSV evidence document of each pull request with CsvHelper
+ * - BuildMultipartBody: streaming the CSV evidence document of each pull request through the multipart body built by
+ *   TugboatLogicHelper
+ *
+ * Each operation handles the whole fixture, so the time is reported per fixture. The RecordProfiler reports the records
+ * per second, the memory allocated per record and the peak heap; the gc profiler the memory allocated per operation.
+ *
+ * Usage: mvn -B install in the collector project, then mvn -B compile exec:exec@jmh in this project, optionally with
+ * -Dbenchmark.jmh=GitHubEvidenceBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+public class GitHubEvidenceBenchmark {
+	/*
+	 * A pull request as the collector fetches it: its details, comments and reviews
+	 */
+	static class PullRequest {
+		GitHubPullRequestResponseModel details;
+		GitHubPullRequestCommentsResponseModel[] comments;
+		GitHubPullRequestReviewsResponseModel[] reviews;
+	}
+
+	/*
+	 * The generated fixtures of a number of pull requests
+	 */
+	@State(Scope.Benchmark)
+	public static class Fixture {
+		@Param({ "1000", "10000", "100000" })
+		public int pullRequests;
+
+		Path search;
+		Path pulls;
+
+		@Setup
+		public void Setup() throws IOException {
+			search = Fixtures.GitHubSearch(pullRequests);
+			pulls = Fixtures.GitHubPullRequests(pullRequests);
+		}
+	}
+
+	/*
+	 * The pull requests of the fixture, bound to the models
+	 */
+	@State(Scope.Benchmark)
+	public static class PullRequests {
+		List<PullRequest> pullRequests;
+
+		@Setup
+		public void Setup(Fixture fixture) throws IOException {
+			pullRequests = new ArrayList<>(fixture.pullRequests);
+			ReadPullRequests(fixture.pulls, pullRequests::add);
+		}
+	}
+
+	/*
+	 * The CSV evidence documents of the pull requests
+	 */
+	@State(Scope.Benchmark)
+	public static class Documents {
+		List<EvidenceBuffer> documents;
+
+		@Setup
+		public void Setup(PullRequests pullRequests) throws IOException, ParseException {
+			documents = new ArrayList<>(pullRequests.pullRequests.size());
+			for (PullRequest pullRequest : pullRequests.pullRequests)
+				documents.add(CsvHelper.CreateCsvDocument(null, pullRequest.details, pullRequest.comments, pullRequest.reviews));
+		}
+
+		@TearDown
+		public void TearDown() throws IOException {
+			for (EvidenceBuffer document : documents)
+				document.close();
+		}
+	}
+
+	@Benchmark
+	public void ParseSearch(Fixture fixture, Blackhole blackhole) throws IOException {
+		InputStream inputStream = new BufferedInputStream(Files.newInputStream(fixture.search), 64 * 1024);
+		try (var iterator = JsonRecordIterator.OfArrayField(inputStream, "items", JsonReaders.SEARCH_ITEM)) {
+			while (iterator.hasNext())
+				blackhole.consume(iterator.next());
+		}
+		RecordProfiler.Count(fixture.pullRequests);
+	}
+
+	@Benchmark
+	public void ParsePullRequests(Fixture fixture, Blackhole blackhole) throws IOException {
+		ReadPullRequests(fixture.pulls, blackhole::consume);
+		RecordProfiler.Count(fixture.pullRequests);
+	}
+
+	@Benchmark
+	public long RenderCsv(PullRequests pullRequests) throws IOException, ParseException {
+		long length = 0;
+		for (PullRequest pullRequest : pullRequests.pullRequests) {
+			try (EvidenceBuffer document = CsvHelper.CreateCsvDocument(null, pullRequest.details, pullRequest.comments, pullRequest.reviews)) {
+				length += document.Length();
+			}
+		}
+		RecordProfiler.Count(pullRequests.pullRequests.size());
+		return length;
+	}
+
+	@Benchmark
+	public long BuildMultipartBody(Documents documents) {
+		long length = 0;
+		for (EvidenceBuffer document : documents.documents)
+			length += Drain(TugboatLogicHelper.MultipartBody(UUID.randomUUID().toString(), document, "evidence.csv", "text/plain; charset=utf-8"));
+		RecordProfiler.Count(documents.documents.size());
+		return length;
+	}
+
+	/*
+	 * Reads the pull requests of a fixture one at a time, binding each part of them with the reader the collector uses for it
+	 */
+	private static void ReadPullRequests(Path pulls, Consumer<PullRequest> consumer) throws IOException {
+		InputStream inputStream = new BufferedInputStream(Files.newInputStream(pulls), 64 * 1024);
+		try (JsonParser parser = JsonReaders.PULL_REQUEST.createParser(inputStream)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY)
+				throw new IOException("Expected a JSON array of pull requests");
+
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				PullRequest pullRequest = new PullRequest();
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					parser.nextToken();
+					if (name.equals("pull_request"))
+						pullRequest.details = JsonReaders.PULL_REQUEST.readValue(parser);
+					else if (name.equals("comments"))
+						pullRequest.comments = ReadArray(parser, JsonReaders.COMMENT).toArray(new GitHubPullRequestCommentsResponseModel[0]);
+					else if (name.equals("reviews"))
+						pullRequest.reviews = ReadArray(parser, JsonReaders.REVIEW).toArray(new GitHubPullRequestReviewsResponseModel[0]);
+					else
+						parser.skipChildren();
+				}
+				consumer.accept(pullRequest);
+			}
+		}
+	}
+
+	/*
+	 * Reads the records of the array the parser is positioned on
+	 */
+	private static <T> List<T> ReadArray(JsonParser parser, ObjectReader recordReader) throws IOException {
+		List<T> records = new ArrayList<>();
+		while (parser.nextToken() == JsonToken.START_OBJECT)
+			records.add(recordReader.readValue(parser));
+		return records;
+	}
+
+	/*
+	 * Reads a request body the way the HTTP client sends it, returning the number of bytes read
+	 */
+	static long Drain(HttpRequest.BodyPublisher body) {
+		CompletableFuture<Long> done = new CompletableFuture<>();
+		body.subscribe(new Flow.Subscriber<ByteBuffer>() {
+			private long length;
+
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(ByteBuffer item) {
+				length += item.remaining();
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				done.completeExceptionally(throwable);
+			}
+
+			@Override
+			public void onComplete() {
+				done.complete(length);
+			}
+		});
+		return done.join();
+	}
+}
@@ -0,0 +1,94 @@
+package com.tugboatlogic.sample;
+
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * This class runs the sub-tasks forked by the workers of the fetch stage, e.g. to retrieve the comments and the reviews
+ * of a pull request in parallel.
+ *
+ * On a JDK 21 (or later) runtime every sub-task runs on its own virtual thread, so blocking HTTPS calls are cheap. On older
+ * runtimes a pool of daemon platform threads is used instead. The sub-tasks are not bounded here: each worker of the
+ * fetch stage only forks a couple of them and waits for them, so they are bounded by the number of fetch workers.
+ */
+public class BoundedExecutor implements AutoCloseable {
+	private final ExecutorService executor;
+
+	/*
+	 * @param name The name prefix of the worker threads
+	 */
+	public BoundedExecutor(String name) {
+		ExecutorService virtualExecutor = NewVirtualThreadExecutor(name);
+		this.executor = virtualExecutor != null ? virtualExecutor : Executors.newCachedThreadPool(NewDaemonThreadFactory(name));
+	}
+
+	/*
+	 * Forks a sub-task of the work item in progress on the calling thread
+	 */
+	public <T> CompletableFuture<T> Fork(Callable<T> task) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return task.call();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	/*
+	 * Waits for the sub-tasks in progress to complete and releases the worker threads
+	 *
+	 * @throws InterruptedIOException Thrown when interrupted while waiting, with the interrupt flag of the thread restored
+	 */
+	@Override
+	public void close() throws InterruptedIOException {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for the forked sub-tasks to complete");
+			interrupted.initCause(e);
+			throw interrupted;
+		}
+	}
+
+	/*
+	 * This helper method creates a virtual thread per task executor when the runtime supports it (JDK 21+). It is looked up
+	 * reflectively so that the collector still builds and runs on older JDKs, returning null when it isn't available.
+	 */
+	private static ExecutorService NewVirtualThreadExecutor(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+			Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// virtual threads are not available (or still a preview feature) on this runtime
+			return null;
+		}
+	}
+
+	/*
+	 * This helper method creates a factory for named daemon platform threads
+	 */
+	private static ThreadFactory NewDaemonThreadFactory(String name) {
+		AtomicLong counter = new AtomicLong();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,116 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/*
+ * This class stops calling an endpoint which keeps failing, so that an outage of Github Enterprise Server or Tugboat Logic
+ * fails the remaining requests straight away rather than having each of them wait for its own timeouts and retries.
+ *
+ * The breaker is closed while the endpoint responds. Once a number of requests in a row have failed (a network error,
+ * a timeout or a 5xx response), the breaker opens and every request to the endpoint is rejected with an OpenException for
+ * a while. After that a single request is let through as a probe (half open): if it succeeds the breaker closes again,
+ * and if it fails the breaker opens for another while.
+ *
+ * The HTTP transport keeps one breaker for each endpoint it calls.
+ */
+public class CircuitBreaker {
+	/*
+	 * Thrown instead of sending a request while the breaker of its endpoint is open
+	 */
+	public static class OpenException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		OpenException(String endpoint, Duration remaining) {
+			super(String.format("The circuit breaker for %s is open after repeated failures, it will let a request through again in %d ms", endpoint, remaining.toMillis()));
+		}
+	}
+
+	private final String endpoint;
+	private final int failureThreshold;
+	private final long openNanos;
+
+	// the number of requests in a row which have failed
+	private int consecutiveFailures;
+
+	// whether the breaker is open, until when it rejects every request (System.nanoTime), and whether a probe is in flight
+	private boolean open;
+	private long openUntil;
+	private boolean probing;
+
+	// the statistics of the breaker
+	private long opened;
+	private long rejected;
+
+	/*
+	 * @param endpoint The endpoint which the breaker protects, used in messages
+	 * @param failureThreshold The number of requests in a row which must fail for the breaker to open
+	 * @param openDuration How long the breaker rejects every request once open, before letting a probe through
+	 */
+	public CircuitBreaker(String endpoint, int failureThreshold, Duration openDuration) {
+		this.endpoint = endpoint;
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openNanos = openDuration.toNanos();
+	}
+
+	/*
+	 * Checks that a request may be sent, which must then be followed by a call to OnSuccess or OnFailure
+	 *
+	 * @throws OpenException if the breaker is open, or half open with a probe already in flight
+	 */
+	public synchronized void Check() throws OpenException {
+		if (!open)
+			return;
+
+		long now = System.nanoTime();
+		if (now < openUntil || probing) {
+			rejected++;
+			throw new OpenException(endpoint, Duration.ofNanos(Math.max(0, openUntil - now)));
+		}
+
+		// the breaker has been open long enough, let a single request through to find out whether the endpoint has recovered
+		probing = true;
+	}
+
+	/*
+	 * Records that the endpoint responded to a request
+	 */
+	public synchronized void OnSuccess() {
+		if (open)
+			System.out.println(String.format("Circuit breaker for %s closed, the endpoint has recovered", endpoint));
+
+		consecutiveFailures = 0;
+		open = false;
+		probing = false;
+	}
+
+	/*
+	 * Records that a request to the endpoint failed
+	 */
+	public synchronized void OnFailure() {
+		consecutiveFailures++;
+
+		// a failed probe opens the breaker again, otherwise it opens once enough requests in a row have failed
+		if (probing || (!open && consecutiveFailures >= failureThreshold)) {
+			open = true;
+			probing = false;
+			openUntil = System.nanoTime() + openNanos;
+			opened++;
+			System.out.println(String.format("Circuit breaker for %s opened after %d failures in a row, requests are rejected for %d ms", endpoint, consecutiveFailures, openNanos / 1_000_000));
+		}
+	}
+
+	/*
+	 * Returns how long the breaker keeps rejecting every request, or zero if it is closed or ready for a probe
+	 */
+	public synchronized Duration RemainingOpen() {
+		return open ? Duration.ofNanos(Math.max(0, openUntil - System.nanoTime())) : Duration.ZERO;
+	}
+
+	/*
+	 * Returns a one line summary of the statistics of the breaker
+	 */
+	public synchronized String Statistics() {
+		return String.format("Circuit breaker for %s: %s, opened %d times, %d requests rejected", endpoint, open ? "open" : "closed", opened, rejected);
+	}
+}
@@ -0,0 +1,171 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.tugboatlogic.sample.models.GitHubRepositoryResponseModel;
+
+/*
+ * This class is a target of a run: a repository whose pull requests are collected along with those of the other targets,
+ * through the same pipeline and over the same connections, while keeping its own high-water mark, local output folder
+ * and upload result. A target which fails does not fail the others.
+ *
+ * The targets are read from the GitHubServerTargets setting, a comma separated list of:
+ *  - repo:owner/name, a single repository
+ *  - org:owner, every repository of an organization, which are listed when the run starts (archived and disabled
+ *    repositories are left out, unless GitHubServerIncludeArchived is true)
+ *
+ * Each repository is collected with the GitHubServerQuery narrowed down to it by a repo: qualifier (which replaces any
+ * repo:, org: or user: qualifier of the GitHubServerQuery), and its evidence files are saved in a folder of its own under
+ * the LocalOutputPath. When the setting is empty, the GitHubServerQuery is collected on its own as a single target, just
+ * like a run has always done.
+ */
+public class CollectionTarget {
+	// the name of the target, e.g. owner/name
+	public final String name;
+	// the query of the target, along with the key of its high-water mark
+	public final String query;
+	public final String stateKey;
+	// the local output path of the evidence files of the target
+	public final String localOutputPath;
+
+	// the high-water mark of the previous run, and the start of the window collected by this run (incremental mode)
+	public CollectorState.Mark mark;
+	public OffsetDateTime since;
+	// whether nothing has changed since the previous run, in which case the target is not collected
+	public boolean unchanged;
+
+	// keeps track of the newest pull request of the target collected by this run
+	public final CollectorState.Tracker tracker = new CollectorState.Tracker();
+
+	// the batches of evidence files of the target, in a batch upload mode
+	public EvidenceBatcher batcher;
+
+	// the counters of the target
+	public final AtomicLong taken = new AtomicLong();
+	public final AtomicLong skipped = new AtomicLong();
+	public final AtomicLong uploaded = new AtomicLong();
+	private final List<Integer> evidenceIds = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	CollectionTarget(String name, String query, String stateKey, String localOutputPath) {
+		this.name = name;
+		this.query = query;
+		this.stateKey = stateKey;
+		this.localOutputPath = localOutputPath;
+	}
+
+	/*
+	 * Reads the targets of a run from the settings, listing the repositories of the organizations
+	 *
+	 * @param properties The application settings
+	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param query The query of the pull requests, which is narrowed down to each repository
+	 * @param localOutputPath The local output path, under which each repository gets a folder of its own
+	 * @throws IllegalArgumentException Thrown when a target is not valid
+	 */
+	public static List<CollectionTarget> Resolve(Properties properties, String endpointUrl, String accessToken, String query, String localOutputPath) throws IOException {
+		String setting = properties.getProperty("GitHubServerTargets", "").trim();
+		if (setting.isEmpty())
+			return List.of(new CollectionTarget("Github Enterprise Server", query, endpointUrl + " " + query, localOutputPath));
+
+		boolean includeArchived = Boolean.parseBoolean(properties.getProperty("GitHubServerIncludeArchived", "false").trim());
+
+		// the repositories by their lower case name, since Github Enterprise Server ignores the case of the names,
+		// a repository given both on its own and as part of its organization is collected once
+		Map<String, String> repositories = new LinkedHashMap<>();
+		for (String entry : setting.split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty())
+				continue;
+
+			if (entry.startsWith("org:")) {
+				String organization = entry.substring("org:".length()).trim();
+				int found = 0;
+				for (GitHubRepositoryResponseModel repository : GitHubServerHelper.ListGithubServerRepositories(endpointUrl, accessToken, organization)) {
+					if ((repository.archived || repository.disabled) && !includeArchived)
+						continue;
+					repositories.putIfAbsent(repository.full_name.toLowerCase(Locale.ROOT), repository.full_name);
+					found++;
+				}
+				System.out.println(String.format("Found %d repositories in the organization %s", found, organization));
+				continue;
+			}
+
+			String repository = entry.startsWith("repo:") ? entry.substring("repo:".length()).trim() : entry;
+			if (!repository.matches("[^/\\s]+/[^/\\s]+"))
+				throw new IllegalArgumentException(String.format("The target '%s' of GitHubServerTargets should be either repo:owner/name or org:owner", entry));
+			repositories.putIfAbsent(repository.toLowerCase(Locale.ROOT), repository);
+		}
+
+		// the query is narrowed down to each repository, so a repository, organization or user qualifier of its own is left out,
+		// since Github Enterprise Server would match the pull requests of either repository
+		String baseQuery = query.replaceAll("(?<!\\S)(repo|org|user):\\S+", "").replaceAll("\\s+", " ").trim();
+
+		List<CollectionTarget> targets = new ArrayList<>();
+		for (String repository : repositories.values()) {
+			String targetQuery = baseQuery + " repo:" + repository;
+			String targetOutputPath = localOutputPath;
+			if (localOutputPath != null && !localOutputPath.isEmpty()) {
+				targetOutputPath = Paths.get(localOutputPath, repository.replace('/', '-')).toString();
+				Files.createDirectories(Paths.get(targetOutputPath));
+			}
+			targets.add(new CollectionTarget(repository, targetQuery, endpointUrl + " " + targetQuery, targetOutputPath));
+		}
+		if (targets.isEmpty())
+			throw new IllegalArgumentException("GitHubServerTargets does not hold any repository to collect from");
+		return targets;
+	}
+
+	/*
+	 * Fails the target, the first failure is the one reported
+	 */
+	public void Fail(Exception e) {
+		if (failure.compareAndSet(null, e))
+			System.out.println(String.format("Collecting from %s failed, its other pull requests are skipped: %s", name, e.getMessage()));
+	}
+
+	/*
+	 * Returns the failure of the target, or null
+	 */
+	public Exception Failure() {
+		return failure.get();
+	}
+
+	/*
+	 * Records an evidence file of the target uploaded to Tugboat Logic
+	 */
+	public void Uploaded(int evidenceId) {
+		evidenceIds.add(evidenceId);
+	}
+
+	/*
+	 * Returns a one-line summary of the outcome of the target
+	 *
+	 * @param left The number of pull requests of the target left for the next run
+	 */
+	public String Statistics(long left) {
+		if (unchanged)
+			return String.format("%s: nothing has changed since %s", name, mark.watermark);
+
+		List<Integer> ids = new ArrayList<>(evidenceIds);
+		if (batcher != null)
+			ids.addAll(batcher.EvidenceIds());
+		String result = String.format("%s: %d pull requests taken, %d uploaded, %d unchanged, %d left for the next run, %d evidence files uploaded%s",
+				name, taken.get(), uploaded.get(), skipped.get(), left, ids.size(), ids.isEmpty() || ids.size() > 10 ? "" : " " + ids);
+		Exception e = failure.get();
+		return e == null ? result : result + ", failed: " + e.getMessage();
+	}
+}
@@ -0,0 +1,276 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * This class runs the collector as a long-running service, which collects the evidence on a cron-style schedule
+ * within a single JVM, rather than being started again (and warmed up again) for every collection.
+ *
+ * Everything which is shared between the helpers outlives a collection: the HTTP client and its pool of connections
+ * and TLS sessions, the HTTP cache, the pre-built JSON readers and writers, and the JIT-compiled code. The service is
+ * configured from the app.config file, or from the command line:
+ *  - ServiceSchedule: when to collect, as a cron-style schedule (see CronSchedule), e.g. "0 * * * *" for every hour
+ *  - ServiceTimeZone: the time zone of the schedule, the time zone of the system by default
+ *  - ServiceRunOnStart: whether to collect straight away when the service starts, rather than waiting for the schedule
+ *  - ServiceStatusPort, ServiceStatusHost: the address of the status endpoint, ServiceStatusPort left empty to disable it
+ *  - ServiceShutdownTimeoutSeconds: how long a shutdown waits for the collection in progress to drain
+ *
+ * The status endpoint answers /health with 200 while the service is up and its latest collection succeeded (503 otherwise),
+ * /status with the state of the service and of its latest collection as JSON, and /metrics with the Metrics.
+ *
+ * A schedule which never matches fails the service when it is created. Should the next collection still fail to be
+ * scheduled, the service reports itself unhealthy and Run throws an IllegalStateException, rather than idling forever.
+ *
+ * A shutdown (SIGTERM or Ctrl+C) stops the schedule, and asks the collection in progress to stop taking new records: the
+ * records it has already started on are still rendered and uploaded, and the shutdown waits for them before the JVM exits.
+ * A collection which is stopped early does not move the high-water mark, so the next collection picks up where it left off.
+ */
+public class CollectorService {
+	/*
+	 * A single collection, which should stop taking new records once it is asked to stop
+	 */
+	@FunctionalInterface
+	public interface Collection {
+		/*
+		 * @param stopRequested Tells whether the service is shutting down
+		 * @return Returns a short description of the outcome of the collection
+		 */
+		String Run(BooleanSupplier stopRequested) throws Exception;
+	}
+
+	private final Collection collection;
+	private final CronSchedule schedule;
+	private final boolean runOnStart;
+	private final String statusHost;
+	private final String statusPort;
+	private final Duration shutdownTimeout;
+	private final ZonedDateTime started = ZonedDateTime.now();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	// a single thread runs the collections, so that they never overlap
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "collector-service"));
+	private ScheduledFuture<?> nextCollection;
+	private HttpServer statusServer;
+
+	// the state of the service, and of its latest collection
+	private volatile String state = "idle";
+	private volatile boolean stopping;
+	private volatile ZonedDateTime nextRun;
+	private volatile ZonedDateTime lastStarted;
+	private volatile ZonedDateTime lastFinished;
+	private volatile String lastOutcome;
+	private volatile String lastError;
+	private volatile RuntimeException scheduleFailure;
+	private final AtomicLong runs = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	/*
+	 * @param properties The application settings
+	 * @param collection The collection to run on the schedule
+	 * @throws IllegalArgumentException Thrown when the schedule is not valid
+	 */
+	public CollectorService(Properties properties, Collection collection) {
+		String zone = properties.getProperty("ServiceTimeZone", "").trim();
+		this.collection = collection;
+		this.schedule = new CronSchedule(properties.getProperty("ServiceSchedule", "0 * * * *"), zone.isEmpty() ? ZoneId.systemDefault() : ZoneId.of(zone));
+		try {
+			// a schedule which never matches fails now, rather than once the first collection is done
+			schedule.Next(started);
+		} catch (IllegalStateException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+		this.runOnStart = Boolean.parseBoolean(properties.getProperty("ServiceRunOnStart", "true").trim());
+		this.statusHost = properties.getProperty("ServiceStatusHost", "127.0.0.1").trim();
+		this.statusPort = properties.getProperty("ServiceStatusPort", "").trim();
+		this.shutdownTimeout = Duration.ofSeconds(Long.parseLong(properties.getProperty("ServiceShutdownTimeoutSeconds", "300").trim()));
+	}
+
+	/*
+	 * Runs the service until the JVM is shut down
+	 *
+	 * @throws IllegalStateException Thrown when the next collection could not be scheduled
+	 */
+	public void Run() throws IOException, InterruptedException {
+		Runtime.getRuntime().addShutdownHook(new Thread(this::Stop, "collector-service-shutdown"));
+		StartStatusEndpoint();
+
+		System.out.println(String.format("Collector service started, collecting on the schedule '%s'", schedule));
+		synchronized (this) {
+			if (runOnStart)
+				nextCollection = scheduler.schedule(this::Collect, 0, TimeUnit.MILLISECONDS);
+			else
+				ScheduleNext();
+		}
+
+		stopped.await();
+		if (scheduleFailure != null)
+			throw new IllegalStateException("The next collection could not be scheduled: " + scheduleFailure.getMessage(), scheduleFailure);
+	}
+
+	/*
+	 * Stops the schedule, and waits for the collection in progress to drain
+	 */
+	public void Stop() {
+		synchronized (this) {
+			if (stopping)
+				return;
+			stopping = true;
+			state = "stopping";
+			if (nextCollection != null)
+				nextCollection.cancel(false);
+		}
+
+		System.out.println("Collector service stopping, waiting for the collection in progress to drain");
+		scheduler.shutdown();
+		try {
+			if (!scheduler.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS))
+				System.out.println(String.format("Warning: the collection in progress did not drain within %d seconds", shutdownTimeout.toSeconds()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (statusServer != null)
+				statusServer.stop(0);
+			Metrics.Stop();
+			state = "stopped";
+			System.out.println("Collector service stopped");
+			stopped.countDown();
+		}
+	}
+
+	/*
+	 * This helper method runs a single collection on the scheduler thread, then schedules the next one
+	 */
+	private void Collect() {
+		if (stopping)
+			return;
+
+		state = "collecting";
+		lastStarted = ZonedDateTime.now();
+		long start = System.nanoTime();
+		runs.incrementAndGet();
+		System.out.println(String.format("Collection started at %s", lastStarted));
+		try {
+			lastOutcome = collection.Run(() -> stopping);
+			lastError = null;
+			Metrics.RUNS.Increment("success");
+		} catch (Exception e) {
+			// a failed collection is reported, and the next one is still run on the schedule
+			failures.incrementAndGet();
+			lastOutcome = "failed";
+			lastError = e.toString();
+			Metrics.RUNS.Increment("failure");
+			e.printStackTrace();
+		} finally {
+			lastFinished = ZonedDateTime.now();
+			Metrics.RUN_SECONDS.ObserveNanos(System.nanoTime() - start);
+			Metrics.WriteSummary();
+			System.out.println(String.format("Collection finished at %s: %s", lastFinished, lastOutcome));
+
+			synchronized (this) {
+				if (!stopping) {
+					state = "idle";
+					ScheduleNext();
+				}
+			}
+		}
+	}
+
+	/*
+	 * This helper method schedules the next collection, at the next time which matches the schedule
+	 *
+	 * When it cannot be scheduled, the service reports itself unhealthy and stops, so that Run returns (by throwing)
+	 * instead of waiting for a collection which never comes.
+	 */
+	private void ScheduleNext() {
+		try {
+			ZonedDateTime now = ZonedDateTime.now();
+			nextRun = schedule.Next(now);
+			nextCollection = scheduler.schedule(this::Collect, Duration.between(now, nextRun).toMillis(), TimeUnit.MILLISECONDS);
+			System.out.println(String.format("Next collection at %s", nextRun));
+		} catch (RuntimeException e) {
+			System.out.println(String.format("The next collection could not be scheduled: %s", e.getMessage()));
+			scheduleFailure = e;
+			nextRun = null;
+			state = "failed";
+			scheduler.shutdown();
+			stopped.countDown();
+		}
+	}
+
+	/*
+	 * This helper method starts the status endpoint, if it is enabled
+	 */
+	private void StartStatusEndpoint() throws IOException {
+		if (statusPort.isEmpty())
+			return;
+
+		statusServer = HttpServer.create(new InetSocketAddress(statusHost, Integer.parseInt(statusPort)), 0);
+		statusServer.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "collector-service-status");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		statusServer.createContext("/health", exchange -> {
+			boolean healthy = !stopping && lastError == null && scheduleFailure == null;
+			Respond(exchange, healthy ? 200 : 503, "application/json", JsonReaders.WRITER.writeValueAsBytes(Map.of("status", healthy ? "UP" : "DOWN")));
+		});
+		statusServer.createContext("/status", exchange -> Respond(exchange, 200, "application/json", JsonReaders.WRITER.withDefaultPrettyPrinter().writeValueAsBytes(Status())));
+		statusServer.createContext("/metrics", exchange -> Respond(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", Metrics.Prometheus().getBytes(StandardCharsets.UTF_8)));
+		statusServer.start();
+		System.out.println(String.format("Collector service status available on http://%s:%d/status", statusHost, statusServer.getAddress().getPort()));
+	}
+
+	/*
+	 * This helper method returns the state of the service and of its latest collection
+	 */
+	private Map<String, Object> Status() {
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("state", state);
+		status.put("schedule", schedule.toString());
+		status.put("started", started.toString());
+		status.put("collections", runs.get());
+		status.put("failures", failures.get());
+		status.put("scheduleError", scheduleFailure != null ? scheduleFailure.toString() : null);
+		status.put("nextCollection", nextRun != null && !stopping ? nextRun.toString() : null);
+
+		Map<String, Object> last = new LinkedHashMap<>();
+		last.put("started", lastStarted != null ? lastStarted.toString() : null);
+		last.put("finished", lastFinished != null ? lastFinished.toString() : null);
+		last.put("outcome", lastOutcome);
+		last.put("error", lastError);
+		status.put("lastCollection", last);
+		return status;
+	}
+
+	/*
+	 * This helper method sends the response to a request of the status endpoint
+	 */
+	private static void Respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		try (exchange) {
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+	}
+}
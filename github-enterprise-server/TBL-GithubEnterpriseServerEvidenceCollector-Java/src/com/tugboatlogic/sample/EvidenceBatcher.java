@@ -0,0 +1,243 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.tugboatlogic.sample.models.TugboatLogicResponseModel;
+
+/*
+ * This class combines the evidence files of many pull requests into a few larger evidence files, so that a run
+ * uploads a handful of evidence files to Tugboat Logic instead of one per pull request.
+ *
+ * The evidence files are either added as entries of a ZIP archive, or appended to a single consolidated CSV document.
+ * The batch is streamed into an EvidenceBuffer (which spills to disk when it grows large) as the pull requests are
+ * collected, and once it reaches the maximum size it is uploaded and a new batch is started (a ZIP archive also gets
+ * its central directory written on top of the maximum size). The final, partial batch is uploaded when the batcher
+ * is flushed or closed.
+ *
+ * Each evidence file can come with callbacks which are run once its batch has been uploaded, or once the upload of its
+ * batch has failed, so that the caller can keep track of which pull requests made it to Tugboat Logic.
+ *
+ * Pull requests are collected concurrently, so evidence files may be added from any thread.
+ */
+public class EvidenceBatcher implements AutoCloseable {
+	/*
+	 * How the evidence files are uploaded to Tugboat Logic
+	 */
+	public enum UploadMode {
+		// each pull request is uploaded as its own evidence file
+		PerPullRequest,
+		// the pull requests are uploaded as the entries of ZIP archives
+		Zip,
+		// the pull requests are uploaded as consolidated CSV documents
+		Csv;
+
+		/*
+		 * Parses the upload mode setting, ignoring case
+		 */
+		public static UploadMode Parse(String value) {
+			for (UploadMode mode : values()) {
+				if (mode.name().equalsIgnoreCase(value.trim()))
+					return mode;
+			}
+			throw new IllegalArgumentException("Unknown upload mode: " + value);
+		}
+	}
+
+	/*
+	 * Uploads a batch to Tugboat Logic
+	 */
+	@FunctionalInterface
+	public interface BatchUploader {
+		TugboatLogicResponseModel Upload(EvidenceBuffer evidence, String fileName, String contentType) throws IOException;
+	}
+
+	/*
+	 * A batch which is being filled
+	 */
+	private static class Batch {
+		final EvidenceBuffer buffer = new EvidenceBuffer();
+		final ZipOutputStream zip;
+		final int part;
+		final List<Runnable> uploaded = new ArrayList<>();
+		final List<Runnable> failed = new ArrayList<>();
+		int count;
+
+		Batch(UploadMode mode, int part) {
+			this.zip = mode == UploadMode.Zip ? new ZipOutputStream(buffer) : null;
+			this.part = part;
+		}
+	}
+
+	// the blank line which separates the pull requests of a consolidated CSV document
+	private static final byte[] CSV_SEPARATOR = "\n".getBytes(StandardCharsets.UTF_8);
+
+	private final UploadMode mode;
+	private final long maxBytes;
+	private final BatchUploader uploader;
+	private final String fileNamePrefix;
+	private final List<Integer> evidenceIds = new ArrayList<>();
+	private Batch current;
+	private int parts;
+
+	/*
+	 * @param mode How the evidence files are combined, either Zip or Csv
+	 * @param maxBytes The size at which a batch is uploaded and a new one is started
+	 * @param uploader Uploads a batch to Tugboat Logic
+	 */
+	public EvidenceBatcher(UploadMode mode, long maxBytes, BatchUploader uploader) {
+		this(mode, maxBytes, null, uploader);
+	}
+
+	/*
+	 * @param mode How the evidence files are combined, either Zip or Csv
+	 * @param maxBytes The size at which a batch is uploaded and a new one is started
+	 * @param label Tells apart the batches of the targets of a multi-target run in their file names, or null
+	 * @param uploader Uploads a batch to Tugboat Logic
+	 */
+	public EvidenceBatcher(UploadMode mode, long maxBytes, String label, BatchUploader uploader) {
+		if (mode == UploadMode.PerPullRequest)
+			throw new IllegalArgumentException("Evidence files are not batched when uploading per pull request");
+
+		this.mode = mode;
+		this.maxBytes = maxBytes;
+		this.uploader = uploader;
+		this.fileNamePrefix = "evidence-" + (label != null ? label.replaceAll("[^A-Za-z0-9._-]", "-") + "-" : "") + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+	}
+
+	/*
+	 * Adds an evidence file to the current batch, uploading the batch if it has reached the maximum size
+	 *
+	 * @param fileName The name of the evidence file, used as the name of its ZIP entry
+	 * @param evidence The evidence file, which is copied into the batch and can be closed once added
+	 */
+	public void Add(String fileName, EvidenceBuffer evidence) throws IOException {
+		Add(fileName, evidence, null);
+	}
+
+	/*
+	 * Adds an evidence file to the current batch, uploading the batch if it has reached the maximum size
+	 *
+	 * @param fileName The name of the evidence file, used as the name of its ZIP entry
+	 * @param evidence The evidence file, which is copied into the batch and can be closed once added
+	 * @param onUploaded Called once the batch holding the evidence file has been uploaded, or null
+	 */
+	public void Add(String fileName, EvidenceBuffer evidence, Runnable onUploaded) throws IOException {
+		Add(fileName, evidence, onUploaded, null);
+	}
+
+	/*
+	 * Adds an evidence file to the current batch, uploading the batch if it has reached the maximum size
+	 *
+	 * @param fileName The name of the evidence file, used as the name of its ZIP entry
+	 * @param evidence The evidence file, which is copied into the batch and can be closed once added
+	 * @param onUploaded Called once the batch holding the evidence file has been uploaded, or null
+	 * @param onFailed Called if the upload of the batch holding the evidence file fails, or null
+	 */
+	public void Add(String fileName, EvidenceBuffer evidence, Runnable onUploaded, Runnable onFailed) throws IOException {
+		Batch full = null;
+		synchronized (this) {
+			if (current == null)
+				current = new Batch(mode, ++parts);
+
+			try (InputStream content = evidence.OpenInputStream()) {
+				if (mode == UploadMode.Zip) {
+					current.zip.putNextEntry(new ZipEntry(fileName));
+					content.transferTo(current.zip);
+					current.zip.closeEntry();
+				} else {
+					if (current.count > 0)
+						current.buffer.write(CSV_SEPARATOR);
+					content.transferTo(current.buffer);
+				}
+			}
+			current.count++;
+			if (onUploaded != null)
+				current.uploaded.add(onUploaded);
+			if (onFailed != null)
+				current.failed.add(onFailed);
+
+			// roll over to a new batch once this one is large enough, it is uploaded outside of the lock so that
+			// the other pull requests can carry on filling the next batch in the meantime
+			if (current.buffer.Length() >= maxBytes) {
+				full = current;
+				current = null;
+			}
+		}
+
+		if (full != null)
+			Upload(full);
+	}
+
+	/*
+	 * Returns the Tugboat Logic evidence Ids of the batches uploaded so far
+	 */
+	public synchronized List<Integer> EvidenceIds() {
+		return new ArrayList<>(evidenceIds);
+	}
+
+	/*
+	 * Uploads the current batch, if it holds any evidence, the next evidence file added starts a new batch
+	 */
+	public void Flush() throws IOException {
+		Batch last;
+		synchronized (this) {
+			last = current;
+			current = null;
+		}
+
+		if (last != null)
+			Upload(last);
+	}
+
+	/*
+	 * Uploads the final batch, if it holds any evidence
+	 */
+	@Override
+	public void close() throws IOException {
+		Flush();
+	}
+
+	/*
+	 * This helper method completes a batch and uploads it to Tugboat Logic
+	 */
+	private void Upload(Batch batch) throws IOException {
+		try (EvidenceBuffer buffer = batch.buffer) {
+			String fileName;
+			String contentType;
+			if (mode == UploadMode.Zip) {
+				// write the ZIP central directory, without closing the buffer we are about to upload
+				batch.zip.finish();
+				fileName = String.format("%s-part%d.zip", fileNamePrefix, batch.part);
+				contentType = "application/zip";
+			} else {
+				fileName = String.format("%s-part%d.csv", fileNamePrefix, batch.part);
+				contentType = "text/plain; charset=utf-8";
+			}
+
+			TugboatLogicResponseModel result;
+			try {
+				result = uploader.Upload(buffer, fileName, contentType);
+			} catch (IOException | RuntimeException e) {
+				for (Runnable onFailed : batch.failed)
+					onFailed.run();
+				throw e;
+			}
+			synchronized (this) {
+				evidenceIds.add(result.id);
+			}
+
+			for (Runnable onUploaded : batch.uploaded)
+				onUploaded.run();
+
+			System.out.println(String.format("Evidence batch %s with %d pull requests (%d bytes) uploaded to Tugboat Logic, result Id #%s", fileName, batch.count, buffer.Length(), result.id));
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.tugboatlogic.sample;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/*
+ * This class holds a generated evidence file until it has been uploaded to Tugboat Logic.
+ *
+ * Small evidence files are kept in memory, but once the file grows past a threshold it is spilled to a temporary file,
+ * so a very large evidence file does not have to fit in the heap. Either way the content can be read back as many times
+ * as needed (e.g. to stream it into the upload request) without copying it, and its exact length is always known.
+ *
+ * The threshold is read from the app.config file (EvidenceBufferThresholdBytes). The buffer must be closed once the
+ * evidence has been uploaded, which deletes the temporary file.
+ */
+public class EvidenceBuffer extends OutputStream {
+	/*
+	 * The in-memory part of the buffer, which can be read back without copying it
+	 */
+	private static class MemoryBuffer extends ByteArrayOutputStream {
+		MemoryBuffer(int size) {
+			super(size);
+		}
+
+		InputStream Open() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+
+	// the default threshold, used until Configure is called
+	private static volatile long defaultThreshold = 8 * 1024 * 1024;
+
+	private final long threshold;
+	private MemoryBuffer memory;
+	private Path file;
+	private OutputStream fileStream;
+	private long length;
+	private boolean closed;
+
+	/*
+	 * Configures the default threshold from the application settings
+	 *
+	 * @param properties The application settings
+	 */
+	public static void Configure(Properties properties) {
+		defaultThreshold = Long.parseLong(properties.getProperty("EvidenceBufferThresholdBytes", "8388608"));
+	}
+
+	/*
+	 * Creates a buffer which spills to disk past the configured threshold
+	 */
+	public EvidenceBuffer() {
+		this(defaultThreshold);
+	}
+
+	/*
+	 * @param threshold The number of bytes kept in memory before spilling to a temporary file
+	 */
+	public EvidenceBuffer(long threshold) {
+		this.threshold = threshold;
+		this.memory = new MemoryBuffer((int) Math.max(32, Math.min(threshold, 8192)));
+	}
+
+	/*
+	 * Returns the number of bytes written to the buffer
+	 */
+	public long Length() {
+		return length;
+	}
+
+	/*
+	 * Returns whether the buffer has been spilled to a temporary file
+	 */
+	public boolean IsSpilled() {
+		return file != null;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		EnsureCapacity(1).write(b);
+		length++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		EnsureCapacity(len).write(b, off, len);
+		length += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (fileStream != null)
+			fileStream.flush();
+	}
+
+	/*
+	 * Opens a stream which reads the buffer from the beginning, the buffer can be read any number of times
+	 */
+	public InputStream OpenInputStream() throws IOException {
+		if (closed)
+			throw new IOException("The evidence buffer has been closed");
+
+		if (file == null)
+			return memory.Open();
+
+		fileStream.flush();
+		return Files.newInputStream(file);
+	}
+
+	/*
+	 * Releases the buffer, deleting the temporary file if it was spilled
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		memory = null;
+		if (file != null) {
+			try {
+				fileStream.close();
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	/*
+	 * This helper method returns the stream to write the next bytes to, spilling to a temporary file once the
+	 * threshold would be exceeded
+	 */
+	private OutputStream EnsureCapacity(int len) throws IOException {
+		if (closed)
+			throw new IOException("The evidence buffer has been closed");
+
+		if (file == null && length + len > threshold) {
+			// move what we have so far to a temporary file, and keep writing to it from now on
+			file = Files.createTempFile("evidence-", ".tmp");
+			fileStream = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+			memory.writeTo(fileStream);
+			memory = null;
+		}
+
+		return file == null ? memory : fileStream;
+	}
+}
@@ -0,0 +1,245 @@
+package com.tugboatlogic.sample;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/*
+ * This class feeds the records of many targets (e.g. the repositories of an organization) into a single shared pipeline,
+ * fairly, so that a target with a huge number of records cannot starve the small ones.
+ *
+ * Each target is a source of records, which is opened lazily and read by one of a few feeder threads into a small buffer
+ * of its own. Next hands out the records round robin, one record of each target in turn. A target which has no record
+ * ready (e.g. while the next page of its search results is being retrieved) is skipped rather than waited for, so its
+ * turn goes to the next target which has one: the workers of the pipeline are never idle while any target has work,
+ * and once the small targets are done the largest one gets the whole pipeline to itself. Only as many targets as there
+ * are feeders are read at the same time, the others wait their turn in the order they were added.
+ *
+ * A target whose source fails, or which is cancelled (e.g. once one of its records has failed for good), stops being
+ * read and its buffered records are dropped, without affecting the other targets.
+ */
+public class FairFeed<K, T> implements AutoCloseable {
+	/*
+	 * The records of a target, opened by the feeder which reads them
+	 */
+	@FunctionalInterface
+	public interface Source<T> {
+		Iterable<? extends T> Open() throws Exception;
+	}
+
+	/*
+	 * A target along with the records read from its source which have not been handed out yet
+	 */
+	private class Target {
+		final K key;
+		final Source<T> source;
+		final ArrayDeque<T> buffer = new ArrayDeque<>();
+		boolean done;
+		boolean cancelled;
+		long handedOut;
+
+		Target(K key, Source<T> source) {
+			this.key = key;
+			this.source = source;
+		}
+	}
+
+	private final String name;
+	private final int feeders;
+	private final int bufferCapacity;
+	private final BiConsumer<K, Exception> onFailure;
+
+	// every target by its key, those waiting for a feeder, and those being read or still holding buffered records
+	private final Map<K, Target> targets = new LinkedHashMap<>();
+	private final ArrayDeque<Target> waiting = new ArrayDeque<>();
+	private final List<Target> active = new ArrayList<>();
+	private int cursor;
+	private int remaining;
+	private boolean started;
+	private boolean closed;
+
+	// the statistics of the feed
+	private long handedOut;
+	private long skipped;
+	private long waitNanos;
+
+	/*
+	 * @param name The name prefix of the feeder threads
+	 * @param feeders The number of targets read at the same time
+	 * @param bufferCapacity The number of records of each target read ahead of the pipeline
+	 * @param onFailure Told about the target whose source failed, the other targets are still read
+	 */
+	public FairFeed(String name, int feeders, int bufferCapacity, BiConsumer<K, Exception> onFailure) {
+		this.name = name;
+		this.feeders = Math.max(1, feeders);
+		this.bufferCapacity = Math.max(1, bufferCapacity);
+		this.onFailure = onFailure;
+	}
+
+	/*
+	 * Adds a target, which must be done before the feed is started
+	 */
+	public synchronized void Add(K key, Source<T> source) {
+		if (started)
+			throw new IllegalStateException("The targets must be added before the feed is started");
+		Target target = new Target(key, source);
+		targets.put(key, target);
+		waiting.add(target);
+		remaining++;
+	}
+
+	/*
+	 * Starts the feeder threads
+	 */
+	public synchronized void Start() {
+		started = true;
+		for (int i = 0; i < Math.min(feeders, targets.size()); i++) {
+			Thread thread = new Thread(this::Feed, name + "-feeder-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/*
+	 * Returns the next record, from the next target in turn which has one ready, blocking while none of them has
+	 *
+	 * @return Returns the next record, or null once every target has been read in full (or the feed has been closed)
+	 */
+	public synchronized T Next() throws InterruptedException {
+		while (!closed) {
+			for (int i = 0; i < active.size(); i++) {
+				int index = (cursor + i) % active.size();
+				Target target = active.get(index);
+				if (target.buffer.isEmpty()) {
+					// a target which has been read in full leaves the rotation
+					if (target.done) {
+						active.remove(index);
+						i--;
+					}
+					continue;
+				}
+
+				T record = target.buffer.poll();
+				target.handedOut++;
+				handedOut++;
+				skipped += i;
+				cursor = index + 1;
+				notifyAll();
+				return record;
+			}
+
+			if (remaining == 0 && active.isEmpty())
+				return null;
+
+			long start = System.nanoTime();
+			wait();
+			waitNanos += System.nanoTime() - start;
+		}
+		return null;
+	}
+
+	/*
+	 * Stops reading a target and drops its buffered records, e.g. once one of its records has failed for good
+	 */
+	public synchronized void Cancel(K key) {
+		Target target = targets.get(key);
+		if (target == null || target.cancelled)
+			return;
+		target.cancelled = true;
+		target.buffer.clear();
+		notifyAll();
+	}
+
+	/*
+	 * Returns the number of records of a target handed out so far
+	 */
+	public synchronized long HandedOut(K key) {
+		Target target = targets.get(key);
+		return target != null ? target.handedOut : 0;
+	}
+
+	/*
+	 * Returns a one-line summary of how the records were handed out
+	 */
+	public synchronized String Statistics() {
+		return String.format("Fair feed %s: %d records of %d targets handed out round robin, %d turns passed on by targets without a record ready, %d ms waited for a record",
+				name, handedOut, targets.size(), skipped, waitNanos / 1_000_000);
+	}
+
+	/*
+	 * Stops the feeders, the records they have not handed out are dropped
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		waiting.clear();
+		notifyAll();
+	}
+
+	/*
+	 * The loop run by each feeder: it takes the next target waiting for a feeder, and reads its records into its buffer
+	 */
+	private void Feed() {
+		while (true) {
+			Target target;
+			synchronized (this) {
+				target = waiting.poll();
+				if (target == null)
+					return;
+				active.add(target);
+			}
+
+			Exception failure = null;
+			try {
+				if (!IsStopped(target)) {
+					for (T record : target.source.Open()) {
+						if (!Buffer(target, record))
+							break;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (UncheckedIOException e) {
+				// a page of records could not be retrieved while iterating over them
+				failure = e.getCause();
+			} catch (Exception e) {
+				failure = e;
+			} finally {
+				synchronized (this) {
+					target.done = true;
+					remaining--;
+					notifyAll();
+				}
+			}
+
+			if (failure != null && !IsStopped(target)) {
+				Cancel(target.key);
+				onFailure.accept(target.key, failure);
+			}
+		}
+	}
+
+	/*
+	 * This helper method adds a record to the buffer of a target, waiting while the buffer is full
+	 *
+	 * @return Returns false once the target should no longer be read
+	 */
+	private synchronized boolean Buffer(Target target, T record) throws InterruptedException {
+		while (target.buffer.size() >= bufferCapacity && !IsStopped(target))
+			wait();
+		if (IsStopped(target))
+			return false;
+		target.buffer.add(record);
+		notifyAll();
+		return true;
+	}
+
+	private synchronized boolean IsStopped(Target target) {
+		return closed || target.cancelled;
+	}
+}
@@ -0,0 +1,223 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+/*
+ * This class holds the Java Flight Recorder events of the collector, which show where the time of a run went: fetching
+ * from Github Enterprise Server, rendering the CSV documents or uploading them to Tugboat Logic. Each event carries its
+ * duration and the key of the record it was for (e.g. contoso/platform#42), and the HTTP events also carry the URL
+ * template of the endpoint (the URL with its numeric Ids left out, as in the Metrics), the status and the bytes.
+ *
+ * The events cost next to nothing when no recording is running. A continuous recording, which keeps a bounded ring of
+ * the most recent events on disk, can be started from the app.config file:
+ *  - FlightRecorderEnabled: whether to start the continuous recording when the collector starts
+ *  - FlightRecorderSettings: the JFR settings the recording is started with, "default" keeps the overhead to about 1%
+ *  - FlightRecorderMaxSizeMB, FlightRecorderMaxAgeMinutes: the bounds of the ring, the oldest events are dropped first
+ *  - FlightRecorderDumpFile: the file the ring is written to when the collector exits, left empty to only dump it on demand
+ *
+ * After an incident the ring can be dumped from the running collector with:
+ *     jcmd <pid> JFR.dump name=evidence-collector filename=incident.jfr
+ * and opened in JDK Mission Control, or printed with: jfr print --categories "Evidence Collector" incident.jfr
+ */
+public class FlightEvents {
+	// the name of the continuous recording, used to dump it with jcmd
+	public static final String RECORDING_NAME = "evidence-collector";
+
+	// matches the owner, repository and number of a pull request within the URL of a REST API call
+	private static final Pattern RECORD_KEY_PATTERN = Pattern.compile("/repos/([^/]+)/([^/]+)/(?:pulls|issues)/(\\d+)");
+
+	/*
+	 * The fields shared by the events of the calls to an HTTP endpoint
+	 */
+	public static abstract class HttpEvent extends Event {
+		@Label("URL Template")
+		@Description("The host and path of the endpoint, with the numeric Ids left out")
+		String urlTemplate;
+
+		@Label("Status")
+		@Description("The HTTP status of the response, or 0 when there was no response")
+		int status;
+
+		@Label("Bytes")
+		@Description("The bytes of the body received, or sent for an upload")
+		@DataAmount
+		long bytes;
+
+		@Label("Record Key")
+		String recordKey;
+
+		/*
+		 * Records the status and the bytes read of a response, once its body has been read
+		 */
+		public void Response(HttpTransport.Response response) {
+			status = response.StatusCode();
+			bytes = response.BytesRead();
+		}
+
+		/*
+		 * Records the status of a failed call, when the failure was an unexpected status
+		 */
+		public void Failure(Throwable failure) {
+			if (failure instanceof HttpTransport.StatusException)
+				status = ((HttpTransport.StatusException) failure).StatusCode();
+		}
+	}
+
+	@Name("com.tugboatlogic.collector.Fetch")
+	@Label("Evidence Fetch")
+	@Category({ "Evidence Collector", "Fetch" })
+	@Description("A call to Github Enterprise Server, either answered by the server or by the HTTP cache")
+	@StackTrace(false)
+	public static class Fetch extends HttpEvent {
+		@Label("Cached")
+		@Description("Whether the response came through the HTTP cache")
+		boolean cached;
+
+		/*
+		 * Records a response served through the HTTP cache, whether or not the server was asked to revalidate it
+		 */
+		public void Cached(int bytesRead) {
+			cached = true;
+			status = 200;
+			bytes = bytesRead;
+		}
+	}
+
+	@Name("com.tugboatlogic.collector.Render")
+	@Label("Evidence Render")
+	@Category({ "Evidence Collector", "Render" })
+	@Description("The rendering of the evidence file of a record")
+	@StackTrace(false)
+	public static class Render extends Event {
+		@Label("Renderer")
+		String renderer;
+
+		@Label("Record Key")
+		String recordKey;
+
+		@Label("Bytes")
+		@Description("The size of the evidence file")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("com.tugboatlogic.collector.Upload")
+	@Label("Evidence Upload")
+	@Category({ "Evidence Collector", "Upload" })
+	@Description("An upload of an evidence file to Tugboat Logic, including the retries of the transport")
+	@StackTrace(false)
+	public static class Upload extends HttpEvent {
+		@Label("File Name")
+		String fileName;
+	}
+
+	private static Recording recording;
+
+	/*
+	 * Starts the continuous recording, when it is enabled in the app.config file
+	 */
+	public static synchronized void Configure(Properties properties) {
+		if (!Boolean.parseBoolean(properties.getProperty("FlightRecorderEnabled", "false").trim()) || recording != null)
+			return;
+
+		String settings = properties.getProperty("FlightRecorderSettings", "default").trim();
+		long maxSizeMB = Long.parseLong(properties.getProperty("FlightRecorderMaxSizeMB", "64").trim());
+		long maxAgeMinutes = Long.parseLong(properties.getProperty("FlightRecorderMaxAgeMinutes", "60").trim());
+		String dumpFile = properties.getProperty("FlightRecorderDumpFile", "").trim();
+
+		try {
+			Recording continuous = new Recording(Configuration.getConfiguration(settings));
+			continuous.setName(RECORDING_NAME);
+			// keep the events in the on-disk repository, bounded by size and by age, rather than in memory
+			continuous.setToDisk(true);
+			continuous.setMaxSize(maxSizeMB * 1024 * 1024);
+			continuous.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+			if (!dumpFile.isEmpty()) {
+				continuous.setDestination(Paths.get(dumpFile));
+				continuous.setDumpOnExit(true);
+			}
+			continuous.start();
+			recording = continuous;
+		} catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+			// the recording is a diagnostic aid, so the run carries on without it
+			System.out.println(String.format("Warning: the flight recording could not be started: %s", e.getMessage()));
+			return;
+		}
+
+		System.out.println(String.format("Flight recording '%s' started, keeping the last %d MB or %d minutes, dump it with: jcmd %d JFR.dump name=%s filename=<file>.jfr",
+				RECORDING_NAME, maxSizeMB, maxAgeMinutes, ProcessHandle.current().pid(), RECORDING_NAME));
+	}
+
+	/*
+	 * Starts the event of a call to Github Enterprise Server, which is committed once the call is over
+	 *
+	 * @param url The URL of the call
+	 * @param recordKey The key of the record the call is for, or null to take it from the URL
+	 */
+	public static Fetch BeginFetch(String url, String recordKey) {
+		Fetch event = new Fetch();
+		if (event.isEnabled()) {
+			event.urlTemplate = HttpTransport.EndpointOf(URI.create(url));
+			event.recordKey = recordKey != null ? recordKey : RecordKeyOf(url);
+		}
+		event.begin();
+		return event;
+	}
+
+	/*
+	 * Starts the event of the rendering of an evidence file, which is committed once the file has been rendered
+	 */
+	public static Render BeginRender(String renderer, String recordKey) {
+		Render event = new Render();
+		event.renderer = renderer;
+		event.recordKey = recordKey;
+		event.begin();
+		return event;
+	}
+
+	/*
+	 * Starts the event of an upload to Tugboat Logic, which is committed once the upload is over
+	 *
+	 * @param url The URL of the evidence upload endpoint
+	 * @param fileName The name of the evidence file
+	 * @param recordKey The idempotency key of the upload, which Tugboat Logic also receives
+	 */
+	public static Upload BeginUpload(String url, String fileName, String recordKey) {
+		Upload event = new Upload();
+		if (event.isEnabled()) {
+			event.urlTemplate = HttpTransport.EndpointOf(URI.create(url));
+			event.fileName = fileName;
+			event.recordKey = recordKey;
+		}
+		event.begin();
+		return event;
+	}
+
+	/*
+	 * Returns the key of the pull request a REST API URL is for (owner/repository#number), or null when it is for none
+	 */
+	public static String RecordKeyOf(String url) {
+		if (url == null)
+			return null;
+
+		Matcher matcher = RECORD_KEY_PATTERN.matcher(url);
+		return matcher.find() ? matcher.group(1) + "/" + matcher.group(2) + "#" + matcher.group(3) : null;
+	}
+}
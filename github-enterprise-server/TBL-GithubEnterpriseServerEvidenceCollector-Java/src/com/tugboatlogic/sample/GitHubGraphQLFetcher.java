@@ -0,0 +1,320 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tugboatlogic.sample.models.Base;
+import com.tugboatlogic.sample.models.GitHubGraphQLResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestCommentsResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestReviewsResponseModel;
+import com.tugboatlogic.sample.models.Head;
+import com.tugboatlogic.sample.models.MergedBy;
+import com.tugboatlogic.sample.models.PullRequestComments;
+import com.tugboatlogic.sample.models.PullRequestLinks;
+import com.tugboatlogic.sample.models.PullRequestRepo;
+import com.tugboatlogic.sample.models.User;
+
+/*
+ * This class retrieves pull requests in batches from the Github Enterprise Server GraphQL API, as an alternative to
+ * the REST API which takes three calls for each pull request (its details, comments and reviews).
+ *
+ * A single query retrieves the details, merge info, head and base refs, comments and reviews of a whole batch of pull
+ * requests, looked up by the node_id of their search results. The results are mapped onto the same response models as
+ * the REST API, so the rest of the collector (e.g. CsvHelper) does not know which API they came from. The rare pull
+ * request with more comments or reviews than a query retrieves has those retrieved from the REST API instead.
+ *
+ * The size of the batches adapts to the cost which the server reports for each query: it is set so that a query
+ * costs about the target cost, growing at most twofold from one query to the next. A query which fails (e.g. because
+ * it timed out on the server) is split in two halves, and the batches are kept smaller from then on.
+ */
+public class GitHubGraphQLFetcher {
+	/*
+	 * A pull request along with its comments and reviews, in the models of the REST API
+	 */
+	public static class PullRequestRecord {
+		public final GitHubPullRequestResponseModel details;
+		public final GitHubPullRequestCommentsResponseModel[] comments;
+		public final GitHubPullRequestReviewsResponseModel[] reviews;
+
+		PullRequestRecord(GitHubPullRequestResponseModel details, GitHubPullRequestCommentsResponseModel[] comments, GitHubPullRequestReviewsResponseModel[] reviews) {
+			this.details = details;
+			this.comments = comments;
+			this.reviews = reviews;
+		}
+	}
+
+	// the most nodes which can be looked up by a single query
+	private static final int MAX_NODES = 100;
+
+	// the number of comments and reviews retrieved with each pull request, as many as a connection allows
+	private static final int PAGE_SIZE = 100;
+
+	// the login which the REST API reports for the author of a deleted account
+	private static final String GHOST_LOGIN = "ghost";
+
+	// the query which retrieves a batch of pull requests, along with the cost of the query
+	private static final String QUERY = String.join("\n",
+			"query($ids: [ID!]!) {",
+			"  rateLimit { cost limit remaining resetAt }",
+			"  nodes(ids: $ids) {",
+			"    ... on PullRequest {",
+			"      id databaseId number url body createdAt mergedAt",
+			"      author { login url }",
+			"      mergedBy { login url }",
+			"      repository { nameWithOwner }",
+			"      headRefName headRefOid headRepository { id databaseId name nameWithOwner }",
+			"      baseRefName baseRefOid baseRepository { id databaseId name nameWithOwner }",
+			"      comments(first: " + PAGE_SIZE + ") { pageInfo { hasNextPage endCursor } nodes { createdAt authorAssociation body author { login url } } }",
+			"      reviews(first: " + PAGE_SIZE + ") { pageInfo { hasNextPage endCursor } nodes { id databaseId submittedAt authorAssociation body state author { login url } } }",
+			"    }",
+			"  }",
+			"}");
+
+	private final String endpointUrl;
+	private final String accessToken;
+	private final int targetCost;
+
+	// the size of the next batch, and the most it may grow to, which is lowered once a query fails
+	private volatile int batchSize;
+	private volatile int maxBatchSize;
+
+	// the statistics of the fetcher
+	private final AtomicLong queries = new AtomicLong();
+	private final AtomicLong pullRequests = new AtomicLong();
+	private final AtomicLong totalCost = new AtomicLong();
+	private final AtomicLong splits = new AtomicLong();
+	private final AtomicLong overflows = new AtomicLong();
+
+	/*
+	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param maxBatchSize The most pull requests retrieved by a single query
+	 * @param targetCost The rate limit cost that each query should come close to
+	 */
+	public GitHubGraphQLFetcher(String endpointUrl, String accessToken, int maxBatchSize, int targetCost) {
+		this.endpointUrl = endpointUrl;
+		this.accessToken = accessToken;
+		this.maxBatchSize = Math.max(1, Math.min(MAX_NODES, maxBatchSize));
+		this.targetCost = Math.max(1, targetCost);
+
+		// start small, the size grows once the cost of the first queries is known
+		this.batchSize = Math.max(1, this.maxBatchSize / 4);
+	}
+
+	/*
+	 * Returns the number of pull requests which the next batch should hold
+	 */
+	public int BatchSize() {
+		return batchSize;
+	}
+
+	/*
+	 * Retrieves a batch of pull requests
+	 *
+	 * @param nodeIds The node_id of each pull request
+	 * @return Returns the pull requests in the same order, with null for a pull request which no longer exists
+	 */
+	public List<PullRequestRecord> Fetch(List<String> nodeIds) throws IOException {
+		try {
+			return Query(nodeIds);
+		} catch (IOException e) {
+			if (nodeIds.size() == 1 || !HttpTransport.IsTransient(e))
+				throw e;
+
+			// the batch may have been too much for the server, so split it and keep the next batches smaller
+			splits.incrementAndGet();
+			int half = nodeIds.size() / 2;
+			maxBatchSize = Math.max(1, Math.min(maxBatchSize, half));
+			batchSize = Math.min(batchSize, maxBatchSize);
+			System.out.println(String.format("GraphQL query for %d pull requests failed, retrying as two queries: %s", nodeIds.size(), e.getMessage()));
+
+			List<PullRequestRecord> results = new ArrayList<>(Fetch(nodeIds.subList(0, half)));
+			results.addAll(Fetch(nodeIds.subList(half, nodeIds.size())));
+			return results;
+		}
+	}
+
+	/*
+	 * Returns a one line summary of the statistics of the fetcher
+	 */
+	public String Statistics() {
+		long count = queries.get();
+		return String.format("GraphQL: %d queries for %d pull requests (%.1f per query), total cost %d, %d queries split, %d pull requests with more comments or reviews than a query retrieves, next batch size %d",
+				count, pullRequests.get(), count == 0 ? 0 : (double) pullRequests.get() / count, totalCost.get(), splits.get(), overflows.get(), batchSize);
+	}
+
+	/*
+	 * This helper method sends a single query for a batch of pull requests, and adapts the batch size to its cost
+	 */
+	private List<PullRequestRecord> Query(List<String> nodeIds) throws IOException {
+		byte[] body = JsonReaders.WRITER.writeValueAsBytes(Map.of("query", QUERY, "variables", Map.of("ids", nodeIds)));
+
+		// build the POST query to the Github Enterprise Server GraphQL endpoint
+		HttpRequest request = HttpTransport.NewRequest(endpointUrl + "/api/graphql")
+				// set the http authorization header to the Personal Access Token
+				.header("Authorization", "Token " + accessToken)
+				// set the request content type and accept headers to JSON
+				.header("Content-Type", "application/json")
+				.header("accept", "application/json")
+				// set the request method type to POST
+				.POST(HttpRequest.BodyPublishers.ofByteArray(body))
+				.build();
+
+		// the query is recorded in the flight recording under the node Ids of its pull requests
+		GitHubGraphQLResponseModel response;
+		FlightEvents.Fetch event = FlightEvents.BeginFetch(endpointUrl + "/api/graphql", String.join(",", nodeIds));
+		try (var httpResponse = HttpTransport.Send(request).EnsureSuccess()) {
+			// deserialize the JSON response into our POJOs, using the shared pre-built reader
+			response = JsonReaders.GRAPHQL_RESPONSE.readValue(httpResponse.Body());
+			event.Response(httpResponse);
+		} catch (IOException e) {
+			event.Failure(e);
+			throw e;
+		} finally {
+			event.commit();
+		}
+
+		// errors without any data mean the whole query failed, e.g. it timed out on the server
+		if (response.data == null || response.data.nodes == null)
+			throw new IOException("GraphQL query failed: " + Messages(response.errors));
+		if (response.errors != null && response.errors.length > 0)
+			System.out.println("Warning: GraphQL query returned errors: " + Messages(response.errors));
+
+		queries.incrementAndGet();
+		pullRequests.addAndGet(nodeIds.size());
+		if (response.data.rateLimit != null) {
+			int cost = Math.max(1, response.data.rateLimit.cost);
+			totalCost.addAndGet(cost);
+
+			// size the next batch for the target cost, without growing more than twofold at once
+			double costPerPullRequest = (double) cost / nodeIds.size();
+			int sized = (int) Math.min(targetCost / costPerPullRequest, nodeIds.size() * 2.0);
+			batchSize = Math.max(1, Math.min(maxBatchSize, sized));
+		}
+
+		List<PullRequestRecord> results = new ArrayList<>(nodeIds.size());
+		for (GitHubGraphQLResponseModel.PullRequestNode node : response.data.nodes)
+			results.add(node != null && node.id != null ? ToRecord(node) : null);
+		return results;
+	}
+
+	/*
+	 * This helper method maps a pull request onto the models of the REST API
+	 */
+	private PullRequestRecord ToRecord(GitHubGraphQLResponseModel.PullRequestNode node) throws IOException {
+		String repositoryUrl = endpointUrl + "/api/v3/repos/" + node.repository.nameWithOwner;
+
+		GitHubPullRequestResponseModel details = new GitHubPullRequestResponseModel();
+		details.url = repositoryUrl + "/pulls/" + node.number;
+		details.id = node.databaseId;
+		details.node_id = node.id;
+		details.html_url = node.url;
+		details.user = ToUser(node.author);
+		details.body = node.body;
+		details.created_at = node.createdAt;
+		details.merged_at = node.mergedAt;
+
+		details.head = new Head();
+		details.head.ref = node.headRefName;
+		details.head.sha = node.headRefOid;
+		details.head.repo = ToRepo(node.headRepository);
+
+		details.base = new Base();
+		details.base.ref = node.baseRefName;
+		details.base.sha = node.baseRefOid;
+		details.base.repo = ToRepo(node.baseRepository);
+
+		details._links = new PullRequestLinks();
+		details._links.comments = new PullRequestComments();
+		details._links.comments.href = repositoryUrl + "/issues/" + node.number + "/comments";
+
+		if (node.mergedBy != null) {
+			details.merged_by = new MergedBy();
+			details.merged_by.login = node.mergedBy.login;
+			details.merged_by.html_url = node.mergedBy.url;
+		}
+
+		boolean merged = node.mergedAt != null;
+
+		// the comments and reviews beyond the first page are retrieved from the REST API, along with the first page
+		GitHubPullRequestCommentsResponseModel[] comments;
+		if (node.comments != null && node.comments.pageInfo != null && node.comments.pageInfo.hasNextPage) {
+			overflows.incrementAndGet();
+			comments = GitHubServerHelper.RetrieveGithubServerComments(details._links.comments.href, accessToken, merged);
+		} else {
+			GitHubGraphQLResponseModel.CommentNode[] nodes = node.comments != null && node.comments.nodes != null ? node.comments.nodes : new GitHubGraphQLResponseModel.CommentNode[0];
+			comments = new GitHubPullRequestCommentsResponseModel[nodes.length];
+			for (int i = 0; i < nodes.length; i++) {
+				comments[i] = new GitHubPullRequestCommentsResponseModel();
+				comments[i].created_at = nodes[i].createdAt;
+				comments[i].author_association = nodes[i].authorAssociation;
+				comments[i].body = nodes[i].body;
+				comments[i].user = ToUser(nodes[i].author);
+			}
+			Metrics.RECORDS_FETCHED.Add(nodes.length, "comment");
+		}
+
+		GitHubPullRequestReviewsResponseModel[] reviews;
+		if (node.reviews != null && node.reviews.pageInfo != null && node.reviews.pageInfo.hasNextPage) {
+			overflows.incrementAndGet();
+			reviews = GitHubServerHelper.RetrieveGithubServerReviews(details.url + "/reviews", accessToken, merged);
+		} else {
+			GitHubGraphQLResponseModel.ReviewNode[] nodes = node.reviews != null && node.reviews.nodes != null ? node.reviews.nodes : new GitHubGraphQLResponseModel.ReviewNode[0];
+			reviews = new GitHubPullRequestReviewsResponseModel[nodes.length];
+			for (int i = 0; i < nodes.length; i++) {
+				reviews[i] = new GitHubPullRequestReviewsResponseModel();
+				reviews[i].id = nodes[i].databaseId;
+				reviews[i].node_id = nodes[i].id;
+				reviews[i].user = ToUser(nodes[i].author);
+				reviews[i].submitted_at = nodes[i].submittedAt;
+				reviews[i].author_association = nodes[i].authorAssociation;
+				reviews[i].body = nodes[i].body;
+				reviews[i].state = nodes[i].state;
+			}
+			Metrics.RECORDS_FETCHED.Add(nodes.length, "review");
+		}
+
+		Metrics.RECORDS_FETCHED.Increment("pull_request");
+		return new PullRequestRecord(details, comments, reviews);
+	}
+
+	/*
+	 * This helper method maps an author, the author of a deleted account is reported as the ghost user like the REST API does
+	 */
+	private User ToUser(GitHubGraphQLResponseModel.Actor actor) {
+		User user = new User();
+		user.login = actor != null ? actor.login : GHOST_LOGIN;
+		user.html_url = actor != null ? actor.url : endpointUrl + "/" + GHOST_LOGIN;
+		return user;
+	}
+
+	private static PullRequestRepo ToRepo(GitHubGraphQLResponseModel.Repository repository) {
+		if (repository == null)
+			return null;
+
+		PullRequestRepo repo = new PullRequestRepo();
+		repo.id = repository.databaseId;
+		repo.node_id = repository.id;
+		repo.name = repository.name;
+		repo.full_name = repository.nameWithOwner;
+		return repo;
+	}
+
+	private static String Messages(GitHubGraphQLResponseModel.Error[] errors) {
+		if (errors == null || errors.length == 0)
+			return "no errors reported";
+
+		StringBuilder messages = new StringBuilder();
+		for (GitHubGraphQLResponseModel.Error error : errors) {
+			if (messages.length() > 0)
+				messages.append("; ");
+			messages.append(error.message);
+		}
+		return messages.toString();
+	}
+}
@@ -0,0 +1,237 @@
+package com.tugboatlogic.sample;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/*
+ * This class follows the Link header pagination used by the Github Enterprise Server REST API.
+ *
+ * Every request asks for the maximum page size (per_page=100), and the next page is requested as soon as
+ * the current page has arrived, so that callers can process the items of one page while the following page
+ * is still in flight. Items are handed to the caller lazily: a page is buffered as raw JSON, and its items are only
+ * deserialized one at a time as the caller asks for them, so memory use does not grow with the size of the result set.
+ *
+ * Since an Iterator cannot throw checked exceptions, failures to retrieve a page are surfaced as an UncheckedIOException.
+ *
+ * Each page is recorded in the flight recording as a fetch, under the key of the pull request its URL is for (if any).
+ */
+public class GitHubPaginator<T> implements Iterable<T>, Iterator<T> {
+	/*
+	 * Reads the items of a single page from its JSON body, one item at a time
+	 */
+	@FunctionalInterface
+	public interface PageReader<T> {
+		Iterator<T> Read(InputStream responseStream) throws IOException;
+	}
+
+	// the largest page size supported by the Github Enterprise Server REST API
+	private static final int PAGE_SIZE = 100;
+
+	// matches the URL of the next page within the Link header
+	private static final Pattern NEXT_LINK_PATTERN = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"next\"");
+
+	// the daemon threads used to prefetch the next pages
+	private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "github-paginator");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// the raw JSON body of a single page of results, along with the link to the page that follows it
+	private static class Page {
+		byte[] body;
+		String nextUrl;
+	}
+
+	private final String authorizationHeader;
+	private final PageReader<T> pageReader;
+
+	// the cache which the pages are retrieved through, or null to always retrieve them from the server
+	private final HttpCache cache;
+	private final boolean immutable;
+
+	// the page which is currently being downloaded, or null when there are no more pages
+	private CompletableFuture<Page> nextPage;
+
+	// the items of the page currently being handed out to the caller
+	private Iterator<T> currentItems = Collections.emptyIterator();
+
+	/*
+	 * Creates a paginator and starts downloading the first page straight away
+	 *
+	 * @param url The URL of the first page
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param pageReader Converts the JSON body of a page into its items
+	 */
+	public GitHubPaginator(String url, String accessToken, PageReader<T> pageReader) {
+		this(url, accessToken, pageReader, null, false);
+	}
+
+	/*
+	 * Creates a paginator which retrieves the pages through the HTTP cache, and starts downloading the first page straight away
+	 *
+	 * @param url The URL of the first page
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param pageReader Converts the JSON body of a page into its items
+	 * @param cache The cache which the pages are retrieved through, or null to always retrieve them from the server
+	 * @param immutable Whether the pages can no longer change, in which case they are served from the cache without a request
+	 */
+	public GitHubPaginator(String url, String accessToken, PageReader<T> pageReader, HttpCache cache, boolean immutable) {
+		this.authorizationHeader = "Token " + accessToken;
+		this.pageReader = pageReader;
+		this.cache = cache;
+		this.immutable = immutable;
+		this.nextPage = FetchPageAsync(WithPageSize(url));
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return this;
+	}
+
+	@Override
+	public boolean hasNext() {
+		// move on to the next page once we've handed out every item of the current page, skipping empty pages
+		while (!currentItems.hasNext() && nextPage != null) {
+			Page page = AwaitPage(nextPage);
+
+			// request the following page before handing out the items of this one
+			nextPage = page.nextUrl != null ? FetchPageAsync(page.nextUrl) : null;
+
+			// the items are parsed lazily from the page body as the caller asks for them
+			try {
+				currentItems = pageReader.Read(new ByteArrayInputStream(page.body));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		return currentItems.hasNext();
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		return currentItems.next();
+	}
+
+	/*
+	 * Returns the remaining items as a sequential Stream
+	 */
+	public Stream<T> Stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/*
+	 * Drains every remaining page into a list, which is convenient for small collections such as comments
+	 */
+	public List<T> ToList() {
+		List<T> items = new ArrayList<>();
+		forEachRemaining(items::add);
+		return items;
+	}
+
+	/*
+	 * This helper method starts downloading a page, its body is read on one of the prefetch threads once it arrives
+	 */
+	private CompletableFuture<Page> FetchPageAsync(String pageUrl) {
+		// the cache revalidates the page (or serves it without a request), on one of the prefetch threads
+		if (cache != null) {
+			return CompletableFuture.supplyAsync(() -> {
+				FlightEvents.Fetch event = FlightEvents.BeginFetch(pageUrl, null);
+				try {
+					HttpCache.Entry entry = cache.Get(pageUrl, authorizationHeader, immutable);
+					event.Cached(entry.body.length);
+					Page page = new Page();
+					page.body = entry.body;
+					page.nextUrl = ParseNextLink(entry.link);
+					return page;
+				} catch (IOException e) {
+					event.Failure(e);
+					throw new UncheckedIOException(e);
+				} finally {
+					event.commit();
+				}
+			}, PREFETCH_EXECUTOR);
+		}
+
+		// build the GET query to the Github Enterprise Server REST endpoint
+		HttpRequest request = HttpTransport.NewRequest(pageUrl)
+				// set the http authorization header to the Personal Access Token
+				.header("Authorization", authorizationHeader)
+				// set the request accept header to JSON
+				.header("accept", "application/json")
+				// set the request method type to GET
+				.GET()
+				.build();
+
+		FlightEvents.Fetch event = FlightEvents.BeginFetch(pageUrl, null);
+		return HttpTransport.SendAsync(request).thenApplyAsync(response -> {
+			// retrieve the response in JSON format, the connection is released once the response is closed
+			try (response) {
+				response.EnsureSuccess();
+
+				Page page = new Page();
+				page.body = response.Body().readAllBytes();
+				page.nextUrl = ParseNextLink(response.Header("Link"));
+				event.Response(response);
+				return page;
+			} catch (IOException e) {
+				event.Failure(e);
+				throw new UncheckedIOException(e);
+			}
+		}, PREFETCH_EXECUTOR).whenComplete((page, error) -> event.commit());
+	}
+
+	/*
+	 * This helper method waits for a page to arrive, unwrapping any failure
+	 */
+	private static Page AwaitPage(CompletableFuture<Page> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException)
+				throw (UncheckedIOException) e.getCause();
+			if (e.getCause() instanceof IOException)
+				throw new UncheckedIOException((IOException) e.getCause());
+			throw e;
+		}
+	}
+
+	/*
+	 * This helper method extracts the URL of the next page from a Link header, or returns null on the last page
+	 */
+	private static String ParseNextLink(String linkHeader) {
+		if (linkHeader == null)
+			return null;
+
+		Matcher matcher = NEXT_LINK_PATTERN.matcher(linkHeader);
+		return matcher.find() ? matcher.group(1) : null;
+	}
+
+	/*
+	 * This helper method adds the per_page parameter to the URL of the first page, the Link
+	 * headers returned by the server already carry it for the following pages
+	 */
+	private static String WithPageSize(String url) {
+		return url + (url.contains("?") ? "&" : "?") + "per_page=" + PAGE_SIZE;
+	}
+}
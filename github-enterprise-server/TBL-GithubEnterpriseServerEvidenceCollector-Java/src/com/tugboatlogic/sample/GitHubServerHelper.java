@@ -1,194 +1,357 @@
-package com.tugboatlogic.sample;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.List;
-
-import javax.net.ssl.HttpsURLConnection;
-
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.tugboatlogic.sample.models.GitHubPullRequestCommentsResponseModel;
-import com.tugboatlogic.sample.models.GitHubPullRequestResponseModel;
-import com.tugboatlogic.sample.models.GitHubPullRequestReviewsResponseModel;
-import com.tugboatlogic.sample.models.GitHubQueryResponseModel;
-
-public class GitHubServerHelper {
-	/*
-	 * This method queries the Github Enterprise Server REST API and returns the resulting records based on the provided query
-	 * 
-	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
-	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
-	 * @param query The query which to query Github Enterprise Server
-	 * @return Returns a response model containing the results of the Github Enterprise Server query
-	 */
-	public static GitHubQueryResponseModel QueryGithubServer(String endpointUrl, String accessToken, String query) throws IOException {
-		
-		// here we are going to use basic authentication (Personal Access Token) to authorize with
-        // the Github Enterprise Server REST API
-		String authorizationHeader = "Token " + accessToken;
-		
-		// update the query with the start and end date for when to filter results for
-		String pattern = "yyyy-MM-dd";
-		DateFormat df = new SimpleDateFormat(pattern);
-		Calendar today = Calendar.getInstance();
-		today.add(Calendar.DATE, 1);
-		Calendar ninetyDaysAgo = Calendar.getInstance();
-		ninetyDaysAgo.add(Calendar.DATE, -90);		
-		query = String.format(query, df.format(ninetyDaysAgo.getTime()),df.format(today.getTime()));
-		
-		// convert the GitHub query string to UTF-8
-		String queryString = java.net.URLEncoder.encode(query, "UTF-8");
-		
-		// build the URL
-		String urlString = String.format("/api/v3/search/issues?q=%s", queryString);
-		
-		// make the GET query to the Github Enterprise Server REST endpoint
-		URL url = new URL(endpointUrl + urlString);
-		
-		// open the https connection
-		HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-		
-		// set the http authorization header to the Base64 value we generated above
-		connection.setRequestProperty ("Authorization", authorizationHeader);
-		
-		// set the request method type to GET
-		connection.setRequestMethod("GET");
-		
-		// set the request accept header to JSON
-		connection.setRequestProperty("accept", "application/json");
-		
-		// send the request and retrieve the response in JSON format
-		InputStream responseStream = connection.getInputStream();
-		
-		// configure the object mapper for converting the JSON response to POJO
-		ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-		
-		// deserialize the JSON response into our POJOs which we will use elsewhere
-		GitHubQueryResponseModel responseModel = mapper.readValue(responseStream, GitHubQueryResponseModel.class);
-		
-		return responseModel;		
-	}
-	
-	/*
-	 * This method retrieves pull request details from the Github Enterprise Server REST API and returns the resulting record
-	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
-	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
-	 * @returns Returns a response model containing the results
-	 */
-	public static GitHubPullRequestResponseModel RetrieveGithubServerPullRequestDetails(String endpointUrl, String accessToken) throws IOException {
-		
-		// here we are going to use basic authentication (Personal Access Token) to authorize with
-        // the Github Enterprise Server REST API
-		String authorizationHeader = "Token " + accessToken;
-
-		// make the GET query to the Github Enterprise Server REST endpoint
-		URL url = new URL(endpointUrl);
-		
-		// open the https connection
-		HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-		
-		// set the http authorization header to the Base64 value we generated above
-		connection.setRequestProperty ("Authorization", authorizationHeader);
-		
-		// set the request method type to GET
-		connection.setRequestMethod("GET");
-		
-		// set the request accept header to JSON
-		connection.setRequestProperty("accept", "application/json");
-		
-		// send the request and retrieve the response in JSON format
-		InputStream responseStream = connection.getInputStream();
-		
-		// configure the object mapper for converting the JSON response to POJO
-		ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-		
-		// deserialize the JSON response into our POJOs which we will use elsewhere
-		GitHubPullRequestResponseModel responseModel = mapper.readValue(responseStream, GitHubPullRequestResponseModel.class);
-		
-		return responseModel;		
-	}
-	
-	/*
-	 * This method retrieves pull request comments from the Github Enterprise Server REST API and returns the resulting records
-	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
-	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
-	 * @returns Returns a response model containing the results
-	 */
-	public static GitHubPullRequestCommentsResponseModel[] RetrieveGithubServerComments(String endpointUrl, String accessToken) throws IOException {
-		
-		// here we are going to use basic authentication (Personal Access Token) to authorize with
-        // the Github Enterprise Server REST API
-		String authorizationHeader = "Token " + accessToken;
-
-		// make the GET query to the Github Enterprise Server REST endpoint
-		URL url = new URL(endpointUrl);
-		
-		// open the https connection
-		HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-		
-		// set the http authorization header to the Base64 value we generated above
-		connection.setRequestProperty ("Authorization", authorizationHeader);
-		
-		// set the request method type to GET
-		connection.setRequestMethod("GET");
-		
-		// set the request accept header to JSON
-		connection.setRequestProperty("accept", "application/json");
-		
-		// send the request and retrieve the response in JSON format
-		InputStream responseStream = connection.getInputStream();
-		
-		// configure the object mapper for converting the JSON response to POJO
-		ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-		
-		// deserialize the JSON response into our POJOs which we will use elsewhere
-		GitHubPullRequestCommentsResponseModel[] responseModel = mapper.readValue(responseStream, GitHubPullRequestCommentsResponseModel[].class);
-		
-		return responseModel;		
-	}
-	
-	/*
-	 * This method retrieves pull request review comments from the Github Enterprise Server REST API and returns the resulting records
-	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
-	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
-	 * @returns Returns a response model containing the results
-	 */
-	public static GitHubPullRequestReviewsResponseModel[] RetrieveGithubServerReviews(String endpointUrl, String accessToken) throws IOException {
-		
-		// here we are going to use basic authentication (Personal Access Token) to authorize with
-        // the Github Enterprise Server REST API
-		String authorizationHeader = "Token " + accessToken;
-
-		// make the GET query to the Github Enterprise Server REST endpoint
-		URL url = new URL(endpointUrl);
-		
-		// open the https connection
-		HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-		
-		// set the http authorization header to the Base64 value we generated above
-		connection.setRequestProperty ("Authorization", authorizationHeader);
-		
-		// set the request method type to GET
-		connection.setRequestMethod("GET");
-		
-		// set the request accept header to JSON
-		connection.setRequestProperty("accept", "application/json");
-		
-		// send the request and retrieve the response in JSON format
-		InputStream responseStream = connection.getInputStream();
-		
-		// configure the object mapper for converting the JSON response to POJO
-		ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-		
-		// deserialize the JSON response into our POJOs which we will use elsewhere
-		GitHubPullRequestReviewsResponseModel[] responseModel = mapper.readValue(responseStream, GitHubPullRequestReviewsResponseModel[].class);
-		
-		return responseModel;		
-	}
-}
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.tugboatlogic.sample.models.GitHubPullRequestCommentsResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestReviewsResponseModel;
+import com.tugboatlogic.sample.models.GitHubQueryItem;
+import com.tugboatlogic.sample.models.GitHubQueryResponseModel;
+import com.tugboatlogic.sample.models.GitHubRepositoryResponseModel;
+
+public class GitHubServerHelper {
+	// the date time format that the search qualifiers accept, used for the window of an incremental run
+	private static final DateTimeFormatter SEARCH_DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+	// the most results the search endpoint returns for a query, past which the window of the query is split
+	private static final int SEARCH_RESULT_LIMIT = 1000;
+	
+	/*
+	 * This method queries the Github Enterprise Server REST API and returns the resulting records based on the provided query
+	 * 
+	 * The records are returned lazily, following the Link header pagination of the search endpoint, so that the caller
+	 * can start processing the first page of results while the next page is still being retrieved.
+	 * 
+	 * The search endpoint returns at most 1,000 results for a query, and silently stops paginating past them. The window
+	 * of the query is therefore probed first, and when it matches more than that it is split in halves on the dates of its
+	 * qualifier until each part fits, and the parts are queried one after the other. A part which still matches more than
+	 * 1,000 results within a single second cannot be split any further, in which case the query fails rather than
+	 * silently leaving records out.
+	 * 
+	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param query The query which to query Github Enterprise Server
+	 * @param since The start of the window of an incremental run, or null to collect the last 90 days
+	 * @return Returns the records matching the Github Enterprise Server query
+	 */
+	public static Stream<GitHubQueryItem> QueryGithubServer(String endpointUrl, String accessToken, String query, OffsetDateTime since) throws IOException {
+		
+		// build the URLs, a single one unless the window matches more results than the search endpoint returns
+		List<String> urlStrings = new ArrayList<>();
+		int totalCount = ProbeGithubServer(endpointUrl, accessToken, query, since).total_count;
+		if (totalCount <= SEARCH_RESULT_LIMIT) {
+			urlStrings.add(SearchUrl(query, since));
+		} else {
+			// the same window as above, as date times which can be split down to the second
+			OffsetDateTime from = since != null ? since.withOffsetSameInstant(ZoneOffset.UTC)
+					: LocalDate.now().minusDays(90).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime().withOffsetSameInstant(ZoneOffset.UTC);
+			OffsetDateTime to = OffsetDateTime.now(ZoneOffset.UTC).plusDays(1);
+			PlanSearchWindows(endpointUrl, accessToken, query, from.truncatedTo(ChronoUnit.SECONDS), to.truncatedTo(ChronoUnit.SECONDS), totalCount, urlStrings);
+			System.out.println(String.format("The query matches %d results, more than the %d the search returns, it is collected in %d parts",
+					totalCount, SEARCH_RESULT_LIMIT, urlStrings.size()));
+		}
+		
+		// page through the GET query to the Github Enterprise Server REST endpoint, one window after the other
+		// each page is read one item at a time from the items array of the search result, and the pages of
+		// a window are only requested once the caller has worked through the previous window
+		Iterator<String> remaining = urlStrings.iterator();
+		Iterator<GitHubQueryItem> items = new Iterator<>() {
+			private GitHubPaginator<GitHubQueryItem> current;
+			
+			@Override
+			public boolean hasNext() {
+				while ((current == null || !current.hasNext()) && remaining.hasNext())
+					current = new GitHubPaginator<>(endpointUrl + remaining.next(), accessToken, responseStream -> JsonRecordIterator.OfArrayField(responseStream, "items", JsonReaders.SEARCH_ITEM));
+				return current != null && current.hasNext();
+			}
+			
+			@Override
+			public GitHubQueryItem next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return current.next();
+			}
+		};
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(items, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+	
+	/*
+	 * This helper method splits the window of a query which matches more results than the search endpoint returns in
+	 * halves, probing each half and splitting it again until it fits, and adds the search URLs of the parts in order
+	 * 
+	 * The dates of the qualifier are inclusive, so the first half ends a second before the second half starts.
+	 */
+	private static void PlanSearchWindows(String endpointUrl, String accessToken, String query, OffsetDateTime from, OffsetDateTime to, int totalCount, List<String> urlStrings) throws IOException {
+		if (totalCount <= SEARCH_RESULT_LIMIT) {
+			urlStrings.add(SearchUrl(query, from, to));
+			return;
+		}
+		
+		long seconds = Duration.between(from, to).getSeconds();
+		if (seconds < 1)
+			throw new IOException(String.format("The query %s matches %d results within its date range of a single second, more than the %d the search returns, narrow the query down",
+					WindowQuery(query, from, to), totalCount, SEARCH_RESULT_LIMIT));
+		
+		OffsetDateTime middle = from.plusSeconds((seconds + 1) / 2);
+		PlanSearchWindows(endpointUrl, accessToken, query, from, middle.minusSeconds(1), ProbeSearchUrl(endpointUrl, accessToken, SearchUrl(query, from, middle.minusSeconds(1))).total_count, urlStrings);
+		PlanSearchWindows(endpointUrl, accessToken, query, middle, to, ProbeSearchUrl(endpointUrl, accessToken, SearchUrl(query, middle, to)).total_count, urlStrings);
+	}
+	
+	/*
+	 * This method lists the repositories of an organization from the Github Enterprise Server REST API, which is how a
+	 * multi-target run discovers the repositories to collect from
+	 * 
+	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param organization The login of the organization
+	 * @return Returns every repository of the organization which the access token can see
+	 */
+	public static List<GitHubRepositoryResponseModel> ListGithubServerRepositories(String endpointUrl, String accessToken, String organization) throws IOException {
+		
+		// build the URL, the organization login is a single path segment
+		String urlString = String.format("/api/v3/orgs/%s/repos?type=all", URLEncoder.encode(organization, StandardCharsets.UTF_8));
+		
+		// page through the GET query to the Github Enterprise Server REST endpoint
+		// each page is read one repository at a time from the JSON array
+		var paginator = new GitHubPaginator<GitHubRepositoryResponseModel>(endpointUrl + urlString, accessToken, responseStream -> JsonRecordIterator.OfArray(responseStream, JsonReaders.REPOSITORY));
+		
+		try {
+			return paginator.ToList();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/*
+	 * This method probes the Github Enterprise Server REST API for the number of records matching the query, along with
+	 * the most recently updated record, which tells an incremental run whether anything has changed since the last run
+	 * 
+	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param query The query which to query Github Enterprise Server
+	 * @param since The start of the window of an incremental run, or null to probe the last 90 days
+	 * @return Returns the total count of the records, along with at most one record
+	 */
+	public static GitHubQueryResponseModel ProbeGithubServer(String endpointUrl, String accessToken, String query, OffsetDateTime since) throws IOException {
+		
+		// ask for the single most recently updated record only
+		return ProbeSearchUrl(endpointUrl, accessToken, SearchUrl(query, since));
+	}
+	
+	/*
+	 * This helper method retrieves the total count of the records matching a search URL, along with the most recently
+	 * updated record
+	 */
+	private static GitHubQueryResponseModel ProbeSearchUrl(String endpointUrl, String accessToken, String searchUrl) throws IOException {
+		String urlString = searchUrl + "&sort=updated&order=desc&per_page=1";
+		
+		// build the GET query to the Github Enterprise Server REST endpoint
+		HttpRequest request = HttpTransport.NewRequest(endpointUrl + urlString)
+				// set the http authorization header to the Personal Access Token
+				.header("Authorization", "Token " + accessToken)
+				// set the request accept header to JSON
+				.header("accept", "application/json")
+				// set the request method type to GET
+				.GET()
+				.build();
+		
+		// send the request and retrieve the response in JSON format, the connection is released once the response is closed
+		FlightEvents.Fetch event = FlightEvents.BeginFetch(endpointUrl + urlString, null);
+		try (var response = HttpTransport.Send(request).EnsureSuccess()) {
+			
+			// deserialize the JSON response into our POJOs, using the shared pre-built reader
+			GitHubQueryResponseModel responseModel = JsonReaders.QUERY_RESPONSE.readValue(response.Body());
+			event.Response(response);
+			if (responseModel.items == null)
+				responseModel.items = new GitHubQueryItem[0];
+			return responseModel;
+		} catch (IOException e) {
+			event.Failure(e);
+			throw e;
+		} finally {
+			event.commit();
+		}
+	}
+	
+	/*
+	 * This method retrieves pull request details from the Github Enterprise Server REST API and returns the resulting record
+	 * 
+	 * The details are retrieved through the HTTP cache when it is enabled, and once a pull request has been merged its
+	 * details can no longer change, so they are served from the cache from then on.
+	 * 
+	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @returns Returns a response model containing the results
+	 */
+	public static GitHubPullRequestResponseModel RetrieveGithubServerPullRequestDetails(String endpointUrl, String accessToken) throws IOException {
+		
+		// here we are going to use basic authentication (Personal Access Token) to authorize with
+        // the Github Enterprise Server REST API
+		String authorizationHeader = "Token " + accessToken;
+		
+		// the call is recorded in the flight recording, under the key of the pull request
+		FlightEvents.Fetch event = FlightEvents.BeginFetch(endpointUrl, null);
+		try {
+			return RetrievePullRequestDetails(endpointUrl, authorizationHeader, event);
+		} catch (IOException e) {
+			event.Failure(e);
+			throw e;
+		} finally {
+			event.commit();
+		}
+	}
+	
+	/*
+	 * This helper method retrieves the pull request details, recording the response in the flight recording event
+	 */
+	private static GitHubPullRequestResponseModel RetrievePullRequestDetails(String endpointUrl, String authorizationHeader, FlightEvents.Fetch event) throws IOException {
+		
+		// retrieve the details through the cache, which revalidates the cached copy rather than retrieving it in full
+		HttpCache cache = HttpCache.Shared();
+		if (cache != null) {
+			HttpCache.Entry entry = cache.Get(endpointUrl, authorizationHeader, false);
+			GitHubPullRequestResponseModel details = JsonReaders.PULL_REQUEST.readValue(entry.body);
+			event.Cached(entry.body.length);
+			if (details.merged_at != null)
+				cache.MarkImmutable(endpointUrl);
+			Metrics.RECORDS_FETCHED.Increment("pull_request");
+			return details;
+		}
+
+		// build the GET query to the Github Enterprise Server REST endpoint
+		HttpRequest request = HttpTransport.NewRequest(endpointUrl)
+				// set the http authorization header to the Personal Access Token
+				.header("Authorization", authorizationHeader)
+				// set the request accept header to JSON
+				.header("accept", "application/json")
+				// set the request method type to GET
+				.GET()
+				.build();
+		
+		// send the request and retrieve the response in JSON format, the connection is released once the response is closed
+		try (var response = HttpTransport.Send(request).EnsureSuccess()) {
+			
+			// deserialize the JSON response into our POJOs which we will use elsewhere, using the shared pre-built reader
+			GitHubPullRequestResponseModel details = JsonReaders.PULL_REQUEST.readValue(response.Body());
+			event.Response(response);
+			Metrics.RECORDS_FETCHED.Increment("pull_request");
+			return details;
+		}
+	}
+	
+	/*
+	 * This method retrieves pull request comments from the Github Enterprise Server REST API and returns the resulting records,
+	 * following the Link header pagination until every page has been retrieved
+	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param merged Whether the pull request has been merged, in which case the comments are served from the HTTP cache once cached
+	 * @returns Returns a response model containing the results
+	 */
+	public static GitHubPullRequestCommentsResponseModel[] RetrieveGithubServerComments(String endpointUrl, String accessToken, boolean merged) throws IOException {
+		
+		// page through the GET query to the Github Enterprise Server REST endpoint, through the cache when it is enabled
+		// each page is read one record at a time from the JSON array
+		var paginator = new GitHubPaginator<GitHubPullRequestCommentsResponseModel>(endpointUrl, accessToken, responseStream -> JsonRecordIterator.OfArray(responseStream, JsonReaders.COMMENT), HttpCache.Shared(), merged);
+		
+		try {
+			// collect the records from every page
+			var comments = paginator.ToList().toArray(new GitHubPullRequestCommentsResponseModel[0]);
+			Metrics.RECORDS_FETCHED.Add(comments.length, "comment");
+			return comments;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/*
+	 * This method retrieves pull request review comments from the Github Enterprise Server REST API and returns the resulting records,
+	 * following the Link header pagination until every page has been retrieved
+	 * @param endpointUrl The endpoint URL for the Github Enterprise Server API
+	 * @param accessToken The Personal Access Token used to authenticate with Github Enterprise Server
+	 * @param merged Whether the pull request has been merged, in which case the reviews are served from the HTTP cache once cached
+	 * @returns Returns a response model containing the results
+	 */
+	public static GitHubPullRequestReviewsResponseModel[] RetrieveGithubServerReviews(String endpointUrl, String accessToken, boolean merged) throws IOException {
+		
+		// page through the GET query to the Github Enterprise Server REST endpoint, through the cache when it is enabled
+		// each page is read one record at a time from the JSON array
+		var paginator = new GitHubPaginator<GitHubPullRequestReviewsResponseModel>(endpointUrl, accessToken, responseStream -> JsonRecordIterator.OfArray(responseStream, JsonReaders.REVIEW), HttpCache.Shared(), merged);
+		
+		try {
+			// collect the records from every page
+			var reviews = paginator.ToList().toArray(new GitHubPullRequestReviewsResponseModel[0]);
+			Metrics.RECORDS_FETCHED.Add(reviews.length, "review");
+			return reviews;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+	
+	/*
+	 * This helper method builds the search URL for the query, filling in the window to collect: either the last 90
+	 * days, or everything updated since the start of the window of an incremental run
+	 */
+	private static String SearchUrl(String query, OffsetDateTime since) {
+		if (since == null) {
+			// update the query with the start and end date for when to filter results for
+			String pattern = "yyyy-MM-dd";
+			DateFormat df = new SimpleDateFormat(pattern);
+			Calendar today = Calendar.getInstance();
+			today.add(Calendar.DATE, 1);
+			Calendar ninetyDaysAgo = Calendar.getInstance();
+			ninetyDaysAgo.add(Calendar.DATE, -90);		
+			query = String.format(query, df.format(ninetyDaysAgo.getTime()),df.format(today.getTime()));
+			return SearchUrl(query);
+		}
+		
+		// the end of the window is a day ahead just like above
+		return SearchUrl(query, since, OffsetDateTime.now(ZoneOffset.UTC).plusDays(1));
+	}
+	
+	/*
+	 * This helper method builds the search URL for the query, filling in the given window, both ends included
+	 */
+	private static String SearchUrl(String query, OffsetDateTime from, OffsetDateTime to) {
+		return SearchUrl(WindowQuery(query, from, to));
+	}
+	
+	/*
+	 * This helper method fills in the given window of the query, both ends included
+	 */
+	private static String WindowQuery(String query, OffsetDateTime from, OffsetDateTime to) {
+		// the search qualifiers accept a date time in UTC
+		return String.format(query, SEARCH_DATE_TIME_FORMAT.format(from.withOffsetSameInstant(ZoneOffset.UTC)), SEARCH_DATE_TIME_FORMAT.format(to.withOffsetSameInstant(ZoneOffset.UTC)));
+	}
+	
+	/*
+	 * This helper method builds the search URL for a query whose window has been filled in
+	 */
+	private static String SearchUrl(String query) {
+		// convert the GitHub query string to UTF-8
+		String queryString = URLEncoder.encode(query, StandardCharsets.UTF_8);
+		
+		// build the URL
+		return String.format("/api/v3/search/issues?q=%s", queryString);
+	}
+}
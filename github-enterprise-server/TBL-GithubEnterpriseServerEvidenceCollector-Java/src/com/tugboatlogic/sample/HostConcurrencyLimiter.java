@@ -0,0 +1,79 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/*
+ * This class limits how many calls are made concurrently to each host, for example so that the collector can make
+ * many calls to Github Enterprise Server at once while only uploading a few evidence files to Tugboat Logic at a time.
+ *
+ * The limits are read from the app.config file: MaxConcurrencyPerHost sets the default limit for every host, and
+ * MaxConcurrencyPerHost.<host name> (e.g. MaxConcurrencyPerHost.github.contoso.com) overrides it for a single host.
+ */
+public class HostConcurrencyLimiter {
+	/*
+	 * A call made to a host, such as one of the Github Enterprise Server or Tugboat Logic helper methods
+	 */
+	@FunctionalInterface
+	public interface HostCall<T> {
+		T Call() throws IOException;
+	}
+
+	// the name of the app.config setting which holds the limits
+	private static final String SETTING_NAME = "MaxConcurrencyPerHost";
+
+	private final Properties properties;
+	private final int defaultLimit;
+	private final ConcurrentHashMap<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+	/*
+	 * @param properties The application settings which hold the per host limits
+	 * @param defaultLimit The limit to use for hosts that aren't configured
+	 */
+	public HostConcurrencyLimiter(Properties properties, int defaultLimit) {
+		this.properties = properties;
+		this.defaultLimit = Integer.parseInt(properties.getProperty(SETTING_NAME, Integer.toString(defaultLimit)));
+	}
+
+	/*
+	 * Makes a call to the host of the given URL, waiting for a free slot on that host first
+	 *
+	 * @param url The URL which the call is made to
+	 * @param call The call to make
+	 * @return Returns the result of the call
+	 */
+	public <T> T Call(String url, HostCall<T> call) throws IOException {
+		Semaphore hostPermits = permits.computeIfAbsent(HostOf(url), this::NewPermits);
+		try {
+			hostPermits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to call " + url);
+		}
+		try {
+			return call.Call();
+		} finally {
+			hostPermits.release();
+		}
+	}
+
+	/*
+	 * This helper method creates the permits for a host, based on its configured limit
+	 */
+	private Semaphore NewPermits(String host) {
+		int limit = Integer.parseInt(properties.getProperty(SETTING_NAME + "." + host, Integer.toString(defaultLimit)));
+		return new Semaphore(Math.max(1, limit));
+	}
+
+	/*
+	 * This helper method extracts the (lower case) host name from a URL
+	 */
+	private static String HostOf(String url) {
+		String host = URI.create(url).getHost();
+		return host != null ? host.toLowerCase() : "";
+	}
+}
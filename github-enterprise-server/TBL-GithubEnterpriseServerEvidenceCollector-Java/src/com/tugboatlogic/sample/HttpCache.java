@@ -0,0 +1,337 @@
+package com.tugboatlogic.sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * This class is an on-disk cache of the responses of Github Enterprise Server, which sits under the helpers that
+ * retrieve the details, comments and reviews of each pull request.
+ *
+ * A cached response is revalidated with If-None-Match / If-Modified-Since, so that when nothing has changed the server
+ * answers 304 Not Modified without a body, which is cheap and does not count against the Github Enterprise Server
+ * rate limit. Responses which can no longer change (those of a merged pull request) are marked immutable, and are
+ * then served straight from the cache without any request at all.
+ *
+ * The cache is bounded in size: once it grows past the maximum size the least recently used responses are evicted.
+ * The time a response was last used is kept as the modification time of its file, so the order survives between runs.
+ *
+ * The cache is configured from the app.config file (HttpCacheDirectory, HttpCacheMaxBytes), and is disabled when no
+ * directory is configured.
+ */
+public class HttpCache {
+	/*
+	 * A cached response
+	 */
+	public static class Entry {
+		public final byte[] body;
+		// the link to the next page, for paginated responses
+		public final String link;
+		final String etag;
+		final String lastModified;
+		final boolean immutable;
+
+		Entry(byte[] body, String link, String etag, String lastModified, boolean immutable) {
+			this.body = body;
+			this.link = link;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.immutable = immutable;
+		}
+	}
+
+	// identifies the file format of a cached response
+	private static final int MAGIC = 0x48434531;
+
+	// the shared cache, or null when the cache is disabled
+	private static volatile HttpCache shared;
+
+	private final Path directory;
+	private final long maxBytes;
+
+	// the size of each cached response, from the least to the most recently used
+	private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(256, 0.75f, true);
+	private long totalBytes;
+
+	// the statistics of the cache: served without a request, revalidated with a 304, and retrieved in full
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong revalidated = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/*
+	 * Configures the shared cache from the application settings
+	 *
+	 * @param properties The application settings
+	 */
+	public static synchronized void Configure(Properties properties) {
+		String directory = properties.getProperty("HttpCacheDirectory", "http-cache");
+		long maxBytes = Long.parseLong(properties.getProperty("HttpCacheMaxBytes", "268435456"));
+		try {
+			shared = directory.isBlank() ? null : new HttpCache(Paths.get(directory), maxBytes);
+		} catch (IOException e) {
+			// the cache only saves requests, so we carry on without it
+			System.out.println(String.format("Warning: the HTTP cache directory %s cannot be used, the cache is disabled: %s", directory, e));
+			shared = null;
+		}
+	}
+
+	/*
+	 * Returns the shared cache, or null when the cache is disabled
+	 */
+	public static HttpCache Shared() {
+		return shared;
+	}
+
+	/*
+	 * Opens the cache in a directory, picking up the responses cached by the previous runs
+	 *
+	 * @param directory The directory which holds the cached responses
+	 * @param maxBytes The size past which the least recently used responses are evicted
+	 */
+	public HttpCache(Path directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(directory);
+
+		// rebuild the usage order from the modification times of the files
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.bin")) {
+			stream.forEach(files::add);
+		}
+		Map<Path, FileTime> lastUsed = new HashMap<>();
+		for (Path file : files)
+			lastUsed.put(file, Files.getLastModifiedTime(file));
+		files.sort((a, b) -> lastUsed.get(a).compareTo(lastUsed.get(b)));
+
+		for (Path file : files) {
+			long size = Files.size(file);
+			sizes.put(file.getFileName().toString(), size);
+			totalBytes += size;
+		}
+	}
+
+	/*
+	 * Retrieves a resource, from the cache when possible
+	 *
+	 * @param url The URL of the resource
+	 * @param authorizationHeader The authorization header to send with the request
+	 * @param immutable Whether the resource can no longer change, in which case it is served from the cache from now on
+	 * @return Returns the response
+	 */
+	public Entry Get(String url, String authorizationHeader, boolean immutable) throws IOException {
+		String key = Key(url);
+		Entry cached = Read(key);
+
+		// a response which can no longer change is served without any request, and is now the most recently used
+		if (cached != null && cached.immutable) {
+			Touch(key);
+			hits.incrementAndGet();
+			Metrics.HTTP_CACHE_REQUESTS.Increment("hit");
+			return cached;
+		}
+
+		// build the GET query to the Github Enterprise Server REST endpoint
+		HttpRequest.Builder builder = HttpTransport.NewRequest(url)
+				// set the http authorization header to the Personal Access Token
+				.header("Authorization", authorizationHeader)
+				// set the request accept header to JSON
+				.header("accept", "application/json")
+				// set the request method type to GET
+				.GET();
+
+		// ask the server to answer 304 Not Modified if the cached response is still current
+		if (cached != null && cached.etag != null)
+			builder.header("If-None-Match", cached.etag);
+		if (cached != null && cached.lastModified != null)
+			builder.header("If-Modified-Since", cached.lastModified);
+
+		// send the request, the connection is released once the response is closed
+		try (var response = HttpTransport.Send(builder.build())) {
+			if (response.StatusCode() == 304 && cached != null) {
+				revalidated.incrementAndGet();
+				Metrics.HTTP_CACHE_REQUESTS.Increment("revalidated");
+				if (immutable)
+					Write(key, cached.body, cached.link, cached.etag, cached.lastModified, true);
+				else
+					Touch(key);
+				return cached;
+			}
+
+			response.EnsureSuccess();
+			misses.incrementAndGet();
+			Metrics.HTTP_CACHE_REQUESTS.Increment("miss");
+
+			Entry entry = new Entry(response.Body().readAllBytes(), response.Header("Link"), response.Header("ETag"), response.Header("Last-Modified"), immutable);
+
+			// only responses which can be revalidated, or which can no longer change, are worth keeping
+			if (entry.immutable || entry.etag != null || entry.lastModified != null)
+				Write(key, entry.body, entry.link, entry.etag, entry.lastModified, entry.immutable);
+
+			return entry;
+		}
+	}
+
+	/*
+	 * Marks a cached resource as immutable, once its content shows that it can no longer change (e.g. a merged pull request)
+	 *
+	 * @param url The URL of the resource
+	 */
+	public void MarkImmutable(String url) throws IOException {
+		String key = Key(url);
+		Entry cached = Read(key);
+		if (cached != null && !cached.immutable)
+			Write(key, cached.body, cached.link, cached.etag, cached.lastModified, true);
+	}
+
+	/*
+	 * Returns a one line summary of the statistics of the cache
+	 */
+	public String Statistics() {
+		long total = hits.get() + revalidated.get() + misses.get();
+		double ratio = total == 0 ? 0 : 100.0 * (hits.get() + revalidated.get()) / total;
+		synchronized (this) {
+			return String.format("HTTP cache: %d requests, %d served from the cache, %d not modified, %d retrieved in full (%.1f%% hit ratio), %d responses (%d bytes) cached",
+					total, hits.get(), revalidated.get(), misses.get(), ratio, sizes.size(), totalBytes);
+		}
+	}
+
+	/*
+	 * This helper method reads a cached response, or returns null if it is not cached (or cannot be read)
+	 */
+	private Entry Read(String key) {
+		synchronized (this) {
+			if (!sizes.containsKey(key))
+				return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(key))))) {
+			if (in.readInt() != MAGIC)
+				return null;
+
+			boolean immutable = in.readBoolean();
+			String link = ReadString(in);
+			String etag = ReadString(in);
+			String lastModified = ReadString(in);
+			byte[] body = new byte[in.readInt()];
+			in.readFully(body);
+			return new Entry(body, link, etag, lastModified, immutable);
+		} catch (IOException e) {
+			// a response which cannot be read is simply retrieved again
+			Remove(key);
+			return null;
+		}
+	}
+
+	/*
+	 * This helper method writes a cached response, replacing the file in one step, then evicts the least recently
+	 * used responses if the cache has grown past its maximum size
+	 */
+	private void Write(String key, byte[] body, String link, String etag, String lastModified, boolean immutable) throws IOException {
+		Path temp = Files.createTempFile(directory, "response-", ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeBoolean(immutable);
+				WriteString(out, link);
+				WriteString(out, etag);
+				WriteString(out, lastModified);
+				out.writeInt(body.length);
+				out.write(body);
+			}
+			Files.move(temp, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+
+		List<String> evicted = new ArrayList<>();
+		synchronized (this) {
+			Long previous = sizes.put(key, Files.size(directory.resolve(key)));
+			totalBytes += sizes.get(key) - (previous != null ? previous : 0);
+
+			Iterator<Map.Entry<String, Long>> leastRecentlyUsed = sizes.entrySet().iterator();
+			while (totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+				Map.Entry<String, Long> oldest = leastRecentlyUsed.next();
+				if (oldest.getKey().equals(key))
+					continue;
+				totalBytes -= oldest.getValue();
+				evicted.add(oldest.getKey());
+				leastRecentlyUsed.remove();
+			}
+		}
+
+		for (String oldest : evicted)
+			Files.deleteIfExists(directory.resolve(oldest));
+	}
+
+	/*
+	 * This helper method records that a cached response has been used
+	 */
+	private void Touch(String key) {
+		synchronized (this) {
+			sizes.get(key);
+		}
+		try {
+			Files.setLastModifiedTime(directory.resolve(key), FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the order is only a hint for the next run
+		}
+	}
+
+	private void Remove(String key) {
+		synchronized (this) {
+			Long size = sizes.remove(key);
+			if (size != null)
+				totalBytes -= size;
+		}
+		try {
+			Files.deleteIfExists(directory.resolve(key));
+		} catch (IOException e) {
+			// the file will be replaced the next time the response is cached
+		}
+	}
+
+	private static String ReadString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void WriteString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	/*
+	 * This helper method derives the file name of a cached response from its URL
+	 */
+	private static String Key(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for (int i = 0; i < 16; i++)
+				key.append(String.format("%02x", digest[i]));
+			return key.append(".bin").toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,662 @@
+package com.tugboatlogic.sample;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * This class is the shared HTTP transport used by every helper to call Github Enterprise Server and Tugboat Logic.
+ *
+ * All calls go through a single java.net.http.HttpClient, which negotiates HTTP/2 where the server supports it (so that
+ * concurrent calls to a host are multiplexed over one connection), keeps HTTP/1.1 connections alive in a pool, and
+ * reuses the TLS sessions of its SSL context, so we only pay for the TLS handshake once per host rather than once per call.
+ *
+ * The transport is configured from the app.config file:
+ *  - HttpConnectTimeoutSeconds: how long to wait for a connection to be established
+ *  - HttpReadTimeoutSeconds: how long to wait for the response to a request
+ *  - HttpMaxConnectionsPerHost: the maximum number of requests in flight to a single host
+ *
+ * Requests which are safe to send again, GET requests and requests which carry an Idempotency-Key header, are retried
+ * with a jittered exponential backoff when they fail with a network error, a timeout or a transient status (408, 429
+ * or 5xx). Each endpoint (a URL path with its numeric Ids left out, e.g. /api/v3/repos/o/r/pulls/{id}) also has a
+ * CircuitBreaker, which rejects the requests to the endpoint straight away once it keeps failing:
+ *  - HttpRetryMaxAttempts: how many times a request is sent before its failure is handed to the caller
+ *  - HttpRetryBaseDelayMillis, HttpRetryMaxDelayMillis: the backoff before the first retry, and the most it grows to
+ *  - HttpCircuitBreakerThreshold: the number of failures in a row which open the circuit breaker of an endpoint
+ *  - HttpCircuitBreakerOpenSeconds: how long an open circuit breaker rejects the requests to its endpoint
+ *
+ * A host can also be given a RateLimitController (see Throttle), which adapts the number of requests in flight to the
+ * rate limits of the host, and retries the GET requests which the host throttled once it allows them again. A GET
+ * request which is still throttled after those retries is handed to the caller as it is, rather than retried again
+ * after a backoff, and throttled responses (429, or those the controller found throttled) never count against the
+ * circuit breaker, since the host is up and merely pacing us.
+ *
+ * Every request asks for a gzip compressed response (Accept-Encoding: gzip), unless HttpCompressionEnabled is false or
+ * the request asks for an encoding of its own. A compressed body is decompressed as it is read, so the JSON parsers
+ * stream through it just like through a plain body, and the helpers never see the encoding.
+ *
+ * The latency, status and bytes of every request, along with the retries, are recorded in the Metrics of its endpoint.
+ * The bytes received are those read off the wire, and the bytes which compression saved are recorded as well.
+ *
+ * Responses must be closed once read (they are AutoCloseable), which releases the connection and the host slot.
+ */
+public class HttpTransport {
+	/*
+	 * Thrown when the server returns an unexpected status code
+	 */
+	public static class StatusException extends IOException {
+		private static final long serialVersionUID = 1L;
+		private final int statusCode;
+
+		public StatusException(int statusCode, String message) {
+			super(message);
+			this.statusCode = statusCode;
+		}
+
+		public int StatusCode() {
+			return statusCode;
+		}
+	}
+
+	/*
+	 * The response to a request, the body is streamed from the connection as it is read
+	 */
+	public static class Response implements AutoCloseable {
+		private final HttpResponse<InputStream> response;
+		private final InputStream body;
+		private long bytesRead;
+		private long bytesDecoded;
+		// whether the rate limit controller of the host found the response throttled
+		private boolean throttled;
+
+		private Response(HttpResponse<InputStream> response, LongAdder receivedBytes, Runnable onClose) {
+			this.response = response;
+			InputStream received = new FilterInputStream(response.body()) {
+				private final AtomicBoolean closed = new AtomicBoolean();
+
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						receivedBytes.increment();
+						bytesRead++;
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int read = super.read(buffer, offset, length);
+					if (read > 0) {
+						receivedBytes.add(read);
+						bytesRead += read;
+					}
+					return read;
+				}
+
+				@Override
+				public void close() throws IOException {
+					if (closed.compareAndSet(false, true)) {
+						try {
+							super.close();
+						} finally {
+							onClose.run();
+						}
+					}
+				}
+			};
+			this.body = "gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse("").trim()) ? Decompress(received) : received;
+		}
+
+		/*
+		 * This helper method decompresses a gzip compressed body as it is read, the gzip header is only read along with the
+		 * first bytes of the body, so the thread which received the response headers never blocks on it
+		 */
+		private InputStream Decompress(InputStream received) {
+			return new InputStream() {
+				private InputStream decoded;
+				private boolean closed;
+
+				@Override
+				public int read() throws IOException {
+					int b = Decoded().read();
+					if (b >= 0)
+						bytesDecoded++;
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int read = Decoded().read(buffer, offset, length);
+					if (read > 0)
+						bytesDecoded += read;
+					return read;
+				}
+
+				@Override
+				public void close() throws IOException {
+					if (closed)
+						return;
+					closed = true;
+					try {
+						received.close();
+					} finally {
+						if (bytesDecoded > bytesRead)
+							Metrics.COMPRESSION_SAVED_BYTES.Add(bytesDecoded - bytesRead, "download");
+					}
+				}
+
+				private InputStream Decoded() throws IOException {
+					if (decoded == null) {
+						// an empty body (e.g. of a HEAD request) has no gzip header to read
+						PushbackInputStream pushback = new PushbackInputStream(received, 1);
+						int first = pushback.read();
+						if (first < 0) {
+							decoded = InputStream.nullInputStream();
+						} else {
+							pushback.unread(first);
+							decoded = new GZIPInputStream(pushback, 64 * 1024);
+						}
+					}
+					return decoded;
+				}
+			};
+		}
+
+		public int StatusCode() {
+			return response.statusCode();
+		}
+
+		public HttpHeaders Headers() {
+			return response.headers();
+		}
+
+		public String Header(String name) {
+			return response.headers().firstValue(name).orElse(null);
+		}
+
+		public InputStream Body() {
+			return body;
+		}
+
+		/*
+		 * Returns the number of bytes of the body read off the wire so far
+		 */
+		public long BytesRead() {
+			return bytesRead;
+		}
+
+		public URI Uri() {
+			return response.uri();
+		}
+
+		/*
+		 * Throws an IOException unless the server returned one of the expected status codes (any 2xx status by default)
+		 */
+		public Response EnsureSuccess(int... expectedStatusCodes) throws IOException {
+			int status = response.statusCode();
+			boolean expected = expectedStatusCodes.length == 0 ? status >= 200 && status < 300 : false;
+			for (int code : expectedStatusCodes)
+				expected |= status == code;
+
+			if (!expected) {
+				close();
+				throw new StatusException(status, String.format("Server returned HTTP response code: %d for URL: %s", status, response.uri()));
+			}
+			return this;
+		}
+
+		@Override
+		public void close() throws IOException {
+			body.close();
+		}
+	}
+
+	/*
+	 * Limits the number of requests in flight to a host, without blocking the threads which are waiting for a slot
+	 */
+	private static class HostSlots {
+		private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+		private int available;
+
+		HostSlots(int available) {
+			this.available = available;
+		}
+
+		synchronized int Waiting() {
+			return waiters.size();
+		}
+
+		synchronized CompletableFuture<Void> Acquire() {
+			if (available > 0) {
+				available--;
+				return CompletableFuture.completedFuture(null);
+			}
+			CompletableFuture<Void> waiter = new CompletableFuture<>();
+			waiters.add(waiter);
+			return waiter;
+		}
+
+		void Release() {
+			CompletableFuture<Void> next;
+			synchronized (this) {
+				next = waiters.poll();
+				if (next == null) {
+					available++;
+					return;
+				}
+			}
+			// hand the slot straight over to the next waiter
+			next.complete(null);
+		}
+	}
+
+	// the default settings, used until Configure is called
+	private static volatile Duration connectTimeout = Duration.ofSeconds(30);
+	private static volatile Duration readTimeout = Duration.ofSeconds(120);
+	private static volatile int maxConnectionsPerHost = 16;
+	private static volatile int retryMaxAttempts = 4;
+	private static volatile Duration retryBaseDelay = Duration.ofMillis(500);
+	private static volatile Duration retryMaxDelay = Duration.ofSeconds(30);
+	private static volatile int breakerThreshold = 5;
+	private static volatile Duration breakerOpenDuration = Duration.ofSeconds(30);
+	private static volatile boolean compression = true;
+
+	// the shared client, created on first use
+	private static volatile HttpClient client;
+
+	// the request slots of each host
+	private static final ConcurrentHashMap<String, HostSlots> hostSlots = new ConcurrentHashMap<>();
+
+	// the circuit breaker of each endpoint
+	private static final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+	// the rate limit controllers of the hosts which have one
+	private static final ConcurrentHashMap<String, RateLimitController> controllers = new ConcurrentHashMap<>();
+
+	// how many times a throttled request is sent before the throttled response is handed to the caller
+	private static final int MAX_THROTTLED_ATTEMPTS = 5;
+
+	/*
+	 * Configures the transport from the application settings, this must be called before the first request is made
+	 *
+	 * @param properties The application settings
+	 */
+	public static synchronized void Configure(Properties properties) {
+		connectTimeout = Duration.ofSeconds(Long.parseLong(properties.getProperty("HttpConnectTimeoutSeconds", "30")));
+		readTimeout = Duration.ofSeconds(Long.parseLong(properties.getProperty("HttpReadTimeoutSeconds", "120")));
+		maxConnectionsPerHost = Integer.parseInt(properties.getProperty("HttpMaxConnectionsPerHost", "16"));
+		retryMaxAttempts = Integer.parseInt(properties.getProperty("HttpRetryMaxAttempts", "4"));
+		retryBaseDelay = Duration.ofMillis(Long.parseLong(properties.getProperty("HttpRetryBaseDelayMillis", "500")));
+		retryMaxDelay = Duration.ofMillis(Long.parseLong(properties.getProperty("HttpRetryMaxDelayMillis", "30000")));
+		breakerThreshold = Integer.parseInt(properties.getProperty("HttpCircuitBreakerThreshold", "5"));
+		breakerOpenDuration = Duration.ofSeconds(Long.parseLong(properties.getProperty("HttpCircuitBreakerOpenSeconds", "30")));
+		compression = Boolean.parseBoolean(properties.getProperty("HttpCompressionEnabled", "true").trim());
+		client = null;
+		hostSlots.clear();
+		breakers.clear();
+	}
+
+	/*
+	 * Sends every request to the host of the given URL through a rate limit controller
+	 *
+	 * @param url A URL of the host
+	 * @param controller The controller, or null to stop controlling the host
+	 */
+	public static void Throttle(String url, RateLimitController controller) {
+		String host = HostOf(URI.create(url));
+		if (controller == null)
+			controllers.remove(host);
+		else
+			controllers.put(host, controller);
+	}
+
+	/*
+	 * Returns whether a failure is likely to go away if the call is made again later: a network error, a timeout,
+	 * a transient status (408, 429 or 5xx) or an open circuit breaker, rather than e.g. a rejected credential
+	 */
+	public static boolean IsTransient(Throwable failure) {
+		while ((failure instanceof CompletionException || failure instanceof UncheckedIOException || failure instanceof ExecutionException) && failure.getCause() != null)
+			failure = failure.getCause();
+
+		if (failure instanceof StatusException)
+			return IsTransientStatus(((StatusException) failure).StatusCode());
+		// an interrupted call is not worth retrying, unlike a socket which timed out
+		if (failure instanceof InterruptedIOException && !(failure instanceof SocketTimeoutException))
+			return false;
+		return failure instanceof IOException;
+	}
+
+	/*
+	 * Returns how long until every circuit breaker lets requests through again, zero if none is open
+	 */
+	public static Duration CircuitBreakersRemainingOpen() {
+		Duration longest = Duration.ZERO;
+		for (CircuitBreaker breaker : breakers.values()) {
+			Duration remaining = breaker.RemainingOpen();
+			if (remaining.compareTo(longest) > 0)
+				longest = remaining;
+		}
+		return longest;
+	}
+
+	/*
+	 * Returns the circuit breakers of the endpoints called so far
+	 */
+	public static Collection<CircuitBreaker> CircuitBreakers() {
+		return breakers.values();
+	}
+
+	/*
+	 * Creates a request builder for the given URL, with the configured read timeout
+	 */
+	public static HttpRequest.Builder NewRequest(String url) {
+		return HttpRequest.newBuilder(URI.create(url)).timeout(readTimeout);
+	}
+
+	/*
+	 * Sends a request and waits for the response headers, the body is then streamed as it is read
+	 *
+	 * @param request The request to send
+	 * @return Returns the response, which must be closed once read
+	 */
+	public static Response Send(HttpRequest request) throws IOException {
+		try {
+			return SendAsync(request).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + request.uri());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Request to " + request.uri() + " failed", e.getCause());
+		}
+	}
+
+	/*
+	 * Sends a request without blocking the calling thread
+	 *
+	 * @param request The request to send
+	 * @return Returns a future which completes with the response, which must be closed once read
+	 */
+	public static CompletableFuture<Response> SendAsync(HttpRequest request) {
+		return SendWithRetries(request, 1);
+	}
+
+	/*
+	 * This helper method sends a request through the circuit breaker of its endpoint, and retries it after a backoff if it
+	 * failed transiently and is safe to send again
+	 */
+	private static CompletableFuture<Response> SendWithRetries(HttpRequest request, int attempt) {
+		String host = HostOf(request.uri());
+		CircuitBreaker breaker = breakers.computeIfAbsent(EndpointOf(request.uri()), endpoint -> new CircuitBreaker(endpoint, breakerThreshold, breakerOpenDuration));
+		RateLimitController controller = controllers.get(host);
+
+		CompletableFuture<Response> sent;
+		try {
+			// fail straight away while the endpoint keeps failing, the caller decides whether to try again later
+			breaker.Check();
+			sent = controller != null ? SendThrottled(request, controller, 1) : Dispatch(request, () -> {});
+		} catch (IOException | RuntimeException e) {
+			sent = CompletableFuture.failedFuture(e);
+		}
+
+		return sent.handle((response, error) -> {
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+			if (cause instanceof CircuitBreaker.OpenException)
+				return CompletableFuture.<Response>failedFuture(cause);
+
+			// any response from the endpoint, other than a transient failure, shows that the endpoint is up, a throttled
+			// response included: the rate limit controller already paces the requests, so it is not held against the endpoint
+			boolean throttled = response != null && (response.throttled || response.StatusCode() == 429);
+			boolean failed = cause != null ? IsTransient(cause) : IsTransientStatus(response.StatusCode());
+			if (failed && !throttled)
+				breaker.OnFailure();
+			else
+				breaker.OnSuccess();
+
+			// a throttled GET request has already been sent again by SendThrottled until it gave up, so its response is final
+			boolean exhausted = response != null && response.throttled && request.method().equals("GET");
+			if (!failed || exhausted || !IsRetryable(request) || attempt >= retryMaxAttempts)
+				return cause != null ? CompletableFuture.<Response>failedFuture(cause) : CompletableFuture.completedFuture(response);
+
+			// wait for the backoff, or for as long as the server asked us to
+			Duration delay = Backoff(attempt);
+			if (response != null) {
+				// the failed response is thrown away first, so that its host slot is released whatever its headers hold
+				try {
+					response.close();
+				} catch (IOException e) {
+					// the failed response is thrown away
+				}
+				long retryAfterSeconds = RateLimitController.RetryAfterSeconds(response.Headers());
+				if (retryAfterSeconds > 0 && retryAfterSeconds * 1000 > delay.toMillis())
+					delay = Duration.ofSeconds(Math.min(retryAfterSeconds, retryMaxDelay.toSeconds()));
+			}
+
+			Metrics.HTTP_RETRIES.Increment(MetricEndpointOf(request.uri()));
+			System.out.println(String.format("Request to %s failed (%s), retrying in %d ms, attempt %d of %d", request.uri().getHost(),
+					cause != null ? cause.toString() : "HTTP " + response.StatusCode(), delay.toMillis(), attempt + 1, retryMaxAttempts));
+			return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS))
+					.thenCompose(ignored -> SendWithRetries(request, attempt + 1));
+		}).thenCompose(next -> next);
+	}
+
+	/*
+	 * This helper method sends a request once the rate limit controller allows it, and retries a GET request which the
+	 * host throttled once the host allows it again
+	 */
+	private static CompletableFuture<Response> SendThrottled(HttpRequest request, RateLimitController controller, int attempt) {
+		return controller.Acquire().thenCompose(ignored -> {
+			long start = System.nanoTime();
+			CompletableFuture<Response> sent;
+			try {
+				sent = Dispatch(request, controller::Release);
+			} catch (RuntimeException e) {
+				controller.Release();
+				throw e;
+			}
+
+			return sent.handle((response, error) -> {
+				if (error != null) {
+					controller.Release();
+					throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+				}
+
+				Duration retryAfter;
+				try {
+					retryAfter = controller.OnResponse(response.StatusCode(), response.Headers(), System.nanoTime() - start);
+				} catch (RuntimeException e) {
+					// the response is closed, which releases its slots, rather than leaking them along with the failure
+					try {
+						response.close();
+					} catch (IOException closeFailure) {
+						e.addSuppressed(closeFailure);
+					}
+					throw new CompletionException(e);
+				}
+				response.throttled = retryAfter != null;
+				if (retryAfter == null || !request.method().equals("GET") || attempt >= MAX_THROTTLED_ATTEMPTS)
+					return CompletableFuture.completedFuture(response);
+
+				// the host throttled the request, so release it and send it again once the host allows it
+				try {
+					response.close();
+				} catch (IOException e) {
+					// the throttled response is thrown away
+				}
+				Metrics.HTTP_THROTTLED.Increment(MetricEndpointOf(request.uri()));
+				System.out.println(String.format("Throttled by %s, retrying in %d ms", request.uri().getHost(), retryAfter.toMillis()));
+				return SendThrottled(request, controller, attempt + 1);
+			}).thenCompose(next -> next);
+		});
+	}
+
+	/*
+	 * This helper method sends a request once the host has a free slot, recording its latency, status and bytes
+	 *
+	 * @param onClose Called once the response has been closed, in addition to releasing the slot
+	 */
+	private static CompletableFuture<Response> Dispatch(HttpRequest request, Runnable onClose) {
+		HttpClient httpClient = Client();
+		// ask for a compressed response, which the Response decompresses as it is read
+		HttpRequest compressed = compression && request.headers().firstValue("Accept-Encoding").isEmpty()
+				? HttpRequest.newBuilder(request, (name, value) -> true).header("Accept-Encoding", "gzip").build()
+				: request;
+		HostSlots slots = hostSlots.computeIfAbsent(HostOf(request.uri()), host -> {
+			HostSlots created = new HostSlots(Math.max(1, maxConnectionsPerHost));
+			Metrics.HTTP_WAITING_REQUESTS.Set(created::Waiting, host);
+			return created;
+		});
+		String endpoint = MetricEndpointOf(request.uri());
+
+		return slots.Acquire().thenCompose(ignored -> {
+			long start = System.nanoTime();
+			CompletableFuture<HttpResponse<InputStream>> sent;
+			try {
+				sent = httpClient.sendAsync(compressed, HttpResponse.BodyHandlers.ofInputStream());
+			} catch (RuntimeException e) {
+				slots.Release();
+				throw e;
+			}
+			long bodyLength = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+			if (bodyLength > 0)
+				Metrics.HTTP_SENT_BYTES.Add(bodyLength, endpoint);
+
+			return sent.handle((response, error) -> {
+				Metrics.HTTP_REQUEST_SECONDS.ObserveNanos(System.nanoTime() - start, endpoint, request.method());
+				Metrics.HTTP_REQUESTS.Increment(endpoint, request.method(), error != null ? "error" : Integer.toString(response.statusCode()));
+				if (error != null) {
+					slots.Release();
+					throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+				}
+				// the slot is released once the caller has closed the response
+				return new Response(response, Metrics.HTTP_RECEIVED_BYTES.Of(endpoint), () -> {
+					slots.Release();
+					onClose.run();
+				});
+			});
+		});
+	}
+
+	/*
+	 * This helper method returns whether a request is safe to send again: a GET, or a request carrying an idempotency
+	 * key which lets the server recognise the repeated request
+	 */
+	private static boolean IsRetryable(HttpRequest request) {
+		return request.method().equals("GET") || request.headers().firstValue("Idempotency-Key").isPresent();
+	}
+
+	private static boolean IsTransientStatus(int status) {
+		return status == 408 || status == 429 || status >= 500;
+	}
+
+	/*
+	 * This helper method returns the backoff before a retry, doubling with each attempt up to the maximum, picked at
+	 * random below it (full jitter) so that the requests which failed together are not all retried at the same time
+	 */
+	private static Duration Backoff(int attempt) {
+		long ceiling = Math.min(retryMaxDelay.toMillis(), retryBaseDelay.toMillis() << Math.min(attempt - 1, 20));
+		return Duration.ofMillis(ThreadLocalRandom.current().nextLong(Math.max(1, ceiling) + 1));
+	}
+
+	/*
+	 * This helper method returns the shared client, creating it on first use
+	 */
+	private static HttpClient Client() {
+		HttpClient httpClient = client;
+		if (httpClient == null) {
+			synchronized (HttpTransport.class) {
+				if (client == null) {
+					AtomicLong counter = new AtomicLong();
+					client = HttpClient.newBuilder()
+							.version(HttpClient.Version.HTTP_2)
+							.connectTimeout(connectTimeout)
+							.followRedirects(HttpClient.Redirect.NORMAL)
+							.executor(Executors.newCachedThreadPool(runnable -> {
+								Thread thread = new Thread(runnable, "http-transport-" + counter.getAndIncrement());
+								thread.setDaemon(true);
+								return thread;
+							}))
+							.build();
+				}
+				httpClient = client;
+			}
+		}
+		return httpClient;
+	}
+
+	/*
+	 * This helper method returns the endpoint that a request is sent to: its host and path, with the path segments
+	 * which are numeric Ids (such as the number of a pull request) left out, so that e.g. the details of every pull
+	 * request share a circuit breaker (and metrics), separate from those of the search endpoint
+	 */
+	static String EndpointOf(URI uri) {
+		return EndpointOf(uri, false);
+	}
+
+	/*
+	 * This helper method returns the endpoint that a request is sent to as the label of its metrics: like EndpointOf,
+	 * with the owner and name of a repository and the login of an organization left out too, so that a run over many
+	 * repositories does not add a time series for each of them
+	 */
+	static String MetricEndpointOf(URI uri) {
+		return EndpointOf(uri, true);
+	}
+
+	private static String EndpointOf(URI uri, boolean template) {
+		StringBuilder endpoint = new StringBuilder(uri.getHost() != null ? uri.getHost().toLowerCase() : "");
+		if (uri.getPort() >= 0)
+			endpoint.append(':').append(uri.getPort());
+		String path = uri.getPath() != null ? uri.getPath() : "";
+		// the names still to be left out after a repos or orgs segment
+		String[] names = {};
+		int next = 0;
+		for (String segment : path.split("/")) {
+			if (segment.isEmpty())
+				continue;
+			if (next < names.length) {
+				endpoint.append('/').append(names[next++]);
+				continue;
+			}
+			endpoint.append('/').append(segment.chars().allMatch(Character::isDigit) ? "{id}" : segment);
+			if (template && (segment.equals("repos") || segment.equals("orgs"))) {
+				names = segment.equals("repos") ? new String[] { "{owner}", "{repo}" } : new String[] { "{org}" };
+				next = 0;
+			}
+		}
+		return endpoint.toString();
+	}
+
+	/*
+	 * This helper method returns the host (and port) that a request is sent to
+	 */
+	private static String HostOf(URI uri) {
+		return (uri.getHost() != null ? uri.getHost().toLowerCase() : "") + ":" + uri.getPort();
+	}
+}
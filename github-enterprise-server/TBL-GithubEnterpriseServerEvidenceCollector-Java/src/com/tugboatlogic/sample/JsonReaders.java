@@ -0,0 +1,61 @@
+package com.tugboatlogic.sample;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.tugboatlogic.sample.models.GitHubGraphQLResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestCommentsResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestReviewsResponseModel;
+import com.tugboatlogic.sample.models.GitHubQueryItem;
+import com.tugboatlogic.sample.models.GitHubQueryResponseModel;
+import com.tugboatlogic.sample.models.GitHubRepositoryResponseModel;
+import com.tugboatlogic.sample.models.TugboatLogicResponseModel;
+
+/*
+ * This class holds the shared Jackson readers used to convert the JSON responses to POJOs.
+ *
+ * Building an ObjectMapper is expensive, so it is configured once and the readers for each of our response models are
+ * pre-built from it. ObjectReader instances are immutable and thread-safe, so they can be shared by every request.
+ * The same goes for the writers, such as the one which normalizes the records before they are hashed by the EvidenceIndex.
+ */
+public class JsonReaders {
+	// configure the object mapper for converting the JSON responses to POJO
+	private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	// a whole page of a Github Enterprise Server search result, used for small probes
+	public static final ObjectReader QUERY_RESPONSE = MAPPER.readerFor(GitHubQueryResponseModel.class);
+
+	// a single item of a Github Enterprise Server search result
+	public static final ObjectReader SEARCH_ITEM = MAPPER.readerFor(GitHubQueryItem.class);
+
+	// the details of a pull request
+	public static final ObjectReader PULL_REQUEST = MAPPER.readerFor(GitHubPullRequestResponseModel.class);
+
+	// a single comment of a pull request
+	public static final ObjectReader COMMENT = MAPPER.readerFor(GitHubPullRequestCommentsResponseModel.class);
+
+	// a single review of a pull request
+	public static final ObjectReader REVIEW = MAPPER.readerFor(GitHubPullRequestReviewsResponseModel.class);
+
+	// a single repository of an organization
+	public static final ObjectReader REPOSITORY = MAPPER.readerFor(GitHubRepositoryResponseModel.class);
+	
+	// the response of the pull request query of the Github Enterprise Server GraphQL API
+	public static final ObjectReader GRAPHQL_RESPONSE = MAPPER.readerFor(GitHubGraphQLResponseModel.class);
+
+	// the response of the Tugboat Logic evidence upload endpoint
+	public static final ObjectReader TUGBOAT_LOGIC_RESPONSE = MAPPER.readerFor(TugboatLogicResponseModel.class);
+
+	// writes the body of a request, such as a GraphQL query along with its variables
+	public static final ObjectWriter WRITER = MAPPER.writer();
+
+	// writes a record as JSON with its properties in a stable order, so that equal records always hash the same
+	public static final ObjectWriter CANONICAL_WRITER = MAPPER.copy()
+			.configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+			.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+			.writer();
+}
@@ -0,0 +1,308 @@
+package com.tugboatlogic.sample;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * This class runs the collector as a pipeline of stages (e.g. fetch -> render -> upload), so that the network, the CPU
+ * and the upload bandwidth are all kept busy at the same time rather than one after the other.
+ *
+ * Each stage has its own pool of workers, sized for the kind of work it does, and takes its items from a bounded queue.
+ * When a stage falls behind its input queue fills up, which blocks the stage before it (backpressure), so no stage can
+ * run arbitrarily far ahead of the others. Each stage keeps statistics on its queue depth, how busy its workers are and
+ * how long the previous stage was blocked on it, which shows which stage is the bottleneck. The queue depths are also
+ * recorded in the Metrics, under the name of the pipeline and the stage.
+ *
+ * Stages are added from the last to the first, since each stage hands its results to the next one. A fan-out stage hands
+ * each of the items of its result to the next stage, e.g. to fetch the pull requests in batches and render them one by one.
+ *
+ * Once a stage fails, the pipeline stops processing items: the remaining items are drained and discarded (closing those
+ * which hold resources, such as evidence buffers) so that no stage is left blocked, and the first failure is reported
+ * when the pipeline is closed.
+ */
+public class Pipeline implements AutoCloseable {
+	/*
+	 * The work done by a stage for a single item, returning the item to hand to the next stage (or null for none)
+	 */
+	@FunctionalInterface
+	public interface StageFunction<I, O> {
+		O Apply(I item) throws Exception;
+	}
+
+	// the marker which tells a worker that there are no more items
+	private static final Object END = new Object();
+
+	/*
+	 * A stage of the pipeline, which takes items of type I from its queue and hands items of type O to the next stage
+	 */
+	public class Stage<I, O> {
+		private final String name;
+		private final String queueName;
+		private final int workers;
+		private final int capacity;
+		private final BlockingQueue<Object> queue;
+		private final StageFunction<I, ?> function;
+		private final boolean fanOut;
+		private final Stage<O, ?> next;
+		private final AtomicInteger running;
+		private final CountDownLatch finished;
+
+		// the statistics of the stage
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+		private final AtomicLong idleNanos = new AtomicLong();
+		private final AtomicLong blockedNanos = new AtomicLong();
+		private final AtomicLong depthSamples = new AtomicLong();
+		private final AtomicLong depthTotal = new AtomicLong();
+		private final AtomicInteger depthMax = new AtomicInteger();
+		private volatile long startNanos;
+		private volatile long endNanos;
+
+		private Stage(String name, int workers, int capacity, StageFunction<I, ?> function, boolean fanOut, Stage<O, ?> next) {
+			this.name = name;
+			this.queueName = pipelineName + "-" + name;
+			this.workers = Math.max(1, workers);
+			this.capacity = Math.max(1, capacity);
+			this.queue = new ArrayBlockingQueue<>(this.capacity);
+			this.function = function;
+			this.fanOut = fanOut;
+			this.next = next;
+			this.running = new AtomicInteger(this.workers);
+			this.finished = new CountDownLatch(1);
+		}
+
+		/*
+		 * Hands an item to the stage, blocking while its queue is full
+		 */
+		public void Put(I item) throws InterruptedException {
+			if (!queue.offer(item)) {
+				long start = System.nanoTime();
+				queue.put(item);
+				blockedNanos.addAndGet(System.nanoTime() - start);
+			}
+		}
+
+		/*
+		 * Tells the stage that there are no more items, the stage then tells the next one once it has finished
+		 */
+		private void Complete() throws InterruptedException {
+			for (int i = 0; i < workers; i++)
+				queue.put(END);
+		}
+
+		private void Start() {
+			startNanos = System.nanoTime();
+			for (int i = 0; i < workers; i++) {
+				Thread thread = new Thread(this::Work, pipelineName + "-" + name + "-" + i);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		/*
+		 * The loop run by each worker of the stage
+		 */
+		@SuppressWarnings("unchecked")
+		private void Work() {
+			try {
+				while (true) {
+					long waitStart = System.nanoTime();
+					Object item = queue.take();
+					idleNanos.addAndGet(System.nanoTime() - waitStart);
+					if (item == END)
+						break;
+
+					// sample the depth of the queue as each item is taken, i.e. the items still waiting behind it
+					SampleDepth(queue.size());
+
+					// once the pipeline has failed the remaining items are discarded
+					if (failure.get() != null) {
+						Discard(item);
+						continue;
+					}
+
+					long busyStart = System.nanoTime();
+					try {
+						Object result = function.Apply((I) item);
+						if (fanOut && result != null) {
+							for (Object each : (Iterable<?>) result)
+								Hand((O) each);
+						} else if (result != null) {
+							Hand((O) result);
+						}
+						processed.incrementAndGet();
+					} catch (InterruptedException e) {
+						throw e;
+					} catch (Exception e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						busyNanos.addAndGet(System.nanoTime() - busyStart);
+					}
+				}
+			} catch (InterruptedException e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				// the last worker to finish tells the next stage that there are no more items
+				if (running.decrementAndGet() == 0) {
+					endNanos = System.nanoTime();
+					try {
+						if (next != null)
+							next.Complete();
+					} catch (InterruptedException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						finished.countDown();
+					}
+				}
+			}
+		}
+
+		/*
+		 * Hands a result to the next stage, or discards it if there is no next stage or the pipeline has failed
+		 */
+		private void Hand(O result) throws InterruptedException {
+			if (result == null)
+				return;
+			if (next != null && failure.get() == null)
+				next.Put(result);
+			else
+				Discard(result);
+		}
+
+		private void SampleDepth(int depth) {
+			depthSamples.incrementAndGet();
+			depthTotal.addAndGet(depth);
+			depthMax.accumulateAndGet(depth, Math::max);
+			Metrics.QUEUE_DEPTH.Observe(depth, queueName);
+		}
+
+		/*
+		 * Returns a one line summary of the statistics of the stage
+		 */
+		public String Statistics() {
+			long elapsed = Math.max(1, (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos);
+			long samples = depthSamples.get();
+			double averageDepth = samples == 0 ? 0 : (double) depthTotal.get() / samples;
+			double busy = 100.0 * busyNanos.get() / ((double) elapsed * workers);
+			return String.format("Stage %-8s %3d workers, %6d items, %5.1f%% busy, queue depth avg %5.1f max %3d of %d, previous stage blocked %d ms, workers idle %d ms",
+					name, workers, processed.get(), Math.min(100.0, busy), averageDepth, depthMax.get(), capacity,
+					blockedNanos.get() / 1_000_000, idleNanos.get() / 1_000_000 / workers);
+		}
+	}
+
+	private final String pipelineName;
+	private final List<Stage<?, ?>> stages = new ArrayList<>();
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+	private boolean started;
+
+	/*
+	 * @param name The name prefix of the worker threads
+	 */
+	public Pipeline(String name) {
+		this.pipelineName = name;
+	}
+
+	/*
+	 * Adds a stage in front of the stages added so far
+	 *
+	 * @param name The name of the stage, used in the statistics
+	 * @param workers The number of workers of the stage
+	 * @param capacity The number of items which can wait in the queue of the stage
+	 * @param function The work done for each item
+	 * @param next The stage which the results are handed to, or null for the last stage
+	 * @return Returns the stage
+	 */
+	public <I, O> Stage<I, O> AddStage(String name, int workers, int capacity, StageFunction<I, O> function, Stage<O, ?> next) {
+		return Add(new Stage<>(name, workers, capacity, function, false, next));
+	}
+
+	/*
+	 * Adds a fan-out stage in front of the stages added so far, which hands each of the items of its result to the next stage
+	 *
+	 * @param name The name of the stage, used in the statistics
+	 * @param workers The number of workers of the stage
+	 * @param capacity The number of items which can wait in the queue of the stage
+	 * @param function The work done for each item, returning the items to hand to the next stage (or null for none)
+	 * @param next The stage which the items of the results are handed to, or null for the last stage
+	 * @return Returns the stage
+	 */
+	public <I, O> Stage<I, O> AddFanOutStage(String name, int workers, int capacity, StageFunction<I, ? extends Iterable<O>> function, Stage<O, ?> next) {
+		return Add(new Stage<I, O>(name, workers, capacity, function, true, next));
+	}
+
+	private <I, O> Stage<I, O> Add(Stage<I, O> stage) {
+		if (started)
+			throw new IllegalStateException("Stages must be added before the pipeline is started");
+
+		stages.add(0, stage);
+		return stage;
+	}
+
+	/*
+	 * Starts the workers of every stage
+	 */
+	public void Start() {
+		started = true;
+		for (Stage<?, ?> stage : stages)
+			stage.Start();
+	}
+
+	/*
+	 * Returns the first failure of any stage, or null if none has failed
+	 */
+	public Exception Failure() {
+		return failure.get();
+	}
+
+	/*
+	 * Returns a summary of the statistics of each stage, from the first to the last
+	 */
+	public String Statistics() {
+		StringBuilder sb = new StringBuilder();
+		for (Stage<?, ?> stage : stages)
+			sb.append(stage.Statistics()).append(System.lineSeparator());
+		return sb.toString();
+	}
+
+	/*
+	 * Tells the first stage there are no more items, and waits for every stage to finish its remaining items
+	 *
+	 * @throws InterruptedIOException Thrown when interrupted while waiting, with the interrupt flag of the thread restored
+	 */
+	@Override
+	public void close() throws InterruptedIOException {
+		if (!started || stages.isEmpty())
+			return;
+
+		try {
+			stages.get(0).Complete();
+			for (Stage<?, ?> stage : stages)
+				stage.finished.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting for the pipeline to drain");
+			interrupted.initCause(e);
+			throw interrupted;
+		}
+	}
+
+	/*
+	 * This helper method releases an item which will not be processed
+	 */
+	private static void Discard(Object item) {
+		if (item instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) item).close();
+			} catch (Exception e) {
+				// the item is being thrown away, so there is nothing more we can do with it
+			}
+		}
+	}
+}
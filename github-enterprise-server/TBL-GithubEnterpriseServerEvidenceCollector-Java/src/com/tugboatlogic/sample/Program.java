@@ -1,136 +1,817 @@
-package com.tugboatlogic.sample;
-
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.text.ParseException;
-import java.util.Properties;
-
-import com.tugboatlogic.sample.models.GitHubPullRequestCommentsResponseModel;
-import com.tugboatlogic.sample.models.GitHubPullRequestReviewsResponseModel;
-
-/*
- * This sample console application is a working example that demonstrates how to query the
- * Github Enterprise Server REST API for a list of closed pull requests. And then assemble the
- * results into a CSV document and upload it to the Tugboat Logic evidence collection endpoint.
- * 
- * Using this sample application as an example, customers are able to build other integrations,
- * simply by replacing the Github Enterprise integration pieces with integration code for other platforms
- * of choice.
- */
-public class Program {
-	public static void main(String[] args) throws ParseException {
-
-		// start the console application and wait for user input
-		System.out.println("Starting custom Evidence Collector sample for Github Enterprise Server");
-		System.out.println("Press enter key to continue...");
-		try
-        {
-            System.in.read();
-        }  
-        catch(Exception e)
-        {}  
-		
-		 // grab all the configuration settings from app.config file
-		Properties properties = LoadAppSettings();
-		
-		// the Github Enterprise Server REST API endpoint
-		String githubServerEndpointUrl = properties.getProperty("GitHubServerRestEndpoint");
-		
-		// the personal access token to authenticate with Github Enterprise Server
-		String githubServerAccessToken = properties.getProperty("GitHubServerAccessToken");
-		
-		// the query to use when querying Github Enterprise Server
-		String githubQuery = properties.getProperty("GitHubServerQuery");
-		
-		// the local file system path where to store the generated Excel document
-		String localOutputPath = properties.getProperty("LocalOutputPath");
-		
-		// the Tugboat Logic evidence collection endpoint Url
-		String tugboatLogicCollectionUrl = properties.getProperty("TugboatLogicCollectorUrl");
-		
-		// the username used to authenticate with the Tugboat Logic evidence collection endpoint
-		String tugboatLogicUsername = properties.getProperty("TugboatLogicUsername");
-		
-		// the password used to authenticate with the Tugboat Logic evidence collection endpoint
-		String tugboatLogicPassword = properties.getProperty("TugboatLogicPassword");
-		
-		// the API key used to authenticate with the Tugboat Logic evidence collection endpoint
-		String tugboatLogicApiKey = properties.getProperty("TugboatLogicApiKey");
-		
-        try {
-        	// query and retrieve the records from Github Enterprise Server
-            // if this example is being used to build an integration for another platform, this is where
-            // you would replace the Github Enterprise Server sample code with a query to your own data source 
-			var records = GitHubServerHelper.QueryGithubServer(githubServerEndpointUrl, githubServerAccessToken, githubQuery);
-			
-			System.out.println("Results retrieved from Github Enterprise Server");
-			
-			 // did we get a valid response from Github Enterprise Server, if so, generate the Excel document in a specific format
-            // and then proceed to upload the CSV document to the Tugboat Logic evidence collection endpoint
-			if(records != null) {
-				for(var record : records.items) {
-					// get the pull request details for the record
-                    var pullRequestDetails = GitHubServerHelper.RetrieveGithubServerPullRequestDetails(record.pull_request.url, githubServerAccessToken);
-
-                    // get the pull request comments for the record
-                    var pullRequestComments = GitHubServerHelper.RetrieveGithubServerComments(pullRequestDetails._links.comments.href, githubServerAccessToken);
-
-                    // get the pull request details for the record
-                    var pullRequestReviews = GitHubServerHelper.RetrieveGithubServerReviews(pullRequestDetails.url+"/reviews", githubServerAccessToken);
-					
-                    // create the evidence file (CSV document) for GitHub Enterprise Server
-                    // if you are customizing this evidence collector for use on another platform, this method
-                    // will require modification to support the required data fields/attributes for that platform
-    				
-    				var outputStream = CsvHelper.CreateCsvDocument(localOutputPath, pullRequestDetails, pullRequestComments, pullRequestReviews);
-    				
-    				System.out.println("CSV output file created");
-    				
-    				// upload the evidence file to Tugboat Logic
-                    // this code is common and would require minimal modification if you intend to use
-                    // it to upload evidence from another platform
-    				var result = TugboatLogicHelper.UploadEvidence(tugboatLogicCollectionUrl, tugboatLogicUsername, tugboatLogicPassword, tugboatLogicApiKey, outputStream);
-    				
-    				System.out.println(String.format("Evidence uploaded to Tugboat Logic, result Id #%s", result.id));
-				}		
-				
-				System.out.println("Press enter key to continue...");
-				System.in.read();
-			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-    }
-	
-	/*
-	 * Helper method to load the application settings from the app.config file
-	 */
-	private static Properties LoadAppSettings() {
-		// create an empty properties object
-		Properties prop = new Properties();
-		
-		// set the filename
-		String fileName = "app.config";
-		
-		// create the input stream to use
-		InputStream is = null;
-		try {
-			// load the file content into the input stream
-		    is = new FileInputStream(fileName);		    
-		} catch (FileNotFoundException ex) {
-		    
-		}
-		try {
-			// load the properties from the input stream
-		    prop.load(is);
-		    return prop;
-		} catch (IOException ex) {
-		    
-		}		
-		
-		return null;
-	}
-}
+package com.tugboatlogic.sample;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import com.tugboatlogic.sample.models.GitHubPullRequestCommentsResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestResponseModel;
+import com.tugboatlogic.sample.models.GitHubPullRequestReviewsResponseModel;
+import com.tugboatlogic.sample.models.GitHubQueryItem;
+
+/*
+ * This sample console application is a working example that demonstrates how to query the
+ * Github Enterprise Server REST API for a list of closed pull requests. And then assemble the
+ * results into a CSV document and upload it to the Tugboat Logic evidence collection endpoint.
+ * 
+ * Using this sample application as an example, customers are able to build other integrations,
+ * simply by replacing the Github Enterprise integration pieces with integration code for other platforms
+ * of choice.
+ */
+public class Program {
+	public static void main(String[] args) throws ParseException {
+
+		// read the command line, which may ask for the service mode, a single run without the prompts, another
+		// settings file, or override any of the settings
+		CommandLine commandLine;
+		try {
+			commandLine = CommandLine.Parse(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(CommandLine.USAGE);
+			System.exit(2);
+			return;
+		}
+		
+		// start the console application and wait for user input
+		System.out.println("Starting custom Evidence Collector sample for Github Enterprise Server");
+		if (commandLine.interactive) {
+			System.out.println("Press enter key to continue...");
+			try
+	        {
+	            System.in.read();
+	        }  
+	        catch(Exception e)
+	        {}  
+		}
+		
+		 // grab all the configuration settings from app.config file, along with those given on the command line
+		Properties properties = LoadAppSettings(commandLine.configFile);
+		if (properties == null) {
+			System.out.println(String.format("The settings file %s could not be read", commandLine.configFile));
+			System.exit(1);
+			return;
+		}
+		properties.putAll(commandLine.settings);
+		
+		// configure the shared HTTP transport (timeouts and connections per host) used by every helper
+		HttpTransport.Configure(properties);
+		
+		// configure how much of each evidence file is buffered in memory before it is spilled to disk
+		EvidenceBuffer.Configure(properties);
+		
+		// configure whether the evidence files are uploaded gzip compressed
+		TugboatLogicHelper.Configure(properties);
+		
+		// configure the on-disk cache of the pull request details, comments and reviews
+		HttpCache.Configure(properties);
+		
+		// configure the metrics of the run, which are exposed on a local Prometheus endpoint and summarized once the run is over
+		Metrics.Configure(properties);
+		
+		// start the continuous flight recording of the fetch, render and upload events (optional)
+		FlightEvents.Configure(properties);
+		
+		// in the service mode the collections are run on a schedule, within this JVM, until it is shut down
+		if (commandLine.service) {
+			try {
+				new CollectorService(properties, stopRequested -> Collect(properties, false, stopRequested)).Run();
+			} catch (IOException | IllegalArgumentException e) {
+				System.out.println(String.format("The collector service could not be started: %s", e.getMessage()));
+				System.exit(1);
+			} catch (IllegalStateException e) {
+				System.out.println(String.format("The collector service stopped: %s", e.getMessage()));
+				System.exit(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		
+		try {
+			Collect(properties, commandLine.interactive, () -> false);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} catch (UncheckedIOException e) {
+			// a page of results could not be retrieved while iterating over the records
+			e.getCause().printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// write the summary of the metrics, whether or not the run succeeded
+			Metrics.WriteSummary();
+			Metrics.Stop();
+		}
+    }
+	
+	/*
+	 * This method runs a single collection: it queries Github Enterprise Server for the pull requests, creates their
+	 * evidence files and uploads them to Tugboat Logic
+	 * 
+	 * @param properties The application settings
+	 * @param interactive Whether to wait for the enter key once the collection is over
+	 * @param stopRequested Tells whether to stop taking new pull requests, those already taken are still uploaded
+	 * @return Returns a short description of the outcome of the collection
+	 */
+	private static String Collect(Properties properties, boolean interactive, BooleanSupplier stopRequested) throws IOException, ParseException, InterruptedException {
+		
+		// the Github Enterprise Server REST API endpoint
+		String githubServerEndpointUrl = properties.getProperty("GitHubServerRestEndpoint");
+		
+		// the personal access token to authenticate with Github Enterprise Server
+		String githubServerAccessToken = properties.getProperty("GitHubServerAccessToken");
+		
+		// the query to use when querying Github Enterprise Server
+		String githubQuery = properties.getProperty("GitHubServerQuery");
+		
+		// the local file system path where to store the generated Excel document
+		String localOutputPath = properties.getProperty("LocalOutputPath");
+		
+		// the Tugboat Logic evidence collection endpoint Url
+		String tugboatLogicCollectionUrl = properties.getProperty("TugboatLogicCollectorUrl");
+		
+		// the username used to authenticate with the Tugboat Logic evidence collection endpoint
+		String tugboatLogicUsername = properties.getProperty("TugboatLogicUsername");
+		
+		// the password used to authenticate with the Tugboat Logic evidence collection endpoint
+		String tugboatLogicPassword = properties.getProperty("TugboatLogicPassword");
+		
+		// the API key used to authenticate with the Tugboat Logic evidence collection endpoint
+		String tugboatLogicApiKey = properties.getProperty("TugboatLogicApiKey");
+		
+		// the maximum number of pull requests to collect concurrently
+		int maxConcurrency = Integer.parseInt(properties.getProperty("GitHubServerMaxConcurrency", "8"));
+		
+		// limits how many calls are made concurrently to each host (Github Enterprise Server and Tugboat Logic)
+		HostConcurrencyLimiter hostLimiter = new HostConcurrencyLimiter(properties, maxConcurrency);
+		
+		// whether to adapt the number of requests in flight to Github Enterprise Server to its rate limits, up to the given maximum
+		boolean adaptiveConcurrency = Boolean.parseBoolean(properties.getProperty("GitHubServerAdaptiveConcurrency", "true"));
+		int maxRequestsInFlight = Integer.parseInt(properties.getProperty("GitHubServerMaxRequestsInFlight", "16"));
+		
+		// the fraction of the rate limit budget below which the remaining requests are spaced out until the budget is reset
+		double rateLimitReserve = Double.parseDouble(properties.getProperty("GitHubServerRateLimitReserve", "0.1"));
+		
+		// every call to Github Enterprise Server goes through the shared rate limit controller
+		RateLimitController rateLimitController = adaptiveConcurrency ? new RateLimitController(maxRequestsInFlight, rateLimitReserve) : null;
+		HttpTransport.Throttle(githubServerEndpointUrl, rateLimitController);
+		
+		// whether the pull requests are retrieved one by one from the REST API (Rest), or in batches from the GraphQL API (GraphQL)
+		boolean graphqlMode = properties.getProperty("GitHubServerFetchMode", "Rest").trim().equalsIgnoreCase("GraphQL");
+		
+		// the most pull requests retrieved by a single GraphQL query, and the rate limit cost each query should come close to
+		int graphqlMaxBatchSize = Integer.parseInt(properties.getProperty("GitHubServerGraphQLMaxBatchSize", "50"));
+		int graphqlTargetCost = Integer.parseInt(properties.getProperty("GitHubServerGraphQLTargetCost", "10"));
+		
+		// the number of GraphQL queries sent at the same time, each of them retrieves a whole batch of pull requests
+		int graphqlConcurrency = Integer.parseInt(properties.getProperty("GitHubServerGraphQLConcurrency", "2"));
+		
+		// whether each pull request is uploaded on its own (PerPullRequest), or batched into ZIP archives (Zip) or consolidated CSV documents (Csv)
+		var uploadMode = EvidenceBatcher.UploadMode.Parse(properties.getProperty("TugboatLogicUploadMode", "PerPullRequest"));
+		
+		// the size at which a batch of pull requests is uploaded and a new batch is started
+		long batchMaxBytes = Long.parseLong(properties.getProperty("TugboatLogicBatchMaxBytes", "52428800"));
+		
+		// the number of workers of each stage of the pipeline: fetching the pull requests from Github Enterprise Server,
+		// rendering their CSV documents, and uploading them to Tugboat Logic
+		int fetchWorkers = Integer.parseInt(properties.getProperty("PipelineFetchWorkers", Integer.toString(maxConcurrency)));
+		int renderWorkers = Integer.parseInt(properties.getProperty("PipelineRenderWorkers", "2"));
+		int uploadWorkers = Integer.parseInt(properties.getProperty("PipelineUploadWorkers", "2"));
+		
+		// the number of items which can wait in the queue in front of each stage of the pipeline
+		int queueCapacity = Integer.parseInt(properties.getProperty("PipelineQueueCapacity", "32"));
+		
+		// whether to collect only the pull requests updated since the previous run, rather than the last 90 days
+		boolean incremental = Boolean.parseBoolean(properties.getProperty("IncrementalMode", "true"));
+		
+		// the file which keeps the high-water mark of the previous run
+		String stateFile = properties.getProperty("IncrementalStateFile", "collector-state.properties");
+		
+		// how far before the high-water mark an incremental run starts collecting, to pick up late updates
+		int overlapMinutes = Integer.parseInt(properties.getProperty("IncrementalOverlapMinutes", "60"));
+		
+		// whether to skip the pull requests which have not changed since their evidence was uploaded
+		boolean deduplicate = Boolean.parseBoolean(properties.getProperty("DeduplicateEvidence", "true"));
+		
+		// the file which keeps the hashes of the evidence uploaded so far
+		String indexFile = properties.getProperty("EvidenceIndexFile", "evidence-index.bin");
+		
+		// how many more times the pull requests which failed transiently are collected again, once the others are done
+		int retryPasses = Integer.parseInt(properties.getProperty("RetryQueuePasses", "2"));
+		
+		// how long to wait before collecting the failed pull requests again, at least until the circuit breakers let requests through
+		Duration retryDelay = Duration.ofSeconds(Long.parseLong(properties.getProperty("RetryQueueDelaySeconds", "10")));
+		
+		// the number of targets whose pull requests are searched for at the same time, the pull requests of every target
+		// are then collected by the same pipeline, taking turns
+		int targetConcurrency = Integer.parseInt(properties.getProperty("GitHubServerTargetConcurrency", "4"));
+		
+		// the repositories to collect from (those of an organization are listed here), or the query on its own
+		List<CollectionTarget> targets = CollectionTarget.Resolve(properties, githubServerEndpointUrl, githubServerAccessToken, githubQuery, localOutputPath);
+		
+		// in incremental mode, only the pull requests updated since the high-water mark of the previous run are collected
+		CollectorState state = incremental ? CollectorState.Load(Paths.get(stateFile)) : null;
+		
+		// a single probe of each target tells us whether anything has changed since the previous run, in which case there is nothing to collect from it
+		List<CollectionTarget> changed = new ArrayList<>();
+		for (CollectionTarget target : targets) {
+			target.mark = state != null ? state.Get(target.stateKey) : null;
+			target.since = target.mark != null ? target.mark.WindowStart(overlapMinutes) : null;
+			if (target.mark != null) {
+				try {
+					var probe = GitHubServerHelper.ProbeGithubServer(githubServerEndpointUrl, githubServerAccessToken, target.query, target.since);
+					var newest = probe.items.length > 0 ? ParseTimestamp(probe.items[0].updated_at) : null;
+					if (target.mark.IsUnchanged(probe.total_count, newest)) {
+						System.out.println(String.format("Nothing has changed in %s since %s, there is no evidence to collect", target.name, target.mark.watermark));
+						target.unchanged = true;
+						continue;
+					}
+				} catch (IOException e) {
+					// a single target fails the run just like it always has, otherwise the other targets are still collected
+					if (targets.size() == 1)
+						throw e;
+					target.Fail(e);
+					continue;
+				}
+			}
+			changed.add(target);
+		}
+		if (changed.isEmpty() && targets.stream().allMatch(target -> target.unchanged))
+			return "nothing has changed";
+		
+		// query and retrieve the records from Github Enterprise Server, the records of each target are retrieved lazily
+		// once it is its turn to be searched
+	    // if this example is being used to build an integration for another platform, this is where
+	    // you would replace the Github Enterprise Server sample code with a query to your own data source 
+		if (targets.size() == 1)
+			System.out.println("Results retrieved from Github Enterprise Server");
+		else
+			System.out.println(String.format("Collecting from %d of %d targets in Github Enterprise Server", changed.size(), targets.size()));
+		
+		// the comments and reviews of each pull request are retrieved in parallel on sub-tasks of the fetch workers
+		BoundedExecutor executor = new BoundedExecutor("github-collector");
+		
+		// in GraphQL mode the pull requests are retrieved in batches, whose size adapts to the cost of the queries
+		GitHubGraphQLFetcher graphql = graphqlMode ? new GitHubGraphQLFetcher(githubServerEndpointUrl, githubServerAccessToken, graphqlMaxBatchSize, graphqlTargetCost) : null;
+		
+		// the hashes of the pull requests uploaded by the previous runs, along with the number skipped by this run
+		EvidenceIndex index = deduplicate ? EvidenceIndex.Load(Paths.get(indexFile)) : null;
+		AtomicInteger unchanged = new AtomicInteger();
+		
+		// the pull requests which failed transiently (keyed by their URL), they are collected again once the others are done
+		Map<String, PendingPullRequest> retryQueue = new ConcurrentHashMap<>();
+		
+		// in a batch upload mode, the pull requests are combined into a few evidence files rather than uploaded one by one,
+		// each target has batches of its own, so that its evidence files only hold its own pull requests
+		if (uploadMode != EvidenceBatcher.UploadMode.PerPullRequest) {
+			for (CollectionTarget target : changed) {
+				target.batcher = new EvidenceBatcher(uploadMode, batchMaxBytes, targets.size() > 1 ? target.name : null,
+						(evidence, fileName, contentType) -> hostLimiter.Call(tugboatLogicCollectionUrl, () -> TugboatLogicHelper.UploadEvidence(tugboatLogicCollectionUrl, tugboatLogicUsername, tugboatLogicPassword, tugboatLogicApiKey, evidence, fileName, contentType)));
+			}
+		}
+		
+		// the first failure which cannot be retried and is not down to a single target, e.g. rejected credentials
+		Exception failure = null;
+		
+		// whether the collection was asked to stop before every pull request had been taken
+		boolean stoppedEarly = false;
+		
+		try {
+			// the first pass collects every pull request, each following pass collects those in the retry queue
+			Map<CollectionTarget, List<PendingPullRequest>> retries = null;
+			for (int pass = 0; ; pass++) {
+				// the pull requests flow through a pipeline of stages, so that the pull requests are fetched, rendered and
+				// uploaded at the same time, the stages are added from the last to the first
+				String pipelineName = pass == 0 ? "github-collector" : "github-collector-retry-" + pass;
+				Pipeline pipeline = new Pipeline(pipelineName);
+				var upload = pipeline.AddStage("upload", uploadWorkers, queueCapacity, RetryLater(
+						(EvidenceDocument document) -> UploadPullRequest(document, tugboatLogicCollectionUrl, tugboatLogicUsername, tugboatLogicPassword, tugboatLogicApiKey, hostLimiter, index, retryQueue),
+						document -> List.of(document.pullRequest), retryQueue, false), null);
+				var render = pipeline.AddStage("render", renderWorkers, queueCapacity, RetryLater(
+						(PullRequestEvidence pullRequest) -> RenderPullRequest(pullRequest, index, unchanged),
+						pullRequest -> List.of(pullRequest.pullRequest), retryQueue, true), upload);
+				
+				// the first stage fetches either one pull request at a time, or a batch of them which it hands on one by one,
+				// only a few batches wait in its queue so that each batch is sized from the cost of the latest queries
+				Pipeline.Stage<PendingPullRequest, PullRequestEvidence> fetch = graphql != null ? null : pipeline.AddStage("fetch", fetchWorkers, queueCapacity, RetryLater(
+						(PendingPullRequest pullRequest) -> FetchPullRequest(pullRequest, githubServerAccessToken, hostLimiter, executor),
+						pullRequest -> List.of(pullRequest), retryQueue, true), render);
+				Pipeline.Stage<List<PendingPullRequest>, PullRequestEvidence> fetchBatches = graphql == null ? null : pipeline.AddFanOutStage("fetch", graphqlConcurrency, graphqlConcurrency, RetryLater(
+						(List<PendingPullRequest> batch) -> FetchPullRequests(batch, graphql),
+						batch -> batch, retryQueue, true), render);
+				pipeline.Start();
+				
+				// the pull requests of the targets are handed to the pipeline in turn, one of each target which has one ready,
+				// so a large repository does not hold up the small ones and no worker waits while any target has work
+				FairFeed<CollectionTarget, PendingPullRequest> feed = new FairFeed<>(pipelineName + "-targets", targetConcurrency, queueCapacity, CollectionTarget::Fail);
+				for (CollectionTarget target : changed) {
+					if (target.Failure() != null)
+						continue;
+					if (retries == null) {
+						// the records are retrieved lazily, the next page of results is already being
+						// retrieved while we work through the pull requests of the current page
+						feed.Add(target, () -> GitHubServerHelper.QueryGithubServer(githubServerEndpointUrl, githubServerAccessToken, target.query, target.since)
+								.map(record -> new PendingPullRequest(target, record))::iterator);
+					} else if (retries.containsKey(target)) {
+						var targetRetries = retries.get(target);
+						feed.Add(target, () -> targetRetries);
+					}
+				}
+				feed.Start();
+				
+				List<PendingPullRequest> batch = new ArrayList<>();
+				try {
+					for (PendingPullRequest pullRequest; (pullRequest = feed.Next()) != null; ) {
+						// once a pull request fails for good we stop handing out new ones
+						if (pipeline.Failure() != null)
+							break;
+						
+						// once the service is shutting down we stop handing out new ones too, those in the pipeline are still uploaded
+						if (stopRequested.getAsBoolean()) {
+							stoppedEarly = true;
+							break;
+						}
+						
+						// once a pull request of a target fails for good we stop handing out the others of that target
+						if (pullRequest.target.Failure() != null) {
+							feed.Cancel(pullRequest.target);
+							continue;
+						}
+						
+						if (pass == 0) {
+							pullRequest.target.tracker.Observe(ParseTimestamp(pullRequest.record.updated_at));
+							pullRequest.target.taken.incrementAndGet();
+						}
+						if (fetch != null) {
+							fetch.Put(pullRequest);
+							continue;
+						}
+						
+						// hand the batch over once it has reached the size suited to the cost of the queries
+						batch.add(pullRequest);
+						if (batch.size() >= graphql.BatchSize()) {
+							fetchBatches.Put(batch);
+							batch = new ArrayList<>();
+						}
+					}
+					
+					// hand over the final, partial batch
+					if (!batch.isEmpty() && pipeline.Failure() == null && !stoppedEarly)
+						fetchBatches.Put(batch);
+				} finally {
+					// stop searching, then wait for the pull requests in the pipeline to complete
+					feed.close();
+					pipeline.close();
+				}
+				
+				// upload the partial batch of each target for this pass, the pull requests collected before any failure are still
+				// uploaded just like they would have been one by one, and those of a failed batch are put in the retry queue
+				for (CollectionTarget target : changed) {
+					if (target.batcher == null)
+						continue;
+					try {
+						target.batcher.Flush();
+					} catch (IOException e) {
+						if (!HttpTransport.IsTransient(e))
+							throw e;
+						System.out.println(String.format("Evidence batch upload failed, its pull requests were put in the retry queue: %s", e.getMessage()));
+					}
+				}
+				
+				// report the statistics of each stage, a stage which is busy while the stage before it is blocked on a
+				// full queue is the bottleneck of the pipeline
+				System.out.print(pipeline.Statistics());
+				if (targets.size() > 1)
+					System.out.println(feed.Statistics());
+				
+				failure = pipeline.Failure();
+				if (failure != null || retryQueue.isEmpty() || pass >= retryPasses || stopRequested.getAsBoolean())
+					break;
+				
+				// give the hosts time to recover, then collect the failed pull requests again
+				Duration delay = HttpTransport.CircuitBreakersRemainingOpen();
+				if (delay.compareTo(retryDelay) < 0)
+					delay = retryDelay;
+				System.out.println(String.format("%d pull requests failed, collecting them again in %d ms", retryQueue.size(), delay.toMillis()));
+				Thread.sleep(delay.toMillis());
+				
+				retries = new LinkedHashMap<>();
+				for (PendingPullRequest pullRequest : retryQueue.values())
+					retries.computeIfAbsent(pullRequest.target, target -> new ArrayList<>()).add(pullRequest);
+				retryQueue.clear();
+			}
+		} finally {
+			executor.close();
+		}
+		
+		// keep the hashes of the pull requests uploaded so far, even if a later one failed
+		if (index != null) {
+			index.Save();
+			System.out.println(String.format("%d pull requests had not changed since they were uploaded and were skipped", unchanged.get()));
+		}
+		
+		if (HttpCache.Shared() != null)
+			System.out.println(HttpCache.Shared().Statistics());
+		if (graphql != null)
+			System.out.println(graphql.Statistics());
+		if (rateLimitController != null)
+			System.out.println(rateLimitController.Statistics());
+		for (CircuitBreaker breaker : HttpTransport.CircuitBreakers())
+			System.out.println(breaker.Statistics());
+		
+		// surface the first failure, if any
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof ParseException)
+			throw (ParseException) failure;
+		if (failure != null)
+			throw new IOException(failure);
+		
+		// the pull requests which were not taken are collected by the next run, since the high-water mark is not moved
+		if (stoppedEarly) {
+			System.out.println("The collection was stopped before every pull request had been collected, the next run collects the rest");
+			return "stopped early";
+		}
+		
+		// the pull requests of a target which failed for good, or which are still failing, are collected again by the next
+		// run, since the high-water mark of their target is not moved, every other target can start from its newest one
+		List<CollectionTarget> failed = new ArrayList<>();
+		int collected = 0;
+		for (CollectionTarget target : targets) {
+			long left = retryQueue.values().stream().filter(pullRequest -> pullRequest.target == target).count();
+			if (targets.size() > 1)
+				System.out.println("  " + target.Statistics(left));
+			if (target.Failure() != null) {
+				failed.add(target);
+			} else if (!target.unchanged && left == 0) {
+				collected++;
+				if (state != null)
+					state.Put(target.stateKey, target.tracker, overlapMinutes);
+			}
+		}
+		if (state != null)
+			state.Save();
+		
+		// surface the failure of a single target just like it always was, or the number of failed targets
+		if (failed.size() == 1 && targets.size() == 1) {
+			Exception targetFailure = failed.get(0).Failure();
+			if (targetFailure instanceof IOException)
+				throw (IOException) targetFailure;
+			if (targetFailure instanceof ParseException)
+				throw (ParseException) targetFailure;
+			throw new IOException(targetFailure);
+		}
+		if (!failed.isEmpty())
+			throw new IOException(String.format("%d of %d targets failed, the first of them %s: %s", failed.size(), targets.size(), failed.get(0).name, failed.get(0).Failure().getMessage()), failed.get(0).Failure());
+		
+		// the pull requests still failing are collected again by the next run
+		if (!retryQueue.isEmpty()) {
+			System.out.println(String.format("Warning: %d pull requests could not be collected, they will be collected again by the next run:", retryQueue.size()));
+			for (String url : retryQueue.keySet())
+				System.out.println("  " + url);
+			WaitForEnterKey(interactive);
+			return String.format("%d pull requests left for the next run", retryQueue.size());
+		}
+		
+		WaitForEnterKey(interactive);
+		return targets.size() == 1 ? "collected" : String.format("collected %d targets, %d unchanged", collected, targets.size() - collected);
+    }
+	
+	/*
+	 * The command line of the collector, e.g. --service --config /etc/collector/app.config ServiceSchedule="0 * * * *"
+	 */
+	private static class CommandLine {
+		static final String USAGE = String.join(System.lineSeparator(),
+				"Usage: [--service | --once] [--config <file>] [Setting=Value ...]",
+				"  --service        collect on the schedule of the ServiceSchedule setting until the collector is shut down",
+				"  --once           collect a single time without waiting for the enter key, e.g. when started by cron",
+				"  --config <file>  the settings file to use, app.config in the working directory by default",
+				"  Setting=Value    overrides a setting of the settings file");
+		
+		boolean service;
+		boolean interactive = true;
+		String configFile = "app.config";
+		final Properties settings = new Properties();
+		
+		static CommandLine Parse(String[] args) {
+			CommandLine commandLine = new CommandLine();
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--service") || arg.equals("--daemon")) {
+					commandLine.service = true;
+					commandLine.interactive = false;
+				} else if (arg.equals("--once")) {
+					commandLine.interactive = false;
+				} else if (arg.equals("--config") && i + 1 < args.length) {
+					commandLine.configFile = args[++i];
+				} else if (arg.startsWith("--config=")) {
+					commandLine.configFile = arg.substring("--config=".length());
+				} else if (!arg.startsWith("-") && arg.indexOf('=') > 0) {
+					commandLine.settings.setProperty(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+				} else {
+					throw new IllegalArgumentException("Unknown argument: " + arg);
+				}
+			}
+			return commandLine;
+		}
+	}
+	
+	/*
+	 * A pull request found by the search of a target, waiting to be collected
+	 */
+	private static class PendingPullRequest {
+		final CollectionTarget target;
+		final GitHubQueryItem record;
+		
+		PendingPullRequest(CollectionTarget target, GitHubQueryItem record) {
+			this.target = target;
+			this.record = record;
+		}
+	}
+	
+	/*
+	 * A pull request retrieved from Github Enterprise Server, along with its comments and reviews
+	 */
+	private static class PullRequestEvidence {
+		final PendingPullRequest pullRequest;
+		final GitHubPullRequestResponseModel details;
+		final GitHubPullRequestCommentsResponseModel[] comments;
+		final GitHubPullRequestReviewsResponseModel[] reviews;
+		
+		PullRequestEvidence(PendingPullRequest pullRequest, GitHubPullRequestResponseModel details, GitHubPullRequestCommentsResponseModel[] comments, GitHubPullRequestReviewsResponseModel[] reviews) {
+			this.pullRequest = pullRequest;
+			this.details = details;
+			this.comments = comments;
+			this.reviews = reviews;
+		}
+	}
+	
+	/*
+	 * The evidence file (CSV document) of a pull request, waiting to be uploaded
+	 */
+	private static class EvidenceDocument implements AutoCloseable {
+		final PendingPullRequest pullRequest;
+		final String id;
+		final String fileName;
+		final EvidenceBuffer buffer;
+		final long sourceHash;
+		final long outputHash;
+		
+		EvidenceDocument(PendingPullRequest pullRequest, String id, String fileName, EvidenceBuffer buffer, long sourceHash, long outputHash) {
+			this.pullRequest = pullRequest;
+			this.id = id;
+			this.fileName = fileName;
+			this.buffer = buffer;
+			this.sourceHash = sourceHash;
+			this.outputHash = outputHash;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			buffer.close();
+		}
+	}
+	
+	/*
+	 * Helper method for the fetch stage: it retrieves the pull request details, then its comments and reviews in parallel
+	 */
+	private static PullRequestEvidence FetchPullRequest(PendingPullRequest pullRequest, String githubServerAccessToken, HostConcurrencyLimiter hostLimiter, BoundedExecutor executor) throws IOException {
+		// get the pull request details for the record
+		var detailsUrl = pullRequest.record.pull_request.url;
+		var pullRequestDetails = hostLimiter.Call(detailsUrl, () -> GitHubServerHelper.RetrieveGithubServerPullRequestDetails(detailsUrl, githubServerAccessToken));
+		
+		// once merged, a pull request can no longer change, so its comments and reviews are served from the HTTP cache
+		var merged = pullRequestDetails.merged_at != null;
+		
+		// get the pull request comments for the record, in parallel with the reviews
+		var commentsUrl = pullRequestDetails._links.comments.href;
+		var pullRequestComments = executor.Fork(() -> hostLimiter.Call(commentsUrl, () -> GitHubServerHelper.RetrieveGithubServerComments(commentsUrl, githubServerAccessToken, merged)));
+		
+		// get the pull request reviews for the record
+		var reviewsUrl = pullRequestDetails.url + "/reviews";
+		var pullRequestReviews = executor.Fork(() -> hostLimiter.Call(reviewsUrl, () -> GitHubServerHelper.RetrieveGithubServerReviews(reviewsUrl, githubServerAccessToken, merged)));
+		
+		return new PullRequestEvidence(pullRequest, pullRequestDetails, Join(pullRequestComments), Join(pullRequestReviews));
+	}
+	
+	/*
+	 * Helper method for the fetch stage in GraphQL mode: it retrieves a batch of pull requests along with their comments
+	 * and reviews in a single query, the pull requests of a batch may belong to different targets
+	 */
+	private static List<PullRequestEvidence> FetchPullRequests(List<PendingPullRequest> batch, GitHubGraphQLFetcher graphql) throws IOException {
+		List<String> nodeIds = new ArrayList<>(batch.size());
+		for (PendingPullRequest pullRequest : batch)
+			nodeIds.add(pullRequest.record.node_id);
+		
+		var pullRequests = graphql.Fetch(nodeIds);
+		
+		List<PullRequestEvidence> results = new ArrayList<>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			var pullRequest = pullRequests.get(i);
+			if (pullRequest == null) {
+				System.out.println(String.format("Pull request %s no longer exists and was skipped", batch.get(i).record.pull_request.url));
+				continue;
+			}
+			results.add(new PullRequestEvidence(batch.get(i), pullRequest.details, pullRequest.comments, pullRequest.reviews));
+		}
+		return results;
+	}
+	
+	/*
+	 * Helper method for the render stage: it creates the evidence file (CSV document) for a pull request, unless the
+	 * pull request or its evidence file has not changed since it was uploaded
+	 * 
+	 * @return Returns the evidence file, or null if there is nothing to upload
+	 */
+	private static EvidenceDocument RenderPullRequest(PullRequestEvidence pullRequest, EvidenceIndex index, AtomicInteger unchanged) throws IOException, ParseException {
+		String id = pullRequest.details.node_id;
+		CollectionTarget target = pullRequest.pullRequest.target;
+		
+		// skip the pull request if it has not changed since it was uploaded
+		long sourceHash = index != null ? EvidenceIndex.HashRecord(pullRequest.details, pullRequest.comments, pullRequest.reviews) : 0;
+		if (index != null && index.IsSourceUnchanged(id, sourceHash)) {
+			unchanged.incrementAndGet();
+			target.skipped.incrementAndGet();
+			Metrics.RECORDS_UNCHANGED.Increment();
+			return null;
+		}
+		
+		// create the evidence file (CSV document) for GitHub Enterprise Server
+		// if you are customizing this evidence collector for use on another platform, this method
+		// will require modification to support the required data fields/attributes for that platform
+		var outputStream = CsvHelper.CreateCsvDocument(target.localOutputPath, pullRequest.details, pullRequest.comments, pullRequest.reviews);
+		
+		System.out.println("CSV output file created");
+		
+		// the hash of the evidence file is part of its idempotency key, so it is computed even without the index
+		long outputHash = EvidenceIndex.HashEvidence(outputStream);
+		
+		// skip the upload if only fields which are not part of the evidence file have changed
+		if (index != null && index.IsOutputUnchanged(id, outputHash)) {
+			index.Put(id, sourceHash, outputHash);
+			outputStream.close();
+			unchanged.incrementAndGet();
+			target.skipped.incrementAndGet();
+			Metrics.RECORDS_UNCHANGED.Increment();
+			return null;
+		}
+		
+		return new EvidenceDocument(pullRequest.pullRequest, id, "pull_request-" + id + ".csv", outputStream, sourceHash, outputHash);
+	}
+	
+	/*
+	 * Helper method for the upload stage: it uploads the evidence file of a pull request to Tugboat Logic, or in a batch
+	 * upload mode adds it to the current batch of its target, which is uploaded once it is large enough
+	 * 
+	 * @return Returns nothing, this is the last stage of the pipeline
+	 */
+	private static Void UploadPullRequest(EvidenceDocument document, String tugboatLogicCollectionUrl, String tugboatLogicUsername, String tugboatLogicPassword, String tugboatLogicApiKey, HostConcurrencyLimiter hostLimiter, EvidenceIndex index, Map<String, PendingPullRequest> retryQueue) throws IOException {
+		CollectionTarget target = document.pullRequest.target;
+		try (document) {
+			// add the evidence file to the current batch, it is added to the index once the batch has been uploaded,
+			// or put in the retry queue if the upload of the batch fails
+			if (target.batcher != null) {
+				target.batcher.Add(document.fileName, document.buffer, () -> {
+							Metrics.RECORDS_UPLOADED.Increment();
+							target.uploaded.incrementAndGet();
+							if (index != null)
+								index.Put(document.id, document.sourceHash, document.outputHash);
+						}, () -> retryQueue.putIfAbsent(document.pullRequest.record.pull_request.url, document.pullRequest));
+				return null;
+			}
+			
+			// the same evidence file uploaded again, from the retry queue or by a later run after a lost response, gets the
+			// same idempotency key, so that Tugboat Logic recognises it as the same upload
+			String idempotencyKey = UUID.nameUUIDFromBytes((document.id + " " + document.outputHash).getBytes(StandardCharsets.UTF_8)).toString();
+			
+			// upload the evidence file to Tugboat Logic
+			// this code is common and would require minimal modification if you intend to use
+			// it to upload evidence from another platform
+			var result = hostLimiter.Call(tugboatLogicCollectionUrl, () -> TugboatLogicHelper.UploadEvidence(tugboatLogicCollectionUrl, tugboatLogicUsername, tugboatLogicPassword, tugboatLogicApiKey, document.buffer, "evidence.csv", "text/plain; charset=utf-8", idempotencyKey));
+			
+			System.out.println(String.format("Evidence uploaded to Tugboat Logic, result Id #%s", result.id));
+			Metrics.RECORDS_UPLOADED.Increment();
+			target.uploaded.incrementAndGet();
+			target.Uploaded(result.id);
+			
+			if (index != null)
+				index.Put(document.id, document.sourceHash, document.outputHash);
+			
+			return null;
+		}
+	}
+	
+	/*
+	 * Helper method which wraps the work of a stage, so that a pull request which fails transiently (e.g. a network error,
+	 * or an outage of one of the hosts) is put in the retry queue rather than failing the whole run. A failure which cannot
+	 * be retried fails the target of the pull request when it is down to the target (e.g. a repository which cannot be
+	 * read), and the whole run otherwise (e.g. rejected Tugboat Logic credentials). Once a target has failed, the rest of its
+	 * pull requests are dropped.
+	 */
+	private static <I, O> Pipeline.StageFunction<I, O> RetryLater(Pipeline.StageFunction<I, O> function, Function<I, List<PendingPullRequest>> pullRequestsOf, Map<String, PendingPullRequest> retryQueue, boolean failsTarget) {
+		return item -> {
+			List<PendingPullRequest> pullRequests = pullRequestsOf.apply(item);
+			if (pullRequests.stream().allMatch(pullRequest -> pullRequest.target.Failure() != null)) {
+				if (item instanceof AutoCloseable)
+					((AutoCloseable) item).close();
+				return null;
+			}
+			
+			try {
+				return function.Apply(item);
+			} catch (Exception e) {
+				if (e instanceof InterruptedException || !(failsTarget || HttpTransport.IsTransient(e)))
+					throw e;
+				
+				for (PendingPullRequest pullRequest : pullRequests) {
+					if (!HttpTransport.IsTransient(e)) {
+						pullRequest.target.Fail(e);
+						continue;
+					}
+					retryQueue.putIfAbsent(pullRequest.record.pull_request.url, pullRequest);
+					System.out.println(String.format("Pull request %s failed and was put in the retry queue: %s", pullRequest.record.pull_request.url, e.getMessage()));
+				}
+				return null;
+			}
+		};
+	}
+	
+	/*
+	 * Helper method to parse a timestamp returned by Github Enterprise Server, which may be missing
+	 */
+	private static OffsetDateTime ParseTimestamp(String timestamp) {
+		return TimestampCodec.ToOffsetDateTime(TimestampCodec.Parse(timestamp));
+	}
+	
+	/*
+	 * Helper method to wait for a forked call to complete, surfacing its failure as an IOException
+	 */
+	private static <T> T Join(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/*
+	 * Helper method to wait for the enter key at the end of an interactive run
+	 */
+	private static void WaitForEnterKey(boolean interactive) throws IOException {
+		if (!interactive)
+			return;
+		System.out.println("Press enter key to continue...");
+		System.in.read();
+	}
+	
+	/*
+	 * Helper method to load the application settings from the app.config file
+	 * 
+	 * @param fileName The path of the settings file
+	 * @return Returns the settings, or null if the file could not be read
+	 */
+	private static Properties LoadAppSettings(String fileName) {
+		// create an empty properties object
+		Properties prop = new Properties();
+		
+		// create the input stream to use
+		InputStream is = null;
+		try {
+			// load the file content into the input stream
+		    is = new FileInputStream(fileName);		    
+		} catch (FileNotFoundException ex) {
+		    return null;
+		}
+		try {
+			// load the properties from the input stream
+		    prop.load(is);
+		    return prop;
+		} catch (IOException ex) {
+		    
+		}		
+		
+		return null;
+	}
+}
@@ -0,0 +1,252 @@
+package com.tugboatlogic.sample;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * This class adapts the number of requests in flight to Github Enterprise Server to what the server will accept,
+ * so that we get as close as possible to its rate limits without tripping them.
+ *
+ * The number of requests allowed in flight is adjusted AIMD-style: it is raised slowly on each successful response
+ * (additive increase, about one more request per round of responses), and cut sharply when the server throttles us
+ * (multiplicative decrease, by half). A response which is much slower than usual is taken as a sign the server is
+ * struggling, and cuts the limit a little too.
+ *
+ * The controller also tracks the rate limit budget reported by the server (X-RateLimit-Remaining, X-RateLimit-Reset).
+ * Once the budget runs low, the remaining requests are spaced out evenly until the reset time, rather than spent
+ * at once. A throttled response (429, or 403 with Retry-After or an exhausted budget, which is how secondary rate
+ * limits are reported) pauses every request until the server allows them again, and the request is then retried
+ * by the HTTP transport.
+ *
+ * The controller is shared by every call to the host it is registered for with HttpTransport.Throttle.
+ */
+public class RateLimitController {
+	// the pause used when the server throttles us without saying for how long, as suggested by the Github documentation
+	private static final Duration DEFAULT_PAUSE = Duration.ofSeconds(60);
+
+	// a response this many times slower than the fastest typical response is taken as a sign of congestion
+	private static final double SLOW_RESPONSE_FACTOR = 3.0;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double reserve;
+
+	// the requests waiting to be sent
+	private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+
+	// the number of requests allowed in flight, and the number currently in flight
+	private double limit;
+	private int inFlight;
+
+	// no request is sent before these times (System.nanoTime): the end of a pause, and the next paced request
+	private long pausedUntil;
+	private long nextRequestAt;
+	private long interval;
+	private boolean wakeScheduled;
+
+	// the smoothed response time, along with the fastest it has been, and when the limit was last cut for being slow
+	private double latencyAverage;
+	private double latencyBaseline = Double.MAX_VALUE;
+	private long lastSlowCut;
+
+	// the statistics of the controller
+	private long responses;
+	private long throttled;
+	private long pausedNanos;
+	private double lowestLimit;
+	private double highestLimit;
+	private long remaining = -1;
+
+	/*
+	 * @param maxLimit The maximum number of requests in flight, the controller starts from half of it
+	 * @param reserve The fraction of the rate limit budget below which requests are spaced out until the reset time
+	 */
+	public RateLimitController(int maxLimit, double reserve) {
+		this.minLimit = 1;
+		this.maxLimit = Math.max(1, maxLimit);
+		this.reserve = reserve;
+		this.limit = Math.max(minLimit, this.maxLimit / 2.0);
+		this.lowestLimit = limit;
+		this.highestLimit = limit;
+
+		// System.nanoTime has an arbitrary origin, so the times start from now rather than from zero
+		long now = System.nanoTime();
+		this.pausedUntil = now;
+		this.nextRequestAt = now;
+		this.lastSlowCut = now;
+	}
+
+	/*
+	 * Waits for the controller to allow another request, the request must then be released once its response is closed
+	 *
+	 * @return Returns a future which completes once the request may be sent
+	 */
+	public CompletableFuture<Void> Acquire() {
+		CompletableFuture<Void> waiter = new CompletableFuture<>();
+		synchronized (this) {
+			waiters.add(waiter);
+		}
+		Dispatch();
+		return waiter;
+	}
+
+	/*
+	 * Releases a request, once its response has been closed or it has failed
+	 */
+	public void Release() {
+		synchronized (this) {
+			inFlight--;
+		}
+		Dispatch();
+	}
+
+	/*
+	 * Updates the controller from a response, before the response is handed to the caller
+	 *
+	 * @param status The status code of the response
+	 * @param headers The headers of the response
+	 * @param latencyNanos How long the server took to respond
+	 * @return Returns how long to wait before retrying the request if the server throttled it, or null otherwise
+	 */
+	public synchronized Duration OnResponse(int status, HttpHeaders headers, long latencyNanos) {
+		long now = System.nanoTime();
+		responses++;
+
+		long rateLimit = HeaderValue(headers, "X-RateLimit-Limit");
+		long rateRemaining = HeaderValue(headers, "X-RateLimit-Remaining");
+		long resetEpochSeconds = HeaderValue(headers, "X-RateLimit-Reset");
+		long retryAfterSeconds = RetryAfterSeconds(headers);
+		long untilReset = resetEpochSeconds < 0 ? -1 : Math.max(0, TimeUnit.SECONDS.toNanos(resetEpochSeconds) - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()));
+		if (rateRemaining >= 0)
+			remaining = rateRemaining;
+
+		boolean isThrottled = status == 429 || (status == 403 && (retryAfterSeconds >= 0 || rateRemaining == 0));
+		if (isThrottled) {
+			// cut sharply, and hold every request back until the server allows them again
+			throttled++;
+			SetLimit(limit / 2);
+
+			long pause = retryAfterSeconds >= 0 ? TimeUnit.SECONDS.toNanos(retryAfterSeconds) : untilReset >= 0 && rateRemaining == 0 ? untilReset : DEFAULT_PAUSE.toNanos();
+			if (now + pause > pausedUntil) {
+				pausedNanos += now + pause - Math.max(now, pausedUntil);
+				pausedUntil = now + pause;
+			}
+			return Duration.ofNanos(pause);
+		}
+
+		if (status < 400) {
+			// keep track of how fast the server usually responds
+			latencyAverage = latencyAverage == 0 ? latencyNanos : latencyAverage * 0.9 + latencyNanos * 0.1;
+			latencyBaseline = Math.min(latencyBaseline, latencyAverage);
+
+			if (latencyAverage > latencyBaseline * SLOW_RESPONSE_FACTOR && now - lastSlowCut > latencyAverage * limit) {
+				// the server is slowing down, so back off a little, at most once per round of responses
+				lastSlowCut = now;
+				SetLimit(limit * 0.9);
+			} else {
+				// raise slowly, by about one request for each round of responses
+				SetLimit(limit + 1 / limit);
+			}
+		}
+
+		// once the budget runs low, spread the remaining requests evenly until the reset time
+		interval = rateLimit > 0 && rateRemaining >= 0 && untilReset > 0 && rateRemaining < rateLimit * reserve ? untilReset / Math.max(1, rateRemaining) : 0;
+		return null;
+	}
+
+	/*
+	 * Returns how long the server asked us to wait before sending the request again, in seconds, or -1 if it did not say
+	 *
+	 * The Retry-After header is either a number of seconds or an HTTP-date (RFC 9110), which proxies and load balancers
+	 * send, and a value which is neither of them is ignored rather than failing the response.
+	 */
+	public static long RetryAfterSeconds(HttpHeaders headers) {
+		String value = headers.firstValue("Retry-After").orElse("").trim();
+		if (value.isEmpty())
+			return -1;
+		try {
+			return Math.max(0, Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			// not a number of seconds, so it should be a date
+		}
+		try {
+			long millis = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - System.currentTimeMillis();
+			return Math.max(0, TimeUnit.MILLISECONDS.toSeconds(millis + 999));
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * This helper method returns the numeric value of a header, or -1 if it is missing or not a number
+	 */
+	private static long HeaderValue(HttpHeaders headers, String name) {
+		String value = headers.firstValue(name).orElse("").trim();
+		if (value.isEmpty())
+			return -1;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * Returns a one line summary of the statistics of the controller
+	 */
+	public synchronized String Statistics() {
+		return String.format("Rate limit: %d responses, %d throttled, paused %d ms, concurrency %.1f (lowest %.1f, highest %.1f of %d), %s requests remaining",
+				responses, throttled, pausedNanos / 1_000_000, limit, lowestLimit, highestLimit, maxLimit, remaining >= 0 ? Long.toString(remaining) : "unknown");
+	}
+
+	/*
+	 * This helper method lets the waiting requests go, as far as the limit, the pause and the pacing allow
+	 */
+	private void Dispatch() {
+		List<CompletableFuture<Void>> ready = new ArrayList<>();
+		synchronized (this) {
+			long now = System.nanoTime();
+			while (!waiters.isEmpty() && inFlight < (int) limit) {
+				long readyAt = Math.max(pausedUntil, nextRequestAt);
+				if (readyAt > now) {
+					// come back once the pause or the pacing interval is over
+					if (!wakeScheduled) {
+						wakeScheduled = true;
+						CompletableFuture.delayedExecutor(readyAt - now, TimeUnit.NANOSECONDS).execute(this::Wake);
+					}
+					break;
+				}
+
+				inFlight++;
+				nextRequestAt = now + interval;
+				ready.add(waiters.poll());
+			}
+		}
+
+		// let the requests go outside of the lock, since they start sending straight away
+		for (CompletableFuture<Void> waiter : ready)
+			waiter.complete(null);
+	}
+
+	private void Wake() {
+		synchronized (this) {
+			wakeScheduled = false;
+		}
+		Dispatch();
+	}
+
+	private void SetLimit(double newLimit) {
+		limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		lowestLimit = Math.min(lowestLimit, limit);
+		highestLimit = Math.max(highestLimit, limit);
+	}
+}
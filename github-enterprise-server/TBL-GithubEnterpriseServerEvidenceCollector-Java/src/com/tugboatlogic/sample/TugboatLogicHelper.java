@@ -1,134 +1,260 @@
-package com.tugboatlogic.sample;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.URL;
-import java.nio.charset.Charset;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Base64;
-import java.util.UUID;
-
-import javax.net.ssl.HttpsURLConnection;
-
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.tugboatlogic.sample.models.TugboatLogicResponseModel;
-
-public class TugboatLogicHelper {
-	// specify line feed chars
-	private static final String LINE_FEED = "\r\n";
-	
-	/*
-	 * This method will upload the CSV evidence file to the Tugboat Logic API. Note, in order to access the API,
-	 * you must first setup the custom evidence collector in your Tugboat Logic account. For details on how to do this,
-	 * please visit: https://support.tugboatlogic.com/hc/en-us/articles/360049620392-Setting-Up-Custom-Evidence-Integrations
-	 * 
-	 * Additionally, this upload functionality is not specific to any particular type of evidence, and can be modified and
-	 * used to upload any other type of evidence to Tugboat Logic as long as it is contained within a single file.
-	 * 
-	 * @param evidenceUrl The evidence upload endpoint provided by Tugboat Logic
-	 * @param username The username used to authenticate to the evidence upload endpoint
-	 * @param password The password used to authenticate to the evidence upload endpoint
-	 * @param apiKey The API key used to authenticate to the evidence upload endpoint
-	 * @param inputStream The input stream which contains the CSV file to be uploaded to Tugboat Logic
-	 * @return Returns the response from the evidence upload endpoint
-	 */
-	public static TugboatLogicResponseModel UploadEvidence(String evidenceUrl, String username, String password, String apiKey, ByteArrayOutputStream inputStream) throws IOException 
-	{
-		String boundary = UUID.randomUUID().toString();
-	    	    
-		// here we are going to use basic authentication to authorize with the Tugboat Logic evidence upload endpoint
-        // assemble the authorization header, which is a combination of the username and password
-		String userCredentials = username + ":" + password;
-		
-		// the combined authorization header text must be converted to Base64 before we can use it in the authorization header
-		String authorizationHeader = "Basic " + new String(Base64.getEncoder().encode(userCredentials.getBytes()));
-
-		// build the evidence URL
-		URL url = new URL(evidenceUrl);
-		
-		// open the https connection
-		HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-		
-		// allow input and output to the connection
-		connection.setDoOutput(true);
-		connection.setDoInput(true);
-		
-		// disable caches
-		connection.setUseCaches(false);
-		
-		// set the http authorization header to the Base64 value we generated above
-		connection.setRequestProperty ("Authorization", authorizationHeader);
-		
-		// set the request method type to GET
-		connection.setRequestMethod("POST");
-		
-		// set the charset to UTF-8 for the connection
-		connection.setRequestProperty("Charset", "utf-8");
-		
-		// set the request accept header to JSON
-		connection.setRequestProperty("X-API-KEY", apiKey);
-		
-		// set the request accept header to JSON
-		connection.setRequestProperty("Content-Type", "multipart/form-data;boundary=" + boundary);
-				
-		// create a data output stream for the http connection
-		var outputStream = connection.getOutputStream();
-		
-		// build the collected date, this needs to be sent to the Tugboat Logic API
-		var collectedDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-		
-		// lets build the Multipart form data POST manually below
-		
-		// build a print writer so we can assemble the raw Multipart post body
-		PrintWriter writer = new PrintWriter(new OutputStreamWriter(outputStream, Charset.forName("UTF-8").newEncoder()), true);
-		
-		// add the collected date to the POST body, starting with the boundary, and then flushing the writer
-		writer.append("--" + boundary).append(LINE_FEED);
-        writer.append("Content-Disposition: form-data; name=\"collected\"").append(LINE_FEED);
-        writer.append(LINE_FEED);
-        writer.append(collectedDate).append(LINE_FEED);
-        writer.flush();
-        
-        // add the file info to the POST body, starting with the boundary, and then flushing the writer
-        writer.append("--" + boundary).append(LINE_FEED);
-        writer.append("Content-Disposition: form-data; name=\"file\"; filename=\"evidence.csv\"").append(LINE_FEED);
-        writer.append("Content-Type: text/plain; charset=utf-8").append(LINE_FEED);
-        writer.append(LINE_FEED);
-        writer.flush();
-
-        // add the raw evidence file to the POST, then flush the output stream, and close the input stream since its no longer needed
-        inputStream.writeTo(outputStream);
-        outputStream.flush();
-        inputStream.close();
-        
-        // add a the boundary to the writer and then flush and close the writer
-        writer.append(LINE_FEED).flush();
-        writer.append("--" + boundary + "--").append(LINE_FEED);
-        writer.close();
-        
-        // checks server's status code first
-        int status = connection.getResponseCode();
-        
-        // Tugboat Logic API should return http status 201
-        if (status == 201) {
-            // send the request and retrieve the response in JSON format
-    		InputStream responseStream = connection.getInputStream();
-    		
-    		// configure the object mapper for converting the JSON response to POJO
-    		ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    		
-    		// de-serialize the JSON response into our POJOs which we will use elsewhere
-    		TugboatLogicResponseModel responseModel = mapper.readValue(responseStream, TugboatLogicResponseModel.class);
-    		
-    		return responseModel;
-        	
-        } else {
-            throw new IOException("Server returned non-OK status: " + status);
-        }
-	}
-}
+package com.tugboatlogic.sample;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import com.tugboatlogic.sample.models.TugboatLogicResponseModel;
+
+public class TugboatLogicHelper {
+	// specify line feed chars
+	private static final String LINE_FEED = "\r\n";
+	
+	// whether the evidence files are uploaded gzip compressed, used until Configure is called
+	private static volatile boolean compressUploads = false;
+	
+	/*
+	 * Configures the uploads from the application settings (TugboatLogicCompressUploads)
+	 * 
+	 * @param properties The application settings
+	 */
+	public static void Configure(Properties properties) {
+		compressUploads = Boolean.parseBoolean(properties.getProperty("TugboatLogicCompressUploads", "false").trim());
+	}
+	
+	/*
+	 * This method will upload the CSV evidence file to the Tugboat Logic API. Note, in order to access the API,
+	 * you must first setup the custom evidence collector in your Tugboat Logic account. For details on how to do this,
+	 * please visit: https://support.tugboatlogic.com/hc/en-us/articles/360049620392-Setting-Up-Custom-Evidence-Integrations
+	 * 
+	 * Additionally, this upload functionality is not specific to any particular type of evidence, and can be modified and
+	 * used to upload any other type of evidence to Tugboat Logic as long as it is contained within a single file.
+	 * 
+	 * @param evidenceUrl The evidence upload endpoint provided by Tugboat Logic
+	 * @param username The username used to authenticate to the evidence upload endpoint
+	 * @param password The password used to authenticate to the evidence upload endpoint
+	 * @param apiKey The API key used to authenticate to the evidence upload endpoint
+	 * @param evidence The buffer which contains the CSV file to be uploaded to Tugboat Logic, which is streamed
+	 *        into the request and left open for the caller to close
+	 * @return Returns the response from the evidence upload endpoint
+	 */
+	public static TugboatLogicResponseModel UploadEvidence(String evidenceUrl, String username, String password, String apiKey, EvidenceBuffer evidence) throws IOException 
+	{
+		return UploadEvidence(evidenceUrl, username, password, apiKey, evidence, "evidence.csv", "text/plain; charset=utf-8");
+	}
+	
+	/*
+	 * This method will upload an evidence file of any type to the Tugboat Logic API, such as a batch of pull requests
+	 * 
+	 * @param evidenceUrl The evidence upload endpoint provided by Tugboat Logic
+	 * @param username The username used to authenticate to the evidence upload endpoint
+	 * @param password The password used to authenticate to the evidence upload endpoint
+	 * @param apiKey The API key used to authenticate to the evidence upload endpoint
+	 * @param evidence The buffer which contains the file to be uploaded to Tugboat Logic, which is streamed
+	 *        into the request and left open for the caller to close
+	 * @param fileName The name of the evidence file
+	 * @param contentType The content type of the evidence file
+	 * @return Returns the response from the evidence upload endpoint
+	 */
+	public static TugboatLogicResponseModel UploadEvidence(String evidenceUrl, String username, String password, String apiKey, EvidenceBuffer evidence, String fileName, String contentType) throws IOException 
+	{
+		return UploadEvidence(evidenceUrl, username, password, apiKey, evidence, fileName, contentType, UUID.randomUUID().toString());
+	}
+	
+	/*
+	 * This method will upload an evidence file of any type to the Tugboat Logic API, under an idempotency key
+	 * 
+	 * The request is sent with an Idempotency-Key header, which lets the HTTP transport send it again when it fails
+	 * transiently, and lets Tugboat Logic recognise a repeated upload of the same evidence file. Passing the same key
+	 * when the evidence file is uploaded again later in the run (e.g. from the retry queue) keeps that upload idempotent too.
+	 * 
+	 * When TugboatLogicCompressUploads is true, the evidence file is gzip compressed and uploaded as a part of its own
+	 * (the file name followed by .gz, of type application/gzip), unless it is a zip archive already.
+	 * 
+	 * @param evidenceUrl The evidence upload endpoint provided by Tugboat Logic
+	 * @param username The username used to authenticate to the evidence upload endpoint
+	 * @param password The password used to authenticate to the evidence upload endpoint
+	 * @param apiKey The API key used to authenticate to the evidence upload endpoint
+	 * @param evidence The buffer which contains the file to be uploaded to Tugboat Logic, which is streamed
+	 *        into the request (again for each retry) and left open for the caller to close
+	 * @param fileName The name of the evidence file
+	 * @param contentType The content type of the evidence file
+	 * @param idempotencyKey The key which identifies this upload of the evidence file
+	 * @return Returns the response from the evidence upload endpoint
+	 */
+	public static TugboatLogicResponseModel UploadEvidence(String evidenceUrl, String username, String password, String apiKey, EvidenceBuffer evidence, String fileName, String contentType, String idempotencyKey) throws IOException 
+	{
+		// the evidence file may be uploaded as a gzip compressed part instead, unless it is an archive which is compressed already
+		if (compressUploads && !contentType.startsWith("application/zip") && !contentType.startsWith("application/gzip")) {
+			try (EvidenceBuffer compressed = Compress(evidence)) {
+				// a file which does not get any smaller (e.g. a tiny one) is uploaded as it is
+				if (compressed.Length() < evidence.Length()) {
+					TugboatLogicResponseModel result = Upload(evidenceUrl, username, password, apiKey, compressed, fileName + ".gz", "application/gzip", idempotencyKey);
+					Metrics.COMPRESSION_SAVED_BYTES.Add(evidence.Length() - compressed.Length(), "upload");
+					return result;
+				}
+			}
+		}
+		return Upload(evidenceUrl, username, password, apiKey, evidence, fileName, contentType, idempotencyKey);
+	}
+	
+	/*
+	 * This helper method uploads an evidence file as it is, under an idempotency key
+	 */
+	private static TugboatLogicResponseModel Upload(String evidenceUrl, String username, String password, String apiKey, EvidenceBuffer evidence, String fileName, String contentType, String idempotencyKey) throws IOException 
+	{
+		String boundary = UUID.randomUUID().toString();
+	    	    
+		// here we are going to use basic authentication to authorize with the Tugboat Logic evidence upload endpoint
+        // assemble the authorization header, which is a combination of the username and password
+		String userCredentials = username + ":" + password;
+		
+		// the combined authorization header text must be converted to Base64 before we can use it in the authorization header
+		String authorizationHeader = "Basic " + new String(Base64.getEncoder().encode(userCredentials.getBytes()));
+
+		// the multipart form data POST body, which streams the evidence file
+        HttpRequest.BodyPublisher body = MultipartBody(boundary, evidence, fileName, contentType);
+        
+		// build the POST request to the evidence URL
+		HttpRequest request = HttpTransport.NewRequest(evidenceUrl)
+				// set the http authorization header to the Base64 value we generated above
+				.header("Authorization", authorizationHeader)
+				// set the charset to UTF-8 for the request
+				.header("Charset", "utf-8")
+				// set the API key header
+				.header("X-API-KEY", apiKey)
+				// set the content type to multipart form data
+				.header("Content-Type", "multipart/form-data;boundary=" + boundary)
+				// identify the upload, so that it can safely be sent again if it fails
+				.header("Idempotency-Key", idempotencyKey)
+				// wait for the server to accept the request headers before sending the body, so that a rejected
+				// request (e.g. invalid credentials) does not cost us a full transfer of the evidence file
+				.expectContinue(true)
+				// set the request method type to POST
+				.POST(body)
+				.build();
+		
+        // send the request, the connection is released once the response is closed
+        long start = System.nanoTime();
+        boolean uploaded = false;
+        FlightEvents.Upload event = FlightEvents.BeginUpload(evidenceUrl, fileName, idempotencyKey);
+        try (var response = HttpTransport.Send(request)) {
+        	
+	        // checks server's status code first
+	        int status = response.StatusCode();
+	        event.status = status;
+	        
+	        // Tugboat Logic API should return http status 201
+	        if (status == 201) {
+	    		// de-serialize the JSON response into our POJOs which we will use elsewhere, using the shared pre-built reader
+	    		TugboatLogicResponseModel result = JsonReaders.TUGBOAT_LOGIC_RESPONSE.readValue(response.Body());
+	    		uploaded = true;
+	    		return result;
+	        	
+	        } else {
+	            throw new HttpTransport.StatusException(status, "Server returned non-OK status: " + status);
+	        }
+        } finally {
+        	// record the upload, including the time taken by its retries
+        	Metrics.UPLOAD_SECONDS.ObserveNanos(System.nanoTime() - start);
+        	Metrics.UPLOADS.Increment(uploaded ? "success" : "failure");
+        	if (uploaded)
+        		Metrics.UPLOADED_BYTES.Add(evidence.Length());
+        	event.bytes = evidence.Length();
+        	event.commit();
+        }
+	}
+	
+	/*
+	 * This helper method gzip compresses an evidence file into a buffer of its own, which the caller must close
+	 */
+	private static EvidenceBuffer Compress(EvidenceBuffer evidence) throws IOException 
+	{
+		EvidenceBuffer compressed = new EvidenceBuffer();
+		try {
+			// the buffer is left open when the gzip stream is closed, since closing the buffer would release it
+			OutputStream target = new FilterOutputStream(compressed) {
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+				}
+				
+				@Override
+				public void close() throws IOException {
+					flush();
+				}
+			};
+			try (InputStream in = evidence.OpenInputStream(); GZIPOutputStream gzip = new GZIPOutputStream(target, 64 * 1024)) {
+				in.transferTo(gzip);
+			}
+			return compressed;
+		} catch (IOException | RuntimeException e) {
+			compressed.close();
+			throw e;
+		}
+	}
+	
+	/*
+	 * This method builds the multipart form data body of an evidence upload, which holds the collected date followed by
+	 * the file itself
+	 * 
+	 * @param boundary The boundary which separates the parts of the body
+	 * @param evidence The buffer which contains the file, which is streamed into the body each time it is sent
+	 * @param fileName The name of the evidence file
+	 * @param contentType The content type of the evidence file
+	 * @return Returns the body, along with its exact length
+	 */
+	public static HttpRequest.BodyPublisher MultipartBody(String boundary, EvidenceBuffer evidence, String fileName, String contentType) 
+	{
+		// build the collected date, this needs to be sent to the Tugboat Logic API
+		var collectedDate = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+		
+		// lets build the Multipart form data POST manually below
+		StringBuilder header = new StringBuilder();
+		
+		// add the collected date to the POST body, starting with the boundary
+		header.append("--" + boundary).append(LINE_FEED);
+        header.append("Content-Disposition: form-data; name=\"collected\"").append(LINE_FEED);
+        header.append(LINE_FEED);
+        header.append(collectedDate).append(LINE_FEED);
+        
+        // add the file info to the POST body, starting with the boundary
+        header.append("--" + boundary).append(LINE_FEED);
+        header.append("Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"").append(LINE_FEED);
+        header.append("Content-Type: " + contentType).append(LINE_FEED);
+        header.append(LINE_FEED);
+        
+        // add the closing boundary which follows the raw evidence file
+        String footer = LINE_FEED + "--" + boundary + "--" + LINE_FEED;
+        
+        // the POST body is the header, followed by the raw evidence file and then the footer
+        byte[] headerBytes = header.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] footerBytes = footer.getBytes(StandardCharsets.UTF_8);
+        
+        // the body is streamed straight from the evidence buffer (in memory or on disk) rather than copied, and since
+        // its exact length is known up front it is sent with a Content-Length rather than chunked
+        long contentLength = headerBytes.length + evidence.Length() + footerBytes.length;
+        return HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> {
+        	try {
+        		List<InputStream> parts = List.of(new ByteArrayInputStream(headerBytes), evidence.OpenInputStream(), new ByteArrayInputStream(footerBytes));
+        		return new SequenceInputStream(Collections.enumeration(parts));
+        	} catch (IOException e) {
+        		throw new UncheckedIOException(e);
+        	}
+        }), contentLength);
+	}
+}
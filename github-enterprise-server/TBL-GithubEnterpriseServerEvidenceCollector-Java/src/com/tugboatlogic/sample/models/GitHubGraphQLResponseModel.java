@@ -0,0 +1,92 @@
+package com.tugboatlogic.sample.models;
+
+/*
+ * Response model used for deserializing the JSON response of the pull request query
+ * of the GitHub Enterprise Server GraphQL API
+ */
+public class GitHubGraphQLResponseModel {
+	public Data data;
+	public Error[] errors;
+
+	public static class Data {
+		public RateLimit rateLimit;
+		public PullRequestNode[] nodes;
+	}
+
+	public static class RateLimit {
+		public int cost;
+		public int limit;
+		public int remaining;
+		public String resetAt;
+	}
+
+	public static class Error {
+		public String type;
+		public String message;
+	}
+
+	public static class PullRequestNode {
+		public String id;
+		public int databaseId;
+		public int number;
+		public String url;
+		public String body;
+		public String createdAt;
+		public String mergedAt;
+		public Actor author;
+		public Actor mergedBy;
+		public Repository repository;
+		public String headRefName;
+		public String headRefOid;
+		public Repository headRepository;
+		public String baseRefName;
+		public String baseRefOid;
+		public Repository baseRepository;
+		public CommentConnection comments;
+		public ReviewConnection reviews;
+	}
+
+	public static class Actor {
+		public String login;
+		public String url;
+	}
+
+	public static class Repository {
+		public String id;
+		public int databaseId;
+		public String name;
+		public String nameWithOwner;
+	}
+
+	public static class PageInfo {
+		public boolean hasNextPage;
+		public String endCursor;
+	}
+
+	public static class CommentConnection {
+		public PageInfo pageInfo;
+		public CommentNode[] nodes;
+	}
+
+	public static class CommentNode {
+		public String createdAt;
+		public String authorAssociation;
+		public String body;
+		public Actor author;
+	}
+
+	public static class ReviewConnection {
+		public PageInfo pageInfo;
+		public ReviewNode[] nodes;
+	}
+
+	public static class ReviewNode {
+		public String id;
+		public int databaseId;
+		public String submittedAt;
+		public String authorAssociation;
+		public String body;
+		public String state;
+		public Actor author;
+	}
+}
@@ -1,5 +1,7 @@
-package com.tugboatlogic.sample.models;
-
-public class GitHubQueryItem {
-	public PullRequest pull_request;
-}
+package com.tugboatlogic.sample.models;
+
+public class GitHubQueryItem {
+	public String node_id;
+	public PullRequest pull_request;
+	public String updated_at;
+}
@@ -1,6 +1,6 @@
-package com.tugboatlogic.sample.models;
-
-public class GitHubQueryResponseModel {
-	public int total_count;
-	public GitHubQueryItem[] items;
-}
+package com.tugboatlogic.sample.models;
+
+public class GitHubQueryResponseModel {
+	public int total_count;
+	public GitHubQueryItem[] items;
+}
@@ -0,0 +1,8 @@
+package com.tugboatlogic.sample.models;
+
+public class GitHubRepositoryResponseModel {
+	public String node_id;
+	public String full_name;
+	public boolean archived;
+	public boolean disabled;
+}
@@ -1,7 +1,7 @@
-package com.tugboatlogic.sample.models;
-
-public class Head {
-	public String ref;
-	public String sha;
-	public PullRequestRepo repo;
-}
+package com.tugboatlogic.sample.models;
+
+public class Head {
+	public String ref;
+	public String sha;
+	public PullRequestRepo repo;
+}
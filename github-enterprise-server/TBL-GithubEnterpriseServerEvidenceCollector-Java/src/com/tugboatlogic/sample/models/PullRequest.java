@@ -1,5 +1,5 @@
-package com.tugboatlogic.sample.models;
-
-public class PullRequest {
-	public String url;
-}
+package com.tugboatlogic.sample.models;
+
+public class PullRequest {
+	public String url;
+}
@@ -1,5 +1,5 @@
-package com.tugboatlogic.sample.models;
-
-public class PullRequestComments {
-	public String href;
-}
+package com.tugboatlogic.sample.models;
+
+public class PullRequestComments {
+	public String href;
+}
@@ -1,5 +1,5 @@
-package com.tugboatlogic.sample.models;
-
-public class PullRequestLinks {
-	public PullRequestComments comments;
-}
+package com.tugboatlogic.sample.models;
+
+public class PullRequestLinks {
+	public PullRequestComments comments;
+}
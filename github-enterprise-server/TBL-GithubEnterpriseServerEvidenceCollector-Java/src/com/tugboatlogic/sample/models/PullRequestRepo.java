@@ -1,8 +1,8 @@
-package com.tugboatlogic.sample.models;
-
-public class PullRequestRepo {
-	public int id;
-	public String node_id;
-	public String name;
-	public String full_name;
-}
+package com.tugboatlogic.sample.models;
+
+public class PullRequestRepo {
+	public int id;
+	public String node_id;
+	public String name;
+	public String full_name;
+}
@@ -1,6 +1,6 @@
-package com.tugboatlogic.sample.models;
-
-public class User {
-	public String login;
-	public String html_url;
-}
+package com.tugboatlogic.sample.models;
+
+public class User {
+	public String login;
+	public String html_url;
+}
@@ -1,5 +1,8 @@
-module SampleApp_GithubEnterpriseServer {
-	requires com.fasterxml.jackson.databind;
-	requires java.base;
-	exports com.tugboatlogic.sample.models;
+module SampleApp_GithubEnterpriseServer {
+	requires com.fasterxml.jackson.databind;
+	requires java.net.http;
+	requires jdk.httpserver;
+	requires jdk.jfr;
+	requires java.base;
+	exports com.tugboatlogic.sample.models;
 }
\ No newline at end of file
@@ -0,0 +1,200 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tugboatlogic.sample.stub.LatencyHistogram;
+import com.tugboatlogic.sample.stub.StubServer;
+
+/*
+ * This macro benchmark measures the Jira Server collector end to end: the embedded stub server serves projects of
+ * synthetic resolved issues, and the collector (Program, in a JVM of its own, the way it is run for real) searches all
+ * of them, renders them into the Excel evidence document and uploads it. For each number of issues it reports the issues
+ * collected per second and the latency percentiles of each endpoint, as the stub server measured them.
+ *
+ * Every run starts from an empty working folder (no incremental state or evidence index), so each run collects every
+ * issue. The first run is a warmup of the stub server and is left out of the results.
+ *
+ * The arguments are settings of the form Key=Value:
+ *
+ * - Scales: the numbers of issues to collect, e.g. 10000,100000
+ * - Runs: the number of measured runs at each scale
+ * - the Stub settings (e.g. StubJiraLatency=lognormal:50,500) configure the stub server, see its README
+ * - any other setting is written to the app.config of the collector (e.g. JiraServerMaxConcurrency=8)
+ *
+ * The results are printed, and written to target/macro-results.json.
+ *
+ * Usage: mvn -B install in the stub server and collector projects, then mvn -B compile exec:exec@macro in this project,
+ * optionally with -Dmacro.options="Scales=10000 Runs=1 StubJiraLatency=fixed:50"
+ */
+public class CollectorMacroBenchmark {
+	// the endpoints the collector calls, in the order they are reported
+	private static final StubServer.Endpoint[] ENDPOINTS = { StubServer.Endpoint.JiraSearch, StubServer.Endpoint.TugboatUpload };
+
+	// how long a single run of the collector may take
+	private static final long RUN_TIMEOUT_MINUTES = 30;
+
+	public static void main(String[] args) throws Exception {
+		Properties settings = new Properties();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals > 0)
+				settings.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		int runs = Integer.parseInt(settings.getProperty("Runs", "3"));
+		String[] scales = settings.getProperty("Scales", "10000,100000").split(",");
+
+		ArrayNode results = new ObjectMapper().createArrayNode();
+		for (String scale : scales) {
+			int issues = Integer.parseInt(scale.trim());
+
+			// the stub server and the collector settings for this scale, which the arguments override
+			Properties stubSettings = new Properties();
+			stubSettings.setProperty("StubJiraIssues", Integer.toString(issues));
+			Properties collectorSettings = new Properties();
+			for (String name : settings.stringPropertyNames()) {
+				if (name.startsWith("Stub"))
+					stubSettings.setProperty(name, settings.getProperty(name));
+				else if (!name.equals("Runs") && !name.equals("Scales"))
+					collectorSettings.setProperty(name, settings.getProperty(name));
+			}
+
+			try (StubServer stub = new StubServer(stubSettings)) {
+				stub.Start();
+				System.out.println(String.format("%d issues, stub server on %s", issues, stub.Url()));
+
+				Map<StubServer.Endpoint, LatencyHistogram> latencies = new EnumMap<>(StubServer.Endpoint.class);
+				for (StubServer.Endpoint endpoint : ENDPOINTS)
+					latencies.put(endpoint, new LatencyHistogram());
+				List<Double> rates = new ArrayList<>();
+
+				for (int run = 0; run <= runs; run++) {
+					stub.ResetStatistics();
+					double seconds = RunCollector(stub, collectorSettings);
+
+					// the issues collected, leaving out the few issues served while the search is planned
+					long collected = Math.min(issues, stub.Statistics(StubServer.Endpoint.JiraSearch).Records());
+					long uploads = stub.Statistics(StubServer.Endpoint.TugboatUpload).Records();
+					if (collected < issues || uploads == 0)
+						throw new IllegalStateException(String.format("The collector collected %d of %d issues and made %d uploads", collected, issues, uploads));
+
+					double rate = collected / seconds;
+					if (run == 0) {
+						System.out.println(String.format("  warmup: %d issues in %.1f s (%.0f records/s)", collected, seconds, rate));
+						continue;
+					}
+					System.out.println(String.format("  run %d: %d issues in %.1f s (%.0f records/s), %d uploads", run, collected, seconds, rate, uploads));
+					rates.add(rate);
+					for (StubServer.Endpoint endpoint : ENDPOINTS)
+						latencies.get(endpoint).Add(stub.Statistics(endpoint).Latency());
+				}
+
+				results.add(Report("jira", issues, rates, latencies));
+			}
+		}
+
+		Path output = Paths.get("target", "macro-results.json");
+		Files.createDirectories(output.getParent());
+		new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(output.toFile(), results);
+		System.out.println("Results written to " + output);
+	}
+
+	/*
+	 * Runs the collector once against the stub server, from an empty working folder, returning how long it took in seconds
+	 */
+	private static double RunCollector(StubServer stub, Properties collectorSettings) throws IOException, InterruptedException {
+		Path workingFolder = Files.createTempDirectory("jira-collector-");
+		try {
+			Properties config = new Properties();
+			config.setProperty("JiraServerRestEndpoint", stub.Url());
+			config.setProperty("JiraServerUsername", "stub");
+			config.setProperty("JiraServerPassword", "stub");
+			config.setProperty("JiraServerJqlQuery", "resolved >= -90d AND status = Done ORDER BY created DESC");
+			config.setProperty("LocalOutputPath", "");
+			config.setProperty("TugboatLogicCollectorUrl", stub.TugboatLogicCollectorUrl());
+			config.setProperty("TugboatLogicUsername", "stub");
+			config.setProperty("TugboatLogicPassword", "stub");
+			config.setProperty("TugboatLogicApiKey", "stub");
+			config.setProperty("IncrementalMode", "false");
+			config.setProperty("DeduplicateEvidence", "false");
+			config.putAll(collectorSettings);
+			try (OutputStream out = Files.newOutputStream(workingFolder.resolve("app.config"))) {
+				config.store(out, "Macro benchmark against the stub server");
+			}
+
+			// the collector runs on the classpath of the benchmark, which holds the collector and its dependencies
+			File log = workingFolder.resolve("collector.log").toFile();
+			Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-cp", System.getProperty("java.class.path"), "com.tugboatlogic.sample.Program")
+					.directory(workingFolder.toFile())
+					.redirectErrorStream(true)
+					.redirectOutput(log)
+					.start();
+
+			// there is nobody to press the enter key, so the prompts of the collector read the end of the input straight away
+			long start = System.nanoTime();
+			process.getOutputStream().close();
+			if (!process.waitFor(RUN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+				process.destroyForcibly();
+				throw new IllegalStateException("The collector did not complete within " + RUN_TIMEOUT_MINUTES + " minutes");
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			if (process.exitValue() != 0)
+				throw new IllegalStateException("The collector failed with exit code " + process.exitValue() + ":\n" + Files.readString(log.toPath()));
+			return seconds;
+		} finally {
+			try (Stream<Path> files = Files.walk(workingFolder)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+
+	/*
+	 * Prints the results of the runs at one scale, and returns them for the results file
+	 */
+	private static ObjectNode Report(String collector, int records, List<Double> rates, Map<StubServer.Endpoint, LatencyHistogram> latencies) {
+		double mean = rates.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+		double min = rates.stream().mapToDouble(Double::doubleValue).min().orElse(0);
+		double max = rates.stream().mapToDouble(Double::doubleValue).max().orElse(0);
+		System.out.println(String.format("  %d runs: %.0f records/s (min %.0f, max %.0f)", rates.size(), mean, min, max));
+
+		LatencyHistogram all = new LatencyHistogram();
+		ObjectNode result = new ObjectMapper().createObjectNode();
+		result.put("collector", collector);
+		result.put("records", records);
+		result.put("runs", rates.size());
+		result.put("recordsPerSecond", mean);
+		ObjectNode endpoints = result.putObject("endpoints");
+		for (Map.Entry<StubServer.Endpoint, LatencyHistogram> latency : latencies.entrySet()) {
+			LatencyHistogram histogram = latency.getValue();
+			if (histogram.Count() == 0)
+				continue;
+			all.Add(histogram);
+			System.out.println(String.format("  %-30s %s", latency.getKey().Description(), histogram.Summary()));
+
+			ObjectNode endpoint = endpoints.putObject(latency.getKey().name());
+			endpoint.put("requests", histogram.Count());
+			endpoint.put("p50", histogram.Percentile(50));
+			endpoint.put("p99", histogram.Percentile(99));
+			endpoint.put("max", histogram.Max());
+		}
+		System.out.println(String.format("  %-30s %s", "all requests", all.Summary()));
+		result.put("p50", all.Percentile(50));
+		result.put("p99", all.Percentile(99));
+		return result;
+	}
+}
@@ -0,0 +1,89 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/*
+ * This program compares the results of a JMH run with the baseline results kept in the baseline folder, printing the
+ * change of every metric (the time per operation, records per second, memory allocated and peak heap) for each
+ * benchmark and fixture size.
+ *
+ * Usage: mvn -B compile exec:exec@jmh to produce target/jmh-results.json, then mvn -B exec:exec@compare, optionally with
+ * -Dbenchmark.baseline=baseline/jmh-results.json -Dbenchmark.results=target/jmh-results.json
+ */
+public class CompareResults {
+	// the metrics compared, along with the name they are printed under
+	private static final Map<String, String> METRICS = new LinkedHashMap<>();
+	static {
+		METRICS.put("", "time");
+		METRICS.put("rec.rate", "records/s");
+		METRICS.put("rec.alloc.norm", "B/record");
+		METRICS.put("gc.alloc.rate.norm", "B/op");
+		METRICS.put("heap.peak", "peak heap");
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: CompareResults <baseline results> <results>");
+			return;
+		}
+
+		Map<String, JsonNode> baseline = Load(new File(args[0]));
+		Map<String, JsonNode> results = Load(new File(args[1]));
+
+		System.out.println(String.format("%-66s %-12s %16s %16s %9s", "Benchmark", "Metric", "Baseline", "Result", "Change"));
+		for (Map.Entry<String, JsonNode> result : results.entrySet()) {
+			JsonNode previous = baseline.get(result.getKey());
+			for (Map.Entry<String, String> metric : METRICS.entrySet()) {
+				JsonNode current = Metric(result.getValue(), metric.getKey());
+				if (current == null)
+					continue;
+
+				JsonNode before = previous != null ? Metric(previous, metric.getKey()) : null;
+				double score = current.path("score").asDouble();
+				String unit = current.path("scoreUnit").asText();
+				if (before == null) {
+					System.out.println(String.format("%-66s %-12s %16s %16s %9s", result.getKey(), metric.getValue(), "-", Format(score, unit), "new"));
+				} else {
+					double previousScore = before.path("score").asDouble();
+					String change = previousScore != 0 ? String.format("%+8.1f%%", (score - previousScore) * 100 / previousScore) : "-";
+					System.out.println(String.format("%-66s %-12s %16s %16s %9s", result.getKey(), metric.getValue(), Format(previousScore, unit), Format(score, unit), change));
+				}
+			}
+		}
+	}
+
+	/*
+	 * Loads the results of a JMH run (-rf json), keyed by the benchmark and its parameters
+	 */
+	private static Map<String, JsonNode> Load(File file) throws IOException {
+		Map<String, JsonNode> results = new LinkedHashMap<>();
+		for (JsonNode result : new ObjectMapper().readTree(file)) {
+			StringBuilder key = new StringBuilder(result.path("benchmark").asText().replace("com.tugboatlogic.sample.benchmarks.", ""));
+			for (Iterator<Map.Entry<String, JsonNode>> parameters = result.path("params").fields(); parameters.hasNext();) {
+				Map.Entry<String, JsonNode> parameter = parameters.next();
+				key.append(' ').append(parameter.getKey()).append('=').append(parameter.getValue().asText());
+			}
+			results.put(key.toString(), result);
+		}
+		return results;
+	}
+
+	/*
+	 * Returns the primary metric of a result, or one of its secondary metrics
+	 */
+	private static JsonNode Metric(JsonNode result, String name) {
+		JsonNode metric = name.isEmpty() ? result.get("primaryMetric") : result.path("secondaryMetrics").get(name);
+		return metric == null || metric.isNull() ? null : metric;
+	}
+
+	private static String Format(double score, String unit) {
+		return String.format(score >= 100 ? "%.0f %s" : "%.3f %s", score, unit);
+	}
+}
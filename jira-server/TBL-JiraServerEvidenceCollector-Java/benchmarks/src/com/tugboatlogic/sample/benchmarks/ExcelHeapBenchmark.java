@@ -0,0 +1,149 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.tugboatlogic.sample.ExcelHelper;
+import com.tugboatlogic.sample.models.Assignee;
+import com.tugboatlogic.sample.models.Fields;
+import com.tugboatlogic.sample.models.Issue;
+import com.tugboatlogic.sample.models.IssueType;
+import com.tugboatlogic.sample.models.Project;
+import com.tugboatlogic.sample.models.Reporter;
+import com.tugboatlogic.sample.models.Status;
+
+/*
+ * This benchmark generates the Jira Server Excel evidence document for a growing number of synthetic issues, both
+ * streamed (SXSSF) and held in memory (XSSF), and reports the time taken and the peak heap used by each run.
+ *
+ * The issues are generated lazily, one at a time, just like the issues streamed from the Jira Server search results,
+ * so the heap used by the benchmark itself does not grow with the issue count. With a streamed worksheet the peak heap
+ * should stay roughly flat as the issue count grows (only the finished document, which is compressed, grows), while the
+ * in-memory workbook grows with every row until it runs out of heap.
+ *
+ * Usage: mvn -B install in the collector project, then mvn -B compile exec:exec in this project, optionally with
+ * -Dbenchmark.issues=1000,10000,100000 and -Dbenchmark.heap=512m
+ */
+public class ExcelHeapBenchmark {
+	// the streamed row window to benchmark, the collector's default
+	private static final int ROW_WINDOW = 100;
+
+	// the date format used by Jira Server
+	private static final DateTimeFormatter JIRA_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+	public static void main(String[] args) throws IOException {
+		String counts = args.length > 0 ? args[0] : "1000,10000,100000";
+
+		System.out.println(String.format("Max heap: %d MB", Runtime.getRuntime().maxMemory() / (1024 * 1024)));
+		System.out.println(String.format("%-10s %10s %12s %16s %14s", "Mode", "Issues", "Time (ms)", "Peak heap (MB)", "Output (KB)"));
+
+		// warm up both code paths so the first measured run isn't dominated by class loading and JIT compilation
+		Run(ROW_WINDOW, 2000);
+		Run(0, 2000);
+
+		for (String count : counts.split(",")) {
+			int issueCount = Integer.parseInt(count.trim());
+			Report("SXSSF", issueCount, ROW_WINDOW);
+			Report("XSSF", issueCount, 0);
+		}
+	}
+
+	/*
+	 * Runs the benchmark for one mode and issue count, and prints its results
+	 */
+	private static void Report(String mode, int issueCount, int rowWindow) throws IOException {
+		ResetPeakHeap();
+		long start = System.nanoTime();
+		try {
+			long outputSize = Run(rowWindow, issueCount);
+			long elapsed = (System.nanoTime() - start) / 1_000_000;
+			System.out.println(String.format("%-10s %10d %12d %16d %14d", mode, issueCount, elapsed, PeakHeap() / (1024 * 1024), outputSize / 1024));
+		} catch (OutOfMemoryError e) {
+			System.out.println(String.format("%-10s %10d %12s %16s %14s", mode, issueCount, "-", "out of heap", "-"));
+		}
+	}
+
+	/*
+	 * Generates the Excel document without saving it locally, returning its size
+	 */
+	private static long Run(int rowWindow, int issueCount) throws IOException {
+		try (var outputStream = ExcelHelper.CreateExcelDocument(new SyntheticIssues(issueCount), null, "project = BENCH ORDER BY created DESC", null, rowWindow, false)) {
+			return outputStream.Length();
+		}
+	}
+
+	/*
+	 * Collects the garbage of previous runs and resets the peak usage of every heap memory pool
+	 */
+	private static void ResetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	/*
+	 * Returns the peak heap used since the last reset, the sum of the peaks of the heap memory pools
+	 */
+	private static long PeakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	/*
+	 * Generates synthetic Jira issues one at a time
+	 */
+	private static class SyntheticIssues implements Iterator<Issue> {
+		private final int count;
+		private final LocalDateTime base = LocalDateTime.of(2021, 1, 1, 0, 0);
+		private int next;
+
+		SyntheticIssues(int count) {
+			this.count = count;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < count;
+		}
+
+		@Override
+		public Issue next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			int id = next++;
+
+			Issue issue = new Issue();
+			issue.key = "BENCH-" + id;
+			issue.self = "https://jira.contoso.com/rest/api/2/issue/" + id;
+			issue.fields = new Fields();
+			issue.fields.summary = "Synthetic issue number " + id + " generated for the Excel benchmark";
+			issue.fields.issuetype = new IssueType();
+			issue.fields.issuetype.name = id % 3 == 0 ? "Bug" : "Task";
+			issue.fields.project = new Project();
+			issue.fields.project.name = "Benchmark";
+			issue.fields.assignee = new Assignee();
+			issue.fields.assignee.displayName = "Assignee " + (id % 50);
+			issue.fields.reporter = new Reporter();
+			issue.fields.reporter.displayName = "Reporter " + (id % 20);
+			issue.fields.status = new Status();
+			issue.fields.status.name = "Closed";
+			issue.fields.created = base.plusMinutes(id).atOffset(ZoneOffset.UTC).format(JIRA_DATE_FORMAT);
+			issue.fields.resolutiondate = base.plusMinutes(id + 90).atOffset(ZoneOffset.UTC).format(JIRA_DATE_FORMAT);
+			return issue;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/*
+ * This class generates the JSON fixtures used by the benchmarks: Jira Server search results of a given number of issues,
+ * shaped like the responses of /rest/api/2/search, including the fields which the collector does not bind.
+ *
+ * The fixtures are generated from a fixed seed, so every run (and the baseline results) measures the same documents,
+ * and they are kept under target/fixtures so that they are only generated once.
+ */
+public class Fixtures {
+	// the folder the fixtures are generated into
+	private static final Path FIXTURES = Paths.get("target", "fixtures");
+
+	// the date format used by Jira Server
+	private static final DateTimeFormatter JIRA_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+	private static final String BASE_URL = "https://jira.contoso.com";
+	private static final String[] ISSUE_TYPES = { "Bug", "Task", "Story", "Change Request" };
+	private static final String[] PROJECTS = { "Platform", "Payments", "Identity", "Infrastructure" };
+	private static final String[] WORDS = { "update", "access", "review", "production", "firewall", "rule", "rotate",
+			"credentials", "deploy", "database", "migration", "service", "account", "audit", "logging", "policy" };
+
+	/*
+	 * Returns a Jira Server search result holding a number of issues, generating it if needed
+	 */
+	public static synchronized Path JiraSearch(int issues) throws IOException {
+		Path fixture = FIXTURES.resolve("jira-search-" + issues + ".json");
+		if (Files.exists(fixture))
+			return fixture;
+
+		// generate the fixture to a temporary file first, so an interrupted run does not leave half a fixture behind
+		Files.createDirectories(FIXTURES);
+		Path temporary = Files.createTempFile(FIXTURES, "jira-search-", ".tmp");
+		Random random = new Random(issues);
+		LocalDateTime base = LocalDateTime.of(2021, 1, 1, 0, 0);
+		try (OutputStream out = Files.newOutputStream(temporary); JsonGenerator json = new JsonFactory().createGenerator(out)) {
+			json.writeStartObject();
+			json.writeStringField("expand", "schema,names");
+			json.writeNumberField("startAt", 0);
+			json.writeNumberField("maxResults", issues);
+			json.writeNumberField("total", issues);
+			json.writeArrayFieldStart("issues");
+			for (int id = 0; id < issues; id++) {
+				String project = PROJECTS[random.nextInt(PROJECTS.length)];
+				LocalDateTime created = base.plusMinutes(id * 7L + random.nextInt(7));
+
+				json.writeStartObject();
+				json.writeStringField("expand", "operations,versionedRepresentations,editmeta,changelog,renderedFields");
+				json.writeStringField("id", Integer.toString(10000 + id));
+				json.writeStringField("self", BASE_URL + "/rest/api/2/issue/" + (10000 + id));
+				json.writeStringField("key", project.substring(0, 3).toUpperCase() + "-" + id);
+				json.writeObjectFieldStart("fields");
+				json.writeStringField("summary", Sentence(random, 6 + random.nextInt(10)));
+				Named(json, "issuetype", "name", ISSUE_TYPES[random.nextInt(ISSUE_TYPES.length)]);
+				Named(json, "project", "name", project);
+				Named(json, "assignee", "displayName", "Assignee " + random.nextInt(200));
+				Named(json, "reporter", "displayName", "Reporter " + random.nextInt(100));
+				Named(json, "status", "name", "Done");
+				json.writeStringField("created", created.atOffset(ZoneOffset.UTC).format(JIRA_DATE_FORMAT));
+				json.writeStringField("resolutiondate", created.plusHours(1 + random.nextInt(72)).atOffset(ZoneOffset.UTC).format(JIRA_DATE_FORMAT));
+				json.writeEndObject();
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		}
+
+		Files.move(temporary, fixture, StandardCopyOption.REPLACE_EXISTING);
+		return fixture;
+	}
+
+	/*
+	 * Writes a Jira Server object such as a user or a status, with the fields the collector skips
+	 */
+	private static void Named(JsonGenerator json, String field, String nameField, String name) throws IOException {
+		json.writeObjectFieldStart(field);
+		json.writeStringField("self", BASE_URL + "/rest/api/2/" + field + "/" + Math.abs(name.hashCode()));
+		json.writeStringField("id", Integer.toString(Math.abs(name.hashCode() % 10000)));
+		json.writeStringField(nameField, name);
+		json.writeStringField("description", "The " + field + " " + name);
+		json.writeBooleanField("active", true);
+		json.writeEndObject();
+	}
+
+	/*
+	 * Returns a sentence of random words
+	 */
+	private static String Sentence(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+}
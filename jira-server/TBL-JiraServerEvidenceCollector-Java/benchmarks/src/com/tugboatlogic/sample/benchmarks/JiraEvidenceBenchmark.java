@@ -0,0 +1,176 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tugboatlogic.sample.EvidenceBuffer;
+import com.tugboatlogic.sample.ExcelHelper;
+import com.tugboatlogic.sample.JsonReaders;
+import com.tugboatlogic.sample.JsonRecordIterator;
+import com.tugboatlogic.sample.TugboatLogicHelper;
+import com.tugboatlogic.sample.models.Issue;
+
+/*
+ * This JMH benchmark measures each step a Jira Server issue goes through in the collector, over the generated search
+ * results of 1,000, 10,000 and 100,000 issues:
+ *
+ * - ParseSearch: binding the issues of a search result to the models, one at a time, as JiraServerHelper does
+ * - RenderExcel: generating the Excel evidence document of the issues with ExcelHelper (streamed, the default)
+ * - BuildMultipartBody: streaming the Excel evidence document through the multipart body built by TugboatLogicHelper
+ *
+ * Each operation handles the whole fixture, so the time is reported per fixture. The RecordProfiler reports the records
+ * per second, the memory allocated per record and the peak heap; the gc profiler the memory allocated per operation.
+ *
+ * Usage: mvn -B install in the collector project, then mvn -B compile exec:exec@jmh in this project, optionally with
+ * -Dbenchmark.jmh=JiraEvidenceBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx2g" })
+public class JiraEvidenceBenchmark {
+	// the JQL query shown in the Excel evidence document
+	private static final String JQL_QUERY = "project in (PLA, PAY, IDE, INF) AND status = Done ORDER BY created DESC";
+
+	// the streamed row window, the collector's default
+	private static final int ROW_WINDOW = 100;
+
+	/*
+	 * The generated search result of a number of issues
+	 */
+	@State(Scope.Benchmark)
+	public static class Fixture {
+		@Param({ "1000", "10000", "100000" })
+		public int issues;
+
+		Path search;
+
+		@Setup
+		public void Setup() throws IOException {
+			search = Fixtures.JiraSearch(issues);
+		}
+	}
+
+	/*
+	 * The issues of the fixture, bound to the models
+	 */
+	@State(Scope.Benchmark)
+	public static class Issues {
+		List<Issue> issues;
+
+		@Setup
+		public void Setup(Fixture fixture) throws IOException {
+			issues = new ArrayList<>(fixture.issues);
+			try (var iterator = OpenSearch(fixture.search)) {
+				iterator.forEachRemaining(issues::add);
+			}
+		}
+	}
+
+	/*
+	 * The Excel evidence document of the fixture
+	 */
+	@State(Scope.Benchmark)
+	public static class Document {
+		EvidenceBuffer document;
+
+		@Setup
+		public void Setup(Issues issues) {
+			document = ExcelHelper.CreateExcelDocument(issues.issues.iterator(), null, JQL_QUERY, null, ROW_WINDOW, false);
+		}
+
+		@TearDown
+		public void TearDown() throws IOException {
+			document.close();
+		}
+	}
+
+	@Benchmark
+	public void ParseSearch(Fixture fixture, Blackhole blackhole) throws IOException {
+		try (var iterator = OpenSearch(fixture.search)) {
+			while (iterator.hasNext())
+				blackhole.consume(iterator.next());
+		}
+		RecordProfiler.Count(fixture.issues);
+	}
+
+	@Benchmark
+	public long RenderExcel(Issues issues) throws IOException {
+		try (EvidenceBuffer document = ExcelHelper.CreateExcelDocument(issues.issues.iterator(), null, JQL_QUERY, null, ROW_WINDOW, false)) {
+			RecordProfiler.Count(issues.issues.size());
+			return document.Length();
+		}
+	}
+
+	@Benchmark
+	public long BuildMultipartBody(Issues issues, Document document) {
+		long length = Drain(TugboatLogicHelper.MultipartBody(UUID.randomUUID().toString(), document.document));
+		RecordProfiler.Count(issues.issues.size());
+		return length;
+	}
+
+	/*
+	 * Reads the issues of a search result one at a time
+	 */
+	private static JsonRecordIterator<Issue> OpenSearch(Path search) throws IOException {
+		InputStream inputStream = new BufferedInputStream(Files.newInputStream(search), 64 * 1024);
+		return JsonRecordIterator.OfArrayField(inputStream, "issues", JsonReaders.ISSUE);
+	}
+
+	/*
+	 * Reads a request body the way the HTTP client sends it, returning the number of bytes read
+	 */
+	static long Drain(HttpRequest.BodyPublisher body) {
+		CompletableFuture<Long> done = new CompletableFuture<>();
+		body.subscribe(new Flow.Subscriber<ByteBuffer>() {
+			private long length;
+
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+
+			@Override
+			public void onNext(ByteBuffer item) {
+				length += item.remaining();
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				done.completeExceptionally(throwable);
+			}
+
+			@Override
+			public void onComplete() {
+				done.complete(length);
+			}
+		});
+		return done.join();
+	}
+}
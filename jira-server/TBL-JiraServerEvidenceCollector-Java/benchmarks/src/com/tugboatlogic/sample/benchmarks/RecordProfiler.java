@@ -0,0 +1,151 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.ThreadMXBean;
+
+/*
+ * This JMH profiler reports the benchmarks per record (a pull request or an issue) rather than per operation, since a
+ * single operation handles a whole fixture of 1,000 to 100,000 records. Each benchmark counts the records it handles
+ * with Count, and for every iteration the profiler reports:
+ *
+ * - rec.rate: the number of records handled per second
+ * - rec.alloc.norm: the memory allocated per record, by every thread of the benchmark JVM
+ * - heap.peak: the peak heap still in use after a garbage collection, above the heap in use when the iteration
+ *   started (i.e. leaving out the fixtures held by the benchmark), which is the heap a run of the collector needs
+ *
+ * Usage: -prof com.tugboatlogic.sample.benchmarks.RecordProfiler, usually along with -prof gc
+ */
+public class RecordProfiler implements InternalProfiler {
+	// the number of records handled by the benchmarks so far
+	private static final AtomicLong records = new AtomicLong();
+
+	private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private final Set<String> heapPools = new HashSet<>();
+	private final NotificationListener listener = this::OnGarbageCollection;
+
+	// the state of the current iteration
+	private long startRecords;
+	private long startAllocated;
+	private long startNanos;
+	private long startHeap;
+	private final AtomicLong peakHeap = new AtomicLong();
+
+	public RecordProfiler() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				heapPools.add(pool.getName());
+		}
+	}
+
+	/*
+	 * Counts the records handled by a benchmark
+	 */
+	public static void Count(long count) {
+		records.addAndGet(count);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Records handled per second, memory allocated per record and peak heap";
+	}
+
+	@Override
+	public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+		// start from the heap which is really in use, such as the fixtures loaded by the benchmark
+		System.gc();
+		startHeap = UsedHeap();
+		peakHeap.set(startHeap);
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+			((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+
+		startRecords = records.get();
+		startAllocated = AllocatedBytes();
+		startNanos = System.nanoTime();
+	}
+
+	@Override
+	public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+		long elapsed = System.nanoTime() - startNanos;
+		long allocated = AllocatedBytes() - startAllocated;
+		long count = records.get() - startRecords;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			try {
+				((NotificationEmitter) collector).removeNotificationListener(listener);
+			} catch (Exception e) {
+				// the listener was not registered with this collector
+			}
+		}
+
+		// benchmarks which do not count records (e.g. the micro benchmarks) have nothing to report
+		List<Result> results = new ArrayList<>();
+		if (count == 0)
+			return results;
+
+		results.add(new ScalarResult("rec.rate", count * 1e9 / elapsed, "records/s", AggregationPolicy.AVG));
+		results.add(new ScalarResult("rec.alloc.norm", (double) allocated / count, "B/record", AggregationPolicy.AVG));
+		results.add(new ScalarResult("heap.peak", Math.max(0, peakHeap.get() - startHeap) / (1024.0 * 1024.0), "MB", AggregationPolicy.MAX));
+		return results;
+	}
+
+	/*
+	 * Keeps track of the peak heap in use after each garbage collection
+	 */
+	private void OnGarbageCollection(Notification notification, Object handback) {
+		if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+			return;
+
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+		long used = 0;
+		for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+			if (heapPools.contains(pool.getKey()))
+				used += pool.getValue().getUsed();
+		}
+		peakHeap.accumulateAndGet(used, Math::max);
+	}
+
+	/*
+	 * Returns the heap in use right now
+	 */
+	private static long UsedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/*
+	 * Returns the memory allocated so far by the live threads
+	 */
+	private long AllocatedBytes() {
+		long total = 0;
+		for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (allocated > 0)
+				total += allocated;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,197 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.tugboatlogic.sample.stub.StubServer;
+
+/*
+ * This benchmark measures how quickly the Jira Server collector gets going, for each of the ways it can be built:
+ *
+ * - jvm: the jar, on a JVM with the default class data sharing archive of the JDK
+ * - appcds: the jar, with the class data sharing archive of the training run of the appcds profile (mvn package -Pappcds)
+ * - native: the native executable of the native profile (mvn package -Pnative)
+ *
+ * Each run starts the collector (--once, from an empty working folder) against the embedded stub server, and measures
+ * the time from starting its process until its first request reaches the stub server (the time to first request), and
+ * until it exits. The variants which have not been built are skipped. Each variant is run once as a warmup of the file
+ * system cache, which is left out of the results.
+ *
+ * The arguments are settings of the form Key=Value:
+ *
+ * - Runs: the number of measured runs of each variant
+ * - Issues: the number of issues the stub server serves, small enough for the startup to dominate the run
+ * - Jar, Archive, Native: the jar of the collector, its class data sharing archive and its native executable
+ * - the Stub settings configure the stub server, see its README
+ * - any other setting is written to the app.config of the collector
+ *
+ * The results are printed, and written to target/startup-results.json.
+ *
+ * Usage: mvn -B package -Pappcds,native in the collector project (with a GraalVM JDK, or -Pappcds alone without one),
+ * mvn -B install in the stub server project, then mvn -B compile exec:exec@startup in this project, on the same JDK
+ */
+public class StartupBenchmark {
+	// how long a single run of the collector may take
+	private static final long RUN_TIMEOUT_MINUTES = 5;
+
+	public static void main(String[] args) throws Exception {
+		Properties settings = new Properties();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals > 0)
+				settings.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		int runs = Integer.parseInt(settings.getProperty("Runs", "10"));
+		Path jar = Paths.get(settings.getProperty("Jar", "../target/SampleApp_JiraServer-0.0.1-SNAPSHOT.jar")).toAbsolutePath().normalize();
+		Path archive = Paths.get(settings.getProperty("Archive", "../target/SampleApp_JiraServer.jsa")).toAbsolutePath().normalize();
+		Path executable = Paths.get(settings.getProperty("Native", "../target/SampleApp_JiraServer")).toAbsolutePath().normalize();
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+		// the command line of each variant, the jar has its dependencies in the lib folder next to it
+		List<String> names = new ArrayList<>();
+		List<List<String>> commands = new ArrayList<>();
+		if (Files.isRegularFile(jar)) {
+			names.add("jvm");
+			commands.add(List.of(java, "-Xshare:auto", "-jar", jar.toString(), "--once"));
+			if (Files.isRegularFile(archive)) {
+				// -Xshare:on fails the run, rather than silently running without the archive, when the archive does not match the jar or the JDK
+				names.add("appcds");
+				commands.add(List.of(java, "-Xshare:on", "-XX:SharedArchiveFile=" + archive, "-jar", jar.toString(), "--once"));
+			} else {
+				System.out.println("Skipping appcds, there is no archive at " + archive + " (mvn package -Pappcds)");
+			}
+		} else {
+			System.out.println("Skipping jvm and appcds, there is no jar at " + jar + " (mvn package -Pappcds)");
+		}
+		if (Files.isExecutable(executable)) {
+			names.add("native");
+			commands.add(List.of(executable.toString(), "--once"));
+		} else {
+			System.out.println("Skipping native, there is no executable at " + executable + " (mvn package -Pnative)");
+		}
+		if (names.isEmpty())
+			throw new IllegalStateException("None of the variants of the collector has been built");
+
+		// the stub server and the collector settings, which the arguments override
+		Properties stubSettings = new Properties();
+		stubSettings.setProperty("StubJiraIssues", settings.getProperty("Issues", "100"));
+		Properties collectorSettings = new Properties();
+		for (String name : settings.stringPropertyNames()) {
+			if (name.startsWith("Stub"))
+				stubSettings.setProperty(name, settings.getProperty(name));
+			else if (!List.of("Runs", "Issues", "Jar", "Archive", "Native").contains(name))
+				collectorSettings.setProperty(name, settings.getProperty(name));
+		}
+
+		ArrayNode results = new ObjectMapper().createArrayNode();
+		try (StubServer stub = new StubServer(stubSettings)) {
+			stub.Start();
+			System.out.println(String.format("%d issues, stub server on %s", stub.Data().Issues(), stub.Url()));
+
+			double baseline = 0;
+			for (int variant = 0; variant < names.size(); variant++) {
+				List<Double> firstRequests = new ArrayList<>();
+				List<Double> totals = new ArrayList<>();
+				for (int run = 0; run <= runs; run++) {
+					double[] times = RunCollector(stub, commands.get(variant), collectorSettings);
+					if (run > 0) {
+						firstRequests.add(times[0]);
+						totals.add(times[1]);
+					}
+				}
+
+				double firstRequest = Median(firstRequests);
+				if (variant == 0)
+					baseline = firstRequest;
+				System.out.println(String.format("  %-8s first request after %6.0f ms (min %.0f), exited after %6.0f ms (min %.0f), %.2fx the time to first request of %s",
+						names.get(variant), firstRequest, Collections.min(firstRequests), Median(totals), Collections.min(totals), firstRequest / baseline, names.get(0)));
+
+				ObjectNode result = results.addObject();
+				result.put("collector", "jira");
+				result.put("variant", names.get(variant));
+				result.put("runs", runs);
+				result.put("firstRequestMillis", firstRequest);
+				result.put("firstRequestMinMillis", Collections.min(firstRequests));
+				result.put("totalMillis", Median(totals));
+				result.put("totalMinMillis", Collections.min(totals));
+			}
+		}
+
+		Path output = Paths.get("target", "startup-results.json");
+		Files.createDirectories(output.getParent());
+		new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(output.toFile(), results);
+		System.out.println("Results written to " + output);
+	}
+
+	/*
+	 * Runs the collector once against the stub server, from an empty working folder, returning the milliseconds until its
+	 * first request reached the stub server and until it exited
+	 */
+	private static double[] RunCollector(StubServer stub, List<String> command, Properties collectorSettings) throws IOException, InterruptedException {
+		Path workingFolder = Files.createTempDirectory("jira-collector-");
+		try {
+			Properties config = new Properties();
+			config.setProperty("JiraServerRestEndpoint", stub.Url());
+			config.setProperty("JiraServerUsername", "stub");
+			config.setProperty("JiraServerPassword", "stub");
+			config.setProperty("JiraServerJqlQuery", "resolved >= -90d AND status = Done ORDER BY created DESC");
+			config.setProperty("LocalOutputPath", "");
+			config.setProperty("TugboatLogicCollectorUrl", stub.TugboatLogicCollectorUrl());
+			config.setProperty("TugboatLogicUsername", "stub");
+			config.setProperty("TugboatLogicPassword", "stub");
+			config.setProperty("TugboatLogicApiKey", "stub");
+			config.setProperty("IncrementalMode", "false");
+			config.setProperty("DeduplicateEvidence", "false");
+			config.putAll(collectorSettings);
+			try (OutputStream out = Files.newOutputStream(workingFolder.resolve("app.config"))) {
+				config.store(out, "Startup benchmark against the stub server");
+			}
+
+			File log = workingFolder.resolve("collector.log").toFile();
+			stub.ResetStatistics();
+			long start = System.nanoTime();
+			Process process = new ProcessBuilder(command)
+					.directory(workingFolder.toFile())
+					.redirectErrorStream(true)
+					.redirectOutput(log)
+					.start();
+			process.getOutputStream().close();
+			if (!process.waitFor(RUN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+				process.destroyForcibly();
+				throw new IllegalStateException("The collector did not complete within " + RUN_TIMEOUT_MINUTES + " minutes");
+			}
+			long end = System.nanoTime();
+			if (process.exitValue() != 0 || stub.FirstRequestNanos() == 0 || stub.Statistics(StubServer.Endpoint.TugboatUpload).Records() == 0)
+				throw new IllegalStateException("The collector failed with exit code " + process.exitValue() + ":\n" + Files.readString(log.toPath()));
+			return new double[] { (stub.FirstRequestNanos() - start) / 1e6, (end - start) / 1e6 };
+		} finally {
+			try (Stream<Path> files = Files.walk(workingFolder)) {
+				files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+
+	/*
+	 * Returns the median of the measurements
+	 */
+	private static double Median(List<Double> values) {
+		List<Double> sorted = new ArrayList<>(values);
+		Collections.sort(sorted);
+		int middle = sorted.size() / 2;
+		return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+	}
+}
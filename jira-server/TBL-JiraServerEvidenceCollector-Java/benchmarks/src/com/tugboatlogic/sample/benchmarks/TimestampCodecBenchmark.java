@@ -0,0 +1,152 @@
+package com.tugboatlogic.sample.benchmarks;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tugboatlogic.sample.TimestampCodec;
+
+/*
+ * This JMH benchmark compares the TimestampCodec, shared by both evidence collectors, with the date handling it
+ * replaced, for each of the places a timestamp is parsed and formatted:
+ *
+ * - Jira*: a Jira Server date (2021-05-01T10:00:00.000+0000) parsed into an Excel date cell, previously with a
+ *   DateTimeFormatterBuilder built for every row (or, later, a shared DateTimeFormatter)
+ * - Github*: a Github Enterprise Server date (2021-05-01T10:00:00Z) parsed and written to the CSV document in UTC,
+ *   previously with a SimpleDateFormat created for every document
+ * - Comment*: the date of a comment or review parsed and written with its offset, previously with two formatters
+ *   created for every list of comments
+ *
+ * Each benchmark cycles through a number of distinct timestamps: a handful of them, as when the same dates repeat
+ * across a page (mostly hits on the codec's cache), or far more than the cache holds (mostly misses, so the fast path).
+ * Run it with -prof gc to compare the memory allocated per timestamp.
+ *
+ * Usage: mvn -B install in the collector project, then mvn -B compile exec:exec@jmh in this project, optionally with
+ * -Dbenchmark.jmh=TimestampCodecBenchmark -Dbenchmark.jmh.options="-f 1 -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimestampCodecBenchmark {
+	// the date formats returned by Jira Server and Github Enterprise Server
+	private static final DateTimeFormatter JIRA_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+	private static final DateTimeFormatter GITHUB_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
+
+	// the formatter which ExcelHelper and JiraServerHelper used to share
+	private static final DateTimeFormatter SHARED_JIRA_FORMAT = new DateTimeFormatterBuilder()
+			.append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+			.appendOffset("+HHMM","Z")
+			.toFormatter();
+
+	@Param({ "16", "100000" })
+	public int distinct;
+
+	private String[] jiraDates;
+	private String[] githubDates;
+	private int next;
+
+	// the buffer the timestamps are written to, as the CSV document would be
+	private final StringBuilder sb = new StringBuilder(64);
+
+	@Setup
+	public void Setup() {
+		// timestamps spread over ten years, in a few of the offsets Jira Server may be configured with
+		Random random = new Random(42);
+		ZoneOffset[] offsets = { ZoneOffset.UTC, ZoneOffset.ofHours(-5), ZoneOffset.ofHoursMinutes(5, 30), ZoneOffset.ofHours(10) };
+		jiraDates = new String[distinct];
+		githubDates = new String[distinct];
+		for (int i = 0; i < distinct; i++) {
+			long millis = 1_500_000_000_000L + (long) (random.nextDouble() * 315_360_000_000L);
+			OffsetDateTime timestamp = Instant.ofEpochMilli(millis).atOffset(offsets[random.nextInt(offsets.length)]);
+			jiraDates[i] = timestamp.format(JIRA_DATE_FORMAT);
+			githubDates[i] = timestamp.withOffsetSameInstant(ZoneOffset.UTC).format(GITHUB_DATE_FORMAT);
+		}
+	}
+
+	private int Next() {
+		int index = next;
+		next = index + 1 == distinct ? 0 : index + 1;
+		return index;
+	}
+
+	@Benchmark
+	public double JiraFormatterPerRow() {
+		DateTimeFormatter formatter = new DateTimeFormatterBuilder()
+				.append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+				.appendOffset("+HHMM","Z")
+				.toFormatter();
+		return DateUtil.getExcelDate(OffsetDateTime.parse(jiraDates[Next()], formatter).toLocalDateTime(), false);
+	}
+
+	@Benchmark
+	public double JiraSharedFormatter() {
+		return DateUtil.getExcelDate(OffsetDateTime.parse(jiraDates[Next()], SHARED_JIRA_FORMAT).toLocalDateTime(), false);
+	}
+
+	@Benchmark
+	public double JiraCodec() {
+		return TimestampCodec.ToExcelDate(TimestampCodec.Parse(jiraDates[Next()]));
+	}
+
+	@Benchmark
+	public int GithubSimpleDateFormat() throws ParseException {
+		DateFormat parseFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		parseFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		sb.setLength(0);
+		sb.append("Merged At:," + parseFormat.format(parseFormat.parse(githubDates[Next()])));
+		return sb.length();
+	}
+
+	@Benchmark
+	public int GithubCodec() {
+		sb.setLength(0);
+		sb.append("Merged At:,");
+		TimestampCodec.AppendUtc(TimestampCodec.Parse(githubDates[Next()]), sb);
+		return sb.length();
+	}
+
+	@Benchmark
+	public int CommentFormattersPerCall() {
+		DateTimeFormatter customFormatter = new DateTimeFormatterBuilder()
+				.append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+				.appendOffset("+HHMM","Z")
+				.toFormatter();
+		DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssZ");
+		sb.setLength(0);
+		sb.append(String.format(" on %s \n\n", fmt.format(customFormatter.parse(jiraDates[Next()]))));
+		return sb.length();
+	}
+
+	@Benchmark
+	public int CommentCodec() {
+		sb.setLength(0);
+		sb.append(" on ");
+		TimestampCodec.AppendWithOffset(TimestampCodec.Parse(jiraDates[Next()]), sb);
+		sb.append(" \n\n");
+		return sb.length();
+	}
+}
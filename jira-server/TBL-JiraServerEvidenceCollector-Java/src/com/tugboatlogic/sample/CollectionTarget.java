@@ -0,0 +1,152 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * This class is a target of a run: a Jira project whose issues are collected along with those of the other projects,
+ * over the same connections and the same pool of search workers, into an Excel document of its own. Each project keeps
+ * its own high-water mark, local output folder and upload result, and a project which fails does not fail the others.
+ *
+ * The projects are read from the JiraServerProjects setting, a comma separated list of project keys (or names). Each
+ * project is collected with the JiraServerJqlQuery narrowed down to it, so the query itself should not be restricted to
+ * other projects, and its Excel document is saved in a folder of its own under the LocalOutputPath. When the setting is
+ * empty, the JiraServerJqlQuery is collected on its own as a single target, just like a run has always done.
+ */
+public class CollectionTarget {
+	// the name of the target, e.g. the project key
+	public final String name;
+	// the query of the target, along with the key of its high-water mark
+	public final String query;
+	public final String stateKey;
+	// the local output path of the Excel document of the target
+	public final String localOutputPath;
+
+	// the high-water mark of the previous run, and the query of the window collected by this run (incremental mode)
+	public CollectorState.Mark mark;
+	public String windowQuery;
+	// whether nothing has changed since the previous run, in which case the target is not collected
+	public boolean unchanged;
+
+	// keeps track of the newest issue of the target collected by this run
+	public final CollectorState.Tracker tracker = new CollectorState.Tracker();
+
+	// the number of issues of the target taken from Jira Server, and of those included in its Excel document
+	public final AtomicLong taken = new AtomicLong();
+	public final AtomicLong included = new AtomicLong();
+
+	// the issues included in the Excel document along with their hashes, which are only added to the index once it has been uploaded
+	private final List<String> changedKeys = new ArrayList<>();
+	private final List<Long> changedHashes = new ArrayList<>();
+
+	// the outcome of the target
+	private Integer evidenceId;
+	private Exception failure;
+
+	CollectionTarget(String name, String query, String stateKey, String localOutputPath) {
+		this.name = name;
+		this.query = query;
+		this.stateKey = stateKey;
+		this.localOutputPath = localOutputPath;
+	}
+
+	/*
+	 * Reads the targets of a run from the settings
+	 *
+	 * @param properties The application settings
+	 * @param endpointUrl The endpoint URL for the Jira Server API
+	 * @param query The query of the issues, which is narrowed down to each project
+	 * @param localOutputPath The local output path, under which each project gets a folder of its own
+	 */
+	public static List<CollectionTarget> Resolve(Properties properties, String endpointUrl, String query, String localOutputPath) throws IOException {
+		String setting = properties.getProperty("JiraServerProjects", "").trim();
+		if (setting.isEmpty())
+			return List.of(new CollectionTarget("Jira Server", query, endpointUrl + " " + query, localOutputPath));
+
+		// the projects by their upper case key, since Jira Server ignores the case of the keys, a project given twice is collected once
+		Map<String, String> projects = new LinkedHashMap<>();
+		for (String entry : setting.split(",")) {
+			entry = entry.trim();
+			if (!entry.isEmpty())
+				projects.putIfAbsent(entry.toUpperCase(Locale.ROOT), entry);
+		}
+
+		List<CollectionTarget> targets = new ArrayList<>();
+		for (String project : projects.values()) {
+			String targetQuery = JiraServerHelper.ProjectQuery(query, project);
+			String targetOutputPath = localOutputPath;
+			if (localOutputPath != null && !localOutputPath.isEmpty()) {
+				targetOutputPath = Paths.get(localOutputPath, project.replaceAll("[^A-Za-z0-9_.-]", "_")).toString();
+				Files.createDirectories(Paths.get(targetOutputPath));
+			}
+			targets.add(new CollectionTarget(project, targetQuery, endpointUrl + " " + targetQuery, targetOutputPath));
+		}
+		return targets;
+	}
+
+	/*
+	 * Records an issue included in the Excel document of the target, along with its hash
+	 */
+	public void Changed(String key, long hash) {
+		changedKeys.add(key);
+		changedHashes.add(hash);
+	}
+
+	/*
+	 * Adds the issues included in the uploaded Excel document of the target to the index
+	 */
+	public void AddToIndex(EvidenceIndex index) {
+		for (int i = 0; i < changedKeys.size(); i++)
+			index.Put(changedKeys.get(i), changedHashes.get(i), changedHashes.get(i));
+	}
+
+	/*
+	 * Records the Excel document of the target uploaded to Tugboat Logic
+	 */
+	public synchronized void Uploaded(int evidenceId) {
+		this.evidenceId = evidenceId;
+	}
+
+	/*
+	 * Fails the target, its Excel document is not uploaded and its high-water mark does not move
+	 */
+	public synchronized void Fail(Exception e) {
+		failure = e;
+		System.out.println(String.format("Collecting from %s failed: %s", name, e.getMessage()));
+	}
+
+	/*
+	 * Returns the failure of the target, or null
+	 */
+	public synchronized Exception Failure() {
+		return failure;
+	}
+
+	/*
+	 * Returns the start of the window collected from the target, or null when the whole query is collected
+	 */
+	public OffsetDateTime Since(int overlapMinutes) {
+		return mark != null ? mark.WindowStart(overlapMinutes) : null;
+	}
+
+	/*
+	 * Returns a one-line summary of the outcome of the target
+	 */
+	public synchronized String Statistics() {
+		if (unchanged)
+			return String.format("%s: nothing has changed since %s", name, mark.watermark);
+
+		String result = String.format("%s: %d issues taken, %d included in the Excel document, %s",
+				name, taken.get(), included.get(), evidenceId != null ? "uploaded as evidence #" + evidenceId : "nothing uploaded");
+		return failure == null ? result : result + ", failed: " + failure.getMessage();
+	}
+}
@@ -0,0 +1,190 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Properties;
+
+/*
+ * This class keeps the high-water marks used for incremental collection, so that each run only collects the records
+ * which have changed since the previous run rather than rescanning the whole 90 day window.
+ *
+ * For each query we remember the newest timestamp seen (the high-water mark), along with the number of records seen
+ * from the start of the next run's window, which lets the next run tell that nothing has changed from a single probe.
+ * The next run collects from the high-water mark minus a small overlap, so that records which were still being written
+ * when the previous run queried are picked up again rather than missed.
+ *
+ * The state is kept in a small properties file next to the app.config file, and is only updated once a run has
+ * uploaded its evidence successfully, so a failed run is simply repeated.
+ */
+public class CollectorState {
+	/*
+	 * The high-water mark of a single query
+	 */
+	public static class Mark {
+		// the newest timestamp seen by the previous runs
+		public final OffsetDateTime watermark;
+		// the number of records seen from the start of the window which follows the watermark
+		public final long count;
+
+		Mark(OffsetDateTime watermark, long count) {
+			this.watermark = watermark;
+			this.count = count;
+		}
+
+		/*
+		 * Returns the start of the window to collect from, the watermark minus the overlap, truncated to the minute
+		 * since JQL dates have a precision of one minute
+		 */
+		public OffsetDateTime WindowStart(int overlapMinutes) {
+			return watermark.minusMinutes(overlapMinutes).truncatedTo(ChronoUnit.MINUTES);
+		}
+
+		/*
+		 * Returns whether a probe of the window shows the same records as the previous run saw
+		 *
+		 * @param total The number of records matching the window
+		 * @param newest The newest timestamp within the window, or null if the window is empty
+		 */
+		public boolean IsUnchanged(long total, OffsetDateTime newest) {
+			return total == count && (newest == null ? count == 0 : !newest.isAfter(watermark));
+		}
+	}
+
+	/*
+	 * Tracks the timestamps of the records collected by a run, to work out the next high-water mark
+	 */
+	public static class Tracker {
+		private long[] seconds = new long[1024];
+		private int size;
+		private OffsetDateTime newest;
+
+		/*
+		 * Records the timestamp of a collected record, records without a timestamp are ignored
+		 */
+		public synchronized void Observe(OffsetDateTime timestamp) {
+			if (timestamp == null)
+				return;
+
+			if (size == seconds.length)
+				seconds = Arrays.copyOf(seconds, size * 2);
+			seconds[size++] = timestamp.toEpochSecond();
+
+			if (newest == null || timestamp.isAfter(newest))
+				newest = timestamp;
+		}
+
+		/*
+		 * Returns the number of timestamps at or after the given instant
+		 */
+		synchronized long CountSince(OffsetDateTime from) {
+			long fromSeconds = from.toEpochSecond();
+			long count = 0;
+			for (int i = 0; i < size; i++) {
+				if (seconds[i] >= fromSeconds)
+					count++;
+			}
+			return count;
+		}
+	}
+
+	private final Path file;
+	private final Properties properties = new Properties();
+
+	private CollectorState(Path file) {
+		this.file = file;
+	}
+
+	/*
+	 * Loads the state from a file, starting from an empty state when the file does not exist yet
+	 *
+	 * @param file The path of the state file
+	 */
+	public static CollectorState Load(Path file) throws IOException {
+		CollectorState state = new CollectorState(file);
+		if (Files.exists(file)) {
+			try (InputStream is = Files.newInputStream(file)) {
+				state.properties.load(is);
+			}
+		}
+		return state;
+	}
+
+	/*
+	 * Returns the high-water mark of a query, or null if the query has never been collected
+	 *
+	 * @param query Identifies the query, e.g. the endpoint URL along with the query text
+	 */
+	public synchronized Mark Get(String query) {
+		String key = Key(query);
+		String watermark = properties.getProperty(key + ".watermark");
+		if (watermark == null)
+			return null;
+
+		return new Mark(OffsetDateTime.parse(watermark), Long.parseLong(properties.getProperty(key + ".count", "0")));
+	}
+
+	/*
+	 * Moves the high-water mark of a query forward to the newest timestamp collected by this run
+	 *
+	 * @param query Identifies the query, e.g. the endpoint URL along with the query text
+	 * @param tracker The timestamps collected by this run
+	 * @param overlapMinutes The overlap used by the next run
+	 */
+	public synchronized void Put(String query, Tracker tracker, int overlapMinutes) {
+		// the watermark only moves forward, a run which collected nothing keeps the previous one
+		Mark previous = Get(query);
+		OffsetDateTime watermark = previous == null ? tracker.newest : previous.watermark;
+		if (tracker.newest != null && (watermark == null || tracker.newest.isAfter(watermark)))
+			watermark = tracker.newest;
+		if (watermark == null)
+			return;
+
+		// the next window is within this run's window, so we have seen every record which it holds
+		Mark mark = new Mark(watermark, 0);
+		String key = Key(query);
+		properties.setProperty(key + ".query", query);
+		properties.setProperty(key + ".watermark", watermark.toString());
+		properties.setProperty(key + ".count", Long.toString(tracker.CountSince(mark.WindowStart(overlapMinutes))));
+	}
+
+	/*
+	 * Saves the state, replacing the file in one step so that an interrupted run cannot leave it half written
+	 */
+	public synchronized void Save() throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, "collector-state-", ".tmp");
+		try {
+			try (OutputStream os = Files.newOutputStream(temp)) {
+				properties.store(os, "Incremental collection high-water marks");
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/*
+	 * This helper method derives a short, stable key for a query, the query text itself may hold any characters
+	 */
+	private static String Key(String query) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for (int i = 0; i < 8; i++)
+				key.append(String.format("%02x", digest[i]));
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.tugboatlogic.sample;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Map;
+
+/*
+ * This class is a cron-style schedule, which tells the service mode when to run the next collection.
+ *
+ * A schedule has the five fields of a crontab entry: minute (0-59), hour (0-23), day of the month (1-31), month (1-12)
+ * and day of the week (0-7, where both 0 and 7 are Sunday). Each field is either *, a value, a range (1-5), a list
+ * (1,15,30) or a range with a step (0-59/15 is every 15 minutes, and so is a * followed by /15), and the months and
+ * the days of the week may also be given by name (JAN, MON). Just like cron, when both the day of the month and the day of the week are restricted, a day matching either of them
+ * will do. The shorthands @hourly, @daily, @weekly and @monthly are accepted as well.
+ */
+public class CronSchedule {
+	private static final Map<String, String> SHORTHANDS = Map.of(
+			"@hourly", "0 * * * *",
+			"@daily", "0 0 * * *",
+			"@midnight", "0 0 * * *",
+			"@weekly", "0 0 * * 0",
+			"@monthly", "0 0 1 * *");
+
+	private static final String[] MONTH_NAMES = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+	private static final String[] DAY_NAMES = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+	// how far ahead to look for the next run, which is only reached by a schedule that never matches (e.g. 30 February)
+	private static final int MAX_YEARS_AHEAD = 5;
+
+	private final String expression;
+	private final ZoneId zone;
+	private final BitSet minutes;
+	private final BitSet hours;
+	private final BitSet daysOfMonth;
+	private final BitSet months;
+	private final BitSet daysOfWeek;
+	private final boolean anyDayOfMonth;
+	private final boolean anyDayOfWeek;
+
+	/*
+	 * Parses a schedule
+	 *
+	 * @param expression The five fields of the schedule, or one of the shorthands
+	 * @param zone The time zone the schedule is in
+	 * @throws IllegalArgumentException Thrown when the schedule is not valid
+	 */
+	public CronSchedule(String expression, ZoneId zone) {
+		this.expression = expression.trim();
+		this.zone = zone;
+
+		String[] fields = SHORTHANDS.getOrDefault(this.expression.toLowerCase(), this.expression).split("\\s+");
+		if (fields.length != 5)
+			throw new IllegalArgumentException(String.format("The schedule '%s' should have 5 fields (minute hour day-of-month month day-of-week)", expression));
+
+		minutes = ParseField(fields[0], 0, 59, null);
+		hours = ParseField(fields[1], 0, 23, null);
+		daysOfMonth = ParseField(fields[2], 1, 31, null);
+		months = ParseField(fields[3], 1, 12, MONTH_NAMES);
+		daysOfWeek = ParseField(fields[4], 0, 7, DAY_NAMES);
+		// Sunday may be given as either 0 or 7
+		if (daysOfWeek.get(7))
+			daysOfWeek.set(0);
+		anyDayOfMonth = fields[2].equals("*") || fields[2].equals("?");
+		anyDayOfWeek = fields[4].equals("*") || fields[4].equals("?");
+	}
+
+	/*
+	 * Returns the first time after the given time which matches the schedule
+	 *
+	 * @throws IllegalStateException Thrown when the schedule does not match any time within the next few years
+	 */
+	public ZonedDateTime Next(ZonedDateTime after) {
+		ZonedDateTime time = after.withZoneSameInstant(zone).truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+		ZonedDateTime limit = time.plusYears(MAX_YEARS_AHEAD);
+
+		// move on by the largest unit which does not match, from the month down to the minute
+		while (time.isBefore(limit)) {
+			if (!months.get(time.getMonthValue())) {
+				time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+			} else if (!MatchesDay(time)) {
+				time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+			} else if (!hours.get(time.getHour())) {
+				time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+			} else if (!minutes.get(time.getMinute())) {
+				time = time.plusMinutes(1);
+			} else {
+				return time;
+			}
+		}
+
+		throw new IllegalStateException(String.format("The schedule '%s' does not match any time within the next %d years", expression, MAX_YEARS_AHEAD));
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	/*
+	 * This helper method checks the day of the month and the day of the week, either of which will do when both are restricted
+	 */
+	private boolean MatchesDay(ZonedDateTime time) {
+		boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+		boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+		if (anyDayOfMonth || anyDayOfWeek)
+			return dayOfMonth && dayOfWeek;
+		return dayOfMonth || dayOfWeek;
+	}
+
+	/*
+	 * This helper method parses a field into the set of values it matches
+	 */
+	private static BitSet ParseField(String field, int min, int max, String[] names) {
+		BitSet values = new BitSet(max + 1);
+		for (String part : field.split(",")) {
+			String range = part;
+			int step = 1;
+			int slash = part.indexOf('/');
+			if (slash >= 0) {
+				range = part.substring(0, slash);
+				step = ParseValue(part.substring(slash + 1), 1, max, null, field);
+			}
+
+			int from;
+			int to;
+			if (range.equals("*") || range.equals("?")) {
+				from = min;
+				to = max;
+			} else if (range.contains("-")) {
+				int dash = range.indexOf('-');
+				from = ParseValue(range.substring(0, dash), min, max, names, field);
+				to = ParseValue(range.substring(dash + 1), min, max, names, field);
+			} else {
+				from = ParseValue(range, min, max, names, field);
+				// a single value with a step runs to the end of the field, e.g. 5/15 is 5,20,35,50
+				to = slash >= 0 ? max : from;
+			}
+			if (from > to)
+				throw new IllegalArgumentException(String.format("The range '%s' of the schedule field '%s' is backwards", range, field));
+
+			for (int value = from; value <= to; value += step)
+				values.set(value);
+		}
+		return values;
+	}
+
+	/*
+	 * This helper method parses a single value of a field, either a number or a name
+	 */
+	private static int ParseValue(String value, int min, int max, String[] names, String field) {
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equalsIgnoreCase(value))
+					return min == 0 ? i : i + min;
+			}
+		}
+
+		int parsed;
+		try {
+			parsed = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("The schedule field '%s' has an invalid value '%s'", field, value));
+		}
+		if (parsed < min || parsed > max)
+			throw new IllegalArgumentException(String.format("The schedule field '%s' has the value %d, which is outside %d-%d", field, parsed, min, max));
+		return parsed;
+	}
+}
@@ -0,0 +1,252 @@
+package com.tugboatlogic.sample;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/*
+ * This class remembers what has already been uploaded to Tugboat Logic, so that records which have not changed since
+ * they were uploaded are neither rendered nor uploaded again, e.g. when a run is repeated after a failure, or when the
+ * window of an incremental run overlaps the previous one.
+ *
+ * For each record (keyed by its Id, such as the pull request node_id or the Jira issue key) we keep a hash of the
+ * normalized source record, and a hash of the evidence rendered from it. A record whose source hash is unchanged is
+ * skipped before it is rendered, and a record whose rendered evidence is unchanged is skipped before it is uploaded.
+ *
+ * The index only holds 64-bit hashes, 24 bytes per record, in flat arrays of an open addressing hash table, and is
+ * saved as a flat binary file which is read back in bulk, so that an index of a million records loads in well under
+ * a second and takes about 50 MB of heap. Records are only added once their evidence has been uploaded.
+ */
+public class EvidenceIndex {
+	// identifies the file format, followed by its version
+	private static final int MAGIC = 0x45564958;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 12;
+	private static final int ENTRY_BYTES = 24;
+
+	// the hash which marks an empty slot of the table, the hash of a record Id is never 0
+	private static final long EMPTY = 0;
+
+	private final Path file;
+	private long[] keys;
+	private long[] sources;
+	private long[] outputs;
+	private int size;
+
+	private EvidenceIndex(Path file, int expected) {
+		this.file = file;
+		Allocate(expected);
+	}
+
+	/*
+	 * Loads the index from a file, starting from an empty index when the file does not exist yet
+	 *
+	 * @param file The path of the index file
+	 */
+	public static EvidenceIndex Load(Path file) throws IOException {
+		if (!Files.exists(file))
+			return new EvidenceIndex(file, 0);
+
+		try (FileChannel channel = FileChannel.open(file)) {
+			// read the whole file in a single read, it only holds the fixed size entries
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+
+			if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException("The evidence index is not in a supported format: " + file);
+
+			int count = buffer.getInt();
+			if (buffer.remaining() != (long) count * ENTRY_BYTES)
+				throw new IOException("The evidence index is truncated: " + file);
+
+			EvidenceIndex index = new EvidenceIndex(file, count);
+			for (int i = 0; i < count; i++)
+				index.Insert(buffer.getLong(), buffer.getLong(), buffer.getLong());
+			return index;
+		}
+	}
+
+	/*
+	 * Returns the number of records in the index
+	 */
+	public synchronized int Size() {
+		return size;
+	}
+
+	/*
+	 * Returns whether the source record has not changed since its evidence was uploaded
+	 *
+	 * @param id The Id of the record
+	 * @param sourceHash The hash of the normalized source record, see HashRecord
+	 */
+	public synchronized boolean IsSourceUnchanged(String id, long sourceHash) {
+		int slot = Find(HashId(id));
+		return keys[slot] != EMPTY && sources[slot] == sourceHash;
+	}
+
+	/*
+	 * Returns whether the rendered evidence is the same as the evidence which was uploaded
+	 *
+	 * @param id The Id of the record
+	 * @param outputHash The hash of the rendered evidence, see HashEvidence
+	 */
+	public synchronized boolean IsOutputUnchanged(String id, long outputHash) {
+		int slot = Find(HashId(id));
+		return keys[slot] != EMPTY && outputs[slot] == outputHash;
+	}
+
+	/*
+	 * Records that the evidence of a record has been uploaded
+	 *
+	 * @param id The Id of the record
+	 * @param sourceHash The hash of the normalized source record
+	 * @param outputHash The hash of the rendered evidence
+	 */
+	public synchronized void Put(String id, long sourceHash, long outputHash) {
+		Insert(HashId(id), sourceHash, outputHash);
+	}
+
+	/*
+	 * Saves the index, replacing the file in one step so that an interrupted run cannot leave it half written
+	 */
+	public synchronized void Save() throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, "evidence-index-", ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(size);
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] == EMPTY)
+						continue;
+					out.writeLong(keys[i]);
+					out.writeLong(sources[i]);
+					out.writeLong(outputs[i]);
+				}
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/*
+	 * Returns a stable hash of the normalized source record, i.e. of its JSON with the properties in alphabetical order
+	 *
+	 * @param parts The models which make up the source record, e.g. a pull request along with its comments and reviews
+	 */
+	public static long HashRecord(Object... parts) {
+		try {
+			return Hash64(JsonReaders.CANONICAL_WRITER.writeValueAsBytes(parts));
+		} catch (JsonProcessingException e) {
+			throw new IllegalArgumentException("The record cannot be normalized", e);
+		}
+	}
+
+	/*
+	 * Returns a stable hash of the rendered evidence
+	 */
+	public static long HashEvidence(EvidenceBuffer evidence) throws IOException {
+		MessageDigest digest = NewDigest();
+		try (InputStream content = evidence.OpenInputStream()) {
+			byte[] chunk = new byte[8192];
+			int read;
+			while ((read = content.read(chunk)) > 0)
+				digest.update(chunk, 0, read);
+		}
+		return ToLong(digest.digest());
+	}
+
+	/*
+	 * This helper method sizes the table for the expected number of records, keeping it at most half full
+	 */
+	private void Allocate(int expected) {
+		int capacity = 1024;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+
+		keys = new long[capacity];
+		sources = new long[capacity];
+		outputs = new long[capacity];
+		size = 0;
+	}
+
+	/*
+	 * This helper method adds or replaces the entry of a record Id hash
+	 */
+	private void Insert(long key, long sourceHash, long outputHash) {
+		if ((size + 1) * 2 > keys.length)
+			Grow();
+
+		int slot = Find(key);
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			size++;
+		}
+		sources[slot] = sourceHash;
+		outputs[slot] = outputHash;
+	}
+
+	/*
+	 * This helper method returns the slot which holds a record Id hash, or the empty slot where it belongs
+	 */
+	private int Find(long key) {
+		int mask = keys.length - 1;
+		int slot = (int) (key ^ (key >>> 32)) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/*
+	 * This helper method doubles the size of the table
+	 */
+	private void Grow() {
+		long[] oldKeys = keys;
+		long[] oldSources = sources;
+		long[] oldOutputs = outputs;
+		Allocate(oldKeys.length);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY)
+				Insert(oldKeys[i], oldSources[i], oldOutputs[i]);
+		}
+	}
+
+	/*
+	 * This helper method hashes a record Id, 64 bits leave a negligible chance of two Ids colliding
+	 */
+	private static long HashId(String id) {
+		long hash = Hash64(id.getBytes(StandardCharsets.UTF_8));
+		return hash == EMPTY ? 1 : hash;
+	}
+
+	private static long Hash64(byte[] bytes) {
+		return ToLong(NewDigest().digest(bytes));
+	}
+
+	private static long ToLong(byte[] digest) {
+		return ByteBuffer.wrap(digest, 0, 8).getLong();
+	}
+
+	private static MessageDigest NewDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
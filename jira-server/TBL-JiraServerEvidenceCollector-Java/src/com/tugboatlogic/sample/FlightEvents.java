@@ -0,0 +1,188 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.Properties;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+/*
+ * This class holds the Java Flight Recorder events of the collector, which show where the time of a run went: fetching
+ * the pages of search results from Jira Server, rendering the Excel document with POI or uploading it to Tugboat Logic.
+ * Each event carries its duration and the key of the records it was for (the startAt offset of a page of search results,
+ * the JQL query of the Excel document or the name of the evidence file), and the HTTP events also carry the URL template
+ * of the endpoint (the URL with its numeric Ids left out, as in the Metrics), the status and the bytes.
+ *
+ * The events cost next to nothing when no recording is running. A continuous recording, which keeps a bounded ring of
+ * the most recent events on disk, can be started from the app.config file:
+ *  - FlightRecorderEnabled: whether to start the continuous recording when the collector starts
+ *  - FlightRecorderSettings: the JFR settings the recording is started with, "default" keeps the overhead to about 1%
+ *  - FlightRecorderMaxSizeMB, FlightRecorderMaxAgeMinutes: the bounds of the ring, the oldest events are dropped first
+ *  - FlightRecorderDumpFile: the file the ring is written to when the collector exits, left empty to only dump it on demand
+ *
+ * After an incident the ring can be dumped from the running collector with:
+ *     jcmd <pid> JFR.dump name=evidence-collector filename=incident.jfr
+ * and opened in JDK Mission Control, or printed with: jfr print --categories "Evidence Collector" incident.jfr
+ */
+public class FlightEvents {
+	// the name of the continuous recording, used to dump it with jcmd
+	public static final String RECORDING_NAME = "evidence-collector";
+
+	/*
+	 * The fields shared by the events of the calls to an HTTP endpoint
+	 */
+	public static abstract class HttpEvent extends Event {
+		@Label("URL Template")
+		@Description("The host and path of the endpoint, with the numeric Ids left out")
+		String urlTemplate;
+
+		@Label("Status")
+		@Description("The HTTP status of the response, or 0 when there was no response")
+		int status;
+
+		@Label("Bytes")
+		@Description("The bytes of the body received, or sent for an upload")
+		@DataAmount
+		long bytes;
+
+		@Label("Record Key")
+		String recordKey;
+
+		/*
+		 * Records the status and the bytes read of a response, once its body has been read
+		 */
+		public void Response(HttpTransport.Response response) {
+			status = response.StatusCode();
+			bytes = response.BytesRead();
+		}
+	}
+
+	@Name("com.tugboatlogic.collector.Fetch")
+	@Label("Evidence Fetch")
+	@Category({ "Evidence Collector", "Fetch" })
+	@Description("A call to Jira Server for a page of search results")
+	@StackTrace(false)
+	public static class Fetch extends HttpEvent {
+	}
+
+	@Name("com.tugboatlogic.collector.Render")
+	@Label("Evidence Render")
+	@Category({ "Evidence Collector", "Render" })
+	@Description("The rendering of the Excel document, which includes waiting for the issues to arrive from Jira Server")
+	@StackTrace(false)
+	public static class Render extends Event {
+		@Label("Renderer")
+		String renderer;
+
+		@Label("Record Key")
+		String recordKey;
+
+		@Label("Records")
+		@Description("The number of issues in the Excel document")
+		long records;
+
+		@Label("Bytes")
+		@Description("The size of the evidence file")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("com.tugboatlogic.collector.Upload")
+	@Label("Evidence Upload")
+	@Category({ "Evidence Collector", "Upload" })
+	@Description("An upload of an evidence file to Tugboat Logic, including the retries of the transport")
+	@StackTrace(false)
+	public static class Upload extends HttpEvent {
+	}
+
+	private static Recording recording;
+
+	/*
+	 * Starts the continuous recording, when it is enabled in the app.config file
+	 */
+	public static synchronized void Configure(Properties properties) {
+		if (!Boolean.parseBoolean(properties.getProperty("FlightRecorderEnabled", "false").trim()) || recording != null)
+			return;
+
+		String settings = properties.getProperty("FlightRecorderSettings", "default").trim();
+		long maxSizeMB = Long.parseLong(properties.getProperty("FlightRecorderMaxSizeMB", "64").trim());
+		long maxAgeMinutes = Long.parseLong(properties.getProperty("FlightRecorderMaxAgeMinutes", "60").trim());
+		String dumpFile = properties.getProperty("FlightRecorderDumpFile", "").trim();
+
+		try {
+			Recording continuous = new Recording(Configuration.getConfiguration(settings));
+			continuous.setName(RECORDING_NAME);
+			// keep the events in the on-disk repository, bounded by size and by age, rather than in memory
+			continuous.setToDisk(true);
+			continuous.setMaxSize(maxSizeMB * 1024 * 1024);
+			continuous.setMaxAge(Duration.ofMinutes(maxAgeMinutes));
+			if (!dumpFile.isEmpty()) {
+				continuous.setDestination(Paths.get(dumpFile));
+				continuous.setDumpOnExit(true);
+			}
+			continuous.start();
+			recording = continuous;
+		} catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+			// the recording is a diagnostic aid, so the run carries on without it
+			System.out.println(String.format("Warning: the flight recording could not be started: %s", e.getMessage()));
+			return;
+		}
+
+		System.out.println(String.format("Flight recording '%s' started, keeping the last %d MB or %d minutes, dump it with: jcmd %d JFR.dump name=%s filename=<file>.jfr",
+				RECORDING_NAME, maxSizeMB, maxAgeMinutes, ProcessHandle.current().pid(), RECORDING_NAME));
+	}
+
+	/*
+	 * Starts the event of a call to Jira Server, which is committed once the call is over
+	 *
+	 * @param url The URL of the call
+	 * @param recordKey The key of the records the call is for
+	 */
+	public static Fetch BeginFetch(String url, String recordKey) {
+		Fetch event = new Fetch();
+		if (event.isEnabled()) {
+			event.urlTemplate = HttpTransport.EndpointOf(URI.create(url));
+			event.recordKey = recordKey;
+		}
+		event.begin();
+		return event;
+	}
+
+	/*
+	 * Starts the event of the rendering of an evidence file, which is committed once the file has been rendered
+	 */
+	public static Render BeginRender(String renderer, String recordKey) {
+		Render event = new Render();
+		event.renderer = renderer;
+		event.recordKey = recordKey;
+		event.begin();
+		return event;
+	}
+
+	/*
+	 * Starts the event of an upload to Tugboat Logic, which is committed once the upload is over
+	 *
+	 * @param url The URL of the evidence upload endpoint
+	 * @param fileName The name of the evidence file, which is the key of the upload
+	 */
+	public static Upload BeginUpload(String url, String fileName) {
+		Upload event = new Upload();
+		if (event.isEnabled()) {
+			event.urlTemplate = HttpTransport.EndpointOf(URI.create(url));
+			event.recordKey = fileName;
+		}
+		event.begin();
+		return event;
+	}
+}
@@ -0,0 +1,386 @@
+package com.tugboatlogic.sample;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * This class is the shared HTTP transport used by every helper to call Jira Server and Tugboat Logic.
+ *
+ * All calls go through a single java.net.http.HttpClient, which negotiates HTTP/2 where the server supports it (so that
+ * concurrent calls to a host are multiplexed over one connection), keeps HTTP/1.1 connections alive in a pool, and
+ * reuses the TLS sessions of its SSL context, so we only pay for the TLS handshake once per host rather than once per call.
+ *
+ * The transport is configured from the app.config file:
+ *  - HttpConnectTimeoutSeconds: how long to wait for a connection to be established
+ *  - HttpReadTimeoutSeconds: how long to wait for the response to a request
+ *  - HttpMaxConnectionsPerHost: the maximum number of requests in flight to a single host
+ *
+ * Responses must be closed once read (they are AutoCloseable), which releases the connection and the host slot.
+ *
+ * Every request asks for a gzip compressed response (Accept-Encoding: gzip), unless HttpCompressionEnabled is false or
+ * the request asks for an encoding of its own. A compressed body is decompressed as it is read, so the JSON parsers
+ * stream through it just like through a plain body, and the helpers never see the encoding.
+ *
+ * The latency, status and bytes of every request are recorded in the Metrics of its endpoint. The bytes received are
+ * those read off the wire, and the bytes which compression saved are recorded as well.
+ */
+public class HttpTransport {
+	/*
+	 * The response to a request, the body is streamed from the connection as it is read
+	 */
+	public static class Response implements AutoCloseable {
+		private final HttpResponse<InputStream> response;
+		private final InputStream body;
+		private long bytesRead;
+		private long bytesDecoded;
+
+		private Response(HttpResponse<InputStream> response, LongAdder receivedBytes, Runnable onClose) {
+			this.response = response;
+			InputStream received = new FilterInputStream(response.body()) {
+				private final AtomicBoolean closed = new AtomicBoolean();
+
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						receivedBytes.increment();
+						bytesRead++;
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int read = super.read(buffer, offset, length);
+					if (read > 0) {
+						receivedBytes.add(read);
+						bytesRead += read;
+					}
+					return read;
+				}
+
+				@Override
+				public void close() throws IOException {
+					if (closed.compareAndSet(false, true)) {
+						try {
+							super.close();
+						} finally {
+							onClose.run();
+						}
+					}
+				}
+			};
+			this.body = "gzip".equalsIgnoreCase(response.headers().firstValue("Content-Encoding").orElse("").trim()) ? Decompress(received) : received;
+		}
+
+		/*
+		 * This helper method decompresses a gzip compressed body as it is read, the gzip header is only read along with the
+		 * first bytes of the body, so the thread which received the response headers never blocks on it
+		 */
+		private InputStream Decompress(InputStream received) {
+			return new InputStream() {
+				private InputStream decoded;
+				private boolean closed;
+
+				@Override
+				public int read() throws IOException {
+					int b = Decoded().read();
+					if (b >= 0)
+						bytesDecoded++;
+					return b;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int read = Decoded().read(buffer, offset, length);
+					if (read > 0)
+						bytesDecoded += read;
+					return read;
+				}
+
+				@Override
+				public void close() throws IOException {
+					if (closed)
+						return;
+					closed = true;
+					try {
+						received.close();
+					} finally {
+						if (bytesDecoded > bytesRead)
+							Metrics.COMPRESSION_SAVED_BYTES.Add(bytesDecoded - bytesRead, "download");
+					}
+				}
+
+				private InputStream Decoded() throws IOException {
+					if (decoded == null) {
+						// an empty body (e.g. of a HEAD request) has no gzip header to read
+						PushbackInputStream pushback = new PushbackInputStream(received, 1);
+						int first = pushback.read();
+						if (first < 0) {
+							decoded = InputStream.nullInputStream();
+						} else {
+							pushback.unread(first);
+							decoded = new GZIPInputStream(pushback, 64 * 1024);
+						}
+					}
+					return decoded;
+				}
+			};
+		}
+
+		public int StatusCode() {
+			return response.statusCode();
+		}
+
+		public HttpHeaders Headers() {
+			return response.headers();
+		}
+
+		public String Header(String name) {
+			return response.headers().firstValue(name).orElse(null);
+		}
+
+		public InputStream Body() {
+			return body;
+		}
+
+		/*
+		 * Returns the number of bytes of the body read off the wire so far
+		 */
+		public long BytesRead() {
+			return bytesRead;
+		}
+
+		public URI Uri() {
+			return response.uri();
+		}
+
+		/*
+		 * Throws an IOException unless the server returned one of the expected status codes (any 2xx status by default)
+		 */
+		public Response EnsureSuccess(int... expectedStatusCodes) throws IOException {
+			int status = response.statusCode();
+			boolean expected = expectedStatusCodes.length == 0 ? status >= 200 && status < 300 : false;
+			for (int code : expectedStatusCodes)
+				expected |= status == code;
+
+			if (!expected) {
+				close();
+				throw new IOException(String.format("Server returned HTTP response code: %d for URL: %s", status, response.uri()));
+			}
+			return this;
+		}
+
+		@Override
+		public void close() throws IOException {
+			body.close();
+		}
+	}
+
+	/*
+	 * Limits the number of requests in flight to a host, without blocking the threads which are waiting for a slot
+	 */
+	private static class HostSlots {
+		private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+		private int available;
+
+		HostSlots(int available) {
+			this.available = available;
+		}
+
+		synchronized int Waiting() {
+			return waiters.size();
+		}
+
+		synchronized CompletableFuture<Void> Acquire() {
+			if (available > 0) {
+				available--;
+				return CompletableFuture.completedFuture(null);
+			}
+			CompletableFuture<Void> waiter = new CompletableFuture<>();
+			waiters.add(waiter);
+			return waiter;
+		}
+
+		void Release() {
+			CompletableFuture<Void> next;
+			synchronized (this) {
+				next = waiters.poll();
+				if (next == null) {
+					available++;
+					return;
+				}
+			}
+			// hand the slot straight over to the next waiter
+			next.complete(null);
+		}
+	}
+
+	// the default settings, used until Configure is called
+	private static volatile Duration connectTimeout = Duration.ofSeconds(30);
+	private static volatile Duration readTimeout = Duration.ofSeconds(120);
+	private static volatile int maxConnectionsPerHost = 16;
+	private static volatile boolean compression = true;
+
+	// the shared client, created on first use
+	private static volatile HttpClient client;
+
+	// the request slots of each host
+	private static final ConcurrentHashMap<String, HostSlots> hostSlots = new ConcurrentHashMap<>();
+
+	/*
+	 * Configures the transport from the application settings, this must be called before the first request is made
+	 *
+	 * @param properties The application settings
+	 */
+	public static synchronized void Configure(Properties properties) {
+		connectTimeout = Duration.ofSeconds(Long.parseLong(properties.getProperty("HttpConnectTimeoutSeconds", "30")));
+		readTimeout = Duration.ofSeconds(Long.parseLong(properties.getProperty("HttpReadTimeoutSeconds", "120")));
+		maxConnectionsPerHost = Integer.parseInt(properties.getProperty("HttpMaxConnectionsPerHost", "16"));
+		compression = Boolean.parseBoolean(properties.getProperty("HttpCompressionEnabled", "true").trim());
+		client = null;
+		hostSlots.clear();
+	}
+
+	/*
+	 * Creates a request builder for the given URL, with the configured read timeout
+	 */
+	public static HttpRequest.Builder NewRequest(String url) {
+		return HttpRequest.newBuilder(URI.create(url)).timeout(readTimeout);
+	}
+
+	/*
+	 * Sends a request and waits for the response headers, the body is then streamed as it is read
+	 *
+	 * @param request The request to send
+	 * @return Returns the response, which must be closed once read
+	 */
+	public static Response Send(HttpRequest request) throws IOException {
+		try {
+			return SendAsync(request).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + request.uri());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Request to " + request.uri() + " failed", e.getCause());
+		}
+	}
+
+	/*
+	 * Sends a request without blocking the calling thread, recording its latency, status and bytes
+	 *
+	 * @param request The request to send
+	 * @return Returns a future which completes with the response, which must be closed once read
+	 */
+	public static CompletableFuture<Response> SendAsync(HttpRequest request) {
+		HttpClient httpClient = Client();
+		// ask for a compressed response, which the Response decompresses as it is read
+		HttpRequest compressed = compression && request.headers().firstValue("Accept-Encoding").isEmpty()
+				? HttpRequest.newBuilder(request, (name, value) -> true).header("Accept-Encoding", "gzip").build()
+				: request;
+		HostSlots slots = hostSlots.computeIfAbsent(HostOf(request.uri()), host -> {
+			HostSlots created = new HostSlots(Math.max(1, maxConnectionsPerHost));
+			Metrics.HTTP_WAITING_REQUESTS.Set(created::Waiting, host);
+			return created;
+		});
+		String endpoint = EndpointOf(request.uri());
+
+		return slots.Acquire().thenCompose(ignored -> {
+			long start = System.nanoTime();
+			CompletableFuture<HttpResponse<InputStream>> sent;
+			try {
+				sent = httpClient.sendAsync(compressed, HttpResponse.BodyHandlers.ofInputStream());
+			} catch (RuntimeException e) {
+				slots.Release();
+				throw e;
+			}
+			long bodyLength = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+			if (bodyLength > 0)
+				Metrics.HTTP_SENT_BYTES.Add(bodyLength, endpoint);
+
+			return sent.handle((response, error) -> {
+				Metrics.HTTP_REQUEST_SECONDS.ObserveNanos(System.nanoTime() - start, endpoint, request.method());
+				Metrics.HTTP_REQUESTS.Increment(endpoint, request.method(), error != null ? "error" : Integer.toString(response.statusCode()));
+				if (error != null) {
+					slots.Release();
+					throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+				}
+				// the slot is released once the caller has closed the response
+				return new Response(response, Metrics.HTTP_RECEIVED_BYTES.Of(endpoint), slots::Release);
+			});
+		});
+	}
+
+	/*
+	 * This helper method returns the shared client, creating it on first use
+	 */
+	private static HttpClient Client() {
+		HttpClient httpClient = client;
+		if (httpClient == null) {
+			synchronized (HttpTransport.class) {
+				if (client == null) {
+					AtomicLong counter = new AtomicLong();
+					client = HttpClient.newBuilder()
+							.version(HttpClient.Version.HTTP_2)
+							.connectTimeout(connectTimeout)
+							.followRedirects(HttpClient.Redirect.NORMAL)
+							.executor(Executors.newCachedThreadPool(runnable -> {
+								Thread thread = new Thread(runnable, "http-transport-" + counter.getAndIncrement());
+								thread.setDaemon(true);
+								return thread;
+							}))
+							.build();
+				}
+				httpClient = client;
+			}
+		}
+		return httpClient;
+	}
+
+	/*
+	 * This helper method returns the endpoint that a request is sent to: its host and path, with the path segments
+	 * which are numeric Ids left out, so that the metrics of an endpoint do not grow with every Id it is called with
+	 */
+	static String EndpointOf(URI uri) {
+		StringBuilder endpoint = new StringBuilder(uri.getHost() != null ? uri.getHost().toLowerCase() : "");
+		if (uri.getPort() >= 0)
+			endpoint.append(':').append(uri.getPort());
+		String path = uri.getPath() != null ? uri.getPath() : "";
+		for (String segment : path.split("/")) {
+			if (segment.isEmpty())
+				continue;
+			endpoint.append('/').append(segment.chars().allMatch(Character::isDigit) ? "{id}" : segment);
+		}
+		return endpoint.toString();
+	}
+
+	/*
+	 * This helper method returns the host (and port) that a request is sent to
+	 */
+	private static String HostOf(URI uri) {
+		return (uri.getHost() != null ? uri.getHost().toLowerCase() : "") + ":" + uri.getPort();
+	}
+}
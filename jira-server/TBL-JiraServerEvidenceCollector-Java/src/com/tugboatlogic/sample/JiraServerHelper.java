@@ -1,69 +1,557 @@
-package com.tugboatlogic.sample;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.Base64;
-
-import javax.net.ssl.HttpsURLConnection;
-
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.tugboatlogic.sample.models.JiraQueryResponseModel;
-
-/*
- * This method queries the Jira Server REST API and returns the resulting records based on the provided JQL query
- * Further details can be found here: https://developer.atlassian.com/server/jira/platform/rest-apis/
- * 
- * @param endpointUrl The endpoint URL for the Jira Server API
- * @param username The username used to authenticate with Jira Server
- * @param password The password used to authenticate with Jira Server
- * @param jqlQuery The query in JQL syntax for which to query
- * @return Returns a response model containing the results of the Jira Server JQL query
- */
-public class JiraServerHelper {
-	public static JiraQueryResponseModel QueryJiraServer(String endpointUrl, String username, String password, String jqlQuery) throws IOException {
-		
-		// here we are going to use basic authentication to authorize with the Jira Server REST API
-        // assemble the Jira authorization header, which is a combination of the username and password
-		String userCredentials = username + ":" + password;
-		
-		// the combined authorization header text must be converted to Base64 before we can use it in the authorization header
-		String authorizationHeader = "Basic " + new String(Base64.getEncoder().encode(userCredentials.getBytes()));
-		
-		// convert the JQL query string to UTF-8
-		String jqlString = java.net.URLEncoder.encode(jqlQuery, "UTF-8");
-		
-		// build the URL
-		String urlString = String.format("/rest/api/2/search?jql=%s&fields=issuetype,project,summary,assignee,reporter,status,created,resolutiondate&maxResults=1000", jqlString);
-		
-		// make the GET query to the Jira Server search REST endpoint
-        // here we define the fields that the query should return to us, which we will then deserialize from JSON into our POCOs
-		URL url = new URL(endpointUrl + urlString);
-		
-		// open the https connection
-		HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-		
-		// set the http authorization header to the Base64 value we generated above
-		connection.setRequestProperty ("Authorization", authorizationHeader);
-		
-		// set the request method type to GET
-		connection.setRequestMethod("GET");
-		
-		// set the request accept header to JSON
-		connection.setRequestProperty("accept", "application/json");
-		
-		// send the request and retrieve the response in JSON format
-		InputStream responseStream = connection.getInputStream();
-		
-		// configure the object mapper for converting the JSON response to POJO
-		ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-		
-		// deserialize the JSON response into our POJOs which we will use elsewhere
-		JiraQueryResponseModel responseModel = mapper.readValue(responseStream, JiraQueryResponseModel.class);
-		
-		return responseModel;		
-	}
-}
+package com.tugboatlogic.sample;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpRequest;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.tugboatlogic.sample.models.Issue;
+import com.tugboatlogic.sample.models.JiraQueryResponseModel;
+import com.tugboatlogic.sample.models.JiraUserResponseModel;
+
+/*
+ * This method queries the Jira Server REST API and returns the resulting records based on the provided JQL query
+ * Further details can be found here: https://developer.atlassian.com/server/jira/platform/rest-apis/
+ *
+ * The search is paginated: a cheap probe (maxResults=0) reads the total number of matching issues, and the
+ * pages are then downloaded in parallel using startAt offsets. When the offsets would become too deep for
+ * Jira Server to serve efficiently, the JQL query is split into date slices which are each paginated separately.
+ *
+ * The issues are returned lazily as a Stream: up to maxConcurrency pages are downloaded ahead of the caller, and
+ * each page is deserialized one issue at a time as the caller consumes it, so the issues are never all held in
+ * memory at once. The stream must be closed once consumed, which stops any downloads still in flight.
+ *
+ * @param endpointUrl The endpoint URL for the Jira Server API
+ * @param username The username used to authenticate with Jira Server
+ * @param password The password used to authenticate with Jira Server
+ * @param jqlQuery The query in JQL syntax for which to query
+ * @param pageSize The number of issues to request per page
+ * @param maxConcurrency The maximum number of pages to download in parallel
+ * @param maxStartAt The deepest startAt offset to use before splitting the query into date slices
+ * @return Returns a stream of the issues matching the Jira Server JQL query
+ */
+public class JiraServerHelper {
+	// the issue fields that the query should return to us, which we will then deserialize from JSON into our POJOs
+	private static final String SEARCH_FIELDS = "issuetype,project,summary,assignee,reporter,status,created,resolutiondate";
+
+	// the issue field used to split the JQL query into date slices
+	private static final String SLICE_FIELD = "created";
+
+	// the issue field which an incremental run collects from the high-water mark of, and the JQL name of it
+	private static final String WATERMARK_FIELD = "resolutiondate";
+	private static final String WATERMARK_JQL_FIELD = "resolved";
+
+	// matches the trailing ORDER BY clause of a JQL query
+	private static final Pattern ORDER_BY_PATTERN = Pattern.compile("(?i)(^|\\s+)ORDER\\s+BY\\s+.*$");
+
+	// the date format that Jira Server accepts within JQL queries, which it reads in the time zone of the user running the query
+	private static final DateTimeFormatter JQL_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm");
+
+	// the largest offset of any time zone from UTC, by which a date is moved when the time zone of the user is unknown
+	private static final int MAX_ZONE_OFFSET_HOURS = 14;
+
+	// the time zone of the user running the queries by endpoint and user, empty when Jira Server did not tell us
+	private static final Map<String, Optional<ZoneId>> USER_TIME_ZONES = new ConcurrentHashMap<>();
+
+	/*
+	 * A JQL query which can be paginated using startAt offsets, along with the number of issues to collect for it
+	 */
+	private static class Slice {
+		final String jqlQuery;
+		final int total;
+
+		Slice(String jqlQuery, int total) {
+			this.jqlQuery = jqlQuery;
+			this.total = total;
+		}
+	}
+
+	public static Stream<Issue> QueryJiraServer(String endpointUrl, String username, String password, String jqlQuery, int pageSize, int maxConcurrency, int maxStartAt) throws IOException {
+		// create the pool of workers used to download the pages in parallel, which is stopped when the stream is closed
+		ExecutorService executor = Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+			Thread thread = new Thread(runnable, "jira-search");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			return QueryJiraServer(endpointUrl, username, password, jqlQuery, pageSize, maxConcurrency, maxStartAt, executor, true);
+		} catch (IOException | RuntimeException e) {
+			executor.shutdownNow();
+			throw e;
+		}
+	}
+
+	/*
+	 * This method queries the Jira Server REST API just like the one above, downloading the pages on a pool of workers
+	 * shared by the queries of many projects, which is left running when the stream is closed
+	 *
+	 * The pool hands out its workers in the order the pages were requested, and each query only keeps maxConcurrency
+	 * pages in flight, requesting the next one once the oldest one has been consumed: the pages of the queries end up
+	 * interleaved on the workers, so the query of a huge project does not hold up those of the small ones.
+	 */
+	public static Stream<Issue> QueryJiraServer(String endpointUrl, String username, String password, String jqlQuery, int pageSize, int maxConcurrency, int maxStartAt, ExecutorService executor) throws IOException {
+		return QueryJiraServer(endpointUrl, username, password, jqlQuery, pageSize, maxConcurrency, maxStartAt, executor, false);
+	}
+
+	private static Stream<Issue> QueryJiraServer(String endpointUrl, String username, String password, String jqlQuery, int pageSize, int maxConcurrency, int maxStartAt, ExecutorService executor, boolean ownsExecutor) throws IOException {
+
+		String authorizationHeader = AuthorizationHeader(username, password);
+
+		// probe the search endpoint for the total number of matching issues, without returning any of them
+		int total = FetchSearchPage(endpointUrl, authorizationHeader, jqlQuery, 0, 0, "key").total;
+
+		List<Slice> slices = new ArrayList<>();
+		if (total <= maxStartAt + pageSize) {
+			// the whole result set can be reached with startAt offsets, so simply page through it
+			slices.add(new Slice(jqlQuery, total));
+		} else {
+			// the startAt offsets would be too deep, so split the query by date slices instead
+			PlanDateSlices(endpointUrl, authorizationHeader, jqlQuery, pageSize, maxStartAt, slices);
+		}
+
+		SearchIterator issues = new SearchIterator(endpointUrl, authorizationHeader, slices, pageSize, maxConcurrency, executor, ownsExecutor);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(issues, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(issues::Close);
+	}
+
+	/*
+	 * This method restricts the JQL query to the issues of a single project, e.g. when the projects are collected separately
+	 *
+	 * @param jqlQuery The query in JQL syntax
+	 * @param project The key (or name) of the project
+	 * @return Returns the JQL query for the project
+	 */
+	public static String ProjectQuery(String jqlQuery, String project) {
+		// separate the filter from the ordering, so that we can add the project to the filter
+		Matcher orderByMatcher = ORDER_BY_PATTERN.matcher(jqlQuery);
+		String orderBy = orderByMatcher.find() ? orderByMatcher.group() : "";
+		String filter = jqlQuery.substring(0, jqlQuery.length() - orderBy.length()).trim();
+		orderBy = orderBy.isBlank() ? "" : " " + orderBy.trim();
+
+		String projectQuery = String.format("project = \"%s\"", project.replace("\"", "\\\""));
+		if (!filter.isEmpty())
+			projectQuery += " AND (" + filter + ")";
+		return projectQuery + orderBy;
+	}
+
+	/*
+	 * This method restricts the JQL query to the issues resolved since the start of the window of an incremental run
+	 *
+	 * @param jqlQuery The query in JQL syntax
+	 * @param since The start of the window, or null to leave the query as it is
+	 * @param zone The time zone of the user running the query (see UserTimeZone), or null when it is unknown
+	 * @return Returns the JQL query for the window
+	 */
+	public static String IncrementalQuery(String jqlQuery, OffsetDateTime since, ZoneId zone) {
+		if (since == null)
+			return jqlQuery;
+
+		// separate the filter from the ordering, so that we can add the window to the filter
+		Matcher orderByMatcher = ORDER_BY_PATTERN.matcher(jqlQuery);
+		String orderBy = orderByMatcher.find() ? orderByMatcher.group() : "";
+		String filter = jqlQuery.substring(0, jqlQuery.length() - orderBy.length()).trim();
+		orderBy = orderBy.isBlank() ? "" : " " + orderBy.trim();
+
+		String windowQuery = String.format("%s >= \"%s\"", WATERMARK_JQL_FIELD, JQL_DATE_FORMAT.format(JqlDateTime(since, zone, true)));
+		if (!filter.isEmpty())
+			windowQuery = "(" + filter + ") AND " + windowQuery;
+		return windowQuery + orderBy;
+	}
+
+	/*
+	 * This method retrieves the time zone of the user running the queries, which Jira Server reads the dates within
+	 * the JQL queries in. It is retrieved once for each endpoint and user.
+	 *
+	 * @param endpointUrl The endpoint URL for the Jira Server API
+	 * @param username The username used to authenticate with Jira Server
+	 * @param password The password used to authenticate with Jira Server
+	 * @return Returns the time zone of the user, or null when Jira Server does not tell us
+	 */
+	public static ZoneId UserTimeZone(String endpointUrl, String username, String password) {
+		return UserTimeZone(endpointUrl, AuthorizationHeader(username, password));
+	}
+
+	/*
+	 * This method probes the Jira Server REST API for the number of issues matching the JQL query, along with the most
+	 * recently resolved issue, which tells an incremental run whether anything has changed since the last run
+	 *
+	 * @param endpointUrl The endpoint URL for the Jira Server API
+	 * @param username The username used to authenticate with Jira Server
+	 * @param password The password used to authenticate with Jira Server
+	 * @param jqlQuery The query in JQL syntax for which to query
+	 * @return Returns the total number of issues, along with at most one issue
+	 */
+	public static JiraQueryResponseModel ProbeJiraServer(String endpointUrl, String username, String password, String jqlQuery) throws IOException {
+		// replace the ordering of the query, so that the most recently resolved issue comes first
+		Matcher orderByMatcher = ORDER_BY_PATTERN.matcher(jqlQuery);
+		String filter = orderByMatcher.find() ? jqlQuery.substring(0, orderByMatcher.start()).trim() : jqlQuery.trim();
+
+		return FetchSearchPage(endpointUrl, AuthorizationHeader(username, password), filter + " ORDER BY " + WATERMARK_JQL_FIELD + " DESC", 0, 1, WATERMARK_FIELD);
+	}
+
+	/*
+	 * This method parses a date returned by Jira Server, such as the resolution date of an issue
+	 *
+	 * @return Returns the date, or null if the date is missing
+	 */
+	public static OffsetDateTime ParseJiraDate(String date) {
+		return TimestampCodec.ToOffsetDateTime(TimestampCodec.Parse(date));
+	}
+
+	/*
+	 * This class hands out the issues of a list of slices in query order, keeping up to maxConcurrency pages
+	 * downloading ahead of the page being consumed. The workers only buffer the raw JSON of each page, which is
+	 * then deserialized one issue at a time as the caller consumes it.
+	 */
+	private static class SearchIterator implements Iterator<Issue> {
+		private final String endpointUrl;
+		private final String authorizationHeader;
+		private final Deque<Slice> slices;
+		private final int maxConcurrency;
+		private final ExecutorService executor;
+		private final boolean ownsExecutor;
+		private int pageSize;
+
+		// the slice being paginated, and the startAt offset of the next page to request for it
+		private Slice slice;
+		private int nextStartAt;
+
+		// the pages which are currently downloading, in the order they were requested, along with their ranges
+		private final Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+		private final Deque<int[]> inFlightRanges = new ArrayDeque<>();
+
+		// the page being handed out, the range of issues it covers, and how many of them we've handed out so far
+		private JsonRecordIterator<Issue> page;
+		private int[] range;
+		private int received;
+		private int receivedFromRequest;
+
+		// the statistics of the prefetching: the pages handed out, how many of them had already been downloaded by the
+		// time they were needed, and how long the Excel document waited on the rest
+		private int pages;
+		private int pagesReady;
+		private long waitNanos;
+		private boolean closed;
+
+		SearchIterator(String endpointUrl, String authorizationHeader, List<Slice> slices, int pageSize, int maxConcurrency, ExecutorService executor, boolean ownsExecutor) {
+			this.endpointUrl = endpointUrl;
+			this.authorizationHeader = authorizationHeader;
+			this.slices = new ArrayDeque<>(slices);
+			this.pageSize = pageSize;
+			this.maxConcurrency = maxConcurrency;
+			this.executor = executor;
+			this.ownsExecutor = ownsExecutor;
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (page == null || !page.hasNext()) {
+					if (page != null && !FetchRemainder())
+						page = null;
+
+					if (page == null && !NextPage())
+						return false;
+				}
+				return true;
+			} catch (IOException e) {
+				Close();
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public Issue next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			received++;
+			receivedFromRequest++;
+			Metrics.RECORDS_FETCHED.Increment("issue");
+			return page.next();
+		}
+
+		/*
+		 * Stops any downloads still in flight
+		 */
+		void Close() {
+			if (closed)
+				return;
+
+			closed = true;
+			if (page != null)
+				page.close();
+			if (ownsExecutor) {
+				executor.shutdownNow();
+			} else {
+				// the workers are shared with the other queries, so only our own downloads are cancelled
+				for (Future<byte[]> future : inFlight)
+					future.cancel(true);
+				inFlight.clear();
+				inFlightRanges.clear();
+			}
+
+			// when most pages are ready before they are needed, the Excel document (not Jira Server) is the bottleneck
+			System.out.println(String.format("Search pages: %d, %d ready when needed, waited %d ms for Jira Server", pages, pagesReady, waitNanos / 1_000_000));
+		}
+
+		/*
+		 * Jira Server may cap the page size below what we asked for, in which case we fetch the remainder of
+		 * this page's range before moving on so that no issue is silently dropped
+		 */
+		private boolean FetchRemainder() throws IOException {
+			page.close();
+			if (received >= range[1] || receivedFromRequest == 0)
+				return false;
+
+			// remember how many issues the server was actually willing to return per page, and shrink
+			// the page size for the pages we have not requested yet
+			if (received == receivedFromRequest && received < pageSize)
+				pageSize = received;
+
+			OpenPage(FetchSearchPageBody(endpointUrl, authorizationHeader, slice.jqlQuery, range[0] + received, range[1] - received, SEARCH_FIELDS));
+			return true;
+		}
+
+		/*
+		 * Moves on to the oldest page in flight, topping up the pages in flight first
+		 */
+		private boolean NextPage() throws IOException {
+			// move on to the next slice once every page of the current one has been requested and consumed
+			while (inFlight.isEmpty() && (slice == null || nextStartAt >= slice.total)) {
+				slice = slices.poll();
+				nextStartAt = 0;
+				if (slice == null)
+					return false;
+			}
+
+			// top up the pages in flight
+			while (nextStartAt < slice.total && inFlight.size() < maxConcurrency) {
+				final String sliceQuery = slice.jqlQuery;
+				final int startAt = nextStartAt;
+				final int maxResults = pageSize;
+				inFlight.add(executor.submit(() -> FetchSearchPageBody(endpointUrl, authorizationHeader, sliceQuery, startAt, maxResults, SEARCH_FIELDS)));
+				inFlightRanges.add(new int[] { startAt, Math.min(maxResults, slice.total - startAt) });
+				nextStartAt += pageSize;
+			}
+
+			// wait for the oldest page and start handing out its issues, the pages behind it are the depth of the prefetch queue
+			Metrics.QUEUE_DEPTH.Observe(inFlight.size() - 1, "jira-search");
+			range = inFlightRanges.poll();
+			received = 0;
+			Future<byte[]> oldest = inFlight.poll();
+			pages++;
+			if (oldest.isDone())
+				pagesReady++;
+			long waitStart = System.nanoTime();
+			byte[] body = Await(oldest);
+			waitNanos += System.nanoTime() - waitStart;
+			OpenPage(body);
+			return true;
+		}
+
+		private void OpenPage(byte[] body) throws IOException {
+			receivedFromRequest = 0;
+			page = JsonRecordIterator.OfArrayField(new ByteArrayInputStream(body), "issues", JsonReaders.ISSUE);
+		}
+	}
+
+	/*
+	 * This helper method builds the authorization header used for every request to Jira Server
+	 */
+	private static String AuthorizationHeader(String username, String password) {
+		// here we are going to use basic authentication to authorize with the Jira Server REST API
+        // assemble the Jira authorization header, which is a combination of the username and password
+		String userCredentials = username + ":" + password;
+
+		// the combined authorization header text must be converted to Base64 before we can use it in the authorization header
+		return "Basic " + new String(Base64.getEncoder().encode(userCredentials.getBytes()));
+	}
+
+	/*
+	 * This helper method retrieves the time zone of the user running the queries, see above
+	 */
+	private static ZoneId UserTimeZone(String endpointUrl, String authorizationHeader) {
+		return USER_TIME_ZONES.computeIfAbsent(endpointUrl + " " + authorizationHeader, key -> {
+			// build the GET query to the Jira Server myself REST endpoint
+			HttpRequest request = HttpTransport.NewRequest(endpointUrl + "/rest/api/2/myself")
+					// set the http authorization header to the Base64 value we generated above
+					.header("Authorization", authorizationHeader)
+					// set the request accept header to JSON
+					.header("accept", "application/json")
+					// set the request method type to GET
+					.GET()
+					.build();
+
+			// an unknown time zone only widens the windows, so a failure does not fail the run
+			try (var response = HttpTransport.Send(request).EnsureSuccess()) {
+				JiraUserResponseModel user = JsonReaders.USER.readValue(response.Body());
+				return Optional.of(ZoneId.of(user.timeZone));
+			} catch (IOException | RuntimeException e) {
+				System.out.println(String.format("Warning: the time zone of the Jira Server user could not be read (%s), the dates within the queries are widened by %d hours",
+						e.getMessage(), MAX_ZONE_OFFSET_HOURS));
+				return Optional.empty();
+			}
+		}).orElse(null);
+	}
+
+	/*
+	 * This helper method converts a date to the local date time which Jira Server reads it as within a JQL query, in
+	 * the time zone of the user running the query. When the time zone is unknown, the date is moved by the largest
+	 * offset of any time zone, earlier for the start of a range and later for its end, so the range covers at least as much.
+	 */
+	private static LocalDateTime JqlDateTime(OffsetDateTime date, ZoneId zone, boolean start) {
+		if (zone != null)
+			return date.atZoneSameInstant(zone).toLocalDateTime();
+
+		LocalDateTime utc = date.withOffsetSameInstant(ZoneOffset.UTC).toLocalDateTime();
+		return start ? utc.minusHours(MAX_ZONE_OFFSET_HOURS) : utc.plusHours(MAX_ZONE_OFFSET_HOURS);
+	}
+
+	/*
+	 * This helper method splits the JQL query into slices of the created date, small enough for each slice to
+	 * be paginated using startAt offsets, ordered from the newest to the oldest.
+	 */
+	private static void PlanDateSlices(String endpointUrl, String authorizationHeader, String jqlQuery, int pageSize, int maxStartAt, List<Slice> slices) throws IOException {
+		// separate the filter from the ordering, so that we can add the date range to the filter
+		Matcher orderByMatcher = ORDER_BY_PATTERN.matcher(jqlQuery);
+		String orderBy = orderByMatcher.find() ? orderByMatcher.group() : "";
+		String filter = jqlQuery.substring(0, jqlQuery.length() - orderBy.length()).trim();
+		orderBy = orderBy.isBlank() ? "" : " " + orderBy.trim();
+
+		// find the oldest and newest issue, which bound the date range we need to slice
+		var oldest = FetchSearchPage(endpointUrl, authorizationHeader, filter + " ORDER BY " + SLICE_FIELD + " ASC", 0, 1, SLICE_FIELD);
+		var newest = FetchSearchPage(endpointUrl, authorizationHeader, filter + " ORDER BY " + SLICE_FIELD + " DESC", 0, 1, SLICE_FIELD);
+		if (oldest.issues.isEmpty() || newest.issues.isEmpty())
+			return;
+
+		// JQL dates have a precision of one minute, in the time zone of the user running the query
+		ZoneId zone = UserTimeZone(endpointUrl, authorizationHeader);
+		LocalDateTime from = JqlDateTime(ParseJiraDate(oldest.issues.get(0).fields.created), zone, true).truncatedTo(ChronoUnit.MINUTES);
+		LocalDateTime to = JqlDateTime(ParseJiraDate(newest.issues.get(0).fields.created), zone, false).truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+
+		PlanDateSlice(endpointUrl, authorizationHeader, filter, orderBy, from, to, pageSize, maxStartAt, slices);
+	}
+
+	/*
+	 * This helper method plans a single date slice [from, to), halving it until it is small enough to paginate
+	 *
+	 * A slice of a single minute cannot be halved any further, so when more issues than can be paginated were created
+	 * within it, the query fails rather than silently leaving the rest of them out.
+	 */
+	private static void PlanDateSlice(String endpointUrl, String authorizationHeader, String filter, String orderBy, LocalDateTime from, LocalDateTime to, int pageSize, int maxStartAt, List<Slice> slices) throws IOException {
+		// build the JQL query for this slice
+		String sliceQuery = String.format("%s >= \"%s\" AND %s < \"%s\"", SLICE_FIELD, JQL_DATE_FORMAT.format(from), SLICE_FIELD, JQL_DATE_FORMAT.format(to));
+		if (!filter.isEmpty())
+			sliceQuery = "(" + filter + ") AND " + sliceQuery;
+		sliceQuery += orderBy;
+
+		// probe the number of issues in this slice
+		int total = FetchSearchPage(endpointUrl, authorizationHeader, sliceQuery, 0, 0, "key").total;
+
+		long minutes = ChronoUnit.MINUTES.between(from, to);
+		if (total <= maxStartAt + pageSize) {
+			if (total > 0)
+				slices.add(new Slice(sliceQuery, total));
+			return;
+		}
+		if (minutes <= 1)
+			throw new IOException(String.format("%d issues were created within the minute from %s, more than the %d which can be paginated, raise the JiraServerMaxStartAt setting or narrow the query down",
+					total, JQL_DATE_FORMAT.format(from), maxStartAt + pageSize));
+
+		// split the slice in two, with the newest half first
+		LocalDateTime middle = from.plusMinutes(minutes / 2);
+		PlanDateSlice(endpointUrl, authorizationHeader, filter, orderBy, middle, to, pageSize, maxStartAt, slices);
+		PlanDateSlice(endpointUrl, authorizationHeader, filter, orderBy, from, middle, pageSize, maxStartAt, slices);
+	}
+
+	/*
+	 * This helper method retrieves a single small page of search results from the Jira Server REST API, such as a probe
+	 */
+	private static JiraQueryResponseModel FetchSearchPage(String endpointUrl, String authorizationHeader, String jqlQuery, int startAt, int maxResults, String fields) throws IOException {
+		// deserialize the JSON response into our POJOs, using the shared pre-built reader
+		JiraQueryResponseModel responseModel = JsonReaders.QUERY_RESPONSE.readValue(FetchSearchPageBody(endpointUrl, authorizationHeader, jqlQuery, startAt, maxResults, fields));
+
+		// a probe returns no issues list at all
+		if (responseModel.issues == null)
+			responseModel.issues = new ArrayList<Issue>();
+
+		return responseModel;
+	}
+
+	/*
+	 * This helper method retrieves the raw JSON body of a single page of search results from the Jira Server REST API
+	 */
+	private static byte[] FetchSearchPageBody(String endpointUrl, String authorizationHeader, String jqlQuery, int startAt, int maxResults, String fields) throws IOException {
+		// convert the JQL query string to UTF-8
+		String jqlString = java.net.URLEncoder.encode(jqlQuery, "UTF-8");
+
+		// build the URL
+		String urlString = String.format("/rest/api/2/search?jql=%s&fields=%s&startAt=%d&maxResults=%d", jqlString, fields, startAt, maxResults);
+
+		// build the GET query to the Jira Server search REST endpoint
+		HttpRequest request = HttpTransport.NewRequest(endpointUrl + urlString)
+				// set the http authorization header to the Base64 value we generated above
+				.header("Authorization", authorizationHeader)
+				// set the request accept header to JSON
+				.header("accept", "application/json")
+				// set the request method type to GET
+				.GET()
+				.build();
+
+		// send the request and retrieve the response in JSON format, the connection is released once the response is closed
+		// the page is recorded in the flight recording under its startAt offset
+		FlightEvents.Fetch event = FlightEvents.BeginFetch(endpointUrl + urlString, "startAt=" + startAt);
+		try (var response = HttpTransport.Send(request)) {
+			event.status = response.StatusCode();
+			byte[] body = response.EnsureSuccess().Body().readAllBytes();
+			event.Response(response);
+			return body;
+		} finally {
+			event.commit();
+		}
+	}
+
+	/*
+	 * This helper method waits for a page download to complete, surfacing its failure as an IOException
+	 */
+	private static <T> T Await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for Jira Server search results", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Failed to retrieve Jira Server search results", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.tugboatlogic.sample;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.tugboatlogic.sample.models.Issue;
+import com.tugboatlogic.sample.models.JiraQueryResponseModel;
+import com.tugboatlogic.sample.models.JiraUserResponseModel;
+import com.tugboatlogic.sample.models.TugboatLogicResponseModel;
+
+/*
+ * This class holds the shared Jackson readers used to convert the JSON responses to POJOs.
+ *
+ * Building an ObjectMapper is expensive, so it is configured once and the readers for each of our response models are
+ * pre-built from it. ObjectReader instances are immutable and thread-safe, so they can be shared by every request.
+ * The same goes for the writer which normalizes the records before they are hashed by the EvidenceIndex.
+ */
+public class JsonReaders {
+	// configure the object mapper for converting the JSON responses to POJO
+	private static final ObjectMapper MAPPER = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	// a whole page of Jira Server search results, used for the small probe queries
+	public static final ObjectReader QUERY_RESPONSE = MAPPER.readerFor(JiraQueryResponseModel.class);
+
+	// a single issue of a Jira Server search result
+	public static final ObjectReader ISSUE = MAPPER.readerFor(Issue.class);
+
+	// the Jira Server user running the queries, along with their time zone
+	public static final ObjectReader USER = MAPPER.readerFor(JiraUserResponseModel.class);
+
+	// the response of the Tugboat Logic evidence upload endpoint
+	public static final ObjectReader TUGBOAT_LOGIC_RESPONSE = MAPPER.readerFor(TugboatLogicResponseModel.class);
+
+	// writes the responses of the status endpoint of the service mode
+	public static final ObjectWriter WRITER = MAPPER.writer();
+
+	// writes a record as JSON with its properties in a stable order, so that equal records always hash the same
+	public static final ObjectWriter CANONICAL_WRITER = MAPPER.copy()
+			.configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+			.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+			.writer();
+}
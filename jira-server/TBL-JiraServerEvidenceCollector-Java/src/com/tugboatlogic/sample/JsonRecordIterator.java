@@ -0,0 +1,136 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/*
+ * This class reads the records of a JSON array one at a time, using Jackson's streaming JsonParser, so that only the
+ * record currently being handed out is held in memory rather than the whole response.
+ *
+ * The array can either be the JSON document itself (e.g. the comments of a pull request), or a field of the top level
+ * JSON object (e.g. the items of a search result). Closing the iterator closes the underlying stream.
+ *
+ * Since an Iterator cannot throw checked exceptions, failures to read a record are surfaced as an UncheckedIOException.
+ */
+public class JsonRecordIterator<T> implements Iterator<T>, AutoCloseable {
+	private final JsonParser parser;
+	private final ObjectReader recordReader;
+
+	// whether the parser is positioned on the next record, and whether we have reached the end of the array
+	private boolean positioned;
+	private boolean finished;
+
+	private JsonRecordIterator(JsonParser parser, ObjectReader recordReader, boolean finished) {
+		this.parser = parser;
+		this.recordReader = recordReader;
+		this.finished = finished;
+	}
+
+	/*
+	 * Reads the records of a JSON document which is an array
+	 *
+	 * @param inputStream The stream containing the JSON document
+	 * @param recordReader The pre-built reader for a single record
+	 */
+	public static <T> JsonRecordIterator<T> OfArray(InputStream inputStream, ObjectReader recordReader) throws IOException {
+		JsonParser parser = recordReader.createParser(inputStream);
+		JsonToken token = parser.nextToken();
+		if (token != JsonToken.START_ARRAY && token != JsonToken.VALUE_NULL && token != null) {
+			parser.close();
+			throw new IOException("Expected a JSON array but found " + token);
+		}
+
+		return new JsonRecordIterator<>(parser, recordReader, token != JsonToken.START_ARRAY);
+	}
+
+	/*
+	 * Reads the records of an array which is a field of the top level JSON object, the other fields are skipped
+	 *
+	 * @param inputStream The stream containing the JSON document
+	 * @param fieldName The name of the field which holds the array
+	 * @param recordReader The pre-built reader for a single record
+	 */
+	public static <T> JsonRecordIterator<T> OfArrayField(InputStream inputStream, String fieldName, ObjectReader recordReader) throws IOException {
+		JsonParser parser = recordReader.createParser(inputStream);
+		if (parser.nextToken() != JsonToken.START_OBJECT) {
+			parser.close();
+			throw new IOException("Expected a JSON object containing the " + fieldName + " field");
+		}
+
+		// skip over the other fields until we find the array
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.getCurrentName();
+			JsonToken token = parser.nextToken();
+			if (fieldName.equals(name))
+				return new JsonRecordIterator<>(parser, recordReader, token != JsonToken.START_ARRAY);
+
+			parser.skipChildren();
+		}
+
+		// the field is missing, so there are no records
+		return new JsonRecordIterator<>(parser, recordReader, true);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (finished)
+			return false;
+
+		if (!positioned) {
+			try {
+				JsonToken token = parser.nextToken();
+				if (token == JsonToken.END_ARRAY || token == null) {
+					finished = true;
+					close();
+					return false;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			positioned = true;
+		}
+
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		try {
+			positioned = false;
+			return recordReader.readValue(parser);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 * Returns the remaining records as a sequential Stream, closing the stream closes this iterator
+	 */
+	public Stream<T> Stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(this::close);
+	}
+
+	@Override
+	public void close() {
+		try {
+			parser.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
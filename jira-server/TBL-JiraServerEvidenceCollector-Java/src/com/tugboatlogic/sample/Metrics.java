@@ -0,0 +1,411 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * This class holds the metrics of a collector run: the latency, statuses and bytes of the requests to each endpoint,
+ * the issues fetched, rendered and uploaded, and the depth of the search pages downloading ahead of the Excel document.
+ *
+ * The metrics are exposed in the Prometheus text format on a local endpoint while the collector runs, and a JSON summary
+ * of them is written once the run is over. Both are configured from the app.config file:
+ *  - MetricsPort: the port of the Prometheus endpoint (http://MetricsHost:MetricsPort/metrics), left empty to disable it
+ *  - MetricsHost: the address the Prometheus endpoint listens on, the loopback address by default
+ *  - MetricsSummaryFile: the file the JSON summary is written to at the end of the run, left empty to disable it
+ *
+ * Updating a metric costs about as much as incrementing an AtomicLong (the values are LongAdders), so the metrics are
+ * always kept, whether or not they are exposed.
+ */
+public class Metrics {
+	// the upper bounds of the buckets of the latency histograms, in seconds
+	private static final double[] LATENCY_BUCKETS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60 };
+
+	// the upper bounds of the buckets of the run duration histogram, in seconds
+	private static final double[] RUN_BUCKETS = { 1, 5, 15, 30, 60, 120, 300, 600, 1800, 3600, 7200 };
+
+	// the upper bounds of the buckets of the queue depth histograms, in items
+	private static final double[] DEPTH_BUCKETS = { 0, 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
+
+	/*
+	 * A family of metrics which share a name, with one series of values for each combination of label values
+	 */
+	public static abstract class Family<S> {
+		final String name;
+		final String help;
+		final String type;
+		final String[] labelNames;
+		final ConcurrentHashMap<List<String>, S> series = new ConcurrentHashMap<>();
+
+		private Family(String name, String help, String type, String[] labelNames) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.labelNames = labelNames;
+			families.add(this);
+		}
+
+		/*
+		 * Returns the series of the given label values, creating it on first use
+		 */
+		S WithLabels(String... labelValues) {
+			if (labelValues.length != labelNames.length)
+				throw new IllegalArgumentException(String.format("Metric %s takes %d labels, not %d", name, labelNames.length, labelValues.length));
+
+			List<String> key = List.of(labelValues);
+			S values = series.get(key);
+			return values != null ? values : series.computeIfAbsent(key, ignored -> NewSeries());
+		}
+
+		abstract S NewSeries();
+	}
+
+	/*
+	 * A count which only goes up, such as the number of requests sent
+	 */
+	public static class Counter extends Family<LongAdder> {
+		private Counter(String name, String help, String... labelNames) {
+			super(name, help, "counter", labelNames);
+		}
+
+		public void Increment(String... labelValues) {
+			WithLabels(labelValues).increment();
+		}
+
+		public void Add(long amount, String... labelValues) {
+			WithLabels(labelValues).add(amount);
+		}
+
+		/*
+		 * Returns the count of the given label values, so that a hot loop (e.g. reading a response body) can update it
+		 * without looking it up each time
+		 */
+		public LongAdder Of(String... labelValues) {
+			return WithLabels(labelValues);
+		}
+
+		@Override
+		LongAdder NewSeries() {
+			return new LongAdder();
+		}
+	}
+
+	/*
+	 * A distribution of values, such as the latency of the requests, counted into buckets of fixed upper bounds
+	 */
+	public static class Histogram extends Family<Histogram.Values> {
+		static class Values {
+			final LongAdder[] buckets;
+			final LongAdder count = new LongAdder();
+			final DoubleAdder sum = new DoubleAdder();
+			final DoubleAccumulator max = new DoubleAccumulator(Math::max, 0);
+
+			Values(int buckets) {
+				this.buckets = new LongAdder[buckets];
+				for (int i = 0; i < buckets; i++)
+					this.buckets[i] = new LongAdder();
+			}
+		}
+
+		private final double[] bounds;
+
+		private Histogram(String name, String help, double[] bounds, String... labelNames) {
+			super(name, help, "histogram", labelNames);
+			this.bounds = bounds;
+		}
+
+		public void Observe(double value, String... labelValues) {
+			Values values = WithLabels(labelValues);
+			int bucket = 0;
+			while (bucket < bounds.length && value > bounds[bucket])
+				bucket++;
+			values.buckets[bucket].increment();
+			values.count.increment();
+			values.sum.add(value);
+			values.max.accumulate(value);
+		}
+
+		/*
+		 * Records a duration, which the histogram holds in seconds
+		 */
+		public void ObserveNanos(long nanos, String... labelValues) {
+			Observe(nanos / 1e9, labelValues);
+		}
+
+		@Override
+		Values NewSeries() {
+			return new Values(bounds.length + 1);
+		}
+
+		/*
+		 * Estimates a percentile of the values, interpolating within the bucket it falls into (like histogram_quantile)
+		 */
+		double Percentile(Values values, double percentile) {
+			long count = values.count.sum();
+			if (count == 0)
+				return 0;
+
+			double rank = count * percentile / 100.0;
+			long seen = 0;
+			for (int i = 0; i < bounds.length; i++) {
+				long inBucket = values.buckets[i].sum();
+				if (seen + inBucket >= rank && inBucket > 0) {
+					double lower = i == 0 ? 0 : bounds[i - 1];
+					double estimate = lower + (bounds[i] - lower) * (rank - seen) / inBucket;
+					return Math.min(estimate, values.max.get());
+				}
+				seen += inBucket;
+			}
+			// the percentile falls beyond the last bound, where the highest value is the best estimate
+			return values.max.get();
+		}
+	}
+
+	/*
+	 * A value which is read when the metrics are exposed, such as the number of requests waiting for a host
+	 */
+	public static class Gauge extends Family<AtomicReference<LongSupplier>> {
+		private Gauge(String name, String help, String... labelNames) {
+			super(name, help, "gauge", labelNames);
+		}
+
+		/*
+		 * Reads the value of the given label values from the supplier from now on
+		 */
+		public void Set(LongSupplier supplier, String... labelValues) {
+			WithLabels(labelValues).set(supplier);
+		}
+
+		@Override
+		AtomicReference<LongSupplier> NewSeries() {
+			return new AtomicReference<>(() -> 0);
+		}
+	}
+
+	// every family of metrics, in the order they are exposed
+	private static final List<Family<?>> families = new CopyOnWriteArrayList<>();
+
+	// the requests to Jira Server and Tugboat Logic, by endpoint (a URL path with its numeric Ids left out)
+	public static final Counter HTTP_REQUESTS = new Counter("collector_http_requests_total", "The requests sent, by response status (error when no response was received)", "endpoint", "method", "status");
+	public static final Histogram HTTP_REQUEST_SECONDS = new Histogram("collector_http_request_duration_seconds", "The time from sending a request until its response headers arrived (or it failed)", LATENCY_BUCKETS, "endpoint", "method");
+	public static final Counter HTTP_SENT_BYTES = new Counter("collector_http_sent_bytes_total", "The bytes of the request bodies sent", "endpoint");
+	public static final Counter HTTP_RECEIVED_BYTES = new Counter("collector_http_received_bytes_total", "The bytes of the response bodies read off the wire", "endpoint");
+	public static final Counter COMPRESSION_SAVED_BYTES = new Counter("collector_compression_saved_bytes_total", "The bytes which gzip compression saved over the wire, of the responses downloaded", "direction");
+	public static final Gauge HTTP_WAITING_REQUESTS = new Gauge("collector_http_waiting_requests", "The requests waiting for a free slot of their host", "host");
+
+	// the records flowing through the collector, from Jira Server to Tugboat Logic
+	public static final Counter RECORDS_FETCHED = new Counter("collector_records_fetched_total", "The records retrieved from Jira Server", "kind");
+	public static final Counter RECORDS_UNCHANGED = new Counter("collector_records_unchanged_total", "The records skipped since they had not changed since their evidence was uploaded");
+	public static final Counter RECORDS_RENDERED = new Counter("collector_records_rendered_total", "The records rendered into evidence files", "renderer");
+	public static final Histogram RENDER_SECONDS = new Histogram("collector_render_duration_seconds", "The time taken to render an evidence file", LATENCY_BUCKETS, "renderer");
+	public static final Counter RENDERED_BYTES = new Counter("collector_rendered_bytes_total", "The bytes of the evidence files rendered", "renderer");
+	public static final Counter RECORDS_UPLOADED = new Counter("collector_records_uploaded_total", "The records whose evidence was uploaded to Tugboat Logic");
+	public static final Counter UPLOADS = new Counter("collector_uploads_total", "The evidence files uploaded to Tugboat Logic, by whether the upload succeeded", "result");
+	public static final Histogram UPLOAD_SECONDS = new Histogram("collector_upload_duration_seconds", "The time taken to upload an evidence file, including its retries", LATENCY_BUCKETS);
+	public static final Counter UPLOADED_BYTES = new Counter("collector_uploaded_bytes_total", "The bytes of the evidence files uploaded");
+	public static final Counter RUNS = new Counter("collector_runs_total", "The collections run by the service mode, by whether they succeeded", "result");
+	public static final Histogram RUN_SECONDS = new Histogram("collector_run_duration_seconds", "The time taken by the collections run by the service mode", RUN_BUCKETS);
+	public static final Histogram QUEUE_DEPTH = new Histogram("collector_queue_depth", "The items waiting in a queue, sampled as each item is taken from it (for the search, the pages downloading ahead of the one being read)", DEPTH_BUCKETS, "queue");
+
+	// the settings, and the endpoint once started
+	private static volatile String summaryFile = "metrics-summary.json";
+	private static volatile OffsetDateTime started = OffsetDateTime.now();
+	private static HttpServer server;
+
+	/*
+	 * Configures the metrics from the application settings, starting the Prometheus endpoint if it is enabled
+	 *
+	 * @param properties The application settings
+	 */
+	public static synchronized void Configure(Properties properties) {
+		summaryFile = properties.getProperty("MetricsSummaryFile", "metrics-summary.json").trim();
+		started = OffsetDateTime.now();
+
+		String port = properties.getProperty("MetricsPort", "").trim();
+		if (port.isEmpty() || server != null)
+			return;
+
+		String host = properties.getProperty("MetricsHost", "127.0.0.1").trim();
+		try {
+			server = HttpServer.create(new InetSocketAddress(host, Integer.parseInt(port)), 0);
+		} catch (IOException e) {
+			// the metrics are informational, so the run carries on without the endpoint
+			System.out.println(String.format("Warning: the metrics endpoint could not be started on %s:%s: %s", host, port, e.getMessage()));
+			return;
+		}
+		server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-endpoint");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		server.createContext("/metrics", exchange -> {
+			try (exchange) {
+				byte[] body = Prometheus().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		});
+		server.start();
+		System.out.println(String.format("Metrics available on http://%s:%d/metrics", host, server.getAddress().getPort()));
+	}
+
+	/*
+	 * Returns the metrics in the Prometheus text exposition format
+	 */
+	public static String Prometheus() {
+		StringBuilder sb = new StringBuilder();
+		for (Family<?> family : families) {
+			if (family.series.isEmpty())
+				continue;
+
+			sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+			for (Map.Entry<List<String>, ?> series : family.series.entrySet()) {
+				List<String> labels = series.getKey();
+				if (family instanceof Histogram) {
+					Histogram histogram = (Histogram) family;
+					Histogram.Values values = (Histogram.Values) series.getValue();
+					long cumulative = 0;
+					for (int i = 0; i <= histogram.bounds.length; i++) {
+						cumulative += values.buckets[i].sum();
+						String bound = i < histogram.bounds.length ? Double.toString(histogram.bounds[i]) : "+Inf";
+						Sample(sb, family.name + "_bucket", family.labelNames, labels, "le", bound).append(cumulative).append('\n');
+					}
+					Sample(sb, family.name + "_sum", family.labelNames, labels, null, null).append(values.sum.sum()).append('\n');
+					Sample(sb, family.name + "_count", family.labelNames, labels, null, null).append(values.count.sum()).append('\n');
+				} else if (family instanceof Gauge) {
+					Sample(sb, family.name, family.labelNames, labels, null, null).append(GaugeValue(series.getValue())).append('\n');
+				} else {
+					Sample(sb, family.name, family.labelNames, labels, null, null).append(((LongAdder) series.getValue()).sum()).append('\n');
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Writes the JSON summary of the run, if it is enabled: every counter and gauge, and the count, mean, percentiles
+	 * and maximum of every histogram
+	 */
+	public static void WriteSummary() {
+		if (summaryFile.isEmpty())
+			return;
+
+		OffsetDateTime finished = OffsetDateTime.now();
+		ObjectMapper mapper = new ObjectMapper();
+		ObjectNode summary = mapper.createObjectNode();
+		summary.put("started", started.toString());
+		summary.put("finished", finished.toString());
+		summary.put("durationSeconds", Duration.between(started, finished).toMillis() / 1000.0);
+
+		ObjectNode metrics = summary.putObject("metrics");
+		for (Family<?> family : families) {
+			if (family.series.isEmpty())
+				continue;
+
+			ArrayNode series = metrics.putArray(family.name);
+			for (Map.Entry<List<String>, ?> entry : family.series.entrySet()) {
+				ObjectNode values = series.addObject();
+				ObjectNode labels = values.putObject("labels");
+				for (int i = 0; i < family.labelNames.length; i++)
+					labels.put(family.labelNames[i], entry.getKey().get(i));
+
+				if (family instanceof Histogram) {
+					Histogram histogram = (Histogram) family;
+					Histogram.Values observed = (Histogram.Values) entry.getValue();
+					long count = observed.count.sum();
+					values.put("count", count);
+					values.put("mean", count == 0 ? 0 : observed.sum.sum() / count);
+					values.put("p50", histogram.Percentile(observed, 50));
+					values.put("p90", histogram.Percentile(observed, 90));
+					values.put("p99", histogram.Percentile(observed, 99));
+					values.put("max", observed.max.get());
+				} else if (family instanceof Gauge) {
+					values.put("value", GaugeValue(entry.getValue()));
+				} else {
+					values.put("value", ((LongAdder) entry.getValue()).sum());
+				}
+			}
+		}
+
+		Path path = Paths.get(summaryFile);
+		try {
+			if (path.getParent() != null)
+				Files.createDirectories(path.getParent());
+			mapper.writerWithDefaultPrettyPrinter().writeValue(path.toFile(), summary);
+			System.out.println("Metrics summary written to " + path);
+		} catch (IOException e) {
+			// the summary is informational, so a failure to write it does not fail the run
+			System.out.println(String.format("Warning: the metrics summary could not be written to %s: %s", path, e.getMessage()));
+		}
+	}
+
+	/*
+	 * Stops the Prometheus endpoint, if it was started
+	 */
+	public static synchronized void Stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	/*
+	 * This helper method appends the name and labels of a sample, ready for its value
+	 */
+	private static StringBuilder Sample(StringBuilder sb, String name, String[] labelNames, List<String> labelValues, String extraName, String extraValue) {
+		sb.append(name);
+		if (labelNames.length > 0 || extraName != null) {
+			sb.append('{');
+			for (int i = 0; i < labelNames.length; i++) {
+				if (i > 0)
+					sb.append(',');
+				sb.append(labelNames[i]).append("=\"").append(Escape(labelValues.get(i))).append('"');
+			}
+			if (extraName != null)
+				sb.append(labelNames.length > 0 ? "," : "").append(extraName).append("=\"").append(extraValue).append('"');
+			sb.append('}');
+		}
+		return sb.append(' ');
+	}
+
+	/*
+	 * This helper method reads the current value of a gauge
+	 */
+	@SuppressWarnings("unchecked")
+	private static long GaugeValue(Object series) {
+		return ((AtomicReference<LongSupplier>) series).get().getAsLong();
+	}
+
+	/*
+	 * This helper method escapes a label value, as the text format requires
+	 */
+	private static String Escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -1,124 +1,452 @@
-package com.tugboatlogic.sample;
-
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Properties;
-
-/*
- * This sample console application is a working example that demonstrates how to query the
- * Jira Server REST API for a list of recently resolved Jira issues. And then assemble the
- * results into a multi-sheet Excel document and upload it to the Tugboat Logic evidence
- * collection endpoint.
- * 
- * Using this sample application as an example, customers are able to build other integrations,
- * simply by replacing the Jira Server integration pieces with integration code for other platforms
- * of choice.
- */
-public class Program {
-	public static void main(String[] args) {
-
-		// start the console application and wait for user input
-		System.out.println("Starting custom Evidence Collector sample for Jira Server");
-		System.out.println("Press enter key to continue...");
-		try
-        {
-            System.in.read();
-        }  
-        catch(Exception e)
-        {}  
-		
-		 // grab all the configuration settings from app.config file
-		Properties properties = LoadAppSettings();
-		
-		// the Jira Server REST API endpoint
-		String jiraServerEndpointUrl = properties.getProperty("JiraServerRestEndpoint");
-		
-		// the username to authenticate with Jira Server using
-		String jiraServerUsername = properties.getProperty("JiraServerUsername");
-		
-		// the password to authenticate with Jira Server using
-		String jiraServerPassword = properties.getProperty("JiraServerPassword");
-		
-		// the Jira JQL query to use when querying Jira
-		String jiraQuery = properties.getProperty("JiraServerJqlQuery");
-		
-		// the local file system path where to store the generated Excel document
-		String localOutputPath = properties.getProperty("LocalOutputPath");
-		
-		// the Tugboat Logic evidence collection endpoint Url
-		String tugboatLogicCollectionUrl = properties.getProperty("TugboatLogicCollectorUrl");
-		
-		// the username used to authenticate with the Tugboat Logic evidence collection endpoint
-		String tugboatLogicUsername = properties.getProperty("TugboatLogicUsername");
-		
-		// the password used to authenticate with the Tugboat Logic evidence collection endpoint
-		String tugboatLogicPassword = properties.getProperty("TugboatLogicPassword");
-		
-		// the API key used to authenticate with the Tugboat Logic evidence collection endpoint
-		String tugboatLogicApiKey = properties.getProperty("TugboatLogicApiKey");
-		
-        try {
-        	// query and retrieve the records from Jira Server
-            // if this example is being used to build an integration for another platform, this is where
-            // you would replace the Jira Server sample code with a query to your own data source 
-			var records = JiraServerHelper.QueryJiraServer(jiraServerEndpointUrl, jiraServerUsername, jiraServerPassword, jiraQuery);
-			
-			System.out.println("Results retrieved from Jira Server");
-			
-			 // did we get a valid response from Jira Server, if so, generate the Excel document in a specific format
-            // and then proceed to upload the Excel document to the Tugboat Logic evidence collection endpoint
-			if(records != null) {
-				// create the evidence file (Excel document) for Jira Server
-                // if you are customizing this evidence collector for use on another platform, this method
-                // will require modification to support the required data fields/attributes for that platform
-				
-				var outputStream = ExcelHelper.CreateExcelDocument(records, localOutputPath, jiraQuery);
-				
-				System.out.println("Excel output file created");
-				
-				// upload the evidence file to Tugboat Logic
-                // this code is common and would require minimal modification if you intend to use
-                // it to upload evidence from another platform
-				var result = TugboatLogicHelper.UploadEvidence(tugboatLogicCollectionUrl, tugboatLogicUsername, tugboatLogicPassword, tugboatLogicApiKey, outputStream);
-				
-				System.out.println(String.format("Evidence uploaded to Tugboat Logic, result Id #%s", result.id));
-				System.out.println("Press enter key to continue...");
-				System.in.read();
-			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-    }
-	
-	/*
-	 * Helper method to load the application settings from the app.config file
-	 */
-	private static Properties LoadAppSettings() {
-		// create an empty properties object
-		Properties prop = new Properties();
-		
-		// set the filename
-		String fileName = "app.config";
-		
-		// create the input stream to use
-		InputStream is = null;
-		try {
-			// load the file content into the input stream
-		    is = new FileInputStream(fileName);		    
-		} catch (FileNotFoundException ex) {
-		    
-		}
-		try {
-			// load the properties from the input stream
-		    prop.load(is);
-		    return prop;
-		} catch (IOException ex) {
-		    
-		}		
-		
-		return null;
-	}
-}
+package com.tugboatlogic.sample;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import com.tugboatlogic.sample.models.Issue;
+
+/*
+ * This sample console application is a working example that demonstrates how to query the
+ * Jira Server REST API for a list of recently resolved Jira issues. And then assemble the
+ * results into a multi-sheet Excel document and upload it to the Tugboat Logic evidence
+ * collection endpoint.
+ * 
+ * Using this sample application as an example, customers are able to build other integrations,
+ * simply by replacing the Jira Server integration pieces with integration code for other platforms
+ * of choice.
+ */
+public class Program {
+	public static void main(String[] args) {
+
+		// read the command line, which may ask for the service mode, a single run without the prompts, another
+		// settings file, or override any of the settings
+		CommandLine commandLine;
+		try {
+			commandLine = CommandLine.Parse(args);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.println(CommandLine.USAGE);
+			System.exit(2);
+			return;
+		}
+		
+		// start the console application and wait for user input
+		System.out.println("Starting custom Evidence Collector sample for Jira Server");
+		if (commandLine.interactive) {
+			System.out.println("Press enter key to continue...");
+			try
+	        {
+	            System.in.read();
+	        }  
+	        catch(Exception e)
+	        {}  
+		}
+		
+		 // grab all the configuration settings from app.config file, along with those given on the command line
+		Properties properties = LoadAppSettings(commandLine.configFile);
+		if (properties == null) {
+			System.out.println(String.format("The settings file %s could not be read", commandLine.configFile));
+			System.exit(1);
+			return;
+		}
+		properties.putAll(commandLine.settings);
+		
+		// configure the shared HTTP transport (timeouts and connections per host) used by every helper
+		HttpTransport.Configure(properties);
+		
+		// configure how much of the evidence file is buffered in memory before it is spilled to disk
+		EvidenceBuffer.Configure(properties);
+		
+		// configure the metrics of the run, and the endpoint which exposes them (optional)
+		Metrics.Configure(properties);
+		
+		// start the continuous flight recording of the fetch, render and upload events (optional)
+		FlightEvents.Configure(properties);
+		
+		// in the service mode the collections are run on a schedule, within this JVM, until it is shut down
+		if (commandLine.service) {
+			try {
+				new CollectorService(properties, stopRequested -> Collect(properties, false, stopRequested)).Run();
+			} catch (IOException | IllegalArgumentException e) {
+				System.out.println(String.format("The collector service could not be started: %s", e.getMessage()));
+				System.exit(1);
+			} catch (IllegalStateException e) {
+				System.out.println(String.format("The collector service stopped: %s", e.getMessage()));
+				System.exit(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return;
+		}
+		
+		try {
+			Collect(properties, commandLine.interactive, () -> false);
+		} catch (UncheckedIOException e) {
+			// the issues are streamed lazily, so failures to retrieve them surface while the Excel document is generated
+			e.getCause().printStackTrace();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		} finally {
+			// write the summary of the metrics of the run, and stop exposing them
+			Metrics.WriteSummary();
+			Metrics.Stop();
+		}
+    }
+	
+	/*
+	 * This method runs a single collection: it queries Jira Server for the resolved issues, assembles them into the
+	 * Excel document and uploads it to Tugboat Logic
+	 * 
+	 * When JiraServerProjects lists several projects, each of them is collected into an Excel document of its own, with
+	 * its own high-water mark, a few projects at a time (see CollectionTarget), and a project which fails does not stop
+	 * the others from being uploaded.
+	 * 
+	 * The issues of a project all go into a single Excel document, so a collection which has started is always completed,
+	 * and a shutdown waits for its upload: the request to stop is only honoured before the collection starts.
+	 * 
+	 * @param properties The application settings
+	 * @param interactive Whether to wait for the enter key once the collection is over
+	 * @param stopRequested Tells whether the collection should not be started
+	 * @return Returns a short description of the outcome of the collection
+	 */
+	private static String Collect(Properties properties, boolean interactive, BooleanSupplier stopRequested) throws IOException {
+		if (stopRequested.getAsBoolean())
+			return "stopped early";
+		
+		// the Jira Server REST API endpoint
+		String jiraServerEndpointUrl = properties.getProperty("JiraServerRestEndpoint");
+		
+		// the username to authenticate with Jira Server using
+		String jiraServerUsername = properties.getProperty("JiraServerUsername");
+		
+		// the password to authenticate with Jira Server using
+		String jiraServerPassword = properties.getProperty("JiraServerPassword");
+		
+		// the Jira JQL query to use when querying Jira
+		String jiraQuery = properties.getProperty("JiraServerJqlQuery");
+		
+		// the number of issues to request per page of search results
+		int jiraPageSize = Integer.parseInt(properties.getProperty("JiraServerPageSize", "100"));
+		
+		// the maximum number of search result pages to download in parallel
+		int jiraMaxConcurrency = Integer.parseInt(properties.getProperty("JiraServerMaxConcurrency", "4"));
+		
+		// the deepest startAt offset to page to before the query is split into date slices
+		int jiraMaxStartAt = Integer.parseInt(properties.getProperty("JiraServerMaxStartAt", "10000"));
+		
+		// the number of worksheet rows kept in memory while the Excel document is streamed, 0 builds it in memory instead
+		int excelRowWindow = Integer.parseInt(properties.getProperty("ExcelStreamingRowWindow", "100"));
+		
+		// whether the worksheet rows streamed to temporary files are compressed
+		boolean excelCompressTempFiles = Boolean.parseBoolean(properties.getProperty("ExcelCompressTempFiles", "false"));
+		
+		// whether to collect only the issues resolved since the previous run, rather than every issue matching the query
+		boolean incremental = Boolean.parseBoolean(properties.getProperty("IncrementalMode", "true"));
+		
+		// the file which keeps the high-water mark of the previous run
+		String stateFile = properties.getProperty("IncrementalStateFile", "collector-state.properties");
+		
+		// how far before the high-water mark an incremental run starts collecting, to pick up late updates
+		int overlapMinutes = Integer.parseInt(properties.getProperty("IncrementalOverlapMinutes", "60"));
+		
+		// whether to leave out the issues which have not changed since their evidence was uploaded
+		boolean deduplicate = Boolean.parseBoolean(properties.getProperty("DeduplicateEvidence", "true"));
+		
+		// the file which keeps the hashes of the evidence uploaded so far
+		String indexFile = properties.getProperty("EvidenceIndexFile", "evidence-index.bin");
+		
+		// the local file system path where to store the generated Excel document
+		String localOutputPath = properties.getProperty("LocalOutputPath");
+		
+		// the Tugboat Logic evidence collection endpoint Url
+		String tugboatLogicCollectionUrl = properties.getProperty("TugboatLogicCollectorUrl");
+		
+		// the username used to authenticate with the Tugboat Logic evidence collection endpoint
+		String tugboatLogicUsername = properties.getProperty("TugboatLogicUsername");
+		
+		// the password used to authenticate with the Tugboat Logic evidence collection endpoint
+		String tugboatLogicPassword = properties.getProperty("TugboatLogicPassword");
+		
+		// the API key used to authenticate with the Tugboat Logic evidence collection endpoint
+		String tugboatLogicApiKey = properties.getProperty("TugboatLogicApiKey");
+		
+		// the number of projects collected at the same time, each into an Excel document of its own (JiraServerProjects)
+		int projectConcurrency = Integer.parseInt(properties.getProperty("JiraServerProjectConcurrency", "4"));
+		
+		// the targets of the run, either the query on its own or the query narrowed down to each of the projects
+		List<CollectionTarget> targets = CollectionTarget.Resolve(properties, jiraServerEndpointUrl, jiraQuery, localOutputPath);
+		boolean single = targets.size() == 1;
+		
+		// in incremental mode, only the issues resolved since the high-water mark of the previous run are collected
+		CollectorState state = incremental ? CollectorState.Load(Paths.get(stateFile)) : null;
+		for (CollectionTarget target : targets) {
+			target.mark = state != null ? state.Get(target.stateKey) : null;
+			// the window is read in the time zone of the Jira Server user, which is only retrieved when there is a window
+			OffsetDateTime since = target.Since(overlapMinutes);
+			target.windowQuery = JiraServerHelper.IncrementalQuery(target.query, since,
+					since != null ? JiraServerHelper.UserTimeZone(jiraServerEndpointUrl, jiraServerUsername, jiraServerPassword) : null);
+			if (target.mark == null)
+				continue;
+			
+			// a single probe tells us whether anything has changed since the previous run, in which case there is nothing to collect
+			try {
+				var probe = JiraServerHelper.ProbeJiraServer(jiraServerEndpointUrl, jiraServerUsername, jiraServerPassword, target.windowQuery);
+				var newest = probe.issues.isEmpty() ? null : JiraServerHelper.ParseJiraDate(probe.issues.get(0).fields.resolutiondate);
+				target.unchanged = target.mark.IsUnchanged(probe.total, newest);
+			} catch (IOException e) {
+				if (single)
+					throw e;
+				target.Fail(e);
+			}
+			if (target.unchanged)
+				System.out.println(single
+						? String.format("Nothing has changed in Jira Server since %s, there is no evidence to collect", target.mark.watermark)
+						: String.format("Nothing has changed in %s since %s", target.name, target.mark.watermark));
+		}
+		if (targets.stream().allMatch(target -> target.unchanged))
+			return "nothing has changed";
+		
+		// the hashes of the issues uploaded by the previous runs, the issues which have not changed are left out of the Excel document
+		EvidenceIndex index = deduplicate ? EvidenceIndex.Load(Paths.get(indexFile)) : null;
+		
+		// the workers shared by the searches of the projects, which hand out their pages in the order they were requested
+		ExecutorService searchExecutor = single ? null : Executors.newFixedThreadPool(jiraMaxConcurrency, runnable -> {
+			Thread thread = new Thread(runnable, "jira-search");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		// collects the issues of a target into an Excel document of its own and uploads it to Tugboat Logic
+		TargetCollection collectTarget = target -> {
+			// query and retrieve the records from Jira Server, the issues are streamed page by page as they are consumed
+			    // if this example is being used to build an integration for another platform, this is where
+			    // you would replace the Jira Server sample code with a query to your own data source 
+			try (var records = (searchExecutor == null
+					? JiraServerHelper.QueryJiraServer(jiraServerEndpointUrl, jiraServerUsername, jiraServerPassword, target.windowQuery, jiraPageSize, jiraMaxConcurrency, jiraMaxStartAt)
+					: JiraServerHelper.QueryJiraServer(jiraServerEndpointUrl, jiraServerUsername, jiraServerPassword, target.windowQuery, jiraPageSize, jiraMaxConcurrency, jiraMaxStartAt, searchExecutor))
+					.peek(issue -> target.taken.incrementAndGet())
+					.peek(issue -> target.tracker.Observe(JiraServerHelper.ParseJiraDate(issue.fields.resolutiondate)))
+					.filter(issue -> index == null || IsChanged(issue, index, target))
+					.peek(issue -> target.included.incrementAndGet())) {
+				
+				System.out.println(single ? "Retrieving results from Jira Server" : String.format("Retrieving results of %s from Jira Server", target.name));
+				
+				var issues = records.iterator();
+				if (!issues.hasNext()) {
+					System.out.println(single
+							? "No issues have changed since they were uploaded, there is no evidence to upload"
+							: String.format("No issues of %s have changed since they were uploaded, there is no evidence to upload", target.name));
+					return;
+				}
+				
+				// create the evidence file (Excel document) for Jira Server
+	            // if you are customizing this evidence collector for use on another platform, this method
+	            // will require modification to support the required data fields/attributes for that platform
+				
+				try (var outputStream = ExcelHelper.CreateExcelDocument(issues, target.localOutputPath, target.windowQuery, target.Since(overlapMinutes), excelRowWindow, excelCompressTempFiles)) {
+					
+					System.out.println(single ? "Excel output file created" : String.format("Excel output file of %s created", target.name));
+					
+					// upload the evidence file to Tugboat Logic
+	                // this code is common and would require minimal modification if you intend to use
+	                // it to upload evidence from another platform
+					var result = TugboatLogicHelper.UploadEvidence(tugboatLogicCollectionUrl, tugboatLogicUsername, tugboatLogicPassword, tugboatLogicApiKey, outputStream);
+					
+					System.out.println(single
+							? String.format("Evidence uploaded to Tugboat Logic, result Id #%s", result.id)
+							: String.format("Evidence of %s uploaded to Tugboat Logic, result Id #%s", target.name, result.id));
+					target.Uploaded(result.id);
+					Metrics.RECORDS_UPLOADED.Add(target.included.get());
+				}
+				
+				// the evidence has been uploaded, so the issues it holds are added to the index
+				if (index != null) {
+					target.AddToIndex(index);
+					index.Save();
+				}
+			}
+		};
+		
+		try {
+			if (single) {
+				// a single target fails the run, just like a run has always done
+				collectTarget.Run(targets.get(0));
+			} else {
+				// the projects are collected on a pool of their own, their searches sharing the search workers, and a project
+				// which fails is reported without affecting the others
+				ExecutorService projectExecutor = Executors.newFixedThreadPool(Math.max(1, projectConcurrency), runnable -> new Thread(runnable, "jira-project"));
+				try {
+					List<Future<?>> collections = new ArrayList<>();
+					for (CollectionTarget target : targets) {
+						if (target.unchanged || target.Failure() != null)
+							continue;
+						collections.add(projectExecutor.submit(() -> {
+							try {
+								collectTarget.Run(target);
+							} catch (UncheckedIOException e) {
+								target.Fail(e.getCause());
+							} catch (IOException | RuntimeException e) {
+								target.Fail(e);
+							}
+						}));
+					}
+					for (Future<?> collection : collections)
+						collection.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("The collection was interrupted", e);
+				} catch (ExecutionException e) {
+					throw new IOException(e.getCause());
+				} finally {
+					projectExecutor.shutdownNow();
+				}
+			}
+		} finally {
+			if (searchExecutor != null)
+				searchExecutor.shutdownNow();
+		}
+		
+		// the evidence has been uploaded, so the next run of each target which succeeded can start from its newest issue
+		if (state != null) {
+			for (CollectionTarget target : targets) {
+				if (!target.unchanged && target.Failure() == null)
+					state.Put(target.stateKey, target.tracker, overlapMinutes);
+			}
+			state.Save();
+		}
+		
+		if (!single) {
+			for (CollectionTarget target : targets)
+				System.out.println(target.Statistics());
+		}
+		
+		WaitForEnterKey(interactive);
+		
+		List<CollectionTarget> failed = targets.stream().filter(target -> target.Failure() != null).collect(Collectors.toList());
+		if (!failed.isEmpty())
+			throw new IOException(String.format("%d of %d projects failed, the first of them %s: %s", failed.size(), targets.size(), failed.get(0).name, failed.get(0).Failure().getMessage()), failed.get(0).Failure());
+		
+		long unchanged = targets.stream().filter(target -> target.unchanged).count();
+		return single ? "collected" : String.format("collected %d projects, %d unchanged", targets.size() - unchanged, unchanged);
+    }
+	
+	/*
+	 * The collection of a single target, which builds its Excel document and uploads it
+	 */
+	@FunctionalInterface
+	private interface TargetCollection {
+		void Run(CollectionTarget target) throws IOException;
+	}
+	
+	/*
+	 * The command line of the collector, e.g. --service --config /etc/collector/app.config ServiceSchedule="0 * * * *"
+	 */
+	private static class CommandLine {
+		static final String USAGE = String.join(System.lineSeparator(),
+				"Usage: [--service | --once] [--config <file>] [Setting=Value ...]",
+				"  --service        collect on the schedule of the ServiceSchedule setting until the collector is shut down",
+				"  --once           collect a single time without waiting for the enter key, e.g. when started by cron",
+				"  --config <file>  the settings file to use, app.config in the working directory by default",
+				"  Setting=Value    overrides a setting of the settings file");
+		
+		boolean service;
+		boolean interactive = true;
+		String configFile = "app.config";
+		final Properties settings = new Properties();
+		
+		static CommandLine Parse(String[] args) {
+			CommandLine commandLine = new CommandLine();
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("--service") || arg.equals("--daemon")) {
+					commandLine.service = true;
+					commandLine.interactive = false;
+				} else if (arg.equals("--once")) {
+					commandLine.interactive = false;
+				} else if (arg.equals("--config") && i + 1 < args.length) {
+					commandLine.configFile = args[++i];
+				} else if (arg.startsWith("--config=")) {
+					commandLine.configFile = arg.substring("--config=".length());
+				} else if (!arg.startsWith("-") && arg.indexOf('=') > 0) {
+					commandLine.settings.setProperty(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+				} else {
+					throw new IllegalArgumentException("Unknown argument: " + arg);
+				}
+			}
+			return commandLine;
+		}
+	}
+	
+	/*
+	 * Helper method to check whether an issue has changed since its evidence was uploaded, the issue is only added to the
+	 * index once the Excel document of its target has been uploaded, so that a project which fails does not leave its
+	 * issues in the index saved by the other projects
+	 * 
+	 * The worksheet row of an issue is rendered from its fields alone, so the hash of the issue also stands for the
+	 * hash of its rendered row.
+	 */
+	private static boolean IsChanged(Issue issue, EvidenceIndex index, CollectionTarget target) {
+		long sourceHash = EvidenceIndex.HashRecord(issue);
+		if (index.IsSourceUnchanged(issue.key, sourceHash)) {
+			Metrics.RECORDS_UNCHANGED.Increment();
+			return false;
+		}
+		
+		target.Changed(issue.key, sourceHash);
+		return true;
+	}
+	
+	/*
+	 * Helper method to wait for the enter key at the end of an interactive run
+	 */
+	private static void WaitForEnterKey(boolean interactive) throws IOException {
+		if (!interactive)
+			return;
+		System.out.println("Press enter key to continue...");
+		System.in.read();
+	}
+	
+	/*
+	 * Helper method to load the application settings from the app.config file
+	 * 
+	 * @param fileName The path of the settings file
+	 * @return Returns the settings, or null if the file could not be read
+	 */
+	private static Properties LoadAppSettings(String fileName) {
+		// create an empty properties object
+		Properties prop = new Properties();
+		
+		// create the input stream to use
+		InputStream is = null;
+		try {
+			// load the file content into the input stream
+		    is = new FileInputStream(fileName);		    
+		} catch (FileNotFoundException ex) {
+		    return null;
+		}
+		try {
+			// load the properties from the input stream
+		    prop.load(is);
+		    return prop;
+		} catch (IOException ex) {
+		    
+		}		
+		
+		return null;
+	}
+}
@@ -0,0 +1,102 @@
+package com.tugboatlogic.sample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * This class writes everything written to it to two destinations at once, so a document only has to be serialized
+ * once to be both uploaded and saved locally.
+ *
+ * The primary destination is the one which matters (e.g. the document to upload), while the copy is a best effort
+ * (e.g. the optional local copy): if writing the copy fails, the copy is abandoned and the failure is kept for the
+ * caller to report, but the primary destination still receives the whole document.
+ *
+ * Closing the tee closes the copy, but only flushes the primary destination, which the caller goes on to use (e.g. to
+ * upload the document from it).
+ */
+public class TeeOutputStream extends OutputStream {
+	private final OutputStream primary;
+	private OutputStream copy;
+	private IOException copyFailure;
+
+	/*
+	 * @param primary The destination which must receive the whole document
+	 * @param copy The destination which receives a best effort copy of the document, or null for none
+	 */
+	public TeeOutputStream(OutputStream primary, OutputStream copy) {
+		this.primary = primary;
+		this.copy = copy;
+	}
+
+	/*
+	 * Returns the failure which caused the copy to be abandoned, or null if the copy was written successfully
+	 */
+	public IOException CopyFailure() {
+		return copyFailure;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		primary.write(b);
+		if (copy != null) {
+			try {
+				copy.write(b);
+			} catch (IOException e) {
+				AbandonCopy(e);
+			}
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		primary.write(b, off, len);
+		if (copy != null) {
+			try {
+				copy.write(b, off, len);
+			} catch (IOException e) {
+				AbandonCopy(e);
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		primary.flush();
+		if (copy != null) {
+			try {
+				copy.flush();
+			} catch (IOException e) {
+				AbandonCopy(e);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			primary.flush();
+		} finally {
+			if (copy != null) {
+				try {
+					copy.close();
+				} catch (IOException e) {
+					copyFailure = e;
+				}
+				copy = null;
+			}
+		}
+	}
+
+	/*
+	 * This helper method stops writing the copy after it has failed
+	 */
+	private void AbandonCopy(IOException failure) {
+		copyFailure = failure;
+		try {
+			copy.close();
+		} catch (IOException e) {
+			failure.addSuppressed(e);
+		}
+		copy = null;
+	}
+}
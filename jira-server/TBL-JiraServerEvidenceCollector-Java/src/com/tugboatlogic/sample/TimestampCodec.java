@@ -0,0 +1,402 @@
+package com.tugboatlogic.sample;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+
+/*
+ * This class parses and formats the timestamps returned by Github Enterprise Server and Jira Server, and is shared by
+ * every thread of the collector.
+ *
+ * Both return ISO-8601 timestamps in a handful of variants: 2021-05-01T10:00:00Z from Github Enterprise Server, and
+ * 2021-05-01T10:00:00.000+0000 from Jira Server. Those variants are parsed by a hand-written fast path, rather than by
+ * a DateTimeFormatter, into a timestamp packed into a single long (its local date and time, milliseconds and offset),
+ * so no object is allocated. Any other variant falls back to a lenient DateTimeFormatter.
+ *
+ * The same timestamps come back again and again (e.g. the creation date of a pull request is shared by its details and
+ * its first comment, and dates repeat across the pages of a run), so the most recently parsed values are kept in a small
+ * cache keyed by the text of the timestamp. The formatted timestamps are written straight into the caller's buffer.
+ */
+public final class TimestampCodec {
+	// the timestamp which stands for a missing value
+	public static final long NONE = -1;
+
+	// the layout of a packed timestamp, from the lowest bits: the offset in minutes (biased so it is never negative),
+	// milliseconds, seconds, minutes, hours, day, month and year, the year is kept below 2^15 so a timestamp is never negative
+	private static final int OFFSET_BITS = 12;
+	private static final int OFFSET_BIAS = 1 << (OFFSET_BITS - 1);
+	private static final int MILLIS_SHIFT = OFFSET_BITS;
+	private static final int SECOND_SHIFT = MILLIS_SHIFT + 10;
+	private static final int MINUTE_SHIFT = SECOND_SHIFT + 6;
+	private static final int HOUR_SHIFT = MINUTE_SHIFT + 6;
+	private static final int DAY_SHIFT = HOUR_SHIFT + 5;
+	private static final int MONTH_SHIFT = DAY_SHIFT + 5;
+	private static final int YEAR_SHIFT = MONTH_SHIFT + 4;
+	private static final int MAX_YEAR = (1 << 15) - 1;
+
+	// the largest offset allowed by ISO-8601, in minutes
+	private static final int MAX_OFFSET_MINUTES = 18 * 60;
+
+	// the number of days from 0000-03-01 to 1970-01-01, and from the Excel epoch (1899-12-30) to 1970-01-01
+	private static final long DAYS_0000_TO_1970 = (146097 * 5L) - (30L * 365L + 7L);
+	private static final long EXCEL_EPOCH_TO_1970 = 25569;
+
+	// the number of entries in the cache of parsed timestamps, a power of two
+	private static final int CACHE_SIZE = 1024;
+
+	// parses the variants which the fast path does not handle, a missing offset is taken as UTC
+	private static final DateTimeFormatter LENIENT_FORMAT = new DateTimeFormatterBuilder()
+			.parseCaseInsensitive()
+			.append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+			.optionalStart().appendOffset("+HH:MM:ss", "Z").optionalEnd()
+			.optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+			.parseDefaulting(ChronoField.OFFSET_SECONDS, 0)
+			.toFormatter()
+			.withResolverStyle(ResolverStyle.STRICT);
+
+	/*
+	 * A cached timestamp, the entries are immutable so they can be shared between threads without locking
+	 */
+	private static final class CacheEntry {
+		final String text;
+		final long timestamp;
+
+		CacheEntry(String text, long timestamp) {
+			this.text = text;
+			this.timestamp = timestamp;
+		}
+	}
+
+	// the most recently parsed timestamps, indexed by the hash of their text
+	private static final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+
+	private TimestampCodec() {
+	}
+
+	/*
+	 * Parses a timestamp
+	 *
+	 * @param text The ISO-8601 timestamp, e.g. 2021-05-01T10:00:00Z or 2021-05-01T10:00:00.000+0000
+	 * @return Returns the packed timestamp, or NONE when the text is null or empty
+	 * @throws DateTimeException if the text is not a valid timestamp
+	 */
+	public static long Parse(String text) {
+		if (text == null || text.isEmpty())
+			return NONE;
+
+		// a hit on the cache costs a hash lookup and a comparison, without any allocation
+		int slot = text.hashCode() & (CACHE_SIZE - 1);
+		CacheEntry entry = cache[slot];
+		if (entry != null && entry.text.equals(text))
+			return entry.timestamp;
+
+		long timestamp = ParseUncached(text);
+		cache[slot] = new CacheEntry(text, timestamp);
+		return timestamp;
+	}
+
+	/*
+	 * Writes a timestamp converted to UTC, e.g. 2021-05-01T10:00:00Z, nothing is written for NONE
+	 */
+	public static void AppendUtc(long timestamp, StringBuilder out) {
+		if (timestamp == NONE)
+			return;
+
+		int year = Year(timestamp);
+		int month = Month(timestamp);
+		int day = Day(timestamp);
+		int secondOfDay = Hour(timestamp) * 3600 + Minute(timestamp) * 60 + Second(timestamp) - OffsetMinutes(timestamp) * 60;
+
+		// the offset may move the timestamp to the previous or the next day
+		if (secondOfDay < 0 || secondOfDay >= 86400) {
+			long epochDay = EpochDay(year, month, day) + Math.floorDiv(secondOfDay, 86400);
+			secondOfDay = Math.floorMod(secondOfDay, 86400);
+			long date = DateOfEpochDay(epochDay);
+			year = (int) (date >> 9);
+			month = (int) (date >> 5) & 0xF;
+			day = (int) date & 0x1F;
+		}
+
+		AppendDate(out, year, month, day);
+		out.append('T');
+		AppendTime(out, secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60);
+		out.append('Z');
+	}
+
+	/*
+	 * Writes a timestamp with its own offset, e.g. 2021-05-01T10:00:00+0000, nothing is written for NONE
+	 */
+	public static void AppendWithOffset(long timestamp, StringBuilder out) {
+		if (timestamp == NONE)
+			return;
+
+		AppendDate(out, Year(timestamp), Month(timestamp), Day(timestamp));
+		out.append('T');
+		AppendTime(out, Hour(timestamp), Minute(timestamp), Second(timestamp));
+
+		int offset = OffsetMinutes(timestamp);
+		out.append(offset < 0 ? '-' : '+');
+		offset = Math.abs(offset);
+		AppendTwoDigits(out, offset / 60);
+		AppendTwoDigits(out, offset % 60);
+	}
+
+	/*
+	 * Returns a timestamp as an Excel date serial number, keeping its local date and time (as shown by the server), for
+	 * the dates after 1900 which Excel numbers consistently
+	 */
+	public static double ToExcelDate(long timestamp) {
+		long days = EpochDay(Year(timestamp), Month(timestamp), Day(timestamp)) + EXCEL_EPOCH_TO_1970;
+		long millisOfDay = ((Hour(timestamp) * 60L + Minute(timestamp)) * 60 + Second(timestamp)) * 1000 + Millis(timestamp);
+		// add the parts in the same order as POI does (which counts from 1899-12-31 and adds the 29th of February 1900
+		// afterwards), so the cells hold exactly the same values as those written from a LocalDateTime
+		double date = millisOfDay / 86_400_000.0 + (days - 1);
+		return date + 1;
+	}
+
+	/*
+	 * Returns a timestamp as a LocalDateTime, keeping its local date and time, or null for NONE
+	 */
+	public static LocalDateTime ToLocalDateTime(long timestamp) {
+		if (timestamp == NONE)
+			return null;
+
+		return LocalDateTime.of(Year(timestamp), Month(timestamp), Day(timestamp), Hour(timestamp), Minute(timestamp), Second(timestamp), Millis(timestamp) * 1_000_000);
+	}
+
+	/*
+	 * Returns a timestamp as an OffsetDateTime, or null for NONE
+	 */
+	public static OffsetDateTime ToOffsetDateTime(long timestamp) {
+		if (timestamp == NONE)
+			return null;
+
+		return OffsetDateTime.of(ToLocalDateTime(timestamp), ZoneOffset.ofTotalSeconds(OffsetMinutes(timestamp) * 60));
+	}
+
+	/*
+	 * Returns the number of milliseconds from 1970-01-01T00:00:00Z to a timestamp
+	 */
+	public static long EpochMillis(long timestamp) {
+		long epochDay = EpochDay(Year(timestamp), Month(timestamp), Day(timestamp));
+		long secondOfDay = (Hour(timestamp) * 60L + Minute(timestamp) - OffsetMinutes(timestamp)) * 60 + Second(timestamp);
+		return (epochDay * 86400 + secondOfDay) * 1000 + Millis(timestamp);
+	}
+
+	/*
+	 * This helper method parses a timestamp, through the fast path when it is one of the variants we expect
+	 */
+	private static long ParseUncached(String text) {
+		int length = text.length();
+		if (length >= 20 && text.charAt(4) == '-' && text.charAt(7) == '-' && (text.charAt(10) == 'T' || text.charAt(10) == 't')
+				&& text.charAt(13) == ':' && text.charAt(16) == ':') {
+			int year = Digits(text, 0, 4);
+			int month = Digits(text, 5, 2);
+			int day = Digits(text, 8, 2);
+			int hour = Digits(text, 11, 2);
+			int minute = Digits(text, 14, 2);
+			int second = Digits(text, 17, 2);
+
+			// the optional fraction of a second, of which we keep the milliseconds
+			int position = 19;
+			int millis = 0;
+			int fractionDigits = 0;
+			if (text.charAt(position) == '.') {
+				position++;
+				while (position < length && IsDigit(text.charAt(position))) {
+					if (fractionDigits < 3)
+						millis = millis * 10 + (text.charAt(position) - '0');
+					fractionDigits++;
+					position++;
+				}
+				for (int i = fractionDigits; i < 3; i++)
+					millis *= 10;
+			}
+
+			// the offset: Z, +HH, +HHMM or +HH:MM
+			int offset = Integer.MIN_VALUE;
+			if (position < length) {
+				char sign = text.charAt(position);
+				int remaining = length - position - 1;
+				if ((sign == 'Z' || sign == 'z') && remaining == 0) {
+					offset = 0;
+				} else if (sign == '+' || sign == '-') {
+					int offsetHours = remaining >= 2 ? Digits(text, position + 1, 2) : -1;
+					int offsetMinutes = remaining == 2 ? 0
+							: remaining == 4 ? Digits(text, position + 3, 2)
+							: remaining == 5 && text.charAt(position + 3) == ':' ? Digits(text, position + 4, 2)
+							: -1;
+					if (offsetHours >= 0 && offsetMinutes >= 0 && offsetMinutes < 60)
+						offset = (sign == '-' ? -1 : 1) * (offsetHours * 60 + offsetMinutes);
+				}
+			}
+
+			boolean valid = year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= DaysInMonth(year, month)
+					&& hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60
+					&& (text.charAt(19) != '.' || fractionDigits > 0)
+					&& offset != Integer.MIN_VALUE && Math.abs(offset) <= MAX_OFFSET_MINUTES;
+			if (valid)
+				return Pack(year, month, day, hour, minute, second, millis, offset);
+		}
+
+		// any other variant goes through the lenient formatter, which also reports what is wrong with an invalid timestamp
+		OffsetDateTime parsed = OffsetDateTime.parse(text, LENIENT_FORMAT);
+		int offsetSeconds = parsed.getOffset().getTotalSeconds();
+		if (offsetSeconds % 60 != 0)
+			parsed = parsed.withOffsetSameInstant(ZoneOffset.UTC);
+		if (parsed.getYear() < 0 || parsed.getYear() > MAX_YEAR)
+			throw new DateTimeException("The year of the timestamp is out of range: " + text);
+
+		return Pack(parsed.getYear(), parsed.getMonthValue(), parsed.getDayOfMonth(), parsed.getHour(), parsed.getMinute(), parsed.getSecond(),
+				parsed.getNano() / 1_000_000, parsed.getOffset().getTotalSeconds() / 60);
+	}
+
+	private static long Pack(int year, int month, int day, int hour, int minute, int second, int millis, int offsetMinutes) {
+		return ((long) year << YEAR_SHIFT) | ((long) month << MONTH_SHIFT) | ((long) day << DAY_SHIFT) | ((long) hour << HOUR_SHIFT)
+				| ((long) minute << MINUTE_SHIFT) | ((long) second << SECOND_SHIFT) | ((long) millis << MILLIS_SHIFT) | (offsetMinutes + OFFSET_BIAS);
+	}
+
+	/*
+	 * Returns the year of a timestamp, in its own offset
+	 */
+	public static int Year(long timestamp) {
+		return (int) (timestamp >>> YEAR_SHIFT);
+	}
+
+	private static int Month(long timestamp) {
+		return (int) (timestamp >>> MONTH_SHIFT) & 0xF;
+	}
+
+	private static int Day(long timestamp) {
+		return (int) (timestamp >>> DAY_SHIFT) & 0x1F;
+	}
+
+	private static int Hour(long timestamp) {
+		return (int) (timestamp >>> HOUR_SHIFT) & 0x1F;
+	}
+
+	private static int Minute(long timestamp) {
+		return (int) (timestamp >>> MINUTE_SHIFT) & 0x3F;
+	}
+
+	private static int Second(long timestamp) {
+		return (int) (timestamp >>> SECOND_SHIFT) & 0x3F;
+	}
+
+	private static int Millis(long timestamp) {
+		return (int) (timestamp >>> MILLIS_SHIFT) & 0x3FF;
+	}
+
+	private static int OffsetMinutes(long timestamp) {
+		return (int) (timestamp & ((1 << OFFSET_BITS) - 1)) - OFFSET_BIAS;
+	}
+
+	/*
+	 * This helper method reads a number of decimal digits, returning -1 if any of them is not a digit
+	 */
+	private static int Digits(String text, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = text.charAt(i);
+			if (!IsDigit(c))
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static boolean IsDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean IsLeapYear(int year) {
+		return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	private static int DaysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return IsLeapYear(year) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/*
+	 * This helper method returns the number of days from 1970-01-01 to a date, as LocalDate.toEpochDay does
+	 */
+	private static long EpochDay(int year, int month, int day) {
+		long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+		total += (367 * month - 362) / 12;
+		total += day - 1;
+		if (month > 2) {
+			total--;
+			if (!IsLeapYear(year))
+				total--;
+		}
+		return total - DAYS_0000_TO_1970;
+	}
+
+	/*
+	 * This helper method returns the date of a number of days from 1970-01-01, as LocalDate.ofEpochDay does, packed as
+	 * the year, month (4 bits) and day (5 bits)
+	 */
+	private static long DateOfEpochDay(long epochDay) {
+		long zeroDay = epochDay + DAYS_0000_TO_1970;
+		zeroDay -= 60;
+		long adjust = 0;
+		if (zeroDay < 0) {
+			long adjustCycles = (zeroDay + 1) / 146097 - 1;
+			adjust = adjustCycles * 400;
+			zeroDay += -adjustCycles * 146097;
+		}
+		long yearEstimate = (400 * zeroDay + 591) / 146097;
+		long dayOfYearEstimate = zeroDay - (365 * yearEstimate + yearEstimate / 4 - yearEstimate / 100 + yearEstimate / 400);
+		if (dayOfYearEstimate < 0) {
+			yearEstimate--;
+			dayOfYearEstimate = zeroDay - (365 * yearEstimate + yearEstimate / 4 - yearEstimate / 100 + yearEstimate / 400);
+		}
+		yearEstimate += adjust;
+		int marchDayOfYear = (int) dayOfYearEstimate;
+		int marchMonth = (marchDayOfYear * 5 + 2) / 153;
+		int month = (marchMonth + 2) % 12 + 1;
+		int day = marchDayOfYear - (marchMonth * 306 + 5) / 10 + 1;
+		yearEstimate += marchMonth / 10;
+		return (yearEstimate << 9) | (month << 5) | day;
+	}
+
+	private static void AppendDate(StringBuilder out, int year, int month, int day) {
+		if (year < 1000) {
+			AppendTwoDigits(out, year / 100);
+			AppendTwoDigits(out, year % 100);
+		} else {
+			out.append(year);
+		}
+		out.append('-');
+		AppendTwoDigits(out, month);
+		out.append('-');
+		AppendTwoDigits(out, day);
+	}
+
+	private static void AppendTime(StringBuilder out, int hour, int minute, int second) {
+		AppendTwoDigits(out, hour);
+		out.append(':');
+		AppendTwoDigits(out, minute);
+		out.append(':');
+		AppendTwoDigits(out, second);
+	}
+
+	private static void AppendTwoDigits(StringBuilder out, int value) {
+		out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+	}
+}
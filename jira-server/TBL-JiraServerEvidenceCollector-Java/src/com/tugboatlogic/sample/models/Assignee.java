@@ -1,6 +1,6 @@
-package com.tugboatlogic.sample.models;
-
-public class Assignee
-{
-    public String displayName;
+package com.tugboatlogic.sample.models;
+
+public class Assignee
+{
+    public String displayName;
 }
\ No newline at end of file
@@ -1,13 +1,13 @@
-package com.tugboatlogic.sample.models;
-
-public class Fields
-{
-    public String summary;
-    public IssueType issuetype;
-    public String resolutiondate;
-    public String created;
-    public Project project;
-    public Reporter reporter;
-    public Assignee assignee;
-    public Status status;
+package com.tugboatlogic.sample.models;
+
+public class Fields
+{
+    public String summary;
+    public IssueType issuetype;
+    public String resolutiondate;
+    public String created;
+    public Project project;
+    public Reporter reporter;
+    public Assignee assignee;
+    public Status status;
 }
\ No newline at end of file
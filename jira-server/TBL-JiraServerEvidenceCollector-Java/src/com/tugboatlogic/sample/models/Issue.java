@@ -1,8 +1,8 @@
-package com.tugboatlogic.sample.models;
-
-public class Issue
-{
-    public String key;
-    public Fields fields;
-    public String self;
+package com.tugboatlogic.sample.models;
+
+public class Issue
+{
+    public String key;
+    public Fields fields;
+    public String self;
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
-package com.tugboatlogic.sample.models;
-
-public class IssueType
-{
-    public String name;
+package com.tugboatlogic.sample.models;
+
+public class IssueType
+{
+    public String name;
 }
\ No newline at end of file
@@ -1,9 +1,11 @@
-package com.tugboatlogic.sample.models;
-
-import java.util.List;
-
-public class JiraQueryResponseModel
-{
-    public int total;
-    public List<Issue> issues;   
-}
+package com.tugboatlogic.sample.models;
+
+import java.util.List;
+
+public class JiraQueryResponseModel
+{
+    public int startAt;
+    public int maxResults;
+    public int total;
+    public List<Issue> issues;   
+}
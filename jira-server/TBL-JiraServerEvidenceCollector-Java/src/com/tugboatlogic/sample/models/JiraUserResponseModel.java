@@ -0,0 +1,7 @@
+package com.tugboatlogic.sample.models;
+
+public class JiraUserResponseModel
+{
+    public String name;
+    public String timeZone;
+}
@@ -1,6 +1,6 @@
-package com.tugboatlogic.sample.models;
-
-public class Project
-{
-    public String name;
+package com.tugboatlogic.sample.models;
+
+public class Project
+{
+    public String name;
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
-package com.tugboatlogic.sample.models;
-
-public class Reporter
-{
-    public String displayName;
-}
+package com.tugboatlogic.sample.models;
+
+public class Reporter
+{
+    public String displayName;
+}
@@ -1,6 +1,6 @@
-package com.tugboatlogic.sample.models;
-
-public class Status
-{
-    public String name;
-}
+package com.tugboatlogic.sample.models;
+
+public class Status
+{
+    public String name;
+}
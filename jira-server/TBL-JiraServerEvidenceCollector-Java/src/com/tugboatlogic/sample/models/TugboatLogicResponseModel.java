@@ -1,5 +1,5 @@
-package com.tugboatlogic.sample.models;
-
-public class TugboatLogicResponseModel {
-	public int id;
-}
+package com.tugboatlogic.sample.models;
+
+public class TugboatLogicResponseModel {
+	public int id;
+}
@@ -1,6 +1,9 @@
-module SampleApp_JiraServer {
-	requires com.fasterxml.jackson.databind;
-	requires org.apache.poi.poi;
-	requires org.apache.poi.ooxml;
-	exports com.tugboatlogic.sample.models;
+module SampleApp_JiraServer {
+	requires com.fasterxml.jackson.databind;
+	requires java.net.http;
+	requires jdk.httpserver;
+	requires jdk.jfr;
+	requires org.apache.poi.poi;
+	requires org.apache.poi.ooxml;
+	exports com.tugboatlogic.sample.models;
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.tugboatlogic.sample.stub;
+
+import java.util.Random;
+
+/*
+ * This class is the distribution of the latency the stub server adds to each response of a service, so that the
+ * collectors can be measured against a server which behaves like a loaded production instance rather than a local one.
+ *
+ * A distribution is configured with one of the following, where every value is in milliseconds:
+ *
+ * - none: no added latency (the default)
+ * - fixed:20: the same latency for every response
+ * - uniform:5,50: a latency spread evenly between the two bounds
+ * - exponential:20: a latency with the given mean, mostly short with an occasional long one
+ * - lognormal:20,250: a latency with the given median and 99th percentile, the long tail seen on real servers
+ */
+public class LatencyDistribution {
+	// the 99th percentile of the standard normal distribution, used to derive the spread of a log-normal distribution
+	private static final double Z_99 = 2.3263478740408408;
+
+	private enum Kind { None, Fixed, Uniform, Exponential, LogNormal }
+
+	private final Kind kind;
+	private final double first;
+	private final double second;
+	private final String description;
+
+	private LatencyDistribution(Kind kind, double first, double second, String description) {
+		this.kind = kind;
+		this.first = first;
+		this.second = second;
+		this.description = description;
+	}
+
+	/*
+	 * Parses a distribution from its description, e.g. lognormal:20,250
+	 */
+	public static LatencyDistribution Parse(String description) {
+		String value = description == null ? "" : description.trim();
+		if (value.isEmpty() || value.equalsIgnoreCase("none"))
+			return new LatencyDistribution(Kind.None, 0, 0, "none");
+
+		int colon = value.indexOf(':');
+		String name = colon < 0 ? value : value.substring(0, colon).trim();
+		String[] parameters = colon < 0 ? new String[0] : value.substring(colon + 1).split(",");
+		try {
+			switch (name.toLowerCase()) {
+			case "fixed":
+				return new LatencyDistribution(Kind.Fixed, Milliseconds(parameters, 0), 0, value);
+			case "uniform":
+				return new LatencyDistribution(Kind.Uniform, Milliseconds(parameters, 0), Milliseconds(parameters, 1), value);
+			case "exponential":
+				return new LatencyDistribution(Kind.Exponential, Milliseconds(parameters, 0), 0, value);
+			case "lognormal":
+				// the median is the exponent of the mean of the underlying normal distribution, and the spread is
+				// derived from how far the 99th percentile lies above the median
+				double median = Milliseconds(parameters, 0);
+				double p99 = Milliseconds(parameters, 1);
+				if (median <= 0 || p99 < median)
+					throw new IllegalArgumentException("the median must be positive and at most the 99th percentile");
+				return new LatencyDistribution(Kind.LogNormal, Math.log(median), Math.log(p99 / median) / Z_99, value);
+			default:
+				throw new IllegalArgumentException("unknown distribution " + name);
+			}
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException(String.format("Invalid latency distribution '%s' (expected none, fixed:ms, uniform:min,max, exponential:mean or lognormal:median,p99): %s", value, e.getMessage()), e);
+		}
+	}
+
+	/*
+	 * Draws the latency of one response, in nanoseconds
+	 */
+	public long Sample(Random random) {
+		double milliseconds;
+		switch (kind) {
+		case Fixed:
+			milliseconds = first;
+			break;
+		case Uniform:
+			milliseconds = first + random.nextDouble() * (second - first);
+			break;
+		case Exponential:
+			milliseconds = -first * Math.log(1 - random.nextDouble());
+			break;
+		case LogNormal:
+			milliseconds = Math.exp(first + second * random.nextGaussian());
+			break;
+		default:
+			return 0;
+		}
+		return (long) (Math.max(0, milliseconds) * 1_000_000);
+	}
+
+	/*
+	 * Whether the distribution adds any latency at all
+	 */
+	public boolean IsNone() {
+		return kind == Kind.None;
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+	private static double Milliseconds(String[] parameters, int index) {
+		if (index >= parameters.length)
+			throw new IllegalArgumentException("missing parameter " + (index + 1));
+		double value = Double.parseDouble(parameters[index].trim());
+		if (value < 0)
+			throw new IllegalArgumentException("negative latency " + value);
+		return value;
+	}
+}
@@ -0,0 +1,114 @@
+package com.tugboatlogic.sample.stub;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * This class is a histogram of latencies, which keeps a fixed number of buckets no matter how many latencies are
+ * recorded, so that the percentiles of a run of a million requests cost as little memory as those of a run of ten.
+ *
+ * The latencies are recorded in microseconds: below 64 microseconds every value has a bucket of its own, above that each power of
+ * two is split into 64 buckets, so a percentile is accurate to within about 1.5%. Recording is lock free, so the
+ * handlers of the stub server record their latencies concurrently.
+ */
+public class LatencyHistogram {
+	// the number of buckets each power of two is split into
+	private static final int SUB_BUCKETS = 64;
+	private static final int SUB_BUCKET_BITS = 6;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/*
+	 * Records a latency, in nanoseconds
+	 */
+	public void Record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		buckets.incrementAndGet(Index(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	/*
+	 * Adds the latencies of another histogram to this one
+	 */
+	public void Add(LatencyHistogram other) {
+		for (int i = 0; i < buckets.length(); i++) {
+			long value = other.buckets.get(i);
+			if (value != 0)
+				buckets.addAndGet(i, value);
+		}
+		count.addAndGet(other.count.get());
+		totalMicros.addAndGet(other.totalMicros.get());
+		maxMicros.accumulateAndGet(other.maxMicros.get(), Math::max);
+	}
+
+	public long Count() {
+		return count.get();
+	}
+
+	/*
+	 * Returns the mean latency, in milliseconds
+	 */
+	public double Mean() {
+		long n = count.get();
+		return n == 0 ? 0 : totalMicros.get() / 1000.0 / n;
+	}
+
+	/*
+	 * Returns the highest latency recorded, in milliseconds
+	 */
+	public double Max() {
+		return maxMicros.get() / 1000.0;
+	}
+
+	/*
+	 * Returns the latency which the given percentage of the latencies are at or below, in milliseconds
+	 */
+	public double Percentile(double percentile) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(UpperBound(i), maxMicros.get()) / 1000.0;
+		}
+		return Max();
+	}
+
+	/*
+	 * Returns a one-line summary of the latencies
+	 */
+	public String Summary() {
+		return String.format("%d requests, mean %.1f ms, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms", Count(), Mean(), Percentile(50), Percentile(90), Percentile(99), Max());
+	}
+
+	/*
+	 * Returns the bucket of a latency
+	 */
+	private static int Index(long micros) {
+		if (micros < SUB_BUCKETS)
+			return (int) micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((micros >>> shift) - SUB_BUCKETS);
+	}
+
+	/*
+	 * Returns the highest latency which falls into a bucket
+	 */
+	private static long UpperBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,1013 @@
+package com.tugboatlogic.sample.stub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * This class is a local stub of the servers the evidence collectors talk to, so that the collectors can be load tested
+ * without touching a production Github Enterprise Server, Jira Server or Tugboat Logic. It serves the endpoints the
+ * helpers call:
+ *
+ * - GET /api/v3/search/issues, filtered on the repo: and updated:from..to qualifiers and paginated with Link headers
+ * - GET /api/v3/orgs/{org}/repos, the repositories of an organization, paginated
+ * - GET /api/v3/repos/{owner}/{repo}/pulls/{number}, with an ETag which the HTTP cache of the collector revalidates
+ * - GET /api/v3/repos/{owner}/{repo}/issues/{number}/comments and .../pulls/{number}/reviews, paginated
+ * - GET /rest/api/2/search, filtered on the project, created and resolved clauses of the JQL query, paginated with startAt
+ * - GET /rest/api/2/myself, the user running the JQL queries, along with the time zone their dates are read in
+ * - POST /api/v0/evidence/collector/{id}/, the multipart evidence upload, which is read in full and checked
+ *
+ * The records are generated on the fly by SyntheticData, so the scale is set by a setting. Each of the three services
+ * can be made to behave like a loaded server: a latency drawn from a distribution is added to every response, a
+ * fraction of the requests fail with an error status, and a rate limit budget is reported in the rate limit headers and
+ * enforced (403 for Github Enterprise Server, 429 with Retry-After for the others), along with a limit on the requests in
+ * flight (the secondary rate limit of Github Enterprise Server). Every setting is read from the properties given to the
+ * constructor, see the README for the list.
+ *
+ * Like the real servers, the stub gzip compresses the responses of the clients which accept it (Accept-Encoding: gzip),
+ * and the bytes out counted for each endpoint are those sent over the wire.
+ *
+ * The server is embeddable: a benchmark creates it, calls Start, points a collector at Url, and reads the latency
+ * histogram and counters of each endpoint once the collector is done. Run on its own (main), it reads stub.config.
+ */
+public class StubServer implements AutoCloseable {
+	/*
+	 * The endpoints served by the stub server, along with the service each of them belongs to
+	 */
+	public enum Endpoint {
+		GitHubSearch("GHES search/issues", Service.GitHub),
+		GitHubPullRequest("GHES pulls/{number}", Service.GitHub),
+		GitHubComments("GHES issues/{number}/comments", Service.GitHub),
+		GitHubReviews("GHES pulls/{number}/reviews", Service.GitHub),
+		GitHubRepositories("GHES orgs/{org}/repos", Service.GitHub),
+		JiraSearch("Jira rest/api/2/search", Service.Jira),
+		JiraMyself("Jira rest/api/2/myself", Service.Jira),
+		TugboatUpload("Tugboat evidence upload", Service.Tugboat),
+		NotFound("not found", null);
+
+		final String description;
+		final Service service;
+
+		Endpoint(String description, Service service) {
+			this.description = description;
+			this.service = service;
+		}
+
+		public String Description() {
+			return description;
+		}
+	}
+
+	/*
+	 * The services stubbed by the server, each with its own latency, errors and rate limits
+	 */
+	public enum Service {
+		GitHub, Jira, Tugboat
+	}
+
+	/*
+	 * The counters of an endpoint, which are reset by ResetStatistics
+	 */
+	public static class EndpointStatistics {
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong records = new AtomicLong();
+		final AtomicLong bytesIn = new AtomicLong();
+		final AtomicLong bytesOut = new AtomicLong();
+		final AtomicLong notModified = new AtomicLong();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong throttled = new AtomicLong();
+
+		// the latency of each response, from the moment the request was received until the response was sent
+		public LatencyHistogram Latency() {
+			return latency;
+		}
+
+		// the records served (pull requests, comments, reviews or issues), or the evidence files uploaded
+		public long Records() {
+			return records.get();
+		}
+
+		public long BytesIn() {
+			return bytesIn.get();
+		}
+
+		public long BytesOut() {
+			return bytesOut.get();
+		}
+
+		public long NotModified() {
+			return notModified.get();
+		}
+
+		// the injected errors
+		public long Errors() {
+			return errors.get();
+		}
+
+		// the responses refused by the rate limits
+		public long Throttled() {
+			return throttled.get();
+		}
+	}
+
+	/*
+	 * The behaviour of a stubbed service, read from the settings prefixed with its name, e.g. StubGitHubLatency
+	 */
+	private static class Behaviour {
+		final LatencyDistribution latency;
+		final double errorRate;
+		final int[] errorStatuses;
+		final int rateLimit;
+		final long rateLimitWindowSeconds;
+		final int maxInFlight;
+
+		final AtomicInteger inFlight = new AtomicInteger();
+		private long window = -1;
+		private int used;
+
+		Behaviour(Properties properties, Service service) {
+			String prefix = "Stub" + service.name();
+			latency = LatencyDistribution.Parse(properties.getProperty(prefix + "Latency", "none"));
+			errorRate = Double.parseDouble(properties.getProperty(prefix + "ErrorRate", "0"));
+			errorStatuses = Arrays.stream(properties.getProperty(prefix + "ErrorStatuses", "502,503").split(",")).mapToInt(status -> Integer.parseInt(status.trim())).toArray();
+			rateLimit = Integer.parseInt(properties.getProperty(prefix + "RateLimit", "0"));
+			rateLimitWindowSeconds = Math.max(1, Long.parseLong(properties.getProperty(prefix + "RateLimitWindowSeconds", "3600")));
+			maxInFlight = Integer.parseInt(properties.getProperty(prefix + "MaxInFlight", "0"));
+		}
+
+		/*
+		 * Spends one request of the rate limit budget of the current window, returning the requests remaining in it
+		 * (negative once the budget is exhausted) and the end of the window
+		 */
+		synchronized long[] Spend(long startEpochSecond) {
+			long now = Instant.now().getEpochSecond();
+			long current = (now - startEpochSecond) / rateLimitWindowSeconds;
+			if (current != window) {
+				window = current;
+				used = 0;
+			}
+			used++;
+			return new long[] { rateLimit - used, startEpochSecond + (current + 1) * rateLimitWindowSeconds, used };
+		}
+	}
+
+	/*
+	 * A response to send, once the latency of the service has passed
+	 */
+	private static class Response {
+		final int status;
+		final Map<String, String> headers = new HashMap<>();
+		final byte[] body;
+
+		Response(int status, byte[] body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		Response Header(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+	}
+
+	// the largest page Github Enterprise Server serves
+	private static final int GITHUB_MAX_PAGE_SIZE = 100;
+
+	// matches the pull request endpoints, capturing the repository, the number and what is asked of the pull request
+	private static final Pattern PULL_REQUEST_PATTERN = Pattern.compile("^/api/v3/repos/([^/]+/[^/]+)/(pulls|issues)/(\\d+)(/comments|/reviews)?/?$");
+
+	// matches the repositories endpoint of an organization, capturing the organization
+	private static final Pattern REPOSITORIES_PATTERN = Pattern.compile("^/api/v3/orgs/([^/]+)/repos/?$");
+
+	// matches the repo qualifier of a search query, e.g. repo:contoso/platform
+	private static final Pattern REPO_PATTERN = Pattern.compile("(?:^|\\s)repo:([^\\s]+)");
+
+	// matches the updated qualifier of a search query, e.g. updated:2021-01-01..2021-03-31 or updated:>=2021-01-01T00:00:00Z
+	private static final Pattern UPDATED_PATTERN = Pattern.compile("updated:(?:(>=|>|<=|<)?([0-9T:\\-Z*]+))(?:\\.\\.([0-9T:\\-Z*]+))?");
+
+	// matches a date clause of a JQL query, e.g. created >= "2021/01/01 00:00" or resolved >= -90d
+	private static final Pattern JQL_DATE_PATTERN = Pattern.compile("(created|resolved|resolutiondate)\\s*(>=|<=|>|<|=)\\s*(?:\"([^\"]+)\"|'([^']+)'|(-?\\d+[mhdw]))", Pattern.CASE_INSENSITIVE);
+
+	// matches the project clause of a JQL query, e.g. project = Platform or project in (PLA, "Payments")
+	private static final Pattern JQL_PROJECT_PATTERN = Pattern.compile("project\\s*(?:=\\s*(\"[^\"]+\"|'[^']+'|[\\w-]+)|in\\s*\\(([^)]*)\\))", Pattern.CASE_INSENSITIVE);
+
+	// matches the ORDER BY clause of a JQL query
+	private static final Pattern JQL_ORDER_PATTERN = Pattern.compile("ORDER\\s+BY\\s+(\\w+)(?:\\s+(ASC|DESC))?", Pattern.CASE_INSENSITIVE);
+
+	// matches the boundary of a multipart content type
+	private static final Pattern BOUNDARY_PATTERN = Pattern.compile("boundary=\"?([^\";]+)\"?");
+
+	// the date formats accepted within JQL queries, in the time zone of the user running the query
+	private static final DateTimeFormatter[] JQL_DATE_FORMATS = { DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm"), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm") };
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private final Properties properties;
+	private final SyntheticData data;
+	private final Map<Service, Behaviour> behaviours = new EnumMap<>(Service.class);
+	private final int githubSearchLimit;
+	private final int jiraMaxResults;
+	private final ZoneId jiraTimeZone;
+	private final int gzipMinBytes;
+	private final long startEpochSecond = Instant.now().getEpochSecond();
+
+	// the evidence files uploaded so far, keyed by their idempotency key
+	private final Map<String, Integer> uploads = new ConcurrentHashMap<>();
+	private final AtomicInteger uploadIds = new AtomicInteger();
+	private final AtomicLong repeatedUploads = new AtomicLong();
+
+	// the System.nanoTime at which the first request arrived, 0 until it has
+	private final AtomicLong firstRequestNanos = new AtomicLong();
+
+	private volatile Map<Endpoint, EndpointStatistics> statistics;
+	private HttpServer server;
+	private ExecutorService executor;
+	private String url;
+
+	/*
+	 * Creates the stub server from its settings, it is started by Start
+	 */
+	public StubServer(Properties properties) {
+		this.properties = properties;
+		this.data = new SyntheticData(properties);
+		for (Service service : Service.values())
+			behaviours.put(service, new Behaviour(properties, service));
+		this.githubSearchLimit = Integer.parseInt(properties.getProperty("StubGitHubSearchLimit", "0"));
+		this.jiraMaxResults = Integer.parseInt(properties.getProperty("StubJiraMaxResults", "1000"));
+		this.jiraTimeZone = ZoneId.of(properties.getProperty("StubJiraTimeZone", "UTC"));
+		this.gzipMinBytes = Integer.parseInt(properties.getProperty("StubGzipMinBytes", "1024"));
+		ResetStatistics();
+	}
+
+	/*
+	 * Starts listening, on the port of the StubPort setting or on any free port
+	 */
+	public void Start() throws IOException {
+		String host = properties.getProperty("StubHost", "127.0.0.1");
+		int port = Integer.parseInt(properties.getProperty("StubPort", "0"));
+		int threads = Integer.parseInt(properties.getProperty("StubThreads", "64"));
+
+		// the server writes the headers and the body of a response separately, so without TCP_NODELAY the body of a small
+		// response waits for the client to acknowledge the headers, which adds its delayed ACK (40 ms) to every response
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		server = HttpServer.create(new InetSocketAddress(host, port), 1024);
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "stub-server-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.createContext("/", this::Handle);
+		server.start();
+		url = "http://" + host + ":" + server.getAddress().getPort();
+	}
+
+	/*
+	 * The base URL of the server, e.g. http://127.0.0.1:18080, which is the REST endpoint of both Github Enterprise
+	 * Server and Jira Server
+	 */
+	public String Url() {
+		return url;
+	}
+
+	/*
+	 * The Tugboat Logic evidence collection URL served by the stub
+	 */
+	public String TugboatLogicCollectorUrl() {
+		return url + "/api/v0/evidence/collector/stub/";
+	}
+
+	/*
+	 * The synthetic records served by the stub
+	 */
+	public SyntheticData Data() {
+		return data;
+	}
+
+	/*
+	 * The counters of an endpoint since the server started, or since the last call to ResetStatistics
+	 */
+	public EndpointStatistics Statistics(Endpoint endpoint) {
+		return statistics.get(endpoint);
+	}
+
+	/*
+	 * The number of evidence uploads which repeated the idempotency key of an earlier upload
+	 */
+	public long RepeatedUploads() {
+		return repeatedUploads.get();
+	}
+
+	/*
+	 * The System.nanoTime at which the first request arrived since the server started, or since the last call to
+	 * ResetStatistics, 0 if none has arrived yet. The startup benchmarks compare it with the time the collector was started.
+	 */
+	public long FirstRequestNanos() {
+		return firstRequestNanos.get();
+	}
+
+	/*
+	 * Starts counting afresh, e.g. between the runs of a benchmark
+	 */
+	public void ResetStatistics() {
+		Map<Endpoint, EndpointStatistics> fresh = new EnumMap<>(Endpoint.class);
+		for (Endpoint endpoint : Endpoint.values())
+			fresh.put(endpoint, new EndpointStatistics());
+		statistics = fresh;
+		repeatedUploads.set(0);
+		firstRequestNanos.set(0);
+	}
+
+	/*
+	 * Returns the statistics of every endpoint which served requests, one line each
+	 */
+	public String Statistics() {
+		StringBuilder sb = new StringBuilder();
+		for (Endpoint endpoint : Endpoint.values()) {
+			EndpointStatistics counters = statistics.get(endpoint);
+			if (counters.latency.Count() == 0)
+				continue;
+			sb.append(String.format("%-30s %s, %d records, %d KB in, %d KB out, %d not modified, %d errors, %d throttled%n", endpoint.description, counters.latency.Summary(),
+					counters.Records(), counters.BytesIn() / 1024, counters.BytesOut() / 1024, counters.NotModified(), counters.Errors(), counters.Throttled()));
+		}
+		if (repeatedUploads.get() > 0)
+			sb.append(String.format("%d evidence uploads repeated the idempotency key of an earlier upload%n", repeatedUploads.get()));
+		return sb.toString();
+	}
+
+	@Override
+	public void close() {
+		if (server != null)
+			server.stop(0);
+		if (executor != null)
+			executor.shutdownNow();
+	}
+
+	/*
+	 * Handles a request: the rate limits and injected errors of the service come first, then the response is built and
+	 * sent once the latency drawn for it has passed
+	 */
+	private void Handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		firstRequestNanos.compareAndSet(0, start);
+		Endpoint endpoint = Route(exchange);
+		EndpointStatistics counters = statistics.get(endpoint);
+		Behaviour behaviour = endpoint.service != null ? behaviours.get(endpoint.service) : null;
+		Map<String, String> rateLimitHeaders = new HashMap<>();
+		boolean gzip = gzipMinBytes > 0 && AcceptsGzip(exchange);
+		long bytesOut = 0;
+		try {
+			if (behaviour != null)
+				behaviour.inFlight.incrementAndGet();
+			try {
+				Response response = Limit(endpoint, behaviour, counters, rateLimitHeaders);
+				if (response == null)
+					response = Fail(behaviour, counters);
+				if (response == null)
+					response = Serve(endpoint, exchange, counters);
+
+				// the latency of the service, as if the server were busy or far away
+				if (behaviour != null && !behaviour.latency.IsNone())
+					TimeUnit.NANOSECONDS.sleep(behaviour.latency.Sample(ThreadLocalRandom.current()));
+
+				bytesOut = Send(exchange, response, rateLimitHeaders, gzip ? gzipMinBytes : 0);
+			} finally {
+				if (behaviour != null)
+					behaviour.inFlight.decrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException | RuntimeException e) {
+			// the client went away, or the request could not be understood
+			if (!(e instanceof IOException))
+				bytesOut = Send(exchange, Json(400, json -> Message(json, e.getMessage())), rateLimitHeaders, 0);
+		} finally {
+			exchange.close();
+			counters.bytesOut.addAndGet(bytesOut);
+			counters.latency.Record(System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * Returns the endpoint a request is for
+	 */
+	private static Endpoint Route(HttpExchange exchange) {
+		String path = exchange.getRequestURI().getPath();
+		String method = exchange.getRequestMethod();
+		if (method.equals("GET")) {
+			if (path.equals("/api/v3/search/issues"))
+				return Endpoint.GitHubSearch;
+			if (path.equals("/rest/api/2/search"))
+				return Endpoint.JiraSearch;
+			if (path.equals("/rest/api/2/myself"))
+				return Endpoint.JiraMyself;
+			if (REPOSITORIES_PATTERN.matcher(path).matches())
+				return Endpoint.GitHubRepositories;
+			Matcher matcher = PULL_REQUEST_PATTERN.matcher(path);
+			if (matcher.matches()) {
+				if (matcher.group(4) == null)
+					return matcher.group(2).equals("pulls") ? Endpoint.GitHubPullRequest : Endpoint.NotFound;
+				if (matcher.group(4).equals("/comments"))
+					return matcher.group(2).equals("issues") ? Endpoint.GitHubComments : Endpoint.NotFound;
+				return matcher.group(2).equals("pulls") ? Endpoint.GitHubReviews : Endpoint.NotFound;
+			}
+		} else if (method.equals("POST") && path.startsWith("/api/v0/evidence/")) {
+			return Endpoint.TugboatUpload;
+		}
+		return Endpoint.NotFound;
+	}
+
+	/*
+	 * Applies the rate limits of the service, returning the response refusing the request, or null to serve it, along
+	 * with the rate limit headers to add to the response either way
+	 */
+	private Response Limit(Endpoint endpoint, Behaviour behaviour, EndpointStatistics counters, Map<String, String> headers) {
+		if (behaviour == null)
+			return null;
+
+		// too many requests in flight, which Github Enterprise Server reports as a secondary rate limit
+		if (behaviour.maxInFlight > 0 && behaviour.inFlight.get() > behaviour.maxInFlight) {
+			counters.throttled.incrementAndGet();
+			String message = endpoint.service == Service.GitHub ? "You have exceeded a secondary rate limit. Please wait a few minutes before you try again." : "Too many concurrent requests";
+			return Json(endpoint.service == Service.GitHub ? 403 : 429, json -> Message(json, message)).Header("Retry-After", "1");
+		}
+
+		if (behaviour.rateLimit <= 0)
+			return null;
+
+		long[] budget = behaviour.Spend(startEpochSecond);
+		long remaining = Math.max(0, budget[0]);
+		long reset = budget[1];
+		Response refused = null;
+		if (budget[0] < 0) {
+			counters.throttled.incrementAndGet();
+			long retryAfter = Math.max(1, reset - Instant.now().getEpochSecond());
+			refused = endpoint.service == Service.GitHub
+					? Json(403, json -> Message(json, "API rate limit exceeded"))
+					: Json(429, json -> Message(json, "Rate limit exceeded")).Header("Retry-After", Long.toString(retryAfter));
+		}
+
+		// the budget is reported on every response, the way each of the servers reports it
+		if (endpoint.service == Service.GitHub) {
+			headers.put("X-RateLimit-Limit", Integer.toString(behaviour.rateLimit));
+			headers.put("X-RateLimit-Remaining", Long.toString(remaining));
+			headers.put("X-RateLimit-Used", Long.toString(Math.min(budget[2], behaviour.rateLimit)));
+			headers.put("X-RateLimit-Reset", Long.toString(reset));
+			headers.put("X-RateLimit-Resource", endpoint == Endpoint.GitHubSearch ? "search" : "core");
+		} else {
+			headers.put("X-RateLimit-Limit", Integer.toString(behaviour.rateLimit));
+			headers.put("X-RateLimit-Remaining", Long.toString(remaining));
+			headers.put("X-RateLimit-Interval-Seconds", Long.toString(behaviour.rateLimitWindowSeconds));
+		}
+		return refused;
+	}
+
+	/*
+	 * Injects an error into a fraction of the requests, returning the error response, or null to serve the request
+	 */
+	private static Response Fail(Behaviour behaviour, EndpointStatistics counters) {
+		if (behaviour == null || behaviour.errorRate <= 0 || ThreadLocalRandom.current().nextDouble() >= behaviour.errorRate)
+			return null;
+		counters.errors.incrementAndGet();
+		int status = behaviour.errorStatuses[ThreadLocalRandom.current().nextInt(behaviour.errorStatuses.length)];
+		return Json(status, json -> Message(json, "Injected error " + status));
+	}
+
+	/*
+	 * Builds the response of an endpoint
+	 */
+	private Response Serve(Endpoint endpoint, HttpExchange exchange, EndpointStatistics counters) throws IOException {
+		switch (endpoint) {
+		case GitHubSearch:
+		case GitHubPullRequest:
+		case GitHubComments:
+		case GitHubReviews:
+		case GitHubRepositories:
+			if (!exchange.getRequestHeaders().containsKey("Authorization"))
+				return Json(401, json -> Message(json, "Requires authentication"));
+			return ServeGitHub(endpoint, exchange, counters);
+		case JiraSearch:
+			if (!exchange.getRequestHeaders().containsKey("Authorization"))
+				return Json(401, json -> Message(json, "Authentication required"));
+			return ServeJiraSearch(exchange, counters);
+		case JiraMyself:
+			if (!exchange.getRequestHeaders().containsKey("Authorization"))
+				return Json(401, json -> Message(json, "Authentication required"));
+			return Json(200, json -> {
+				json.writeStartObject();
+				json.writeStringField("name", "stub");
+				json.writeStringField("timeZone", jiraTimeZone.getId());
+				json.writeEndObject();
+			});
+		case TugboatUpload:
+			return ServeUpload(exchange, counters);
+		default:
+			return Json(404, json -> Message(json, "Not Found"));
+		}
+	}
+
+	/*
+	 * Serves the Github Enterprise Server endpoints
+	 */
+	private Response ServeGitHub(Endpoint endpoint, HttpExchange exchange, EndpointStatistics counters) throws IOException {
+		Map<String, String> query = Query(exchange);
+		int perPage = Math.min(GITHUB_MAX_PAGE_SIZE, Math.max(1, Integer.parseInt(query.getOrDefault("per_page", "30"))));
+		int page = Math.max(1, Integer.parseInt(query.getOrDefault("page", "1")));
+
+		if (endpoint == Endpoint.GitHubSearch) {
+			// a repo qualifier picks the repository, the main repository is searched otherwise
+			String q = query.getOrDefault("q", "");
+			Matcher repo = REPO_PATTERN.matcher(q);
+			SyntheticData repository = repo.find() ? data.Repository(repo.group(1)) : data;
+			int[] range = repository != null ? SearchRange(q, repository) : new int[] { 1, 0 };
+			int total = Math.max(0, range[1] - range[0] + 1);
+			int reachable = githubSearchLimit > 0 ? Math.min(total, githubSearchLimit) : total;
+			int first = (page - 1) * perPage;
+			if (githubSearchLimit > 0 && first >= reachable && first > 0)
+				return Json(422, json -> Message(json, "Only the first " + githubSearchLimit + " search results are available"));
+
+			int count = Math.max(0, Math.min(perPage, reachable - first));
+			counters.records.addAndGet(count);
+			Response response = Json(200, json -> {
+				json.writeStartObject();
+				json.writeNumberField("total_count", total);
+				json.writeBooleanField("incomplete_results", false);
+				json.writeArrayFieldStart("items");
+				for (int i = 0; i < count; i++)
+					repository.WriteSearchItem(json, url, range[0] + first + i);
+				json.writeEndArray();
+				json.writeEndObject();
+			});
+			return Paginate(response, exchange, query, page, first + count < reachable);
+		}
+
+		if (endpoint == Endpoint.GitHubRepositories) {
+			Matcher matcher = REPOSITORIES_PATTERN.matcher(exchange.getRequestURI().getPath());
+			matcher.matches();
+			String owner = matcher.group(1) + "/";
+			List<SyntheticData> repositories = new ArrayList<>();
+			for (SyntheticData repository : data.Repositories()) {
+				if (repository.Repository().regionMatches(true, 0, owner, 0, owner.length()))
+					repositories.add(repository);
+			}
+			if (repositories.isEmpty())
+				return Json(404, json -> Message(json, "Not Found"));
+
+			int first = (page - 1) * perPage;
+			int count = Math.max(0, Math.min(perPage, repositories.size() - first));
+			counters.records.addAndGet(count);
+			Response response = Json(200, json -> {
+				json.writeStartArray();
+				for (int i = 0; i < count; i++)
+					repositories.get(first + i).WriteRepository(json, url);
+				json.writeEndArray();
+			});
+			return Paginate(response, exchange, query, page, first + count < repositories.size());
+		}
+
+		Matcher matcher = PULL_REQUEST_PATTERN.matcher(exchange.getRequestURI().getPath());
+		matcher.matches();
+		int number = Integer.parseInt(matcher.group(3));
+		SyntheticData repository = data.Repository(matcher.group(1));
+		if (repository == null || number < 1 || number > repository.PullRequests())
+			return Json(404, json -> Message(json, "Not Found"));
+
+		// the records of the pull request never change, so their ETag only depends on what was asked for
+		String etag = "\"" + endpoint.name() + "-" + repository.Repository() + "-" + number + "-" + perPage + "-" + page + "\"";
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			counters.notModified.incrementAndGet();
+			return new Response(304, new byte[0]).Header("ETag", etag);
+		}
+
+		if (endpoint == Endpoint.GitHubPullRequest) {
+			counters.records.incrementAndGet();
+			return Json(200, json -> repository.WritePullRequest(json, url, number)).Header("ETag", etag);
+		}
+
+		boolean comments = endpoint == Endpoint.GitHubComments;
+		int total = comments ? repository.CommentsPerPullRequest() : repository.ReviewsPerPullRequest();
+		int first = (page - 1) * perPage;
+		int count = Math.max(0, Math.min(perPage, total - first));
+		counters.records.addAndGet(count);
+		Response response = Json(200, json -> {
+			json.writeStartArray();
+			for (int i = 0; i < count; i++) {
+				if (comments)
+					repository.WriteComment(json, url, number, first + i);
+				else
+					repository.WriteReview(json, url, number, first + i);
+			}
+			json.writeEndArray();
+		}).Header("ETag", etag);
+		return Paginate(response, exchange, query, page, first + count < total);
+	}
+
+	/*
+	 * Returns the pull requests of a repository matching the updated qualifier of a search query, as the first and the last number
+	 */
+	private static int[] SearchRange(String query, SyntheticData data) {
+		Matcher matcher = UPDATED_PATTERN.matcher(query);
+		if (!matcher.find())
+			return new int[] { 1, data.PullRequests() };
+
+		String operator = matcher.group(1);
+		Instant from = null;
+		Instant to = null;
+		if (matcher.group(3) != null) {
+			from = SearchDate(matcher.group(2), false);
+			to = SearchDate(matcher.group(3), true);
+		} else if (operator == null || operator.startsWith(">")) {
+			from = SearchDate(matcher.group(2), false);
+			if (">".equals(operator) && from != null)
+				from = from.plusSeconds(1);
+		} else {
+			to = SearchDate(matcher.group(2), true);
+			if ("<".equals(operator) && to != null)
+				to = to.minusSeconds(1);
+		}
+		return data.PullRequestsUpdatedBetween(from, to);
+	}
+
+	/*
+	 * Parses a date of a search qualifier, a date alone standing for the start or the end of the day
+	 */
+	private static Instant SearchDate(String value, boolean end) {
+		if (value.equals("*"))
+			return null;
+		if (value.length() == 10) {
+			LocalDate date = LocalDate.parse(value);
+			return end ? date.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC).minusSeconds(1) : date.atStartOfDay().toInstant(ZoneOffset.UTC);
+		}
+		return Instant.parse(value);
+	}
+
+	/*
+	 * Adds the Link header of the next page to a response, when there is a next page
+	 */
+	private Response Paginate(Response response, HttpExchange exchange, Map<String, String> query, int page, boolean hasNext) {
+		if (!hasNext)
+			return response;
+
+		Map<String, String> next = new LinkedHashMap<>(query);
+		next.put("page", Integer.toString(page + 1));
+		StringBuilder link = new StringBuilder(url).append(exchange.getRequestURI().getPath());
+		char separator = '?';
+		for (Map.Entry<String, String> parameter : next.entrySet()) {
+			link.append(separator).append(Encode(parameter.getKey())).append('=').append(Encode(parameter.getValue()));
+			separator = '&';
+		}
+		return response.Header("Link", "<" + link + ">; rel=\"next\"");
+	}
+
+	/*
+	 * Serves the Jira Server search endpoint
+	 */
+	private Response ServeJiraSearch(HttpExchange exchange, EndpointStatistics counters) {
+		Map<String, String> query = Query(exchange);
+		String jql = query.getOrDefault("jql", "");
+		int startAt = Math.max(0, Integer.parseInt(query.getOrDefault("startAt", "0")));
+		int maxResults = Math.min(jiraMaxResults, Math.max(0, Integer.parseInt(query.getOrDefault("maxResults", "50"))));
+		Set<String> fields = query.containsKey("fields") ? new HashSet<>(Arrays.asList(query.get("fields").split(","))) : null;
+
+		// the created and resolved clauses of the query narrow down the range of issues, the other clauses are ignored
+		Instant from = null;
+		Instant to = null;
+		Matcher matcher = JQL_DATE_PATTERN.matcher(jql);
+		while (matcher.find()) {
+			String value = matcher.group(3) != null ? matcher.group(3) : matcher.group(4) != null ? matcher.group(4) : matcher.group(5);
+			String operator = matcher.group(2);
+
+			// the issues are resolved a fixed time after they were created, so a resolved clause is a created clause too
+			Instant date = JqlDate(value, jiraTimeZone);
+			if (!matcher.group(1).equalsIgnoreCase("created"))
+				date = data.IssueCreatedForResolved(date);
+
+			// JQL dates have a precision of one minute
+			if (operator.startsWith(">") || operator.equals("=")) {
+				Instant lower = operator.equals(">") ? date.plus(1, ChronoUnit.MINUTES) : date;
+				from = from == null || lower.isAfter(from) ? lower : from;
+			}
+			if (operator.startsWith("<") || operator.equals("=")) {
+				Instant upper = operator.equals("<") ? date : date.plus(1, ChronoUnit.MINUTES);
+				to = to == null || upper.isBefore(to) ? upper : to;
+			}
+		}
+		int[] range = data.IssuesCreatedBetween(from, to);
+
+		// the project clause picks the issues of its projects, which are every Nth issue of the range
+		int[] numbers = null;
+		Set<String> projects = JqlProjects(jql);
+		if (projects != null)
+			numbers = IntStream.range(range[0], Math.max(range[0], range[1])).filter(number -> data.IssueInProjects(number, projects)).toArray();
+		int[] issues = numbers;
+		int total = issues != null ? issues.length : Math.max(0, range[1] - range[0]);
+
+		// the issues are created and resolved in the same order, so any order by date is either ascending or descending
+		Matcher order = JQL_ORDER_PATTERN.matcher(jql);
+		boolean descending = order.find() && "DESC".equalsIgnoreCase(order.group(2));
+
+		int count = Math.max(0, Math.min(maxResults, total - startAt));
+		counters.records.addAndGet(count);
+		return Json(200, json -> {
+			json.writeStartObject();
+			json.writeStringField("expand", "schema,names");
+			json.writeNumberField("startAt", startAt);
+			json.writeNumberField("maxResults", maxResults);
+			json.writeNumberField("total", total);
+			json.writeArrayFieldStart("issues");
+			for (int i = 0; i < count; i++) {
+				int position = descending ? total - 1 - startAt - i : startAt + i;
+				data.WriteIssue(json, url, issues != null ? issues[position] : range[0] + position, fields);
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		});
+	}
+
+	/*
+	 * Returns the lower case names (or keys) of the projects matching every project clause of a JQL query, or null if it has none
+	 */
+	private static Set<String> JqlProjects(String jql) {
+		Set<String> projects = null;
+		Matcher matcher = JQL_PROJECT_PATTERN.matcher(jql);
+		while (matcher.find()) {
+			Set<String> clause = new HashSet<>();
+			String values = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+			for (String value : values.split(",")) {
+				String project = value.trim().replaceAll("^[\"']|[\"']$", "");
+				if (!project.isEmpty())
+					clause.add(project.toLowerCase(Locale.ROOT));
+			}
+			// the clauses are taken to be ANDed together, e.g. a project of the query narrowed down to one of them
+			if (projects == null)
+				projects = clause;
+			else
+				projects.retainAll(clause);
+		}
+		return projects;
+	}
+
+	/*
+	 * Parses a date of a JQL clause, either a date (and time) in the time zone of the user or a time relative to now such as -90d
+	 */
+	private static Instant JqlDate(String value, ZoneId zone) {
+		String trimmed = value.trim();
+		if (trimmed.matches("-?\\d+[mhdw]")) {
+			long amount = Long.parseLong(trimmed.substring(0, trimmed.length() - 1));
+			char unit = trimmed.charAt(trimmed.length() - 1);
+			if (unit == 'm')
+				return Instant.now().plus(amount, ChronoUnit.MINUTES);
+			if (unit == 'h')
+				return Instant.now().plus(amount, ChronoUnit.HOURS);
+			return Instant.now().plus(unit == 'w' ? amount * 7 : amount, ChronoUnit.DAYS);
+		}
+
+		for (DateTimeFormatter format : JQL_DATE_FORMATS) {
+			try {
+				return LocalDateTime.parse(trimmed, format).atZone(zone).toInstant();
+			} catch (DateTimeParseException e) {
+				// try the next format
+			}
+		}
+		return LocalDate.parse(trimmed.replace('/', '-')).atStartOfDay(zone).toInstant();
+	}
+
+	/*
+	 * Serves the Tugboat Logic evidence upload: the multipart body is read in full and checked, and an upload which
+	 * repeats the idempotency key of an earlier one gets the same result
+	 */
+	private Response ServeUpload(HttpExchange exchange, EndpointStatistics counters) throws IOException {
+		Headers headers = exchange.getRequestHeaders();
+		String authorization = headers.getFirst("Authorization");
+		if (authorization == null || !authorization.startsWith("Basic ") || headers.getFirst("X-API-KEY") == null)
+			return Json(401, json -> Message(json, "Invalid credentials"));
+
+		String contentType = headers.getFirst("Content-Type");
+		Matcher boundary = BOUNDARY_PATTERN.matcher(contentType == null ? "" : contentType);
+		if (contentType == null || !contentType.startsWith("multipart/form-data") || !boundary.find())
+			return Json(400, json -> Message(json, "Expected a multipart/form-data body"));
+
+		// read the body, keeping its start and end to check that it is a complete multipart body
+		byte[] opening = ("--" + boundary.group(1) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+		byte[] closing = ("\r\n--" + boundary.group(1) + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		byte[] start = new byte[opening.length];
+		byte[] end = new byte[closing.length];
+		long length = 0;
+		try (InputStream body = exchange.getRequestBody()) {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = body.read(buffer)) > 0) {
+				if (length < start.length)
+					System.arraycopy(buffer, 0, start, (int) length, (int) Math.min(read, start.length - length));
+				Tail(end, buffer, read);
+				length += read;
+			}
+		}
+		counters.bytesIn.addAndGet(length);
+		if (length < start.length + end.length || !Arrays.equals(start, opening) || !Arrays.equals(end, closing))
+			return Json(400, json -> Message(json, "Incomplete multipart body"));
+
+		// an upload which repeats the idempotency key of an earlier one is the same upload, an upload without a key is
+		// always a new one
+		String idempotencyKey = headers.getFirst("Idempotency-Key");
+		AtomicBoolean repeated = new AtomicBoolean(idempotencyKey != null);
+		int id = idempotencyKey == null ? uploadIds.incrementAndGet() : uploads.computeIfAbsent(idempotencyKey, key -> {
+			repeated.set(false);
+			return uploadIds.incrementAndGet();
+		});
+		if (repeated.get())
+			repeatedUploads.incrementAndGet();
+		else
+			counters.records.incrementAndGet();
+		return Json(201, json -> {
+			json.writeStartObject();
+			json.writeNumberField("id", id);
+			json.writeEndObject();
+		});
+	}
+
+	/*
+	 * Keeps the last bytes of a stream in a buffer of a fixed size, given the next chunk of the stream
+	 */
+	private static void Tail(byte[] tail, byte[] chunk, int length) {
+		if (length >= tail.length) {
+			System.arraycopy(chunk, length - tail.length, tail, 0, tail.length);
+		} else {
+			System.arraycopy(tail, length, tail, 0, tail.length - length);
+			System.arraycopy(chunk, 0, tail, tail.length - length, length);
+		}
+	}
+
+	/*
+	 * Sends a response along with the rate limit headers of the request, returning the number of bytes sent
+	 *
+	 * @param gzipMinBytes The size from which the body is gzip compressed, like the servers do for a client which
+	 *        accepts it, or 0 to send it as it is
+	 */
+	private static long Send(HttpExchange exchange, Response response, Map<String, String> rateLimitHeaders, int gzipMinBytes) throws IOException {
+		Headers headers = exchange.getResponseHeaders();
+		rateLimitHeaders.forEach(headers::set);
+		response.headers.forEach(headers::set);
+		if (response.body.length > 0)
+			headers.set("Content-Type", "application/json; charset=utf-8");
+
+		boolean empty = response.status == 304 || response.status == 204 || response.body.length == 0;
+		byte[] body = response.body;
+		if (!empty && gzipMinBytes > 0 && body.length >= gzipMinBytes) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+			try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+				gzip.write(body);
+			}
+			body = compressed.toByteArray();
+			headers.set("Content-Encoding", "gzip");
+		}
+		if (gzipMinBytes > 0)
+			headers.set("Vary", "Accept-Encoding");
+
+		exchange.sendResponseHeaders(response.status, empty ? -1 : body.length);
+		if (!empty) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		}
+		return empty ? 0 : body.length;
+	}
+
+	/*
+	 * Returns whether a request accepts a gzip compressed response
+	 */
+	private static boolean AcceptsGzip(HttpExchange exchange) {
+		for (String value : exchange.getRequestHeaders().getOrDefault("Accept-Encoding", List.of())) {
+			for (String coding : value.split(",")) {
+				String[] parts = coding.trim().split(";");
+				if (parts[0].trim().equalsIgnoreCase("gzip") && !parts[parts.length - 1].replace(" ", "").equalsIgnoreCase("q=0"))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Writes the body of a JSON response
+	 */
+	@FunctionalInterface
+	private interface JsonWriter {
+		void Write(JsonGenerator json) throws IOException;
+	}
+
+	private static Response Json(int status, JsonWriter writer) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024);
+		try (JsonGenerator json = JSON.createGenerator(out)) {
+			writer.Write(json);
+		} catch (IOException e) {
+			// writing to memory does not fail
+			throw new IllegalStateException(e);
+		}
+		return new Response(status, out.toByteArray());
+	}
+
+	private static void Message(JsonGenerator json, String message) throws IOException {
+		json.writeStartObject();
+		json.writeStringField("message", message);
+		json.writeEndObject();
+	}
+
+	/*
+	 * Returns the parameters of the query string of a request
+	 */
+	private static Map<String, String> Query(HttpExchange exchange) {
+		Map<String, String> parameters = new LinkedHashMap<>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null)
+			return parameters;
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals < 0)
+				parameters.put(URLDecoder.decode(parameter, StandardCharsets.UTF_8), "");
+			else
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8), URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+		}
+		return parameters;
+	}
+
+	private static String Encode(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Runs the stub server on its own, with the settings of the stub.config file, which any argument of the form
+	 * Key=Value overrides, until the enter key is pressed
+	 */
+	public static void main(String[] args) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream("stub.config")) {
+			properties.load(in);
+		} catch (FileNotFoundException e) {
+			// every setting has a default
+		}
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals > 0)
+				properties.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+
+		try (StubServer server = new StubServer(properties)) {
+			server.Start();
+			System.out.println(String.format("Stub server listening on %s, serving %d pull requests and %d Jira issues", server.Url(), server.Data().PullRequests(), server.Data().Issues()));
+			System.out.println("Point the collectors at it with these settings in their app.config:");
+			System.out.println("  GitHubServerRestEndpoint=" + server.Url());
+			System.out.println("  JiraServerRestEndpoint=" + server.Url());
+			System.out.println("  TugboatLogicCollectorUrl=" + server.TugboatLogicCollectorUrl());
+			System.out.println("Press enter key to stop...");
+			System.in.read();
+			System.out.print(server.Statistics());
+		}
+	}
+}
@@ -0,0 +1,500 @@
+package com.tugboatlogic.sample.stub;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/*
+ * This class generates the synthetic records served by the stub server: the merged pull requests of Github Enterprise
+ * Server repositories, along with their comments and reviews, and the resolved issues of Jira Server projects. The records
+ * are shaped like the real responses, including the fields which the collectors do not bind, so that parsing them costs
+ * what it costs against a real server.
+ *
+ * No record is kept in memory: each one is generated when it is requested, from a seed and its number, so the same
+ * record is identical in every response (which keeps the ETags and the deduplication of the collectors meaningful) and
+ * the scale is only limited by how long a run takes.
+ *
+ * The records are spread evenly over the 80 days before the server started, the newest first: pull request 1 is the
+ * most recently updated one, and Jira issue N - 1 the most recently created one. Since the dates only depend on the
+ * number of a record, the records matching a date range form a contiguous range of numbers, which is how the search
+ * endpoints filter them.
+ *
+ * The main repository has the data of its own instance, every other repository (StubGitHubRepositories) has an instance
+ * of its own, with its own number of pull requests and its own node ids, which Repository looks up by name. The issues
+ * belong to the projects in turn, so the issues of a project are every Nth issue.
+ */
+public class SyntheticData {
+	// the span of time the records are spread over, within the 90 days the collectors look back by default
+	private static final long SPAN_SECONDS = 80L * 24 * 60 * 60;
+
+	// how long after it was created an issue is resolved
+	private static final long RESOLUTION_HOURS = 4;
+
+	// the date formats used by Github Enterprise Server and Jira Server
+	private static final DateTimeFormatter GITHUB_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+	private static final DateTimeFormatter JIRA_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ").withZone(ZoneOffset.UTC);
+
+	// the node ids of the pull requests of each repository are this far apart
+	private static final int ID_STRIDE = 10_000_000;
+
+	private static final String[] ASSOCIATIONS = { "MEMBER", "COLLABORATOR", "CONTRIBUTOR", "OWNER" };
+	private static final String[] REVIEW_STATES = { "APPROVED", "COMMENTED", "CHANGES_REQUESTED" };
+	private static final String[] ISSUE_TYPES = { "Bug", "Task", "Story", "Change Request" };
+	private static final String[] WORDS = { "update", "access", "review", "production", "firewall", "rule", "rotate",
+			"credentials", "deploy", "database", "migration", "service", "account", "audit", "logging", "policy" };
+
+	private final long seed;
+	private final Instant anchor;
+
+	// the Github Enterprise Server repository and its pull requests, along with the other repositories by their lower
+	// case name (the main repository included) and the position of this repository among them
+	private final String repository;
+	private final Map<String, SyntheticData> repositories;
+	private final int ordinal;
+	private final int pullRequests;
+	private final int commentsPerPullRequest;
+	private final int reviewsPerPullRequest;
+	private final long pullRequestSpacing;
+
+	// the Jira Server projects and their issues
+	private final String[] projects;
+	private final int issues;
+	private final long issueSpacing;
+
+	/*
+	 * Creates the synthetic data from the stub server settings
+	 */
+	public SyntheticData(Properties properties) {
+		this.seed = Long.parseLong(properties.getProperty("StubSeed", "42"));
+		this.anchor = Instant.now().truncatedTo(ChronoUnit.MINUTES);
+
+		this.repository = properties.getProperty("StubGitHubRepository", "contoso/platform");
+		this.pullRequests = Integer.parseInt(properties.getProperty("StubGitHubPullRequests", "1000"));
+		this.commentsPerPullRequest = Integer.parseInt(properties.getProperty("StubGitHubCommentsPerPullRequest", "2"));
+		this.reviewsPerPullRequest = Integer.parseInt(properties.getProperty("StubGitHubReviewsPerPullRequest", "2"));
+		this.pullRequestSpacing = Math.max(1, SPAN_SECONDS / Math.max(1, pullRequests));
+
+		this.projects = properties.getProperty("StubJiraProjects", "Platform,Payments,Identity,Infrastructure").split("\\s*,\\s*");
+		this.issues = Integer.parseInt(properties.getProperty("StubJiraIssues", "1000"));
+		this.issueSpacing = Math.max(1, SPAN_SECONDS / Math.max(1, issues));
+
+		// the other repositories, each given as owner/name or owner/name:pullRequests
+		this.ordinal = 0;
+		this.repositories = new LinkedHashMap<>();
+		this.repositories.put(repository.toLowerCase(Locale.ROOT), this);
+		for (String entry : properties.getProperty("StubGitHubRepositories", "").split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty())
+				continue;
+			int colon = entry.indexOf(':');
+			String name = colon < 0 ? entry : entry.substring(0, colon).trim();
+			int count = colon < 0 ? pullRequests : Integer.parseInt(entry.substring(colon + 1).trim());
+			repositories.putIfAbsent(name.toLowerCase(Locale.ROOT), new SyntheticData(this, name, count, repositories.size()));
+		}
+	}
+
+	/*
+	 * Creates the data of another repository, which shares everything but its pull requests with the main one
+	 */
+	private SyntheticData(SyntheticData main, String repository, int pullRequests, int ordinal) {
+		this.seed = main.seed + ordinal;
+		this.anchor = main.anchor;
+		this.repository = repository;
+		this.repositories = main.repositories;
+		this.ordinal = ordinal;
+		this.pullRequests = pullRequests;
+		this.commentsPerPullRequest = main.commentsPerPullRequest;
+		this.reviewsPerPullRequest = main.reviewsPerPullRequest;
+		this.pullRequestSpacing = Math.max(1, SPAN_SECONDS / Math.max(1, pullRequests));
+		this.projects = main.projects;
+		this.issues = main.issues;
+		this.issueSpacing = main.issueSpacing;
+	}
+
+	public String Repository() {
+		return repository;
+	}
+
+	/*
+	 * Returns the data of a repository, ignoring the case of its name, or null if there is no such repository
+	 */
+	public SyntheticData Repository(String name) {
+		return repositories.get(name.toLowerCase(Locale.ROOT));
+	}
+
+	/*
+	 * Returns the data of every repository, the main one first
+	 */
+	public Collection<SyntheticData> Repositories() {
+		return repositories.values();
+	}
+
+	public int PullRequests() {
+		return pullRequests;
+	}
+
+	public int CommentsPerPullRequest() {
+		return commentsPerPullRequest;
+	}
+
+	public int ReviewsPerPullRequest() {
+		return reviewsPerPullRequest;
+	}
+
+	public int Issues() {
+		return issues;
+	}
+
+	/*
+	 * Returns whether an issue belongs to one of the given projects, given by their lower case names or keys
+	 */
+	public boolean IssueInProjects(int number, Set<String> names) {
+		String project = projects[number % projects.length];
+		return names.contains(project.toLowerCase(Locale.ROOT)) || names.contains(ProjectKey(project).toLowerCase(Locale.ROOT));
+	}
+
+	/*
+	 * Returns when a pull request was last updated, the pull requests are numbered from the most recently updated one
+	 */
+	public Instant PullRequestUpdated(int number) {
+		return anchor.minusSeconds(number * pullRequestSpacing);
+	}
+
+	/*
+	 * Returns the range of the pull requests last updated within a time range (both ends included), as the first and
+	 * the last number, the range is empty when the first number is greater than the last one
+	 */
+	public int[] PullRequestsUpdatedBetween(Instant from, Instant to) {
+		long first = to == null ? 1 : CeilDiv(anchor.getEpochSecond() - to.getEpochSecond(), pullRequestSpacing);
+		long last = from == null ? pullRequests : Math.floorDiv(anchor.getEpochSecond() - from.getEpochSecond(), pullRequestSpacing);
+		return new int[] { (int) Math.max(1, first), (int) Math.min(pullRequests, last) };
+	}
+
+	/*
+	 * Returns when an issue was created, the issues are numbered from the oldest one
+	 */
+	public Instant IssueCreated(int number) {
+		return anchor.minusSeconds((long) (issues - number) * issueSpacing);
+	}
+
+	/*
+	 * Returns when an issue was resolved, which is a few hours after it was created, so the issues are resolved in the
+	 * order they were created
+	 */
+	public Instant IssueResolved(int number) {
+		return IssueCreated(number).plus(RESOLUTION_HOURS, ChronoUnit.HOURS);
+	}
+
+	/*
+	 * Returns when the issues resolved at the given time were created
+	 */
+	public Instant IssueCreatedForResolved(Instant resolved) {
+		return resolved.minus(RESOLUTION_HOURS, ChronoUnit.HOURS);
+	}
+
+	/*
+	 * Returns the range of the issues created within a time range, as the first number and the number after the last
+	 * one, where the start of the range is included and its end excluded
+	 */
+	public int[] IssuesCreatedBetween(Instant from, Instant to) {
+		long first = from == null ? 0 : issues - Math.floorDiv(anchor.getEpochSecond() - from.getEpochSecond(), issueSpacing);
+		long end = to == null ? issues : issues - Math.floorDiv(anchor.getEpochSecond() - to.getEpochSecond(), issueSpacing);
+		return new int[] { (int) Math.max(0, Math.min(issues, first)), (int) Math.max(0, Math.min(issues, end)) };
+	}
+
+	/*
+	 * Writes the search result item of a pull request, as returned by /api/v3/search/issues
+	 */
+	public void WriteSearchItem(JsonGenerator json, String baseUrl, int number) throws IOException {
+		Random random = Random(number);
+		Instant updated = PullRequestUpdated(number);
+		String apiUrl = baseUrl + "/api/v3/repos/" + repository;
+		String htmlUrl = baseUrl + "/" + repository + "/pull/" + number;
+
+		json.writeStartObject();
+		json.writeStringField("url", apiUrl + "/issues/" + number);
+		json.writeStringField("repository_url", apiUrl);
+		json.writeStringField("html_url", htmlUrl);
+		json.writeNumberField("id", 100000 + (long) ordinal * ID_STRIDE + number);
+		json.writeStringField("node_id", NodeId(number));
+		json.writeNumberField("number", number);
+		json.writeStringField("title", Sentence(random, 4 + random.nextInt(6)));
+		User(json, baseUrl, "user", random);
+		json.writeArrayFieldStart("labels");
+		json.writeEndArray();
+		json.writeStringField("state", "closed");
+		json.writeBooleanField("locked", false);
+		json.writeNumberField("comments", commentsPerPullRequest);
+		json.writeStringField("created_at", GITHUB_DATE_FORMAT.format(updated.minus(3, ChronoUnit.HOURS)));
+		json.writeStringField("updated_at", GITHUB_DATE_FORMAT.format(updated));
+		json.writeStringField("closed_at", GITHUB_DATE_FORMAT.format(updated.minus(1, ChronoUnit.HOURS)));
+		json.writeStringField("author_association", ASSOCIATIONS[random.nextInt(ASSOCIATIONS.length)]);
+		json.writeObjectFieldStart("pull_request");
+		json.writeStringField("url", apiUrl + "/pulls/" + number);
+		json.writeStringField("html_url", htmlUrl);
+		json.writeStringField("diff_url", htmlUrl + ".diff");
+		json.writeStringField("patch_url", htmlUrl + ".patch");
+		json.writeEndObject();
+		json.writeStringField("body", Sentence(random, 20 + random.nextInt(40)));
+		json.writeNumberField("score", 1.0);
+		json.writeEndObject();
+	}
+
+	/*
+	 * Writes the details of a pull request, as returned by /api/v3/repos/{owner}/{repo}/pulls/{number}
+	 */
+	public void WritePullRequest(JsonGenerator json, String baseUrl, int number) throws IOException {
+		Random random = Random(number);
+		Instant updated = PullRequestUpdated(number);
+		String apiUrl = baseUrl + "/api/v3/repos/" + repository;
+		String pullUrl = apiUrl + "/pulls/" + number;
+		String htmlUrl = baseUrl + "/" + repository + "/pull/" + number;
+
+		json.writeStartObject();
+		json.writeStringField("url", pullUrl);
+		json.writeNumberField("id", 100000 + (long) ordinal * ID_STRIDE + number);
+		json.writeStringField("node_id", NodeId(number));
+		json.writeStringField("html_url", htmlUrl);
+		json.writeStringField("diff_url", htmlUrl + ".diff");
+		json.writeStringField("patch_url", htmlUrl + ".patch");
+		json.writeStringField("issue_url", apiUrl + "/issues/" + number);
+		json.writeNumberField("number", number);
+		json.writeStringField("state", "closed");
+		json.writeBooleanField("locked", false);
+		json.writeStringField("title", Sentence(random, 4 + random.nextInt(6)));
+		User(json, baseUrl, "user", random);
+		json.writeStringField("body", Sentence(random, 20 + random.nextInt(40)));
+		json.writeStringField("created_at", GITHUB_DATE_FORMAT.format(updated.minus(3, ChronoUnit.HOURS)));
+		json.writeStringField("updated_at", GITHUB_DATE_FORMAT.format(updated));
+		json.writeStringField("closed_at", GITHUB_DATE_FORMAT.format(updated.minus(1, ChronoUnit.HOURS)));
+		json.writeStringField("merged_at", GITHUB_DATE_FORMAT.format(updated.minus(1, ChronoUnit.HOURS)));
+		json.writeStringField("merge_commit_sha", Sha(random));
+		Ref(json, baseUrl, "head", "feature/" + number, random);
+		Ref(json, baseUrl, "base", "main", random);
+		json.writeObjectFieldStart("_links");
+		Link(json, "self", pullUrl);
+		Link(json, "html", htmlUrl);
+		Link(json, "issue", apiUrl + "/issues/" + number);
+		Link(json, "comments", apiUrl + "/issues/" + number + "/comments");
+		Link(json, "review_comments", pullUrl + "/comments");
+		Link(json, "commits", pullUrl + "/commits");
+		json.writeEndObject();
+		json.writeStringField("author_association", ASSOCIATIONS[random.nextInt(ASSOCIATIONS.length)]);
+		json.writeBooleanField("merged", true);
+		User(json, baseUrl, "merged_by", random);
+		json.writeNumberField("comments", commentsPerPullRequest);
+		json.writeNumberField("review_comments", 0);
+		json.writeNumberField("commits", 1 + random.nextInt(10));
+		json.writeNumberField("additions", random.nextInt(500));
+		json.writeNumberField("deletions", random.nextInt(200));
+		json.writeNumberField("changed_files", 1 + random.nextInt(20));
+		json.writeEndObject();
+	}
+
+	/*
+	 * Writes a comment of a pull request, as returned by /api/v3/repos/{owner}/{repo}/issues/{number}/comments
+	 */
+	public void WriteComment(JsonGenerator json, String baseUrl, int number, int comment) throws IOException {
+		Random random = Random(number * 1000L + comment);
+		Instant created = PullRequestUpdated(number).minus(3, ChronoUnit.HOURS).plus(10 + comment * 20L, ChronoUnit.MINUTES);
+		long id = number * 1000L + comment;
+
+		json.writeStartObject();
+		json.writeStringField("url", baseUrl + "/api/v3/repos/" + repository + "/issues/comments/" + id);
+		json.writeStringField("html_url", baseUrl + "/" + repository + "/pull/" + number + "#issuecomment-" + id);
+		json.writeNumberField("id", id);
+		User(json, baseUrl, "user", random);
+		json.writeStringField("created_at", GITHUB_DATE_FORMAT.format(created));
+		json.writeStringField("updated_at", GITHUB_DATE_FORMAT.format(created));
+		json.writeStringField("author_association", ASSOCIATIONS[random.nextInt(ASSOCIATIONS.length)]);
+		json.writeStringField("body", Sentence(random, 5 + random.nextInt(30)));
+		json.writeEndObject();
+	}
+
+	/*
+	 * Writes a review of a pull request, as returned by /api/v3/repos/{owner}/{repo}/pulls/{number}/reviews
+	 */
+	public void WriteReview(JsonGenerator json, String baseUrl, int number, int review) throws IOException {
+		Random random = Random(-(number * 1000L + review));
+		Instant submitted = PullRequestUpdated(number).minus(2, ChronoUnit.HOURS).plus(review * 15L, ChronoUnit.MINUTES);
+		long id = number * 1000L + review;
+
+		json.writeStartObject();
+		json.writeNumberField("id", id);
+		json.writeStringField("node_id", "MDE3OlB1bGxSZXF1ZXN0UmV2aWV3" + id);
+		User(json, baseUrl, "user", random);
+		json.writeStringField("body", Sentence(random, random.nextInt(20)));
+		json.writeStringField("state", review == reviewsPerPullRequest - 1 ? "APPROVED" : REVIEW_STATES[random.nextInt(REVIEW_STATES.length)]);
+		json.writeStringField("html_url", baseUrl + "/" + repository + "/pull/" + number + "#pullrequestreview-" + id);
+		json.writeStringField("pull_request_url", baseUrl + "/api/v3/repos/" + repository + "/pulls/" + number);
+		json.writeStringField("author_association", ASSOCIATIONS[random.nextInt(ASSOCIATIONS.length)]);
+		json.writeStringField("submitted_at", GITHUB_DATE_FORMAT.format(submitted));
+		json.writeStringField("commit_id", Sha(random));
+		json.writeEndObject();
+	}
+
+	/*
+	 * Writes an issue, as returned by /rest/api/2/search, with only the given fields (or all of them when null)
+	 */
+	public void WriteIssue(JsonGenerator json, String baseUrl, int number, Set<String> fields) throws IOException {
+		Random random = Random(Integer.MIN_VALUE + (long) number);
+		String project = projects[number % projects.length];
+
+		json.writeStartObject();
+		json.writeStringField("expand", "operations,versionedRepresentations,editmeta,changelog,renderedFields");
+		json.writeStringField("id", Integer.toString(10000 + number));
+		json.writeStringField("self", baseUrl + "/rest/api/2/issue/" + (10000 + number));
+		json.writeStringField("key", ProjectKey(project) + "-" + (number + 1));
+		json.writeObjectFieldStart("fields");
+		String summary = Sentence(random, 6 + random.nextInt(10));
+		if (fields == null || fields.contains("summary"))
+			json.writeStringField("summary", summary);
+		String issueType = ISSUE_TYPES[random.nextInt(ISSUE_TYPES.length)];
+		if (fields == null || fields.contains("issuetype"))
+			Named(json, baseUrl, "issuetype", "name", issueType);
+		if (fields == null || fields.contains("project"))
+			Named(json, baseUrl, "project", "name", project);
+		String assignee = "Assignee " + random.nextInt(200);
+		if (fields == null || fields.contains("assignee"))
+			Named(json, baseUrl, "assignee", "displayName", assignee);
+		String reporter = "Reporter " + random.nextInt(100);
+		if (fields == null || fields.contains("reporter"))
+			Named(json, baseUrl, "reporter", "displayName", reporter);
+		if (fields == null || fields.contains("status"))
+			Named(json, baseUrl, "status", "name", "Done");
+		if (fields == null || fields.contains("created"))
+			json.writeStringField("created", JIRA_DATE_FORMAT.format(IssueCreated(number)));
+		if (fields == null || fields.contains("resolutiondate"))
+			json.writeStringField("resolutiondate", JIRA_DATE_FORMAT.format(IssueResolved(number)));
+		json.writeEndObject();
+		json.writeEndObject();
+	}
+
+	/*
+	 * Returns the random numbers of a record, which are the same every time the record is generated
+	 */
+	private Random Random(long record) {
+		return new Random(seed * 0x9E3779B97F4A7C15L + record);
+	}
+
+	private String NodeId(int number) {
+		return "MDExOlB1bGxSZXF1ZXN0" + ((long) ordinal * ID_STRIDE + number);
+	}
+
+	private static String ProjectKey(String project) {
+		String key = project.replaceAll("[^A-Za-z]", "").toUpperCase();
+		return key.length() > 3 ? key.substring(0, 3) : key;
+	}
+
+	/*
+	 * Writes a Github Enterprise Server user, with the fields the collector skips
+	 */
+	private static void User(JsonGenerator json, String baseUrl, String field, Random random) throws IOException {
+		String login = "user" + random.nextInt(500);
+		json.writeObjectFieldStart(field);
+		json.writeStringField("login", login);
+		json.writeNumberField("id", 1000 + Math.abs(login.hashCode() % 1000));
+		json.writeStringField("node_id", "MDQ6VXNlcj" + login);
+		json.writeStringField("avatar_url", baseUrl + "/avatars/u/" + login);
+		json.writeStringField("url", baseUrl + "/api/v3/users/" + login);
+		json.writeStringField("html_url", baseUrl + "/" + login);
+		json.writeStringField("type", "User");
+		json.writeBooleanField("site_admin", false);
+		json.writeEndObject();
+	}
+
+	/*
+	 * Writes the head or base of a pull request, along with its repository
+	 */
+	private void Ref(JsonGenerator json, String baseUrl, String field, String ref, Random random) throws IOException {
+		json.writeObjectFieldStart(field);
+		json.writeStringField("label", repository.substring(0, Math.max(0, repository.indexOf('/'))) + ":" + ref);
+		json.writeStringField("ref", ref);
+		json.writeStringField("sha", Sha(random));
+		User(json, baseUrl, "user", random);
+		json.writeObjectFieldStart("repo");
+		RepositoryFields(json, baseUrl);
+		json.writeEndObject();
+		json.writeEndObject();
+	}
+
+	/*
+	 * Writes the repository, as returned by /api/v3/orgs/{org}/repos
+	 */
+	public void WriteRepository(JsonGenerator json, String baseUrl) throws IOException {
+		json.writeStartObject();
+		RepositoryFields(json, baseUrl);
+		json.writeBooleanField("archived", false);
+		json.writeBooleanField("disabled", false);
+		json.writeStringField("visibility", "private");
+		json.writeEndObject();
+	}
+
+	private void RepositoryFields(JsonGenerator json, String baseUrl) throws IOException {
+		json.writeNumberField("id", 4242 + ordinal);
+		json.writeStringField("node_id", "MDEwOlJlcG9zaXRvcnk" + (4242 + ordinal));
+		json.writeStringField("name", repository.substring(repository.indexOf('/') + 1));
+		json.writeStringField("full_name", repository);
+		json.writeBooleanField("private", true);
+		json.writeStringField("html_url", baseUrl + "/" + repository);
+		json.writeStringField("url", baseUrl + "/api/v3/repos/" + repository);
+		json.writeStringField("default_branch", "main");
+	}
+
+	private static void Link(JsonGenerator json, String field, String href) throws IOException {
+		json.writeObjectFieldStart(field);
+		json.writeStringField("href", href);
+		json.writeEndObject();
+	}
+
+	/*
+	 * Writes a Jira Server object such as a user or a status, with the fields the collector skips
+	 */
+	private static void Named(JsonGenerator json, String baseUrl, String field, String nameField, String name) throws IOException {
+		json.writeObjectFieldStart(field);
+		json.writeStringField("self", baseUrl + "/rest/api/2/" + field + "/" + Math.abs(name.hashCode()));
+		json.writeStringField("id", Integer.toString(Math.abs(name.hashCode() % 10000)));
+		json.writeStringField(nameField, name);
+		json.writeStringField("description", "The " + field + " " + name);
+		json.writeBooleanField("active", true);
+		json.writeEndObject();
+	}
+
+	/*
+	 * Returns a random commit hash
+	 */
+	private static String Sha(Random random) {
+		StringBuilder sb = new StringBuilder(40);
+		for (int i = 0; i < 40; i++)
+			sb.append(Character.forDigit(random.nextInt(16), 16));
+		return sb.toString();
+	}
+
+	/*
+	 * Returns a sentence of random words
+	 */
+	private static String Sentence(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0)
+				sb.append(' ');
+			sb.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static long CeilDiv(long value, long divisor) {
+		return -Math.floorDiv(-value, divisor);
+	}
+}
@@ -0,0 +1,5 @@
+module SampleApp_StubServer {
+	requires com.fasterxml.jackson.core;
+	requires jdk.httpserver;
+	exports com.tugboatlogic.sample.stub;
+}